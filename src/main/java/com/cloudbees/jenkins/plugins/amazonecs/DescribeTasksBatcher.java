@@ -0,0 +1,141 @@
+package com.cloudbees.jenkins.plugins.amazonecs;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+import java.util.function.Supplier;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.annotation.Nonnull;
+
+import com.amazonaws.services.ecs.AmazonECS;
+import com.amazonaws.services.ecs.model.DescribeTasksRequest;
+import com.amazonaws.services.ecs.model.DescribeTasksResult;
+import com.amazonaws.services.ecs.model.Failure;
+import com.amazonaws.services.ecs.model.Task;
+
+import hudson.model.Computer;
+import jenkins.util.SystemProperties;
+import jenkins.util.Timer;
+
+/**
+ * Coalesces concurrent single-task lookups into batched DescribeTasks calls.
+ *
+ * Lookups are collected for a short window, grouped by cluster and sent with up to
+ * {@link #MAX_TASKS_PER_REQUEST} ARNs per request. Each caller gets its own task, null if ECS
+ * does not know the task, or the failure of the request its lookup was part of.
+ */
+class DescribeTasksBatcher {
+    private static final Logger LOGGER = Logger.getLogger(DescribeTasksBatcher.class.getName());
+
+    /** DescribeTasks accepts at most 100 tasks per call. */
+    static final int MAX_TASKS_PER_REQUEST = 100;
+
+    /** How long to collect lookups before sending them. 0 disables batching. */
+    static final long WINDOW_MILLIS = SystemProperties.getLong(DescribeTasksBatcher.class.getName() + ".windowMillis", 50L);
+
+    private final Function<DescribeTasksRequest, DescribeTasksResult> describeTasks;
+    private final long windowMillis;
+
+    /** Cluster ARN -&gt; task ARN -&gt; callers waiting for that task. */
+    private Map<String, Map<String, List<CompletableFuture<Task>>>> pending = new HashMap<>();
+    private boolean flushScheduled;
+
+    DescribeTasksBatcher(@Nonnull Supplier<AmazonECS> clientSupplier) {
+        this(clientSupplier, WINDOW_MILLIS);
+    }
+
+    DescribeTasksBatcher(@Nonnull Supplier<AmazonECS> clientSupplier, long windowMillis) {
+        this((DescribeTasksRequest request) -> clientSupplier.get().describeTasks(request), windowMillis);
+    }
+
+    /**
+     * @param describeTasks sends a DescribeTasks request
+     */
+    DescribeTasksBatcher(@Nonnull Function<DescribeTasksRequest, DescribeTasksResult> describeTasks, long windowMillis) {
+        this.describeTasks = describeTasks;
+        this.windowMillis = windowMillis;
+    }
+
+    @Nonnull
+    CompletableFuture<Task> describe(@Nonnull String taskArn, String clusterArn) {
+        CompletableFuture<Task> future = new CompletableFuture<>();
+        ECSMetrics.increment("ecs.describeTasks.lookups");
+
+        if (windowMillis <= 0) {
+            Map<String, List<CompletableFuture<Task>>> tasks = new LinkedHashMap<>();
+            tasks.computeIfAbsent(taskArn, k -> new ArrayList<>()).add(future);
+            describe(clusterArn, tasks);
+            return future;
+        }
+
+        synchronized (this) {
+            pending.computeIfAbsent(clusterArn, k -> new LinkedHashMap<>())
+                    .computeIfAbsent(taskArn, k -> new ArrayList<>())
+                    .add(future);
+            if (!flushScheduled) {
+                flushScheduled = true;
+                Timer.get().schedule(() -> Computer.threadPoolForRemoting.submit(this::flush), windowMillis, TimeUnit.MILLISECONDS);
+            }
+        }
+        return future;
+    }
+
+    void flush() {
+        Map<String, Map<String, List<CompletableFuture<Task>>>> batch;
+        synchronized (this) {
+            batch = pending;
+            pending = new HashMap<>();
+            flushScheduled = false;
+        }
+
+        for (Map.Entry<String, Map<String, List<CompletableFuture<Task>>>> cluster : batch.entrySet()) {
+            Map<String, List<CompletableFuture<Task>>> chunk = new LinkedHashMap<>();
+            for (Map.Entry<String, List<CompletableFuture<Task>>> task : cluster.getValue().entrySet()) {
+                chunk.put(task.getKey(), task.getValue());
+                if (chunk.size() == MAX_TASKS_PER_REQUEST) {
+                    describe(cluster.getKey(), chunk);
+                    chunk = new LinkedHashMap<>();
+                }
+            }
+            if (!chunk.isEmpty()) {
+                describe(cluster.getKey(), chunk);
+            }
+        }
+    }
+
+    private void describe(String clusterArn, Map<String, List<CompletableFuture<Task>>> tasks) {
+        ECSMetrics.increment("ecs.describeTasks.requests");
+        try {
+            DescribeTasksResult result = describeTasks.apply(new DescribeTasksRequest()
+                    .withCluster(clusterArn)
+                    .withTasks(tasks.keySet()));
+
+            for (Task task : result.getTasks()) {
+                List<CompletableFuture<Task>> futures = tasks.remove(task.getTaskArn());
+                if (futures == null) {
+                    // the lookup may have used the task id rather than the full ARN
+                    futures = tasks.remove(task.getTaskArn().substring(task.getTaskArn().lastIndexOf('/') + 1));
+                }
+                if (futures != null) {
+                    futures.forEach(f -> f.complete(task));
+                }
+            }
+            if (LOGGER.isLoggable(Level.FINE)) {
+                for (Failure failure : result.getFailures()) {
+                    LOGGER.log(Level.FINE, "Task {0} could not be described: {1}", new Object[]{failure.getArn(), failure.getReason()});
+                }
+            }
+            // ECS reports unknown tasks as failures; callers treat them as not found
+            tasks.values().forEach(futures -> futures.forEach(f -> f.complete(null)));
+        } catch (RuntimeException e) {
+            tasks.values().forEach(futures -> futures.forEach(f -> f.completeExceptionally(e)));
+        }
+    }
+}
@@ -0,0 +1,179 @@
+package com.cloudbees.jenkins.plugins.amazonecs;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.annotation.CheckForNull;
+import javax.annotation.Nonnull;
+
+import com.amazonaws.services.ecs.model.Attachment;
+import com.amazonaws.services.ecs.model.KeyValuePair;
+import com.amazonaws.services.ecs.model.Task;
+
+import jakarta.servlet.FilterChain;
+import jakarta.servlet.ServletException;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import org.kohsuke.stapler.HttpResponse;
+import org.kohsuke.stapler.HttpResponses;
+import org.kohsuke.stapler.QueryParameter;
+import org.kohsuke.stapler.StaplerRequest2;
+import org.kohsuke.stapler.verb.POST;
+
+import hudson.Extension;
+import hudson.ExtensionList;
+import hudson.model.UnprotectedRootAction;
+import hudson.security.csrf.CrumbExclusion;
+import hudson.slaves.Cloud;
+import jenkins.model.Jenkins;
+import jenkins.util.SystemProperties;
+
+/**
+ * Tells the tasks started by a {@link RunTaskBatcher} which agent they run.
+ *
+ * The agent container POSTs its task ARN and the token of its batch to {@code ecs-agent-claim/} and gets the
+ * arguments of the agent, one per line, as if it had been started alone. A task can claim its agent once, with the
+ * token of the RunTask call that started it, and, unless {@link #VERIFY_ADDRESS} is disabled, only from the private
+ * address of its network interface.
+ */
+@Extension
+public class ECSAgentClaimAction implements UnprotectedRootAction {
+    private static final Logger LOGGER = Logger.getLogger(ECSAgentClaimAction.class.getName());
+
+    static final String URL_NAME = "ecs-agent-claim";
+
+    /** Disable when Jenkins sees the agents through a proxy or load balancer. */
+    static final boolean VERIFY_ADDRESS = SystemProperties.getBoolean(ECSAgentClaimAction.class.getName() + ".verifyAddress", true);
+
+    /** Task ARN -&gt; agent it was started for. */
+    private final Map<String, Claim> claims = new ConcurrentHashMap<>();
+
+    @Nonnull
+    public static ECSAgentClaimAction get() {
+        return ExtensionList.lookupSingleton(ECSAgentClaimAction.class);
+    }
+
+    @Override
+    public String getIconFileName() {
+        return null;
+    }
+
+    @Override
+    public String getDisplayName() {
+        return null;
+    }
+
+    @Override
+    public String getUrlName() {
+        return URL_NAME;
+    }
+
+    void register(@Nonnull String taskArn, @Nonnull Claim claim) {
+        long now = System.currentTimeMillis();
+        claims.values().removeIf(c -> c.expiresAt < now);
+        claims.put(taskArn, claim);
+    }
+
+    int size() {
+        return claims.size();
+    }
+
+    @POST
+    public HttpResponse doIndex(StaplerRequest2 req, @QueryParameter String taskArn, @QueryParameter String token) {
+        List<String> arguments = claim(taskArn, token, req.getRemoteAddr());
+        if (arguments == null) {
+            return HttpResponses.forbidden();
+        }
+        return HttpResponses.text(String.join("\n", arguments) + "\n");
+    }
+
+    /**
+     * @return the arguments of the agent the task was started for, or null if the claim is refused
+     */
+    @CheckForNull
+    List<String> claim(@CheckForNull String taskArn, @CheckForNull String token, @CheckForNull String remoteAddress) {
+        if (taskArn == null || token == null) {
+            return null;
+        }
+        Claim claim = claims.get(taskArn);
+        if (claim == null || claim.expiresAt < System.currentTimeMillis()
+                || !MessageDigest.isEqual(claim.token.getBytes(StandardCharsets.UTF_8), token.getBytes(StandardCharsets.UTF_8))) {
+            LOGGER.log(Level.WARNING, "Refused claim of task {0} from {1}", new Object[]{taskArn, remoteAddress});
+            return null;
+        }
+        if (VERIFY_ADDRESS && !isTaskAddress(claim, taskArn, remoteAddress)) {
+            LOGGER.log(Level.WARNING, "Refused claim of task {0} from {1}, which is not the address of the task", new Object[]{taskArn, remoteAddress});
+            return null;
+        }
+        // each task claims its agent once
+        if (!claims.remove(taskArn, claim)) {
+            return null;
+        }
+        LOGGER.log(Level.FINE, "Task {0} claimed agent {1}", new Object[]{taskArn, claim.nodeName});
+        ECSMetrics.increment("ecs.runTask.claims");
+        return claim.arguments;
+    }
+
+    private static boolean isTaskAddress(Claim claim, String taskArn, String remoteAddress) {
+        Cloud cloud = Jenkins.get().getCloud(claim.cloudName);
+        if (!(cloud instanceof ECSCloud) || remoteAddress == null) {
+            return false;
+        }
+        Task task = ((ECSCloud) cloud).getEcsService().describeTask(taskArn, claim.clusterArn);
+        if (task == null || task.getAttachments() == null) {
+            return false;
+        }
+        for (Attachment attachment : task.getAttachments()) {
+            if ("ElasticNetworkInterface".equals(attachment.getType()) && attachment.getDetails() != null) {
+                for (KeyValuePair detail : attachment.getDetails()) {
+                    if ("privateIPv4Address".equals(detail.getName()) && Objects.equals(remoteAddress, detail.getValue())) {
+                        return true;
+                    }
+                }
+            }
+        }
+        return false;
+    }
+
+    static final class Claim {
+        private final String token;
+        private final String cloudName;
+        private final String clusterArn;
+        private final String nodeName;
+        private final List<String> arguments;
+        private final long expiresAt;
+
+        Claim(String token, String cloudName, String clusterArn, String nodeName, List<String> arguments, long expiresAt) {
+            this.token = token;
+            this.cloudName = cloudName;
+            this.clusterArn = clusterArn;
+            this.nodeName = nodeName;
+            this.arguments = Collections.unmodifiableList(arguments);
+            this.expiresAt = expiresAt;
+        }
+    }
+
+    /**
+     * Agent containers have no crumb.
+     */
+    @Extension
+    public static class CrumbExclusionImpl extends CrumbExclusion {
+        @Override
+        public boolean process(HttpServletRequest req, HttpServletResponse resp, FilterChain chain) throws IOException, ServletException {
+            String pathInfo = req.getPathInfo();
+            if (pathInfo != null && pathInfo.startsWith("/" + URL_NAME + "/")) {
+                chain.doFilter(req, resp);
+                return true;
+            }
+            return false;
+        }
+    }
+}
@@ -31,9 +31,16 @@ import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
+import java.util.Set;
+import java.util.TreeMap;
 import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -48,7 +55,11 @@ import com.amazonaws.regions.Regions;
 import com.amazonaws.services.ecs.AmazonECS;
 import com.amazonaws.services.ecs.model.ListClustersRequest;
 import com.amazonaws.services.ecs.model.ListClustersResult;
+import com.amazonaws.services.ecs.model.Task;
 import com.amazonaws.services.ecs.model.TaskDefinition;
+import com.cloudbees.jenkins.plugins.amazonecs.aws.CircuitBreaker;
+import com.cloudbees.jenkins.plugins.amazonecs.aws.RetryTelemetry;
+import com.cloudbees.jenkins.plugins.amazonecs.aws.TransportSettings;
 import com.cloudbees.jenkins.plugins.amazonecs.pipeline.TaskTemplateMap;
 import com.cloudbees.jenkins.plugins.awscredentials.AWSCredentialsHelper;
 
@@ -77,6 +88,9 @@ public class ECSCloud extends Cloud {
 
     private static final Logger LOGGER = Logger.getLogger(ECSCloud.class.getName());
 
+    /** Name prefix of the dynamic templates sharing content-addressed task definitions, and metric name of dynamic templates without a parent. */
+    private static final String DYNAMIC_TEMPLATE_PREFIX = "dynamic";
+
     private List<ECSTaskTemplate> templates;
     private final String credentialsId;
     private final String cluster;
@@ -96,6 +110,26 @@ public class ECSCloud extends Cloud {
     private int maxMemoryReservation;
     private int maxAgents = DescriptorImpl.DEFAULT_MAXIMUM_AGENTS;
     private int numExecutors = DescriptorImpl.DEFAULT_NUM_EXECUTORS;
+    private String taskStateQueueUrl;
+    private int maxConnections;
+    private int connectionTtlMillis;
+    private int connectionMaxIdleMillis;
+    private int socketTimeoutMillis;
+    private int requestTimeoutMillis;
+    private Boolean tcpKeepAlive;
+    /** Left at 0 (disabled) for clouds saved before the circuit breaker was introduced. */
+    private int circuitBreakerFailureRatePercent;
+    private int circuitBreakerOpenSeconds;
+    private int taskDefinitionRevisionsToKeep;
+    private boolean taskDefinitionCollectorDryRun;
+    private boolean reuseDynamicTaskDefinitions;
+    private boolean runDynamicTemplatesWithOverrides;
+    private int runTaskBatchSize;
+    private boolean nonBlockingLaunch;
+    private boolean imagePrePull;
+    private transient volatile RunTaskBatcher runTaskBatcher;
+    /** Template name -&gt; why its task definition could not be registered ahead of the first launch. */
+    private transient volatile Map<String, String> preRegistrationErrors;
 
     @DataBoundConstructor
     public ECSCloud(String name, @Nonnull String credentialsId, String assumedRoleArn, String cluster) {
@@ -103,6 +137,7 @@ public class ECSCloud extends Cloud {
         this.credentialsId = credentialsId;
         this.assumedRoleArn = assumedRoleArn;
         this.cluster = cluster;
+        this.circuitBreakerFailureRatePercent = DescriptorImpl.DEFAULT_CIRCUIT_BREAKER_FAILURE_RATE_PERCENT;
     }
 
     public ECSCloud(String name, String cluster, ECSService ecsService) {
@@ -111,6 +146,7 @@ public class ECSCloud extends Cloud {
         this.credentialsId = null;
         this.assumedRoleArn = null;
         this.ecsService = ecsService;
+        this.circuitBreakerFailureRatePercent = DescriptorImpl.DEFAULT_CIRCUIT_BREAKER_FAILURE_RATE_PERCENT;
     }
 
     public static @Nonnull ECSCloud getByName(@Nonnull String name) throws IllegalArgumentException {
@@ -121,7 +157,10 @@ public class ECSCloud extends Cloud {
 
     synchronized ECSService getEcsService() {
         if (ecsService == null) {
-            ecsService = new ECSService(credentialsId, assumedRoleArn, regionName);
+            ecsService = new ECSService(credentialsId, assumedRoleArn, regionName, getTransportSettings());
+            ecsService.setCloudName(name);
+            ecsService.setCircuitBreaker(new CircuitBreaker(name, getCircuitBreakerFailureRatePercent(),
+                    TimeUnit.SECONDS.toMillis(getCircuitBreakerOpenSeconds())));
         }
         return ecsService;
     }
@@ -277,6 +316,11 @@ public class ECSCloud extends Cloud {
 
         LOGGER.log(Level.INFO, "Asked to provision {0} agent(s) for: {1}", new Object[]{excessWorkload, label});
 
+        if (isCircuitOpen()) {
+            LOGGER.log(Level.INFO, "Not provisioning agents for {0}, calls to ECS are failing", label);
+            return Collections.emptyList();
+        }
+
         List<NodeProvisioner.PlannedNode> result = new ArrayList<>();
         final ECSTaskTemplate template = getTemplate(label);
         if (template != null) {
@@ -359,6 +403,354 @@ public class ECSCloud extends Cloud {
         this.taskPollingIntervalInSeconds = taskPollingIntervalInSeconds;
     }
 
+    public String getTaskStateQueueUrl() {
+        return taskStateQueueUrl;
+    }
+
+    @DataBoundSetter
+    public void setTaskStateQueueUrl(String taskStateQueueUrl) {
+        this.taskStateQueueUrl = StringUtils.trimToNull(taskStateQueueUrl);
+    }
+
+    public int getMaxConnections() {
+        return maxConnections > 0 ? maxConnections : TransportSettings.DEFAULT_MAX_CONNECTIONS;
+    }
+
+    @DataBoundSetter
+    public void setMaxConnections(int maxConnections) {
+        this.maxConnections = maxConnections;
+    }
+
+    public int getConnectionTtlMillis() {
+        return connectionTtlMillis > 0 ? connectionTtlMillis : TransportSettings.DEFAULT_CONNECTION_TTL_MILLIS;
+    }
+
+    @DataBoundSetter
+    public void setConnectionTtlMillis(int connectionTtlMillis) {
+        this.connectionTtlMillis = connectionTtlMillis;
+    }
+
+    public int getConnectionMaxIdleMillis() {
+        return connectionMaxIdleMillis > 0 ? connectionMaxIdleMillis : TransportSettings.DEFAULT_CONNECTION_MAX_IDLE_MILLIS;
+    }
+
+    @DataBoundSetter
+    public void setConnectionMaxIdleMillis(int connectionMaxIdleMillis) {
+        this.connectionMaxIdleMillis = connectionMaxIdleMillis;
+    }
+
+    public int getSocketTimeoutMillis() {
+        return socketTimeoutMillis > 0 ? socketTimeoutMillis : TransportSettings.DEFAULT_SOCKET_TIMEOUT_MILLIS;
+    }
+
+    @DataBoundSetter
+    public void setSocketTimeoutMillis(int socketTimeoutMillis) {
+        this.socketTimeoutMillis = socketTimeoutMillis;
+    }
+
+    /**
+     * 0 means requests are not limited in time, only their socket reads.
+     */
+    public int getRequestTimeoutMillis() {
+        return requestTimeoutMillis;
+    }
+
+    @DataBoundSetter
+    public void setRequestTimeoutMillis(int requestTimeoutMillis) {
+        this.requestTimeoutMillis = requestTimeoutMillis;
+    }
+
+    public boolean isTcpKeepAlive() {
+        return tcpKeepAlive == null || tcpKeepAlive;
+    }
+
+    @DataBoundSetter
+    public void setTcpKeepAlive(boolean tcpKeepAlive) {
+        this.tcpKeepAlive = tcpKeepAlive;
+    }
+
+    /**
+     * Share of failed ECS calls, in percent, that stops provisioning from this cloud for a while. 0 disables the breaker.
+     * New clouds start with {@link DescriptorImpl#DEFAULT_CIRCUIT_BREAKER_FAILURE_RATE_PERCENT}, existing ones opt in.
+     */
+    public int getCircuitBreakerFailureRatePercent() {
+        return circuitBreakerFailureRatePercent;
+    }
+
+    @DataBoundSetter
+    public void setCircuitBreakerFailureRatePercent(int circuitBreakerFailureRatePercent) {
+        this.circuitBreakerFailureRatePercent = Math.max(0, Math.min(100, circuitBreakerFailureRatePercent));
+    }
+
+    public int getCircuitBreakerOpenSeconds() {
+        return circuitBreakerOpenSeconds > 0 ? circuitBreakerOpenSeconds : DescriptorImpl.DEFAULT_CIRCUIT_BREAKER_OPEN_SECONDS;
+    }
+
+    @DataBoundSetter
+    public void setCircuitBreakerOpenSeconds(int circuitBreakerOpenSeconds) {
+        this.circuitBreakerOpenSeconds = circuitBreakerOpenSeconds;
+    }
+
+    /**
+     * How many of the newest active revisions of each task definition family of this cloud the
+     * {@link TaskDefinitionCollector} keeps. 0 disables the collector for this cloud.
+     */
+    public int getTaskDefinitionRevisionsToKeep() {
+        return taskDefinitionRevisionsToKeep;
+    }
+
+    @DataBoundSetter
+    public void setTaskDefinitionRevisionsToKeep(int taskDefinitionRevisionsToKeep) {
+        this.taskDefinitionRevisionsToKeep = Math.max(0, taskDefinitionRevisionsToKeep);
+    }
+
+    public boolean isTaskDefinitionCollectorDryRun() {
+        return taskDefinitionCollectorDryRun;
+    }
+
+    @DataBoundSetter
+    public void setTaskDefinitionCollectorDryRun(boolean taskDefinitionCollectorDryRun) {
+        this.taskDefinitionCollectorDryRun = taskDefinitionCollectorDryRun;
+    }
+
+    /**
+     * Whether pipelines name their dynamic templates after their content rather than randomly, so that builds with
+     * the same {@code ecsTaskTemplate} share one task definition instead of registering one per build.
+     */
+    public boolean isReuseDynamicTaskDefinitions() {
+        return reuseDynamicTaskDefinitions;
+    }
+
+    @DataBoundSetter
+    public void setReuseDynamicTaskDefinitions(boolean reuseDynamicTaskDefinitions) {
+        this.reuseDynamicTaskDefinitions = reuseDynamicTaskDefinitions;
+    }
+
+    /**
+     * Whether dynamic templates that only change settings RunTask can override run the task definition of their
+     * parent instead of registering their own, see {@link ECSTaskTemplate#RUN_TASK_OVERRIDABLE}.
+     */
+    public boolean isRunDynamicTemplatesWithOverrides() {
+        return runDynamicTemplatesWithOverrides;
+    }
+
+    @DataBoundSetter
+    public void setRunDynamicTemplatesWithOverrides(boolean runDynamicTemplatesWithOverrides) {
+        this.runDynamicTemplatesWithOverrides = runDynamicTemplatesWithOverrides;
+    }
+
+    /**
+     * How many agents of a template launched at the same time are started by one RunTask call. 0 or 1 starts each
+     * agent with its own call. Agents started together claim their name and secret from
+     * {@link ECSAgentClaimAction} instead of getting them in their overrides, see {@link RunTaskBatcher}.
+     */
+    public int getRunTaskBatchSize() {
+        return runTaskBatchSize;
+    }
+
+    @DataBoundSetter
+    public void setRunTaskBatchSize(int runTaskBatchSize) {
+        this.runTaskBatchSize = Math.max(0, Math.min(RunTaskBatcher.MAX_TASKS_PER_REQUEST, runTaskBatchSize));
+    }
+
+    /**
+     * Whether agents are launched by a {@link LaunchStateMachine} rather than by a thread waiting for them to connect.
+     */
+    public boolean isNonBlockingLaunch() {
+        return nonBlockingLaunch;
+    }
+
+    @DataBoundSetter
+    public void setNonBlockingLaunch(boolean nonBlockingLaunch) {
+        this.nonBlockingLaunch = nonBlockingLaunch;
+    }
+
+    /**
+     * Whether the images of the EC2 templates of this cloud are kept pulled on the container instances of its cluster,
+     * see {@link ImagePrePuller}.
+     */
+    public boolean isImagePrePull() {
+        return imagePrePull;
+    }
+
+    @DataBoundSetter
+    public void setImagePrePull(boolean imagePrePull) {
+        this.imagePrePull = imagePrePull;
+    }
+
+    @Nonnull
+    RunTaskBatcher getRunTaskBatcher() {
+        RunTaskBatcher batcher = runTaskBatcher;
+        if (batcher == null) {
+            synchronized (this) {
+                batcher = runTaskBatcher;
+                if (batcher == null) {
+                    runTaskBatcher = batcher = new RunTaskBatcher(this);
+                }
+            }
+        }
+        return batcher;
+    }
+
+    /**
+     * The task definition a dynamic template can run with RunTask overrides instead of registering its own.
+     *
+     * @param parent   the template of this cloud the dynamic template inherits from
+     * @param template the dynamic template, before it is merged with its parent
+     * @return the ARN of the task definition of the parent, registered if needed, or null if the dynamic template
+     * changes settings that need its own task definition
+     */
+    @Nonnull
+    public CompletableFuture<String> getRunTaskOverrideBase(@CheckForNull ECSTaskTemplate parent, @Nonnull ECSTaskTemplate template) {
+        if (!runDynamicTemplatesWithOverrides || parent == null) {
+            return CompletableFuture.completedFuture(null);
+        }
+        // the task definition of another dynamic template may be deregistered while the agent runs
+        if (getTemplates().stream().noneMatch(t -> t == parent)) {
+            return CompletableFuture.completedFuture(null);
+        }
+        ECSTaskTemplate merged = parent.merge(getTemplate(parent.getInheritFrom()));
+        Set<String> changed = template.getChangedSettings(merged);
+        if (!ECSTaskTemplate.RUN_TASK_OVERRIDABLE.containsAll(changed)) {
+            LOGGER.log(Level.FINE, "Template {0} changes {1} of {2}, it needs its own task definition",
+                    new Object[]{template.getTemplateName(), changed, parent.getTemplateName()});
+            return CompletableFuture.completedFuture(null);
+        }
+        return getEcsService().registerTemplateAsync(getDisplayName(), merged).thenApply(TaskDefinition::getTaskDefinitionArn);
+    }
+
+    /**
+     * The name of a dynamic template that only depends on the task definition it registers. It does not include the
+     * name given in the pipeline, which is random for declarative agents.
+     *
+     * @param template the merged template
+     */
+    @Nonnull
+    public String getContentAddressedTemplateName(@Nonnull ECSTaskTemplate template) {
+        return DYNAMIC_TEMPLATE_PREFIX + '-' + getEcsService().getTemplateContentHash(template);
+    }
+
+    /**
+     * Records how long pulling the images of a started task took, so that the effect of {@link #isImagePrePull()}
+     * can be measured. Dynamic templates are recorded under the configured template they inherit from, or together,
+     * since there is one per build.
+     */
+    void recordPullTime(@Nonnull ECSTaskTemplate template, @CheckForNull Task task) {
+        if (task == null || task.getPullStartedAt() == null || task.getPullStoppedAt() == null) {
+            return;
+        }
+        ECSMetrics.record("cloud." + name + ".ecs.imagePull.pullMillis." + getConfiguredTemplateName(template),
+                task.getPullStoppedAt().getTime() - task.getPullStartedAt().getTime());
+    }
+
+    @Nonnull
+    private String getConfiguredTemplateName(@Nonnull ECSTaskTemplate template) {
+        if (isConfigured(template)) {
+            return template.getTemplateName();
+        }
+        // the parent is looked up among all templates, which include the dynamic ones
+        ECSTaskTemplate parent = findParentTemplate(template.getInheritFrom());
+        return parent != null && isConfigured(parent) ? parent.getTemplateName() : DYNAMIC_TEMPLATE_PREFIX;
+    }
+
+    private boolean isConfigured(@Nonnull ECSTaskTemplate template) {
+        return getTemplates().stream().anyMatch(t -> t == template);
+    }
+
+    /**
+     * The outcome of the last run of the {@link TaskDefinitionCollector} for this cloud, if any.
+     */
+    @CheckForNull
+    public TaskDefinitionCollector.Report getTaskDefinitionCollectorReport() {
+        return TaskDefinitionCollector.getReport(name);
+    }
+
+    /**
+     * @return true while provisioning from this cloud is suspended because too many ECS calls failed recently
+     */
+    public boolean isCircuitOpen() {
+        return getEcsService().isCircuitOpen();
+    }
+
+    /**
+     * Resolves or registers the task definitions of all templates in the background, so that they are in the
+     * task definition cache when the first agents are launched.
+     *
+     * @return a future completed once all templates were handled, whether they succeeded or not
+     */
+    CompletableFuture<Void> preRegisterTemplates() {
+        Map<String, String> errors = new ConcurrentHashMap<>();
+        List<CompletableFuture<?>> registrations = new ArrayList<>();
+        for (ECSTaskTemplate template : getTemplates()) {
+            if (template.getTaskDefinitionOverride() != null) {
+                continue;
+            }
+            final ECSTaskTemplate merged = template.merge(getTemplate(template.getInheritFrom()));
+            CompletableFuture<TaskDefinition> registration;
+            try {
+                registration = getEcsService().registerTemplateAsync(getDisplayName(), merged);
+            } catch (RuntimeException e) {
+                registration = CompletableFuture.failedFuture(e);
+            }
+            registrations.add(registration.handle((taskDefinition, error) -> {
+                if (error != null) {
+                    Throwable cause = error instanceof CompletionException && error.getCause() != null ? error.getCause() : error;
+                    LOGGER.log(Level.WARNING, "Could not register the task definition of template " + template.getTemplateName() + " of cloud " + name, cause);
+                    errors.put(template.getTemplateName(), String.valueOf(cause.getMessage()));
+                } else {
+                    LOGGER.log(Level.FINE, "Task definition of template {0} of cloud {1} is {2}",
+                            new Object[]{template.getTemplateName(), name, taskDefinition.getTaskDefinitionArn()});
+                }
+                return null;
+            }));
+        }
+        preRegistrationErrors = errors;
+        return CompletableFuture.allOf(registrations.toArray(new CompletableFuture[0]));
+    }
+
+    /**
+     * Template name -&gt; error of the last attempt to register its task definition in the background.
+     */
+    @Nonnull
+    public Map<String, String> getPreRegistrationErrors() {
+        Map<String, String> errors = preRegistrationErrors;
+        return errors == null ? Collections.emptyMap() : new TreeMap<>(errors);
+    }
+
+    /**
+     * Template name -&gt; hits and misses of the task definition cache when launching agents from it.
+     */
+    @Nonnull
+    public Map<String, TaskDefinitionCache.Stats> getTaskDefinitionCacheStats() {
+        Map<String, TaskDefinitionCache.Stats> stats = new TreeMap<>();
+        for (ECSTaskTemplate template : getTemplates()) {
+            if (template.getTaskDefinitionOverride() == null) {
+                TaskDefinitionCache.Stats templateStats = getEcsService().getTaskDefinitionCacheStats(getDisplayName(), template);
+                if (templateStats != null) {
+                    stats.put(template.getTemplateName(), templateStats);
+                }
+            }
+        }
+        return stats;
+    }
+
+    /**
+     * Retry, throttling and failure statistics of the AWS calls made for this cloud, shown on the cloud page.
+     */
+    @Nonnull
+    public List<RetryTelemetry.OperationSummary> getApiTelemetry() {
+        return RetryTelemetry.summarize(name);
+    }
+
+    /**
+     * The HTTP transport settings applied to all AWS clients of this cloud.
+     */
+    @Nonnull
+    public TransportSettings getTransportSettings() {
+        return new TransportSettings(getMaxConnections(), getConnectionTtlMillis(), getConnectionMaxIdleMillis(),
+                getSocketTimeoutMillis(), getRequestTimeoutMillis(), isTcpKeepAlive());
+    }
+
     public int getMaxCpu() {
         return maxCpu;
     }
@@ -466,6 +858,9 @@ public class ECSCloud extends Cloud {
         if(taskDefinition != null){
             LOGGER.log(Level.INFO, String.format("Task definition created or found: ARN: %s", taskDefinition.getTaskDefinitionArn()));
             template.setDynamicTaskDefinition(taskDefinition.getTaskDefinitionArn());
+            if (template.getTaskDefinitionOverride() == null) {
+                TaskDefinitionCleanupQueue.get().retain(taskDefinition.getTaskDefinitionArn());
+            }
             TaskTemplateMap.get().addTemplate(this, template);
         }
         return template;
@@ -476,7 +871,12 @@ public class ECSCloud extends Cloud {
      * @param template the template to remove
      */
     public void removeDynamicTemplate(ECSTaskTemplate template) {	
-        getEcsService().removeTemplate(template);
+        String taskDefinitionArn = getEcsService().getDynamicTaskDefinitionToRelease(template);
+        if (taskDefinitionArn != null) {
+            // content-addressed task definitions are likely to be used by the next build with the same template
+            TaskDefinitionCleanupQueue.get().release(name, taskDefinitionArn,
+                    reuseDynamicTaskDefinitions ? TaskDefinitionCleanupQueue.REUSE_GRACE_MILLIS : 0);
+        }
 
         TaskTemplateMap.get().removeTemplate(this, template);
     }
@@ -487,6 +887,8 @@ public class ECSCloud extends Cloud {
         public static final int DEFAULT_SLAVE_TIMEOUT_IN_SECONDS = 900;
         public static final int DEFAULT_TASK_POLLING_INTERVAL_IN_SECONDS = 1;
         public static final String DEFAULT_ALLOWED_OVERRIDES = "";
+        public static final int DEFAULT_CIRCUIT_BREAKER_FAILURE_RATE_PERCENT = 50;
+        public static final int DEFAULT_CIRCUIT_BREAKER_OPEN_SECONDS = 30;
         private static String CLOUD_NAME_PATTERN = "[a-z|A-Z|0-9|_|-]{1,127}";
         private static final int DEFAULT_MAXIMUM_AGENTS = 0; //Unlimited
         private static final int DEFAULT_NUM_EXECUTORS = 1;
@@ -496,6 +898,30 @@ public class ECSCloud extends Cloud {
             return Messages.displayName();
         }
 
+        public int getDefaultMaxConnections() {
+            return TransportSettings.DEFAULT_MAX_CONNECTIONS;
+        }
+
+        public int getDefaultConnectionTtlMillis() {
+            return TransportSettings.DEFAULT_CONNECTION_TTL_MILLIS;
+        }
+
+        public int getDefaultConnectionMaxIdleMillis() {
+            return TransportSettings.DEFAULT_CONNECTION_MAX_IDLE_MILLIS;
+        }
+
+        public int getDefaultSocketTimeoutMillis() {
+            return TransportSettings.DEFAULT_SOCKET_TIMEOUT_MILLIS;
+        }
+
+        public int getDefaultCircuitBreakerFailureRatePercent() {
+            return DEFAULT_CIRCUIT_BREAKER_FAILURE_RATE_PERCENT;
+        }
+
+        public int getDefaultCircuitBreakerOpenSeconds() {
+            return DEFAULT_CIRCUIT_BREAKER_OPEN_SECONDS;
+        }
+
         public ListBoxModel doFillCredentialsIdItems() {
             return AWSCredentialsHelper.doFillCredentialsIdItems(Jenkins.get());
         }
@@ -25,9 +25,12 @@
 
 package com.cloudbees.jenkins.plugins.amazonecs;
 
+import java.util.concurrent.CompletableFuture;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
+import javax.annotation.Nonnull;
+
 import hudson.model.Executor;
 import hudson.model.Queue;
 import hudson.slaves.AbstractCloudComputer;
@@ -42,10 +45,31 @@ import hudson.slaves.AbstractCloudComputer;
 public class ECSComputer extends AbstractCloudComputer<ECSSlave> {
     private static final Logger LOGGER = Logger.getLogger(ECSComputer.class.getName());
 
+    /** Completed by {@link ECSComputerListener#onOnline} when the agent connects. */
+    private final transient CompletableFuture<Void> connected = new CompletableFuture<>();
+
     public ECSComputer(ECSSlave slave) {
         super(slave);
     }
 
+    /**
+     * @return completes when the agent connects for the first time, or fails if the computer is removed before
+     */
+    @Nonnull
+    CompletableFuture<Void> whenConnected() {
+        return connected;
+    }
+
+    void connected() {
+        connected.complete(null);
+    }
+
+    @Override
+    protected void onRemoved() {
+        super.onRemoved();
+        connected.completeExceptionally(new IllegalStateException("Node was deleted, computer is null"));
+    }
+
     @Override
     public void taskAccepted(Executor executor, Queue.Task task) {
         super.taskAccepted(executor, task);
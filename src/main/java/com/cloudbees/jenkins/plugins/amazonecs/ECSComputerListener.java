@@ -29,6 +29,7 @@ import edu.umd.cs.findbugs.annotations.NonNull;
 import hudson.Extension;
 import hudson.ExtensionList;
 import hudson.model.Computer;
+import hudson.model.TaskListener;
 import hudson.slaves.ComputerListener;
 import hudson.slaves.OfflineCause;
 
@@ -45,6 +46,13 @@ public class ECSComputerListener extends ComputerListener {
         return ExtensionList.lookupSingleton(ECSComputerListener.class);
     }
 
+    @Override
+    public void onOnline(Computer c, TaskListener listener) {
+        if (c instanceof ECSComputer) {
+            ((ECSComputer) c).connected();
+        }
+    }
+
     @Override
     public void onOffline(@NonNull Computer c, OfflineCause cause) {
         if (c instanceof ECSComputer) {
@@ -37,12 +37,16 @@ import java.time.Duration;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
 import com.amazonaws.AmazonServiceException;
 import com.amazonaws.services.ecs.model.Failure;
-import com.amazonaws.services.ecs.model.RunTaskResult;
 import com.amazonaws.services.ecs.model.Task;
 import com.amazonaws.services.ecs.model.TaskDefinition;
 import com.amazonaws.waiters.WaiterTimedOutException;
@@ -54,6 +58,7 @@ import org.apache.commons.lang.StringUtils;
 import org.kohsuke.stapler.DataBoundConstructor;
 
 import hudson.AbortException;
+import hudson.model.Computer;
 import hudson.model.TaskListener;
 import hudson.slaves.JNLPLauncher;
 import hudson.slaves.SlaveComputer;
@@ -69,9 +74,10 @@ public class ECSLauncher extends JNLPLauncher {
     private final ECSCloud cloud;
     private final ECSService ecsService;
     private boolean launched;
+    private transient LaunchStateMachine pendingLaunch;
     private static final int maxAttempts = 2;
 
-    private static final List<String> FARGATE_RETRYABLE_MESSAGES = ImmutableList.of(
+    static final List<String> FARGATE_RETRYABLE_MESSAGES = ImmutableList.of(
             "Timeout waiting for network interface provisioning to complete"
     );
 
@@ -112,6 +118,11 @@ public class ECSLauncher extends JNLPLauncher {
             return;
         }
 
+        if (cloud.isNonBlockingLaunch()) {
+            launchAsync(ecsComputer, agent, listener);
+            return;
+        }
+
         try {
             long timeout = System.currentTimeMillis() + Duration.ofSeconds(cloud.getSlaveTimeoutInSeconds()).toMillis();
 
@@ -125,6 +136,7 @@ public class ECSLauncher extends JNLPLauncher {
         } catch (Throwable ex) {
             LOGGER.log(Level.WARNING, MessageFormat.format("[{0}]: Error in provisioning; agent={1}", agent.getNodeName(), agent), ex);
             LOGGER.log(Level.FINER, "[{0}]: Removing Jenkins node", agent.getNodeName());
+            StandbyPool.launched(agent, false);
             try {
                 agent.terminate();
             } catch (InterruptedException | IOException e) {
@@ -135,6 +147,7 @@ public class ECSLauncher extends JNLPLauncher {
 
         ECSComputerListener.getInstance();
         launched = true;
+        StandbyPool.launched(agent, true);
 
         try {
             // We need to persist the "launched" setting...
@@ -144,6 +157,25 @@ public class ECSLauncher extends JNLPLauncher {
         }
     }
 
+    /**
+     * Starts launching the agent and returns, see {@link LaunchStateMachine}. The agent shows as offline until it
+     * connects.
+     */
+    private void launchAsync(ECSComputer computer, ECSSlave agent, TaskListener listener) {
+        if (pendingLaunch != null && !pendingLaunch.isDone()) {
+            LOGGER.log(INFO, "[{0}]: Agent is being launched, state: {1}", new Object[]{agent.getNodeName(), pendingLaunch.getState()});
+            return;
+        }
+        long timeout = System.currentTimeMillis() + Duration.ofSeconds(cloud.getSlaveTimeoutInSeconds()).toMillis();
+        pendingLaunch = new LaunchStateMachine(this, cloud, agent, computer, timeout, maxAttempts, Computer.threadPoolForRemoting);
+        pendingLaunch.start();
+        listener.getLogger().printf("Launching agent in the background, it will connect when its task is running: %1$s%n", agent.getNodeName());
+    }
+
+    synchronized void launched() {
+        launched = true;
+    }
+
     protected Task launchECSTaskWithRetry(ECSComputer ecsComputer, TaskListener listener, long timeout, int maxAttempts) throws IOException, InterruptedException {
         int attempt = 1;
         do {
@@ -178,7 +210,8 @@ public class ECSLauncher extends JNLPLauncher {
 
         logger.printf("Waiting for agent to start: %1$s%n", agent.getNodeName());
         try {
-            ecsService.waitForTasksRunning(startedTask.getTaskArn(), startedTask.getClusterArn(), timeout, cloud.getTaskPollingIntervalInSeconds());
+            Task runningTask = ecsService.waitForTasksRunning(startedTask.getTaskArn(), startedTask.getClusterArn(), timeout - System.currentTimeMillis(), cloud.getTaskPollingIntervalInSeconds());
+            cloud.recordPullTime(agent.getTemplate(), runningTask);
         }
         catch (WaiterTimedOutException exception){
             Task task = null;
@@ -207,54 +240,80 @@ public class ECSLauncher extends JNLPLauncher {
         return startedTask;
     }
 
+    /**
+     * Waits for the agent to connect, which {@link ECSComputerListener#onOnline} reports.
+     */
     protected void waitForAgent(ECSSlave agent, TaskListener listener, long timeout) throws InterruptedException {
         PrintStream logger = listener.getLogger();
 
-        while (System.currentTimeMillis() < timeout) {
-            SlaveComputer agentComputer = agent.getComputer();
-
-            if (agentComputer == null) {
-                throw new IllegalStateException("Node was deleted, computer is null");
-            }
-            if (agentComputer.isOnline()) {
-                break;
-            }
-            LOGGER.log(INFO, "[{0}]: Waiting for agent to connect", new Object[]{agent.getNodeName()});
-            logger.printf("Waiting for agent to connect: %1$s%n", agent.getNodeName());
-            Thread.sleep(1000);
-        }
         SlaveComputer agentComputer = agent.getComputer();
         if (agentComputer == null) {
             throw new IllegalStateException("Node was deleted, computer is null");
         }
 
         if (!agentComputer.isOnline()) {
-            throw new IllegalStateException("Agent is not connected");
+            LOGGER.log(INFO, "[{0}]: Waiting for agent to connect", new Object[]{agent.getNodeName()});
+            logger.printf("Waiting for agent to connect: %1$s%n", agent.getNodeName());
+            long start = System.currentTimeMillis();
+            try {
+                ((ECSComputer) agentComputer).whenConnected().get(Math.max(0, timeout - start), TimeUnit.MILLISECONDS);
+            } catch (TimeoutException e) {
+                throw new IllegalStateException("Agent is not connected");
+            } catch (ExecutionException e) {
+                Throwables.throwIfUnchecked(e.getCause());
+                throw new IllegalStateException(e.getCause());
+            }
+            ECSMetrics.record("ecs.agent.connectMillis", System.currentTimeMillis() - start);
         }
         LOGGER.log(INFO, "[{0}]: Agent connected", new Object[]{agent.getNodeName()});
     }
 
     private Task runECSTask(TaskDefinition taskDefinition, ECSCloud cloud, ECSTaskTemplate template, ECSService ecsService, ECSSlave agent) throws IOException {
+        try {
+            return runECSTaskAsync(taskDefinition, template, agent).join();
+        } catch (CompletionException e) {
+            Throwables.propagateIfPossible(e.getCause(), IOException.class);
+            throw e;
+        }
+    }
 
+    /**
+     * Starts the task of an agent. Agents of awsvpc task definitions are started together with the other agents of
+     * the template launched at the same time when the cloud batches RunTask calls and the image of the template
+     * claims its agent, see {@link RunTaskBatcher}.
+     */
+    CompletableFuture<Task> runECSTaskAsync(TaskDefinition taskDefinition, ECSTaskTemplate template, ECSSlave agent) {
         LOGGER.log(Level.INFO, "[{0}]: Starting agent with task definition {1}}", new Object[]{agent.getNodeName(), taskDefinition.getTaskDefinitionArn()});
 
-        RunTaskResult runTaskResult = ecsService.runEcsTask(agent, template, cloud.getCluster(), getDockerRunCommand(agent, cloud.getJenkinsUrl()), taskDefinition);
-
-        if (!runTaskResult.getFailures().isEmpty()) {
-            LOGGER.log(Level.WARNING, "[{0}]: Failure to run task with definition {1} on ECS cluster {2}", new Object[]{agent.getNodeName(), taskDefinition.getTaskDefinitionArn(), cloud.getCluster()});
-            for (Failure failure : runTaskResult.getFailures()) {
-                LOGGER.log(Level.WARNING, "[{0}]: Failure reason={1}, arn={2}", new Object[]{agent.getNodeName(), failure.getReason(), failure.getArn()});
-            }
-            throw new AbortException("Failed to run agent container " + agent.getNodeName());
+        Collection<String> command;
+        try {
+            command = getDockerRunCommand(agent, cloud.getJenkinsUrl());
+        } catch (RuntimeException e) {
+            return CompletableFuture.failedFuture(e);
         }
-        Task task = runTaskResult.getTasks().get(0);
-        String taskArn = task.getTaskArn();
 
-        LOGGER.log(Level.INFO, "[{0}]: Agent started with task arn : {1}", new Object[] { agent.getNodeName(), taskArn });
-        agent.setTaskArn(taskArn);
-        agent.setClusterArn(cloud.getCluster());
+        CompletableFuture<Task> started;
+        if (cloud.getRunTaskBatchSize() > 1 && template.isAgentClaim() && "awsvpc".equals(taskDefinition.getNetworkMode())) {
+            started = cloud.getRunTaskBatcher().run(agent, template, taskDefinition, command);
+        } else {
+            started = ecsService.runEcsTaskAsync(agent, template, cloud.getCluster(), command, taskDefinition).thenApply(runTaskResult -> {
+                if (!runTaskResult.getFailures().isEmpty()) {
+                    LOGGER.log(Level.WARNING, "[{0}]: Failure to run task with definition {1} on ECS cluster {2}", new Object[]{agent.getNodeName(), taskDefinition.getTaskDefinitionArn(), cloud.getCluster()});
+                    for (Failure failure : runTaskResult.getFailures()) {
+                        LOGGER.log(Level.WARNING, "[{0}]: Failure reason={1}, arn={2}", new Object[]{agent.getNodeName(), failure.getReason(), failure.getArn()});
+                    }
+                    throw new CompletionException(new AbortException("Failed to run agent container " + agent.getNodeName()));
+                }
+                return runTaskResult.getTasks().get(0);
+            });
+        }
 
-        return task;
+        return started.thenApply(task -> {
+            LOGGER.log(Level.INFO, "[{0}]: Agent started with task arn : {1}", new Object[] { agent.getNodeName(), task.getTaskArn() });
+            agent.setTaskArn(task.getTaskArn());
+            agent.setClusterArn(cloud.getCluster());
+            return task;
+        });
     }
 
     private Collection<String> getDockerRunCommand(ECSSlave slave, String jenkinsUrl) {
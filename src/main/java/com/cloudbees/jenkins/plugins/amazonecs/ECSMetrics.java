@@ -0,0 +1,178 @@
+package com.cloudbees.jenkins.plugins.amazonecs;
+
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.annotation.CheckForNull;
+import javax.annotation.Nonnull;
+
+/**
+ * In-process counters, gauges and histograms describing how the plugin interacts with AWS and Jenkins.
+ * Values live only as long as the controller process and are meant for troubleshooting,
+ * e.g. {@code ECSMetrics.getCounters()} from the script console.
+ */
+public final class ECSMetrics {
+
+    private static final ConcurrentMap<String, LongAdder> COUNTERS = new ConcurrentHashMap<>();
+    private static final ConcurrentMap<String, AtomicLong> GAUGES = new ConcurrentHashMap<>();
+    private static final ConcurrentMap<String, Histogram> HISTOGRAMS = new ConcurrentHashMap<>();
+
+    private ECSMetrics() {
+    }
+
+    public static void increment(@Nonnull String name) {
+        add(name, 1);
+    }
+
+    public static void add(@Nonnull String name, long delta) {
+        COUNTERS.computeIfAbsent(name, k -> new LongAdder()).add(delta);
+    }
+
+    public static long getCount(@Nonnull String name) {
+        LongAdder counter = COUNTERS.get(name);
+        return counter == null ? 0 : counter.sum();
+    }
+
+    /**
+     * @return a snapshot of all counters, sorted by name
+     */
+    @Nonnull
+    public static SortedMap<String, Long> getCounters() {
+        SortedMap<String, Long> snapshot = new TreeMap<>();
+        for (Map.Entry<String, LongAdder> entry : COUNTERS.entrySet()) {
+            snapshot.put(entry.getKey(), entry.getValue().sum());
+        }
+        return snapshot;
+    }
+
+    /**
+     * Records the current value of a gauge, and the highest value seen so far as {@code <name>.max}.
+     */
+    public static void setGauge(@Nonnull String name, long value) {
+        GAUGES.computeIfAbsent(name, k -> new AtomicLong()).set(value);
+        GAUGES.computeIfAbsent(name + ".max", k -> new AtomicLong()).accumulateAndGet(value, Math::max);
+    }
+
+    public static long getGauge(@Nonnull String name) {
+        AtomicLong gauge = GAUGES.get(name);
+        return gauge == null ? 0 : gauge.get();
+    }
+
+    /**
+     * @return a snapshot of all gauges, sorted by name
+     */
+    @Nonnull
+    public static SortedMap<String, Long> getGauges() {
+        SortedMap<String, Long> snapshot = new TreeMap<>();
+        for (Map.Entry<String, AtomicLong> entry : GAUGES.entrySet()) {
+            snapshot.put(entry.getKey(), entry.getValue().get());
+        }
+        return snapshot;
+    }
+
+    /**
+     * Records a value, typically a duration in milliseconds, in a histogram.
+     */
+    public static void record(@Nonnull String name, long value) {
+        HISTOGRAMS.computeIfAbsent(name, k -> new Histogram()).record(value);
+    }
+
+    @CheckForNull
+    public static Histogram getHistogram(@Nonnull String name) {
+        return HISTOGRAMS.get(name);
+    }
+
+    /**
+     * @return all histograms, sorted by name
+     */
+    @Nonnull
+    public static SortedMap<String, Histogram> getHistograms() {
+        return new TreeMap<>(HISTOGRAMS);
+    }
+
+    /**
+     * Distribution of recorded values in fixed buckets. Percentiles are approximated by the upper bound of their bucket.
+     */
+    public static final class Histogram {
+        /** Up to an hour, since image pulls and agent launches can take many minutes. */
+        private static final long[] BOUNDS = {1, 2, 5, 10, 20, 50, 100, 200, 500, 1000, 2000, 5000, 10000, 20000, 60000,
+                120000, 300000, 600000, 1800000, 3600000};
+
+        private final LongAdder[] buckets = new LongAdder[BOUNDS.length + 1];
+        private final LongAdder count = new LongAdder();
+        private final LongAdder sum = new LongAdder();
+        private final LongAccumulator max = new LongAccumulator(Math::max, 0);
+
+        Histogram() {
+            for (int i = 0; i < buckets.length; i++) {
+                buckets[i] = new LongAdder();
+            }
+        }
+
+        void record(long value) {
+            int bucket = 0;
+            while (bucket < BOUNDS.length && value > BOUNDS[bucket]) {
+                bucket++;
+            }
+            buckets[bucket].increment();
+            count.increment();
+            sum.add(value);
+            max.accumulate(value);
+        }
+
+        public long getCount() {
+            return count.sum();
+        }
+
+        public long getSum() {
+            return sum.sum();
+        }
+
+        public long getMax() {
+            return max.get();
+        }
+
+        public long getMean() {
+            long n = getCount();
+            return n == 0 ? 0 : getSum() / n;
+        }
+
+        /**
+         * @param quantile between 0 and 1
+         */
+        public long getPercentile(double quantile) {
+            long n = getCount();
+            if (n == 0) {
+                return 0;
+            }
+            long rank = (long) Math.ceil(quantile * n);
+            long seen = 0;
+            for (int i = 0; i < BOUNDS.length; i++) {
+                seen += buckets[i].sum();
+                if (seen >= rank) {
+                    return Math.min(BOUNDS[i], getMax());
+                }
+            }
+            return getMax();
+        }
+
+        public long getP50() {
+            return getPercentile(0.5);
+        }
+
+        public long getP95() {
+            return getPercentile(0.95);
+        }
+
+        @Override
+        public String toString() {
+            return "count=" + getCount() + ", mean=" + getMean() + ", p50=" + getP50() + ", p95=" + getP95() + ", max=" + getMax();
+        }
+    }
+}
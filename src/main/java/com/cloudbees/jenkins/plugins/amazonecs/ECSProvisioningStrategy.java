@@ -55,6 +55,12 @@ public class ECSProvisioningStrategy extends NodeProvisioner.Strategy {
                 }
             }
 
+            // let the other clouds take the load while ECS calls of this one are failing
+            if (c instanceof ECSCloud && ((ECSCloud) c).isCircuitOpen()) {
+                LOGGER.log(Level.FINE, "Skipping {0}, its circuit breaker is open", c.name);
+                continue;
+            }
+
             int provisioningCapacity = 0;
             if (c instanceof ECSCloud) {
                 provisioningCapacity = ((ECSCloud) c).getProvisioningCapacity(excessWorkload, snap.getOnlineExecutors(), snap.getConnectingExecutors());
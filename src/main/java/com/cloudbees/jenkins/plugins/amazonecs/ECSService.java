@@ -29,38 +29,56 @@ import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.BiFunction;
 import java.util.function.Supplier;
 import java.util.logging.Level;
 import java.util.logging.Logger;
+import java.util.stream.Collectors;
 
 import javax.annotation.CheckForNull;
 import javax.annotation.Nonnull;
 
-import com.amazonaws.auth.AWSStaticCredentialsProvider;
-import com.amazonaws.auth.BasicSessionCredentials;
+import com.amazonaws.AmazonWebServiceRequest;
+import com.amazonaws.auth.AWSCredentialsProvider;
+import com.amazonaws.handlers.AsyncHandler;
 import com.amazonaws.services.ecs.AmazonECS;
-import com.amazonaws.services.ecs.AmazonECSClientBuilder;
+import com.amazonaws.services.ecs.AmazonECSAsync;
+import com.amazonaws.services.ecs.AmazonECSAsyncClientBuilder;
 import com.amazonaws.services.ecs.model.*;
-import com.amazonaws.services.ecs.waiters.AmazonECSWaiters;
-import com.amazonaws.services.securitytoken.AWSSecurityTokenService;
-import com.amazonaws.services.securitytoken.AWSSecurityTokenServiceClientBuilder;
-import com.amazonaws.services.securitytoken.model.AssumeRoleRequest;
-import com.amazonaws.services.securitytoken.model.AssumeRoleResult;
-import com.amazonaws.services.securitytoken.model.Credentials;
-import com.amazonaws.waiters.FixedDelayStrategy;
-import com.amazonaws.waiters.PollingStrategy;
-import com.amazonaws.waiters.Waiter;
-import com.amazonaws.waiters.WaiterParameters;
+import com.amazonaws.waiters.WaiterTimedOutException;
+import com.amazonaws.waiters.WaiterUnrecoverableException;
+import com.cloudbees.jenkins.plugins.amazonecs.aws.AWSClientRegistry;
 import com.cloudbees.jenkins.plugins.amazonecs.aws.BaseAWSService;
-import com.cloudbees.jenkins.plugins.amazonecs.aws.MaxTimeRetryStrategy;
-import com.cloudbees.jenkins.plugins.awscredentials.AmazonWebServicesCredentials;
+import com.cloudbees.jenkins.plugins.amazonecs.aws.CircuitBreaker;
+import com.cloudbees.jenkins.plugins.amazonecs.aws.ConnectionPoolMetricCollector;
+import com.cloudbees.jenkins.plugins.amazonecs.aws.RateLimitingRequestHandler;
+import com.cloudbees.jenkins.plugins.amazonecs.aws.RetryTelemetry;
+import com.cloudbees.jenkins.plugins.amazonecs.aws.TransportSettings;
 
 import org.apache.commons.lang.ObjectUtils;
 import org.apache.commons.lang.StringUtils;
 
 import hudson.AbortException;
+import hudson.model.Computer;
 import hudson.slaves.SlaveComputer;
+import hudson.util.DaemonThreadFactory;
+import hudson.util.NamingThreadFactory;
+import jenkins.util.SystemProperties;
 
 /**
  * Encapsulates interactions with Amazon ECS.
@@ -73,98 +91,177 @@ public class ECSService extends BaseAWSService {
     private static final String AWS_TAG_JENKINS_LABEL_KEY = "jenkins.label";
     private static final String AWS_TAG_JENKINS_TEMPLATENAME_KEY = "jenkins.templatename";
 
+    /** Hex digits of the content hash in the name of content-addressed dynamic templates. */
+    private static final int CONTENT_HASH_LENGTH = 12;
+    /** Family and container name the content hash is computed with, since they are derived from the template name. */
+    private static final String CONTENT_HASH_FAMILY = "content-hash";
+    /** DeleteTaskDefinitions accepts at most 10 revisions per call. */
+    static final int MAX_TASK_DEFINITIONS_PER_DELETE = 10;
+
+    /** Maximum number of requests in flight per client. */
+    static final int ASYNC_CLIENT_THREADS = SystemProperties.getInteger(ECSService.class.getName() + ".asyncClientThreads", 50);
+
     @Nonnull
     private final Supplier<AmazonECS> clientSupplier;
 
-    public ECSService(String credentialsId, String assumedRoleArn, String regionName) {
-        this.clientSupplier = () -> {
-            AmazonECSClientBuilder builder = AmazonECSClientBuilder
-                    .standard()
-                    .withClientConfiguration(createClientConfiguration())
-                    .withRegion(regionName);
-
-            AmazonWebServicesCredentials credentials = getCredentials(credentialsId);
-            if (credentials != null) {
-                if (LOGGER.isLoggable(Level.FINE)) {
-                    String awsAccessKeyId = credentials.getCredentials().getAWSAccessKeyId();
-                    String obfuscatedAccessKeyId = StringUtils.left(awsAccessKeyId, 4) + StringUtils.repeat("*", awsAccessKeyId.length() - (2 * 4)) + StringUtils.right(awsAccessKeyId, 4);
-                    LOGGER.log(Level.FINE, "Connect to Amazon ECS with IAM Access Key {1}", new Object[]{obfuscatedAccessKeyId});
-                }
-                builder
-                        .withCredentials(credentials);
-            }
-            else if (StringUtils.isNotBlank(assumedRoleArn)) {
-                builder.withCredentials(getCredentialsForRole(assumedRoleArn, regionName));
-            }
+    @Nonnull
+    private volatile CircuitBreaker circuitBreaker = CircuitBreaker.DISABLED;
+
+    private final DescribeTasksBatcher describeTasksBatcher = new DescribeTasksBatcher(
+            request -> callGuarded(() -> getAmazonECSClient().describeTasks(tagged(request))), DescribeTasksBatcher.WINDOW_MILLIS);
+
+    @Nonnull
+    private final TaskDefinitionCache taskDefinitionCache;
 
-            LOGGER.log(Level.FINE, "Selected Region: {0}", regionName);
+    /** Cluster ARN -&gt; poller tracking the tasks launched in that cluster. */
+    private final ConcurrentMap<String, TaskStatePoller> taskStatePollers = new ConcurrentHashMap<>();
 
-            return builder.build();
-        };
+    public ECSService(String credentialsId, String assumedRoleArn, String regionName) {
+        this(credentialsId, assumedRoleArn, regionName, TransportSettings.DEFAULT);
     }
 
-    @CheckForNull
-    private AWSStaticCredentialsProvider getCredentialsForRole(String roleArn, String regionName) {
-        AWSSecurityTokenService stsClient = AWSSecurityTokenServiceClientBuilder.standard()
-                .withRegion(regionName)
-                .build();
+    public ECSService(String credentialsId, String assumedRoleArn, String regionName, @Nonnull TransportSettings transportSettings) {
+        super(transportSettings);
+        this.taskDefinitionCache = TaskDefinitionCache.forScope(rateLimitScope(credentialsId, assumedRoleArn, regionName));
+        this.clientSupplier = () -> AWSClientRegistry.get().getClient(
+                clientKey("ecs", credentialsId, assumedRoleArn, regionName),
+                () -> createClient(credentialsId, assumedRoleArn, regionName),
+                AmazonECS::shutdown);
+    }
 
-        AssumeRoleRequest roleRequest = new AssumeRoleRequest()
-                .withRoleArn(roleArn)
-                .withRoleSessionName("jenkins-role-session");
+    private AmazonECS createClient(String credentialsId, String assumedRoleArn, String regionName) {
+        AmazonECSAsyncClientBuilder builder = AmazonECSAsyncClientBuilder
+                .standard()
+                .withClientConfiguration(createClientConfiguration())
+                .withExecutorFactory(ECSService::createAsyncExecutor)
+                .withMetricsCollector(new ConnectionPoolMetricCollector("ecs"))
+                .withRequestHandlers(
+                        new RateLimitingRequestHandler(rateLimitScope(credentialsId, assumedRoleArn, regionName)),
+                        new RetryTelemetry.RequestHandler())
+                .withRegion(regionName);
+
+        AWSCredentialsProvider credentialsProvider = getCredentialsProvider(credentialsId, assumedRoleArn, regionName);
+        if (credentialsProvider != null) {
+            builder.withCredentials(credentialsProvider);
+        }
 
-        AssumeRoleResult roleResponse = stsClient.assumeRole(roleRequest);
-        Credentials sessionCredentials = roleResponse.getCredentials();
+        LOGGER.log(Level.FINE, "Selected Region: {0}", regionName);
 
-        BasicSessionCredentials awsCredentials = new BasicSessionCredentials(
-                sessionCredentials.getAccessKeyId(),
-                sessionCredentials.getSecretAccessKey(),
-                sessionCredentials.getSessionToken());
+        return builder.build();
+    }
 
-        return new AWSStaticCredentialsProvider(awsCredentials);
+    /**
+     * The SDK's asynchronous clients run blocking requests on this pool; threads go away when idle.
+     */
+    private static ExecutorService createAsyncExecutor() {
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(ASYNC_CLIENT_THREADS, ASYNC_CLIENT_THREADS, 60, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<>(), new NamingThreadFactory(new DaemonThreadFactory(), "Amazon ECS async client"));
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
     }
 
     public ECSService(Supplier<AmazonECS> clientSupplier) {
         this.clientSupplier = clientSupplier;
+        this.taskDefinitionCache = new TaskDefinitionCache(TaskDefinitionCache.TTL_MILLIS);
     }
 
     AmazonECS getAmazonECSClient() {
         return clientSupplier.get();
     }
 
+    /**
+     * Guards the calls made by this service, which only uses a disabled breaker until one is set.
+     */
+    public void setCircuitBreaker(@Nonnull CircuitBreaker circuitBreaker) {
+        this.circuitBreaker = circuitBreaker;
+    }
+
+    /**
+     * @return true while calls to ECS are rejected because too many of them failed recently
+     */
+    public boolean isCircuitOpen() {
+        return circuitBreaker.isOpen();
+    }
+
     public Task describeTask(String taskArn, String clusterArn) {
-        final AmazonECS client = clientSupplier.get();
+        return join(describeTaskAsync(taskArn, clusterArn));
+    }
 
-        DescribeTasksResult result = client.describeTasks(new DescribeTasksRequest().withCluster(clusterArn).withTasks(taskArn));
-        if (result.getTasks().size() == 0) {
-            return null;
-        } else {
-            return result.getTasks().get(0);
-        }
+    /**
+     * Looks up a task. Lookups running at the same time are sent together.
+     *
+     * @return a future completed with the task, or null if ECS does not know it
+     */
+    public CompletableFuture<Task> describeTaskAsync(String taskArn, String clusterArn) {
+        return describeTasksBatcher.describe(taskArn, clusterArn);
     }
 
-    public void waitForTasksRunning(String tasksArn, String clusterArn, long timeoutInMillis, int DelayBetweenPollsInSeconds) {
-        final AmazonECS client = clientSupplier.get();
+    /**
+     * Starts tracking a task until it is RUNNING or STOPPED. All tasks of a cluster are polled together.
+     *
+     * @return a future completed with the task once it is RUNNING or STOPPED, or null if ECS does not know it.
+     *         Cancelling the future stops tracking the task.
+     */
+    public CompletableFuture<Task> watchTask(String taskArn, String clusterArn, int pollingIntervalInSeconds) {
+        return taskStatePollers.computeIfAbsent(clusterArn, k -> {
+            TaskStatePoller poller = new TaskStatePoller(describeTasksBatcher, clusterArn);
+            TaskStateEvents.register(clusterArn, poller);
+            return poller;
+        }).watch(taskArn, pollingIntervalInSeconds);
+    }
 
-        Waiter<DescribeTasksRequest> describeTaskWaiter = new AmazonECSWaiters(client).tasksRunning();
+    /**
+     * Waits for a task to be RUNNING.
+     *
+     * @return the running task
+     * @throws WaiterTimedOutException      if the task is not running after {@code timeoutInMillis}
+     * @throws WaiterUnrecoverableException if the task stopped or cannot be found
+     */
+    public Task waitForTasksRunning(String tasksArn, String clusterArn, long timeoutInMillis, int DelayBetweenPollsInSeconds) throws InterruptedException {
+        CompletableFuture<Task> future = watchTask(tasksArn, clusterArn, DelayBetweenPollsInSeconds);
+        Task task;
+        try {
+            task = future.get(Math.max(0, timeoutInMillis), TimeUnit.MILLISECONDS);
+        } catch (TimeoutException e) {
+            future.cancel(false);
+            throw new WaiterTimedOutException("Reached maximum time waiting for task " + tasksArn + " to be running");
+        } catch (InterruptedException e) {
+            future.cancel(false);
+            throw e;
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new IllegalStateException(e.getCause());
+        }
 
-        describeTaskWaiter.run(new WaiterParameters<DescribeTasksRequest>(
-            new DescribeTasksRequest()
-                .withTasks(tasksArn)
-                .withCluster(clusterArn)
-                .withSdkClientExecutionTimeout((int)timeoutInMillis))
-            .withPollingStrategy(new PollingStrategy(new MaxTimeRetryStrategy(timeoutInMillis), new FixedDelayStrategy(DelayBetweenPollsInSeconds))));
+        if (task == null) {
+            throw new WaiterUnrecoverableException("Task " + tasksArn + " could not be found");
+        }
+        if (!"RUNNING".equals(task.getLastStatus())) {
+            throw new WaiterUnrecoverableException("Task " + tasksArn + " stopped: " + task.getStoppedReason());
+        }
+        return task;
     }
 
     public void stopTask(String taskArn, String clusterArn) {
-        final AmazonECS client = clientSupplier.get();
+        stopTaskAsync(taskArn, clusterArn).join();
+    }
 
+    /**
+     * Stops a task. Failures are logged, the returned future always completes normally.
+     */
+    public CompletableFuture<Void> stopTaskAsync(String taskArn, String clusterArn) {
         LOGGER.log(Level.INFO, "Delete ECS agent task: {0}", taskArn);
-        try {
-            client.stopTask(new StopTaskRequest().withTask(taskArn).withCluster(clusterArn).withReason("Stopped by Jenkins Amazon ECS PlugIn"));
-        } catch (Exception e) {
-            LOGGER.log(Level.SEVERE, "Couldn't stop task arn " + taskArn + " caught exception: " + e.getMessage(), e);
-        }
+        return callAsync(new StopTaskRequest().withTask(taskArn).withCluster(clusterArn).withReason("Stopped by Jenkins Amazon ECS PlugIn"),
+                AmazonECS::stopTask, AmazonECSAsync::stopTaskAsync)
+                .handle((result, e) -> {
+                    if (e != null) {
+                        Throwable cause = unwrap(e);
+                        LOGGER.log(Level.SEVERE, "Couldn't stop task arn " + taskArn + " caught exception: " + cause.getMessage(), cause);
+                    }
+                    return null;
+                });
     }
 
     /**
@@ -173,30 +270,175 @@ public class ECSService extends BaseAWSService {
      * If a TaskDefinitionOverride is set, we only look to see if the task definition exists and return it.
      */
     TaskDefinition registerTemplate(final String cloudName, final ECSTaskTemplate template) {
+        return join(registerTemplateAsync(cloudName, template));
+    }
+
+    /**
+     * Asynchronous variant of {@link #registerTemplate(String, ECSTaskTemplate)}.
+     */
+    CompletableFuture<TaskDefinition> registerTemplateAsync(final String cloudName, final ECSTaskTemplate template) {
         if (template.getTaskDefinitionOverride() != null){
-            TaskDefinition overrideTaskDefinition = findTaskDefinition(template.getTaskDefinitionOverride());
-            if (overrideTaskDefinition == null) {
-                LOGGER.log(Level.SEVERE, "Could not find task definition override: {0} for template: {1}", new Object[] {template.getTaskDefinitionOverride(), template.getDisplayName()});
-                throw new RuntimeException("Could not find task definition override family or ARN: " + template.getTaskDefinitionOverride());
-            }
+            return findTaskDefinitionAsync(template.getTaskDefinitionOverride()).thenApply(overrideTaskDefinition -> {
+                if (overrideTaskDefinition == null) {
+                    LOGGER.log(Level.SEVERE, "Could not find task definition override: {0} for template: {1}", new Object[] {template.getTaskDefinitionOverride(), template.getDisplayName()});
+                    throw new RuntimeException("Could not find task definition override family or ARN: " + template.getTaskDefinitionOverride());
+                }
 
-            LOGGER.log(Level.FINE, "Found task definition override: {0}", new Object[] {overrideTaskDefinition.getTaskDefinitionArn()});
-            return overrideTaskDefinition;
+                LOGGER.log(Level.FINE, "Found task definition override: {0}", new Object[] {overrideTaskDefinition.getTaskDefinitionArn()});
+                return overrideTaskDefinition;
+            });
         }
 
         if (template.getDynamicTaskDefinition() != null){
-            TaskDefinition overrideTaskDefinition = findTaskDefinition(template.getDynamicTaskDefinition());
-            if (overrideTaskDefinition != null) {
-                LOGGER.log(Level.FINE, "Found dynamic agent task definition: {0}", new Object[] {overrideTaskDefinition.getTaskDefinitionArn()});
-                return overrideTaskDefinition;
-            }
+            return findTaskDefinitionAsync(template.getDynamicTaskDefinition()).thenCompose(overrideTaskDefinition -> {
+                if (overrideTaskDefinition != null) {
+                    LOGGER.log(Level.FINE, "Found dynamic agent task definition: {0}", new Object[] {overrideTaskDefinition.getTaskDefinitionArn()});
+                    return CompletableFuture.completedFuture(overrideTaskDefinition);
+                }
 
-            LOGGER.log(Level.WARNING, "Could not find dynamic agent's task definition family or ARN: {0}, creating a new one.", new Object[] {template.getDynamicTaskDefinition()});
+                LOGGER.log(Level.WARNING, "Could not find dynamic agent's task definition family or ARN: {0}, creating a new one.", new Object[] {template.getDynamicTaskDefinition()});
+                return registerOrReuseTaskDefinitionAsync(cloudName, template, false);
+            });
         }
 
-        final AmazonECS client = clientSupplier.get();
+        return registerOrReuseTaskDefinitionAsync(cloudName, template, true);
+    }
 
+    /**
+     * @param useCache whether the task definition may be taken from, and is put in, the {@link TaskDefinitionCache}
+     */
+    private CompletableFuture<TaskDefinition> registerOrReuseTaskDefinitionAsync(final String cloudName, final ECSTaskTemplate template, boolean useCache) {
         String familyName = fullQualifiedTemplateName(cloudName, template);
+        LaunchPlan.Registration registration = getRegistration(familyName, template);
+        final ContainerDefinition def = registration.getContainerDefinition();
+        final String fingerprint = registration.getFingerprint();
+
+        if (useCache) {
+            TaskDefinitionCache.Entry cached = taskDefinitionCache.get(familyName, fingerprint);
+            if (cached != null) {
+                LOGGER.log(Level.FINE, "Using cached task definition {0} for {1}", new Object[]{cached.getTaskDefinition().getTaskDefinitionArn(), familyName});
+                if (cached.startRefresh()) {
+                    refreshCachedTaskDefinition(familyName, fingerprint, template, def, cached);
+                }
+                return CompletableFuture.completedFuture(cached.getTaskDefinition());
+            }
+        }
+
+        if (!useCache) {
+            return findOrRegisterTaskDefinitionAsync(familyName, fingerprint, template, def);
+        }
+        // launches planned together all miss at once, only one of them looks up or registers the task definition
+        return taskDefinitionCache.singleFlight(familyName, fingerprint,
+                () -> findOrRegisterTaskDefinitionAsync(familyName, fingerprint, template, def).thenApply(taskDefinition -> {
+                    taskDefinitionCache.put(familyName, fingerprint, taskDefinition);
+                    return taskDefinition;
+                }));
+    }
+
+    private CompletableFuture<TaskDefinition> findOrRegisterTaskDefinitionAsync(String familyName, String fingerprint, ECSTaskTemplate template,
+                                                                              ContainerDefinition def) {
+        return findMatchingTaskDefinitionAsync(familyName, fingerprint, template, def)
+                .thenCompose(currentTaskDefinition -> {
+                    if (currentTaskDefinition != null) {
+                        return CompletableFuture.completedFuture(currentTaskDefinition);
+                    }
+                    // requests are not shared, calls add their handler context to them
+                    RegisterTaskDefinitionRequest request = createRegisterTaskDefinitionRequest(familyName, template, def.clone())
+                            .withTags(new Tag().withKey(TaskDefinitionCache.FINGERPRINT_TAG_KEY).withValue(fingerprint));
+                    return registerTaskDefinitionAsync(template, request);
+                });
+    }
+
+    /**
+     * The container definition and fingerprint of the task definition the template registers in the family,
+     * compiled once per template.
+     */
+    private LaunchPlan.Registration getRegistration(String familyName, ECSTaskTemplate template) {
+        LaunchPlan plan = template.getLaunchPlan();
+        LaunchPlan.Registration registration = plan.getRegistration(familyName);
+        if (registration == null) {
+            ContainerDefinition def = createContainerDefinition(familyName, template);
+            // RunTask tags the tasks with their label, a task definition that only differs by it can be reused
+            registration = new LaunchPlan.Registration(familyName, def,
+                    TaskDefinitionCache.fingerprint(createRegisterTaskDefinitionRequest(familyName, template, def), AWS_TAG_JENKINS_LABEL_KEY));
+            plan.setRegistration(registration);
+        }
+        return registration;
+    }
+
+    /**
+     * Compares the latest task definition of the family with the template by the fingerprint it was tagged with
+     * when it was registered. Task definitions registered before fingerprints were introduced are compared field by field.
+     *
+     * @return a future completed with the latest task definition of the family if it matches the template, or null
+     */
+    private CompletableFuture<TaskDefinition> findMatchingTaskDefinitionAsync(String familyName, String fingerprint, ECSTaskTemplate template, ContainerDefinition def) {
+        return describeTaskDefinitionAsync(new DescribeTaskDefinitionRequest()
+                .withTaskDefinition(familyName)
+                .withInclude(TaskDefinitionField.TAGS)).thenApply(result -> {
+            if (result == null) {
+                return null;
+            }
+            TaskDefinition currentTaskDefinition = result.getTaskDefinition();
+            String currentFingerprint = result.getTags() == null ? null : result.getTags().stream()
+                    .filter(tag -> TaskDefinitionCache.FINGERPRINT_TAG_KEY.equals(tag.getKey()))
+                    .map(Tag::getValue)
+                    .findFirst()
+                    .orElse(null);
+            boolean matches;
+            if (currentFingerprint != null) {
+                matches = currentFingerprint.equals(fingerprint);
+                LOGGER.log(Level.FINE, "Match on fingerprint: {0}; template={1}; last={2}", new Object[]{matches, fingerprint, currentFingerprint});
+            } else {
+                matches = matchesTaskDefinition(template, def, currentTaskDefinition, result.getTags());
+            }
+            if (matches) {
+                LOGGER.log(Level.FINE, "Task Definition already exists: {0}", new Object[]{currentTaskDefinition.getTaskDefinitionArn()});
+                return currentTaskDefinition;
+            }
+            return null;
+        });
+    }
+
+    /**
+     * Checks a cached task definition that outlived its TTL against ECS, dropping it if the family moved on.
+     */
+    private void refreshCachedTaskDefinition(String familyName, String fingerprint, ECSTaskTemplate template, ContainerDefinition def, TaskDefinitionCache.Entry cached) {
+        String cachedArn = cached.getTaskDefinition().getTaskDefinitionArn();
+        findMatchingTaskDefinitionAsync(familyName, fingerprint, template, def).whenComplete((current, error) -> {
+            if (error != null) {
+                LOGGER.log(Level.FINE, "Could not refresh cached task definition " + cachedArn, error);
+                cached.refreshFailed();
+            } else if (current != null && current.getTaskDefinitionArn().equals(cachedArn)) {
+                taskDefinitionCache.put(familyName, fingerprint, current);
+            } else {
+                LOGGER.log(Level.FINE, "Cached task definition {0} is no longer the latest matching one of {1}", new Object[]{cachedArn, familyName});
+                taskDefinitionCache.invalidate(familyName, cached);
+            }
+        });
+    }
+
+    /**
+     * A short hash of the task definition the template registers, regardless of its label and name, which differ
+     * between builds for the templates of declarative agents. The family and the container name are derived from the
+     * name, so the hash is computed with constant ones.
+     */
+    @Nonnull
+    String getTemplateContentHash(ECSTaskTemplate template) {
+        RegisterTaskDefinitionRequest request = createRegisterTaskDefinitionRequest(CONTENT_HASH_FAMILY, template,
+                createContainerDefinition(CONTENT_HASH_FAMILY, template));
+        return TaskDefinitionCache.fingerprint(request, AWS_TAG_JENKINS_LABEL_KEY, AWS_TAG_JENKINS_TEMPLATENAME_KEY).substring(0, CONTENT_HASH_LENGTH);
+    }
+
+    /**
+     * Hits and misses of the task definition cache for the launches of a template.
+     */
+    @Nonnull
+    TaskDefinitionCache.Stats getTaskDefinitionCacheStats(String cloudName, ECSTaskTemplate template) {
+        return taskDefinitionCache.getStats(fullQualifiedTemplateName(cloudName, template));
+    }
+
+    private ContainerDefinition createContainerDefinition(String familyName, ECSTaskTemplate template) {
         final ContainerDefinition def = new ContainerDefinition()
                 .withName(familyName)
                 .withImage(template.getImage())
@@ -251,105 +493,95 @@ public class ECSService extends BaseAWSService {
             def.withLinuxParameters(new LinuxParameters().withSharedMemorySize(template.getSharedMemorySize()));
         }
 
-        TaskDefinition currentTaskDefinition = findTaskDefinition(familyName);
+        return def;
+    }
 
-        boolean templateTagsMatchesExistingTags = false;
-        boolean templateMatchesExistingContainerDefinition = false;
-        boolean templateMatchesExistingVolumes = false;
-        boolean templateMatchesExistingTaskRole = false;
-        boolean templateMatchesExistingExecutionRole = false;
-        boolean templateMatchesExistingNetworkMode = false;
+    private boolean matchesTaskDefinition(ECSTaskTemplate template, ContainerDefinition def, TaskDefinition currentTaskDefinition, List<Tag> tags) {
+        final ContainerDefinition currentContainerDefinition = currentTaskDefinition.getContainerDefinitions().get(0);
 
-        if (currentTaskDefinition != null) {
-            final ContainerDefinition currentContainerDefinition = currentTaskDefinition.getContainerDefinitions().get(0);
-            final List<Tag> tags = getTaskDefinitionTags(currentTaskDefinition.getTaskDefinitionArn());
+        boolean templateTagsMatchesExistingTags = ObjectUtils.equals(template.getTags(), tags);
+        LOGGER.log(Level.FINE, "Match on tags: {0}; template={1}; last={2}", new Object[]{templateTagsMatchesExistingTags, template.getTags(), tags});
 
-            templateTagsMatchesExistingTags = ObjectUtils.equals(template.getTags(), tags);
-            LOGGER.log(Level.INFO, "Match on tags: {0}", new Object[]{templateTagsMatchesExistingTags});
-            LOGGER.log(Level.FINE, "Match on tags: {0}; template={1}; last={2}", new Object[]{templateTagsMatchesExistingTags, template.getTags(), tags});
+        boolean templateMatchesExistingContainerDefinition = def.equals(currentContainerDefinition);
+        LOGGER.log(Level.FINE, "Match on container definition: {0}; template={1}; last={2}", new Object[]{templateMatchesExistingContainerDefinition, def, currentContainerDefinition});
 
-            templateMatchesExistingContainerDefinition = def.equals(currentContainerDefinition);
-            LOGGER.log(Level.INFO, "Match on container definition: {0}", new Object[]{templateMatchesExistingContainerDefinition});
-            LOGGER.log(Level.FINE, "Match on container definition: {0}; template={1}; last={2}", new Object[]{templateMatchesExistingContainerDefinition, def, currentContainerDefinition});
+        boolean templateMatchesExistingVolumes = ObjectUtils.equals(template.getVolumeEntries(), currentTaskDefinition.getVolumes());
+        LOGGER.log(Level.FINE, "Match on volumes: {0}; template={1}; last={2}", new Object[]{templateMatchesExistingVolumes, template.getVolumeEntries(), currentTaskDefinition.getVolumes()});
 
-            templateMatchesExistingVolumes = ObjectUtils.equals(template.getVolumeEntries(), currentTaskDefinition.getVolumes());
-            LOGGER.log(Level.INFO, "Match on volumes: {0}", new Object[]{templateMatchesExistingVolumes});
-            LOGGER.log(Level.FINE, "Match on volumes: {0}; template={1}; last={2}", new Object[]{templateMatchesExistingVolumes, template.getVolumeEntries(), currentTaskDefinition.getVolumes()});
+        boolean templateMatchesExistingTaskRole = StringUtils.equals(StringUtils.defaultString(template.getTaskrole()), StringUtils.defaultString(currentTaskDefinition.getTaskRoleArn()));
+        LOGGER.log(Level.FINE, "Match on task role: {0}; template={1}; last={2}", new Object[]{templateMatchesExistingTaskRole, template.getTaskrole(), currentTaskDefinition.getTaskRoleArn()});
 
-            templateMatchesExistingTaskRole = StringUtils.equals(StringUtils.defaultString(template.getTaskrole()), StringUtils.defaultString(currentTaskDefinition.getTaskRoleArn()));
-            LOGGER.log(Level.INFO, "Match on task role: {0}", new Object[]{templateMatchesExistingTaskRole});
-            LOGGER.log(Level.FINE, "Match on task role: {0}; template={1}; last={2}", new Object[]{templateMatchesExistingTaskRole, template.getTaskrole(), currentTaskDefinition.getTaskRoleArn()});
+        boolean templateMatchesExistingExecutionRole = StringUtils.equals(StringUtils.defaultString(template.getExecutionRole()), StringUtils.defaultString(currentTaskDefinition.getExecutionRoleArn()));
+        LOGGER.log(Level.FINE, "Match on execution role: {0}; template={1}; last={2}", new Object[]{templateMatchesExistingExecutionRole, template.getExecutionRole(), currentTaskDefinition.getExecutionRoleArn()});
 
-            templateMatchesExistingExecutionRole = StringUtils.equals(StringUtils.defaultString(template.getExecutionRole()), StringUtils.defaultString(currentTaskDefinition.getExecutionRoleArn()));
-            LOGGER.log(Level.INFO, "Match on execution role: {0}", new Object[]{templateMatchesExistingExecutionRole});
-            LOGGER.log(Level.FINE, "Match on execution role: {0}; template={1}; last={2}", new Object[]{templateMatchesExistingExecutionRole, template.getExecutionRole(), currentTaskDefinition.getExecutionRoleArn()});
+        //Compare to null if it is default network mode is selected
+        boolean templateMatchesExistingNetworkMode;
+        String templateNetworkMode;
+        if (StringUtils.equals(StringUtils.defaultString(template.getNetworkMode()), "default")) {
+            templateMatchesExistingNetworkMode = null == currentTaskDefinition.getNetworkMode();
+            templateNetworkMode = "null";
+        } else {
+            templateMatchesExistingNetworkMode = StringUtils.equals(StringUtils.defaultString(template.getNetworkMode()), StringUtils.defaultString(currentTaskDefinition.getNetworkMode()));
+            templateNetworkMode = template.getNetworkMode();
+        }
 
-            //Compare to null if it is default network mode is selected
-            String templateNetworkMode = "";
-            if (StringUtils.equals(StringUtils.defaultString(template.getNetworkMode()), "default")) {
-                templateMatchesExistingNetworkMode = null == currentTaskDefinition.getNetworkMode();
-                templateNetworkMode = "null";
-            } else {
-                templateMatchesExistingNetworkMode = StringUtils.equals(StringUtils.defaultString(template.getNetworkMode()), StringUtils.defaultString(currentTaskDefinition.getNetworkMode()));
-                templateNetworkMode = template.getNetworkMode();
-            }
+        LOGGER.log(Level.FINE, "Match on network mode: {0}; template={1}; last={2}", new Object[]{templateMatchesExistingNetworkMode, templateNetworkMode, currentTaskDefinition.getNetworkMode()});
 
-            LOGGER.log(Level.INFO, "Match on network mode: {0}", new Object[]{templateMatchesExistingNetworkMode});
-            LOGGER.log(Level.FINE, "Match on network mode: {0}; template={1}; last={2}", new Object[]{templateMatchesExistingNetworkMode, templateNetworkMode, currentTaskDefinition.getNetworkMode()});
-        }
+        return templateMatchesExistingContainerDefinition && templateMatchesExistingVolumes && templateMatchesExistingTaskRole && templateMatchesExistingExecutionRole && templateMatchesExistingNetworkMode;
+    }
 
-        if (templateMatchesExistingContainerDefinition && templateMatchesExistingVolumes && templateMatchesExistingTaskRole && templateMatchesExistingExecutionRole && templateMatchesExistingNetworkMode) {
-            LOGGER.log(Level.FINE, "Task Definition already exists: {0}", new Object[]{currentTaskDefinition.getTaskDefinitionArn()});
-            return currentTaskDefinition;
-        } else {
-            Tag jenkinsLabelTag = new Tag().withKey(AWS_TAG_JENKINS_LABEL_KEY).withValue(template.getLabel());
-            Tag jenkinsTemplateNameTag =
-                    new Tag().withKey(AWS_TAG_JENKINS_TEMPLATENAME_KEY).withValue(template.getTemplateName());
-            List<Tag> taskDefinitionTags = new ArrayList<>();
-            taskDefinitionTags.add(jenkinsLabelTag);
-            taskDefinitionTags.add(jenkinsTemplateNameTag);
-            if (template.getTags() != null) {
-                for (ECSTaskTemplate.Tag tag: template.getTags()) {
-                    taskDefinitionTags.add(new Tag().withKey(tag.name).withValue(tag.value));
-                }
+    private RegisterTaskDefinitionRequest createRegisterTaskDefinitionRequest(String familyName, ECSTaskTemplate template, ContainerDefinition def) {
+        Tag jenkinsLabelTag = new Tag().withKey(AWS_TAG_JENKINS_LABEL_KEY).withValue(template.getLabel());
+        Tag jenkinsTemplateNameTag =
+                new Tag().withKey(AWS_TAG_JENKINS_TEMPLATENAME_KEY).withValue(template.getTemplateName());
+        List<Tag> taskDefinitionTags = new ArrayList<>();
+        taskDefinitionTags.add(jenkinsLabelTag);
+        taskDefinitionTags.add(jenkinsTemplateNameTag);
+        if (template.getTags() != null) {
+            for (ECSTaskTemplate.Tag tag: template.getTags()) {
+                taskDefinitionTags.add(new Tag().withKey(tag.name).withValue(tag.value));
             }
+        }
 
-            final RegisterTaskDefinitionRequest request = new RegisterTaskDefinitionRequest()
-                    .withFamily(familyName)
-                    .withVolumes(template.getVolumeEntries())
-                    .withTags(taskDefinitionTags)
-                    .withContainerDefinitions(def);
+        final RegisterTaskDefinitionRequest request = new RegisterTaskDefinitionRequest()
+                .withFamily(familyName)
+                .withVolumes(template.getVolumeEntries())
+                .withTags(taskDefinitionTags)
+                .withContainerDefinitions(def);
 
-            //If network mode is default, that means Null in the request, so do not set.
-            if (!StringUtils.equals(StringUtils.defaultString(template.getNetworkMode()), "default")) {
-                request.withNetworkMode(template.getNetworkMode());
-            }
+        //If network mode is default, that means Null in the request, so do not set.
+        if (!StringUtils.equals(StringUtils.defaultString(template.getNetworkMode()), "default")) {
+            request.withNetworkMode(template.getNetworkMode());
+        }
 
-            if (!StringUtils.isEmpty(template.getExecutionRole())) {
-                request.withExecutionRoleArn(template.getExecutionRole());
-            }
+        if (!StringUtils.isEmpty(template.getExecutionRole())) {
+            request.withExecutionRoleArn(template.getExecutionRole());
+        }
 
-            if (!StringUtils.isEmpty(template.getTaskrole())) {
-                request.withTaskRoleArn(template.getTaskrole());
-            }
+        if (!StringUtils.isEmpty(template.getTaskrole())) {
+            request.withTaskRoleArn(template.getTaskrole());
+        }
 
-            if (template.isFargate()) {
-                request
-                        .withRuntimePlatform(new RuntimePlatform()
-                                .withOperatingSystemFamily(template.getOperatingSystemFamily())
-                                .withCpuArchitecture(template.getCpuArchitecture()))
-                        .withRequiresCompatibilities(LaunchType.FARGATE.toString())
-                        .withNetworkMode(NetworkMode.Awsvpc.toString())
-                        .withMemory(String.valueOf(template.getMemoryConstraint()))
-                        .withCpu(String.valueOf(template.getCpu()));
-                if (template.getEphemeralStorageSizeInGiB() != null && template.getEphemeralStorageSizeInGiB() > 0) {
-                    request.withEphemeralStorage(new EphemeralStorage()
-                            .withSizeInGiB(template.getEphemeralStorageSizeInGiB())
-                    );
-                }
+        if (template.isFargate()) {
+            request
+                    .withRuntimePlatform(new RuntimePlatform()
+                            .withOperatingSystemFamily(template.getOperatingSystemFamily())
+                            .withCpuArchitecture(template.getCpuArchitecture()))
+                    .withRequiresCompatibilities(LaunchType.FARGATE.toString())
+                    .withNetworkMode(NetworkMode.Awsvpc.toString())
+                    .withMemory(String.valueOf(template.getMemoryConstraint()))
+                    .withCpu(String.valueOf(template.getCpu()));
+            if (template.getEphemeralStorageSizeInGiB() != null && template.getEphemeralStorageSizeInGiB() > 0) {
+                request.withEphemeralStorage(new EphemeralStorage()
+                        .withSizeInGiB(template.getEphemeralStorageSizeInGiB())
+                );
             }
+        }
+        return request;
+    }
 
-            final RegisterTaskDefinitionResult result = client.registerTaskDefinition(request);
+    private CompletableFuture<TaskDefinition> registerTaskDefinitionAsync(ECSTaskTemplate template, RegisterTaskDefinitionRequest request) {
+        return callAsync(request, AmazonECS::registerTaskDefinition, AmazonECSAsync::registerTaskDefinitionAsync).thenApply(result -> {
             LOGGER.log(Level.FINE, "Created Task Definition {0}: {1}", new Object[]{result.getTaskDefinition(), request});
             LOGGER.log(Level.INFO, "Created Task Definition: {0}", new Object[]{result.getTaskDefinition()});
 
@@ -359,35 +591,23 @@ public class ECSService extends BaseAWSService {
                 template.setDynamicTaskDefinition(result.getTaskDefinition().getTaskDefinitionArn());
             }
             return result.getTaskDefinition();
-        }
+        });
     }
 
     /**
-     * Deregisters a task definition created for a template we are deleting.
-     * It's expected that taskDefinitionArn is set
-     * We don't attempt to de-register anything if TaskDefinitionOverride isn't null
+     * The task definition registered for a dynamic template, which the {@link TaskDefinitionCleanupQueue}
+     * deregisters once no other template uses it.
      *
-     * @param template       The template used to create the task definition
-     * @return The task definition if found, otherwise null
+     * @return the task definition to deregister, or null if none was registered for the template
      */
-    void removeTemplate(final ECSTaskTemplate template) {
-        AmazonECS client = clientSupplier.get();
-
+    @CheckForNull
+    String getDynamicTaskDefinitionToRelease(final ECSTaskTemplate template) {
         //no task definition was created for this template to delete
         if (template.getTaskDefinitionOverride() != null) {
-            return;
+            return null;
         }
 
-        String taskDefinitionArn = template.getDynamicTaskDefinition();
-        try {
-            if (taskDefinitionArn != null) {
-                client.deregisterTaskDefinition(
-                        new DeregisterTaskDefinitionRequest().withTaskDefinition(taskDefinitionArn));
-            }
-
-        } catch (ClientException e) {
-            LOGGER.log(Level.WARNING, "Error de-registering task definition: " + taskDefinitionArn, e);
-        }
+        return template.getDynamicTaskDefinition();
     }
 
     /**
@@ -395,37 +615,247 @@ public class ECSService extends BaseAWSService {
      * The parameter may be a task definition family, family with revision, or full task definition ARN.
      */
     TaskDefinition findTaskDefinition(String familyOrArn) {
-        AmazonECS client = clientSupplier.get();
+        return join(findTaskDefinitionAsync(familyOrArn));
+    }
 
-        try {
-            DescribeTaskDefinitionResult result = client.describeTaskDefinition(
-                    new DescribeTaskDefinitionRequest().withTaskDefinition(familyOrArn)
-            );
+    /**
+     * Asynchronous variant of {@link #findTaskDefinition(String)}.
+     */
+    CompletableFuture<TaskDefinition> findTaskDefinitionAsync(String familyOrArn) {
+        return describeTaskDefinitionAsync(new DescribeTaskDefinitionRequest().withTaskDefinition(familyOrArn))
+                .thenApply(result -> result == null ? null : result.getTaskDefinition());
+    }
 
-            return result.getTaskDefinition();
-        } catch (ClientException e) {
-            LOGGER.log(Level.FINE, "No existing task definition found for family or ARN: " + familyOrArn, e);
-            LOGGER.log(Level.INFO, "No existing task definition found for family or ARN: " + familyOrArn);
+    /**
+     * @return a future completed with the result, or null if the task definition does not exist
+     */
+    private CompletableFuture<DescribeTaskDefinitionResult> describeTaskDefinitionAsync(DescribeTaskDefinitionRequest request) {
+        String familyOrArn = request.getTaskDefinition();
+        return callAsync(request, AmazonECS::describeTaskDefinition, AmazonECSAsync::describeTaskDefinitionAsync)
+                .handle((result, e) -> {
+                    if (e == null) {
+                        return result;
+                    }
+                    Throwable cause = unwrap(e);
+                    if (cause instanceof ClientException) {
+                        LOGGER.log(Level.FINE, "No existing task definition found for family or ARN: " + familyOrArn, cause);
+                        LOGGER.log(Level.INFO, "No existing task definition found for family or ARN: " + familyOrArn);
+                        return null;
+                    }
+                    throw new CompletionException(cause);
+                });
+    }
 
-            return null;
+    List<Tag> getTaskDefinitionTags(String taskDefinitionArn){
+        return join(getTaskDefinitionTagsAsync(taskDefinitionArn));
+    }
+
+    CompletableFuture<List<Tag>> getTaskDefinitionTagsAsync(String taskDefinitionArn) {
+        return callAsync(new ListTagsForResourceRequest().withResourceArn(taskDefinitionArn),
+                AmazonECS::listTagsForResource, AmazonECSAsync::listTagsForResourceAsync)
+                .handle((result, e) -> {
+                    if (e == null) {
+                        return result.getTags();
+                    }
+                    Throwable cause = unwrap(e);
+                    if (cause instanceof ClientException) {
+                        LOGGER.log(Level.FINE, "No existing task definition found for ARN: " + taskDefinitionArn, cause);
+                        LOGGER.log(Level.INFO, "No existing task definition found for ARN: " + taskDefinitionArn);
+                        return null;
+                    }
+                    throw new CompletionException(cause);
+                });
+    }
+
+    /**
+     * @return the families starting with the prefix that have active or inactive revisions, sorted by name
+     */
+    List<String> listTaskDefinitionFamilies(String familyPrefix) {
+        List<String> families = new ArrayList<>();
+        String nextToken = null;
+        do {
+            ListTaskDefinitionFamiliesRequest request = new ListTaskDefinitionFamiliesRequest()
+                    .withFamilyPrefix(familyPrefix)
+                    .withStatus(TaskDefinitionFamilyStatus.ALL)
+                    .withNextToken(nextToken);
+            ListTaskDefinitionFamiliesResult result = callGuarded(() -> getAmazonECSClient().listTaskDefinitionFamilies(tagged(request)));
+            families.addAll(result.getFamilies());
+            nextToken = result.getNextToken();
+        } while (nextToken != null);
+        Collections.sort(families);
+        return families;
+    }
+
+    /**
+     * @return the ARNs of the revisions of exactly this family with the given status, newest first
+     */
+    List<String> listTaskDefinitionRevisions(String family, TaskDefinitionStatus status) {
+        List<String> arns = new ArrayList<>();
+        String nextToken = null;
+        do {
+            ListTaskDefinitionsRequest request = new ListTaskDefinitionsRequest()
+                    .withFamilyPrefix(family)
+                    .withStatus(status)
+                    .withSort(SortOrder.DESC)
+                    .withNextToken(nextToken);
+            ListTaskDefinitionsResult result = callGuarded(() -> getAmazonECSClient().listTaskDefinitions(tagged(request)));
+            for (String arn : result.getTaskDefinitionArns()) {
+                // the prefix also matches longer family names
+                if (family.equals(StringUtils.substringBeforeLast(StringUtils.substringAfterLast(arn, "/"), ":"))) {
+                    arns.add(arn);
+                }
+            }
+            nextToken = result.getNextToken();
+        } while (nextToken != null);
+        return arns;
+    }
+
+    /**
+     * @return the tags of a task definition revision, or null if it does not exist
+     */
+    List<Tag> getTaskDefinitionRevisionTags(String taskDefinitionArn) {
+        DescribeTaskDefinitionResult result = join(describeTaskDefinitionAsync(new DescribeTaskDefinitionRequest()
+                .withTaskDefinition(taskDefinitionArn)
+                .withInclude(TaskDefinitionField.TAGS)));
+        return result == null ? null : result.getTags();
+    }
+
+    void deregisterTaskDefinition(String taskDefinitionArn) {
+        callGuarded(() -> getAmazonECSClient().deregisterTaskDefinition(
+                tagged(new DeregisterTaskDefinitionRequest().withTaskDefinition(taskDefinitionArn))));
+        taskDefinitionCache.invalidateArn(taskDefinitionArn);
+    }
+
+    /**
+     * Deletes inactive task definition revisions, at most {@link #MAX_TASK_DEFINITIONS_PER_DELETE} at a time.
+     *
+     * @return the ARNs that could not be deleted
+     */
+    List<String> deleteTaskDefinitions(List<String> taskDefinitionArns) {
+        List<String> failed = new ArrayList<>();
+        for (int i = 0; i < taskDefinitionArns.size(); i += MAX_TASK_DEFINITIONS_PER_DELETE) {
+            List<String> batch = taskDefinitionArns.subList(i, Math.min(taskDefinitionArns.size(), i + MAX_TASK_DEFINITIONS_PER_DELETE));
+            DeleteTaskDefinitionsResult result = callGuarded(() -> getAmazonECSClient().deleteTaskDefinitions(
+                    tagged(new DeleteTaskDefinitionsRequest().withTaskDefinitions(batch))));
+            for (Failure failure : result.getFailures()) {
+                LOGGER.log(Level.FINE, "Could not delete task definition {0}: {1}", new Object[]{failure.getArn(), failure.getReason()});
+                failed.add(failure.getArn());
+            }
         }
+        return failed;
     }
 
-    List<Tag> getTaskDefinitionTags(String taskDefinitionArn){
-        AmazonECS client = clientSupplier.get();
+    /**
+     * Runs a DAEMON service that keeps the images of a task definition pulled on the container instances of a cluster
+     * that match the placement expression. The images are those of its non-essential containers.
+     *
+     * @param refresh whether to restart the tasks of the service even if its images did not change, so that the
+     *                container instances pull newer versions of the tags
+     */
+    void ensureImagePullService(String clusterArn, String serviceName, RegisterTaskDefinitionRequest taskDefinition, String placementExpression, boolean refresh) {
+        Service service = describeService(clusterArn, serviceName);
+        String currentArn = service == null ? null : service.getTaskDefinition();
+        Set<String> images = getPulledImages(taskDefinition.getContainerDefinitions(), taskDefinition.getExecutionRoleArn(), taskDefinition.getRuntimePlatform());
+        if (currentArn != null) {
+            TaskDefinition current = findTaskDefinition(currentArn);
+            if (current != null && images.equals(getPulledImages(current.getContainerDefinitions(), current.getExecutionRoleArn(), current.getRuntimePlatform()))) {
+                if (refresh) {
+                    LOGGER.log(Level.FINE, "Refreshing the images of service {0}", serviceName);
+                    callGuarded(() -> getAmazonECSClient().updateService(tagged(new UpdateServiceRequest()
+                            .withCluster(clusterArn)
+                            .withService(serviceName)
+                            .withForceNewDeployment(true))));
+                }
+                return;
+            }
+        }
 
-        try {
-            ListTagsForResourceResult tagsResult = client.listTagsForResource(
-                    new ListTagsForResourceRequest().withResourceArn(taskDefinitionArn)
-            );
+        String taskDefinitionArn = callGuarded(() -> getAmazonECSClient().registerTaskDefinition(tagged(taskDefinition)))
+                .getTaskDefinition().getTaskDefinitionArn();
+        PlacementConstraint placement = new PlacementConstraint()
+                .withType(PlacementConstraintType.MemberOf)
+                .withExpression(placementExpression);
+
+        if (currentArn == null) {
+            LOGGER.log(Level.INFO, "Creating service {0} to pre-pull {1} images in cluster {2}", new Object[]{serviceName, images.size() - 1, clusterArn});
+            callGuarded(() -> getAmazonECSClient().createService(tagged(new CreateServiceRequest()
+                    .withCluster(clusterArn)
+                    .withServiceName(serviceName)
+                    .withTaskDefinition(taskDefinitionArn)
+                    .withLaunchType(LaunchType.EC2)
+                    .withPlacementConstraints(placement)
+                    .withSchedulingStrategy(SchedulingStrategy.DAEMON))));
+        } else {
+            LOGGER.log(Level.INFO, "Updating service {0} to pre-pull {1} images", new Object[]{serviceName, images.size() - 1});
+            callGuarded(() -> getAmazonECSClient().updateService(tagged(new UpdateServiceRequest()
+                    .withCluster(clusterArn)
+                    .withService(serviceName)
+                    .withTaskDefinition(taskDefinitionArn)
+                    .withPlacementConstraints(placement)
+                    .withForceNewDeployment(true))));
+            deregisterTaskDefinition(currentArn);
+        }
+    }
 
-            return tagsResult.getTags();
-        } catch (ClientException e) {
-            LOGGER.log(Level.FINE, "No existing task definition found for ARN: " + taskDefinitionArn, e);
-            LOGGER.log(Level.INFO, "No existing task definition found for ARN: " + taskDefinitionArn);
+    /**
+     * @return what decides whether a task pulls the right images: the image and repository credentials of each
+     * non-essential container, and the execution role and platform they are pulled with
+     */
+    private static Set<String> getPulledImages(List<ContainerDefinition> containers, String executionRoleArn, RuntimePlatform platform) {
+        Set<String> images = containers.stream()
+                .filter(c -> !Boolean.TRUE.equals(c.getEssential()))
+                .map(c -> c.getImage() + ' ' + (c.getRepositoryCredentials() == null ? "" : c.getRepositoryCredentials().getCredentialsParameter()))
+                .collect(Collectors.toCollection(HashSet::new));
+        images.add(StringUtils.defaultString(executionRoleArn) + ' '
+                + (platform == null ? "" : platform.getOperatingSystemFamily() + '/' + platform.getCpuArchitecture()));
+        return images;
+    }
 
-            return null;
+    /**
+     * @return the names of the services of a cluster
+     */
+    List<String> listServiceNames(String clusterArn) {
+        List<String> names = new ArrayList<>();
+        String nextToken = null;
+        do {
+            ListServicesRequest request = new ListServicesRequest().withCluster(clusterArn).withNextToken(nextToken);
+            ListServicesResult result = callGuarded(() -> getAmazonECSClient().listServices(tagged(request)));
+            for (String serviceArn : result.getServiceArns()) {
+                names.add(serviceArn.substring(serviceArn.lastIndexOf('/') + 1));
+            }
+            nextToken = result.getNextToken();
+        } while (nextToken != null);
+        return names;
+    }
+
+    /**
+     * Deletes the service created by {@link #ensureImagePullService}, if there is one.
+     */
+    void deleteImagePullService(String clusterArn, String serviceName) {
+        Service service = describeService(clusterArn, serviceName);
+        if (service == null) {
+            return;
         }
+        LOGGER.log(Level.INFO, "Deleting service {0}, images are no longer pre-pulled in cluster {1}", new Object[]{serviceName, clusterArn});
+        callGuarded(() -> getAmazonECSClient().deleteService(tagged(new DeleteServiceRequest()
+                .withCluster(clusterArn)
+                .withService(serviceName)
+                .withForce(true))));
+        deregisterTaskDefinition(service.getTaskDefinition());
+    }
+
+    /**
+     * @return the service, or null if it does not exist or was deleted
+     */
+    @CheckForNull
+    private Service describeService(String clusterArn, String serviceName) {
+        DescribeServicesResult result = callGuarded(() -> getAmazonECSClient().describeServices(tagged(new DescribeServicesRequest()
+                .withCluster(clusterArn)
+                .withServices(serviceName))));
+        return result.getServices().stream()
+                .filter(service -> !"INACTIVE".equals(service.getStatus()))
+                .findFirst()
+                .orElse(null);
     }
 
     private String fullQualifiedTemplateName(final String cloudName, final ECSTaskTemplate template) {
@@ -433,7 +863,52 @@ public class ECSService extends BaseAWSService {
     }
 
     RunTaskResult runEcsTask(final ECSSlave agent, final ECSTaskTemplate template, String clusterArn, Collection<String> command, TaskDefinition taskDefinition) throws IOException, AbortException {
-        AmazonECS client = clientSupplier.get();
+        return join(runEcsTaskAsync(agent, template, clusterArn, command, taskDefinition));
+    }
+
+    /**
+     * Asynchronous variant of {@link #runEcsTask(ECSSlave, ECSTaskTemplate, String, Collection, TaskDefinition)}.
+     */
+    CompletableFuture<RunTaskResult> runEcsTaskAsync(final ECSSlave agent, final ECSTaskTemplate template, String clusterArn, Collection<String> command, TaskDefinition taskDefinition) {
+        RunTaskRequest req;
+        try {
+            req = createRunTaskRequest(agent, template, clusterArn, command, taskDefinition);
+        } catch (RuntimeException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+        return callAsync(req, AmazonECS::runTask, AmazonECSAsync::runTaskAsync).whenComplete((result, error) -> {
+            Throwable cause = error == null ? null : unwrap(error);
+            if (cause instanceof ClientException || cause instanceof InvalidParameterException) {
+                // e.g. the task definition was deregistered outside of Jenkins
+                taskDefinitionCache.invalidateArn(taskDefinition.getTaskDefinitionArn());
+            }
+        });
+    }
+
+    /**
+     * Starts one task for several agents, with overrides they all share.
+     *
+     * The tasks do not know which agent they are; see {@link RunTaskBatcher} for how they find out.
+     *
+     * @param environment the variables added to the agent container of every task
+     */
+    CompletableFuture<RunTaskResult> runEcsTasksAsync(final List<ECSSlave> agents, final ECSTaskTemplate template, String clusterArn, List<KeyValuePair> environment, TaskDefinition taskDefinition) {
+        RunTaskRequest req;
+        try {
+            agents.forEach(agent -> agent.setTaskDefinitonArn(taskDefinition.getTaskDefinitionArn()));
+            req = createRunTaskRequest(template, clusterArn, null, environment, taskDefinition).withCount(agents.size());
+        } catch (RuntimeException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+        return callAsync(req, AmazonECS::runTask, AmazonECSAsync::runTaskAsync).whenComplete((result, error) -> {
+            Throwable cause = error == null ? null : unwrap(error);
+            if (cause instanceof ClientException || cause instanceof InvalidParameterException) {
+                taskDefinitionCache.invalidateArn(taskDefinition.getTaskDefinitionArn());
+            }
+        });
+    }
+
+    private RunTaskRequest createRunTaskRequest(final ECSSlave agent, final ECSTaskTemplate template, String clusterArn, Collection<String> command, TaskDefinition taskDefinition) {
         agent.setTaskDefinitonArn(taskDefinition.getTaskDefinitionArn());
 
         SlaveComputer agentComputer = agent.getComputer();
@@ -450,6 +925,14 @@ public class ECSService extends BaseAWSService {
         envNodeSecret.setName("SLAVE_NODE_SECRET");
         envNodeSecret.setValue(agentComputer.getJnlpMac());
 
+        return createRunTaskRequest(template, clusterArn, command, Arrays.asList(envNodeName, envNodeSecret), taskDefinition);
+    }
+
+    /**
+     * @param command     the command of the agent container, or null to keep the one of the task definition
+     * @param environment the variables added to the agent container
+     */
+    private RunTaskRequest createRunTaskRequest(final ECSTaskTemplate template, String clusterArn, @CheckForNull Collection<String> command, List<KeyValuePair> environment, TaskDefinition taskDefinition) {
         // by convention, unless agent container name is specified, we assume the jenkins agent container is the first
         // container in the task definition. ECS requires all task definitions to contain at least one container, and
         // all containers to have a name, so we do not need to null- or bounds-check for the presence of a container
@@ -471,23 +954,27 @@ public class ECSService extends BaseAWSService {
         Tag jenkinsLabelTag = new Tag().withKey(AWS_TAG_JENKINS_LABEL_KEY).withValue(template.getLabel());
         Tag jenkinsTemplateNameTag =
                 new Tag().withKey(AWS_TAG_JENKINS_TEMPLATENAME_KEY).withValue(template.getTemplateName());
+        ContainerOverride agentContainerOverride = new ContainerOverride()
+                .withName(agentContainerName)
+                .withCommand(command)
+                .withEnvironment(environment);
+        TaskOverride taskOverride = new TaskOverride().withContainerOverrides(agentContainerOverride);
+        LaunchPlan plan = template.getLaunchPlan();
+        if (template.isRunTaskOverrides()) {
+            addRunTaskOverrides(template, plan, taskDefinition, taskOverride, agentContainerOverride);
+        }
         RunTaskRequest req = new RunTaskRequest()
                 .withTaskDefinition(taskDefinition.getTaskDefinitionArn())
                 .withTags(jenkinsLabelTag, jenkinsTemplateNameTag)
-                .withOverrides(new TaskOverride()
-                        .withContainerOverrides(new ContainerOverride()
-                                .withName(agentContainerName)
-                                .withCommand(command)
-                                .withEnvironment(envNodeName)
-                                .withEnvironment(envNodeSecret)))
-                .withPlacementStrategy(template.getPlacementStrategyEntries())
+                .withOverrides(taskOverride)
+                .withPlacementStrategy(plan.getPlacementStrategies())
                 .withCluster(clusterArn)
                 .withPropagateTags("TASK_DEFINITION");
         if ( ! template.getDefaultCapacityProvider() && template.getCapacityProviderStrategies() == null ) {
             req.withLaunchType(LaunchType.fromValue(template.getLaunchType()));
         }
         if ( ! template.getDefaultCapacityProvider() && template.getCapacityProviderStrategies() != null ) {
-            req.withCapacityProviderStrategy(template.getCapacityProviderStrategyEntries());
+            req.withCapacityProviderStrategy(plan.getCapacityProviderStrategies());
         }
         if (template.isFargate()) {
             req.withPlatformVersion(template.getPlatformVersion());
@@ -499,15 +986,134 @@ public class ECSService extends BaseAWSService {
         if (taskDefinition.getNetworkMode() != null && taskDefinition.getNetworkMode().equals("awsvpc")) {
             AwsVpcConfiguration awsVpcConfiguration = new AwsVpcConfiguration();
             awsVpcConfiguration.setAssignPublicIp(template.getAssignPublicIp() ? "ENABLED" : "DISABLED");
-            awsVpcConfiguration.setSecurityGroups(Arrays.asList(template.getSecurityGroups().split(",")));
-            awsVpcConfiguration.setSubnets(Arrays.asList(template.getSubnets().split(",")));
+            awsVpcConfiguration.setSecurityGroups(plan.getSecurityGroups());
+            awsVpcConfiguration.setSubnets(plan.getSubnets());
 
             NetworkConfiguration networkConfiguration = new NetworkConfiguration();
             networkConfiguration.withAwsvpcConfiguration(awsVpcConfiguration);
 
             req.withNetworkConfiguration(networkConfiguration);
         }
-        return client.runTask(req);
+        return req;
+    }
+
+    /**
+     * Applies the settings of a dynamic template that runs the task definition of its parent, see
+     * {@link ECSTaskTemplate#RUN_TASK_OVERRIDABLE}.
+     */
+    private void addRunTaskOverrides(ECSTaskTemplate template, LaunchPlan plan, TaskDefinition taskDefinition, TaskOverride taskOverride, ContainerOverride agentContainerOverride) {
+        if (template.getCpu() > 0) {
+            agentContainerOverride.withCpu(template.getCpu());
+        }
+        if (template.getMemory() > 0) {
+            agentContainerOverride.withMemory(template.getMemory());
+        }
+        if (template.getMemoryReservation() > 0) {
+            agentContainerOverride.withMemoryReservation(template.getMemoryReservation());
+        }
+        List<KeyValuePair> environment = plan.getEnvironment();
+        if (environment != null) {
+            agentContainerOverride.getEnvironment().addAll(environment);
+        }
+        if (!StringUtils.isEmpty(template.getTaskrole())) {
+            taskOverride.withTaskRoleArn(template.getTaskrole());
+        }
+        if (!StringUtils.isEmpty(template.getExecutionRole())) {
+            taskOverride.withExecutionRoleArn(template.getExecutionRole());
+        }
+        // Fargate sizes the task, not the containers
+        if (taskDefinition.getRequiresCompatibilities() != null && taskDefinition.getRequiresCompatibilities().contains(LaunchType.FARGATE.toString())) {
+            if (template.getCpu() > 0) {
+                taskOverride.withCpu(String.valueOf(template.getCpu()));
+            }
+            if (template.getMemoryConstraint() > 0) {
+                taskOverride.withMemory(String.valueOf(template.getMemoryConstraint()));
+            }
+        }
+    }
+
+    /**
+     * Runs a call with the asynchronous API of the client, or with the blocking one on a pooled thread for clients
+     * that only offer that, e.g. in tests.
+     */
+    private <Q extends AmazonWebServiceRequest, R> CompletableFuture<R> callAsync(Q request, BiFunction<AmazonECS, Q, R> sync, AsyncCall<Q, R> async) {
+        CircuitBreaker breaker = circuitBreaker;
+        try {
+            breaker.acquire();
+        } catch (RuntimeException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+        return doCallAsync(request, sync, async).whenComplete((result, error) -> {
+            if (error == null) {
+                breaker.onSuccess();
+            } else {
+                breaker.onFailure(error);
+            }
+        });
+    }
+
+    private <Q extends AmazonWebServiceRequest, R> CompletableFuture<R> doCallAsync(Q request, BiFunction<AmazonECS, Q, R> sync, AsyncCall<Q, R> async) {
+        AmazonECS client = clientSupplier.get();
+        tagged(request);
+        if (!(client instanceof AmazonECSAsync)) {
+            return CompletableFuture.supplyAsync(() -> sync.apply(client, request), Computer.threadPoolForRemoting);
+        }
+        CompletableFuture<R> future = new CompletableFuture<>();
+        try {
+            async.call((AmazonECSAsync) client, request, new AsyncHandler<Q, R>() {
+                @Override
+                public void onError(Exception exception) {
+                    future.completeExceptionally(exception);
+                }
+
+                @Override
+                public void onSuccess(Q request, R result) {
+                    future.complete(result);
+                }
+            });
+        } catch (RuntimeException e) {
+            future.completeExceptionally(e);
+        }
+        return future;
+    }
+
+    /**
+     * Makes a blocking call through the circuit breaker.
+     */
+    private <R> R callGuarded(Supplier<R> call) {
+        CircuitBreaker breaker = circuitBreaker;
+        breaker.acquire();
+        try {
+            R result = call.get();
+            breaker.onSuccess();
+            return result;
+        } catch (RuntimeException e) {
+            breaker.onFailure(e);
+            throw e;
+        }
+    }
+
+    @FunctionalInterface
+    private interface AsyncCall<Q extends AmazonWebServiceRequest, R> {
+        Future<R> call(AmazonECSAsync client, Q request, AsyncHandler<Q, R> handler);
+    }
+
+    static Throwable unwrap(Throwable e) {
+        return e instanceof CompletionException && e.getCause() != null ? e.getCause() : e;
+    }
+
+    /**
+     * Waits for a future, rethrowing runtime failures as they were thrown by the call.
+     */
+    private static <T> T join(CompletableFuture<T> future) {
+        try {
+            return future.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw e;
+        }
     }
 
 }
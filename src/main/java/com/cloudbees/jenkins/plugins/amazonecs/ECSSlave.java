@@ -93,6 +93,11 @@ public class ECSSlave extends AbstractCloudSlave {
 
     private boolean survivable = true;
 
+    /**
+     * Whether the agent was started ahead of demand by the {@link StandbyPool}.
+     */
+    private boolean standby;
+
     public ECSSlave(@Nonnull ECSCloud cloud, @Nonnull String name, ECSTaskTemplate template, @Nonnull ComputerLauncher launcher) throws Descriptor.FormException, IOException {
         super(
             name,
@@ -127,6 +132,19 @@ public class ECSSlave extends AbstractCloudSlave {
         return template;
     }
 
+    @Nonnull
+    public ECSCloud getCloud() {
+        return cloud;
+    }
+
+    public boolean isStandby() {
+        return standby;
+    }
+
+    void setStandby(boolean standby) {
+        this.standby = standby;
+    }
+
     void setClusterArn(String clusterArn) {
         this.clusterArn = clusterArn;
     }
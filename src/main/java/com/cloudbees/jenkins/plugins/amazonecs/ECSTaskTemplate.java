@@ -58,14 +58,18 @@ import static com.google.common.base.Strings.isNullOrEmpty;
 import com.amazonaws.services.elasticfilesystem.model.AccessPointDescription;
 import com.amazonaws.services.elasticfilesystem.model.FileSystemDescription;
 import com.cloudbees.jenkins.plugins.amazonecs.aws.EFSService;
+import com.cloudbees.jenkins.plugins.amazonecs.aws.TransportSettings;
 import hudson.Extension;
 import hudson.RelativePath;
+import hudson.Util;
 import hudson.model.AbstractDescribableImpl;
 import hudson.model.Descriptor;
 import hudson.model.Label;
 import hudson.model.labels.LabelAtom;
+import hudson.slaves.Cloud;
 import hudson.util.FormValidation;
 import hudson.util.ListBoxModel;
+import jenkins.model.Jenkins;
 import static org.apache.commons.collections.CollectionUtils.isEmpty;
 import org.apache.commons.lang.BooleanUtils;
 import org.apache.commons.lang.StringUtils;
@@ -91,6 +95,14 @@ import java.util.stream.Collectors;
  */
 public class ECSTaskTemplate extends AbstractDescribableImpl<ECSTaskTemplate> implements Serializable {
     private static final long serialVersionUID = -426721853953018205L;
+
+    /**
+     * Settings a dynamic template may change from its parent and still run the task definition of the parent, with
+     * RunTask overrides for the changes.
+     */
+    public static final Set<String> RUN_TASK_OVERRIDABLE = Collections.unmodifiableSet(new HashSet<>(Arrays.asList(
+            "label", "cloud", "inheritFrom", "cpu", "memory", "memoryReservation", "environments", "taskrole", "executionRole")));
+
     /**
      * Template Name
      */
@@ -117,6 +129,37 @@ public class ECSTaskTemplate extends AbstractDescribableImpl<ECSTaskTemplate> im
      */
     private String dynamicTaskDefinitionOverride;
 
+    /**
+     * Whether cpu, memory, environment and roles are passed as RunTask overrides to the task definition override,
+     * for dynamic templates running the task definition of their parent.
+     */
+    private boolean runTaskOverrides;
+
+    /**
+     * Idle agents the {@link StandbyPool} keeps connected at all times, and during {@link #standbySchedule}.
+     */
+    private int standbyMinAgents;
+    private int standbyMaxAgents;
+    /**
+     * Comma separated time-of-day windows, e.g. {@code 08:00-18:00}, during which {@link #standbyMaxAgents} are kept.
+     */
+    private String standbySchedule;
+    /**
+     * Minutes after which an idle standby agent is removed and replaced, 0 to use the retention timeout of the cloud.
+     */
+    private int standbyIdleMinutes;
+
+    /**
+     * Whether the agent image asks the {@link ECSAgentClaimAction} which agent it runs, so that its agents may be
+     * started together in shared RunTask calls, see {@link RunTaskBatcher}.
+     */
+    private boolean agentClaim;
+
+    /**
+     * Compiled settings, dropped whenever a setting changes.
+     */
+    private transient volatile LaunchPlan launchPlan;
+
     /**
      * Docker image
      * @see ContainerDefinition#withImage(String)
@@ -466,41 +509,49 @@ public class ECSTaskTemplate extends AbstractDescribableImpl<ECSTaskTemplate> im
     @DataBoundSetter
     public void setTaskrole(String taskRoleArn) {
         this.taskrole = StringUtils.trimToNull(taskRoleArn);
+        launchPlan = null;
     }
 
     @DataBoundSetter
     public void setExecutionRole(String executionRole) {
         this.executionRole = StringUtils.trimToNull(executionRole);
+        launchPlan = null;
     }
 
     @DataBoundSetter
     public void setRepositoryCredentials(final String repositoryCredentials) {
         this.repositoryCredentials = StringUtils.trimToNull(repositoryCredentials);
+        launchPlan = null;
     }
 
     @DataBoundSetter
     public void setEntrypoint(String entrypoint) {
         this.entrypoint = StringUtils.trimToNull(entrypoint);
+        launchPlan = null;
     }
 
     @DataBoundSetter
     public void setJvmArgs(String jvmArgs) {
         this.jvmArgs = StringUtils.trimToNull(jvmArgs);
+        launchPlan = null;
     }
 
     @DataBoundSetter
     public void setContainerUser(String containerUser) {
         this.containerUser = StringUtils.trimToNull(containerUser);
+        launchPlan = null;
     }
 
     @DataBoundSetter
     public void setKernelCapabilities(String kernelCapabilities) {
         this.kernelCapabilities = StringUtils.trimToNull(kernelCapabilities);
+        launchPlan = null;
     }
 
     @DataBoundSetter
     public void setLogDriver(String logDriver) {
         this.logDriver = StringUtils.trimToNull(logDriver);
+        launchPlan = null;
     }
 
     @DataBoundSetter
@@ -509,14 +560,21 @@ public class ECSTaskTemplate extends AbstractDescribableImpl<ECSTaskTemplate> im
     }
 
     @DataBoundSetter
-    public void setSubnets(String subnets) { this.subnets = StringUtils.trimToNull(subnets); }
+    public void setSubnets(String subnets) {
+        this.subnets = StringUtils.trimToNull(subnets);
+        launchPlan = null;
+    }
 
     @DataBoundSetter
-    public void setSecurityGroups(String securityGroups) { this.securityGroups = StringUtils.trimToNull(securityGroups); }
+    public void setSecurityGroups(String securityGroups) {
+        this.securityGroups = StringUtils.trimToNull(securityGroups);
+        launchPlan = null;
+    }
 
     @DataBoundSetter
     public void setDnsSearchDomains(String dnsSearchDomains) {
         this.dnsSearchDomains = StringUtils.trimToNull(dnsSearchDomains);
+        launchPlan = null;
     }
 
     public boolean isFargate() {
@@ -552,6 +610,72 @@ public class ECSTaskTemplate extends AbstractDescribableImpl<ECSTaskTemplate> im
         return dynamicTaskDefinitionOverride;
     }
 
+    /**
+     * The settings of this template compiled for launching agents.
+     */
+    @Nonnull
+    LaunchPlan getLaunchPlan() {
+        LaunchPlan plan = launchPlan;
+        if (plan == null) {
+            plan = new LaunchPlan(this);
+            launchPlan = plan;
+        }
+        return plan;
+    }
+
+    public boolean isRunTaskOverrides() {
+        return runTaskOverrides;
+    }
+
+    public void setRunTaskOverrides(boolean runTaskOverrides) {
+        this.runTaskOverrides = runTaskOverrides;
+    }
+
+    public int getStandbyMinAgents() {
+        return standbyMinAgents;
+    }
+
+    @DataBoundSetter
+    public void setStandbyMinAgents(int standbyMinAgents) {
+        this.standbyMinAgents = Math.max(0, standbyMinAgents);
+    }
+
+    public int getStandbyMaxAgents() {
+        return standbyMaxAgents;
+    }
+
+    @DataBoundSetter
+    public void setStandbyMaxAgents(int standbyMaxAgents) {
+        this.standbyMaxAgents = Math.max(0, standbyMaxAgents);
+    }
+
+    public String getStandbySchedule() {
+        return standbySchedule;
+    }
+
+    @DataBoundSetter
+    public void setStandbySchedule(String standbySchedule) {
+        this.standbySchedule = StringUtils.trimToNull(standbySchedule);
+    }
+
+    public int getStandbyIdleMinutes() {
+        return standbyIdleMinutes;
+    }
+
+    @DataBoundSetter
+    public void setStandbyIdleMinutes(int standbyIdleMinutes) {
+        this.standbyIdleMinutes = Math.max(0, standbyIdleMinutes);
+    }
+
+    public boolean isAgentClaim() {
+        return agentClaim;
+    }
+
+    @DataBoundSetter
+    public void setAgentClaim(boolean agentClaim) {
+        this.agentClaim = agentClaim;
+    }
+
     public String getImage() {
         return image;
     }
@@ -822,6 +946,75 @@ public class ECSTaskTemplate extends AbstractDescribableImpl<ECSTaskTemplate> im
     }
 
 
+    /**
+     * The settings this template changes from the template it inherits from, by the names of
+     * {@link #RUN_TASK_OVERRIDABLE}. Settings it leaves unset are inherited and do not count; lists it sets count as
+     * changes, except for tags the parent already has.
+     *
+     * @param parent the template this one inherits from, merged with its own parents
+     */
+    @Nonnull
+    Set<String> getChangedSettings(@Nonnull ECSTaskTemplate parent) {
+        Set<String> changed = new TreeSet<>();
+        changed(changed, "label", label, parent.getLabel());
+        changed(changed, "agentContainerName", agentContainerName, parent.getAgentContainerName());
+        changed(changed, "image", image, parent.getImage());
+        changed(changed, "repositoryCredentials", repositoryCredentials, parent.getRepositoryCredentials());
+        changed(changed, "launchType", launchType, parent.getLaunchType());
+        changed(changed, "operatingSystemFamily", operatingSystemFamily, parent.getOperatingSystemFamily());
+        changed(changed, "cpuArchitecture", cpuArchitecture, parent.getCpuArchitecture());
+        changed(changed, "defaultCapacityProvider", defaultCapacityProvider, parent.getDefaultCapacityProvider());
+        changed(changed, "networkMode", networkMode, parent.getNetworkMode());
+        changed(changed, "remoteFSRoot", remoteFSRoot, parent.getRemoteFSRoot());
+        changed(changed, "uniqueRemoteFSRoot", uniqueRemoteFSRoot, parent.getUniqueRemoteFSRoot());
+        changed(changed, "platformVersion", platformVersion, parent.getPlatformVersion());
+        changed(changed, "memory", memory, parent.getMemory());
+        changed(changed, "memoryReservation", memoryReservation, parent.getMemoryReservation());
+        changed(changed, "cpu", cpu, parent.getCpu());
+        changed(changed, "ephemeralStorageSizeInGiB", ephemeralStorageSizeInGiB, parent.getEphemeralStorageSizeInGiB());
+        changed(changed, "subnets", subnets, parent.getSubnets());
+        changed(changed, "securityGroups", securityGroups, parent.getSecurityGroups());
+        changed(changed, "assignPublicIp", assignPublicIp, parent.getAssignPublicIp());
+        changed(changed, "privileged", privileged, parent.getPrivileged());
+        changed(changed, "containerUser", containerUser, parent.getContainerUser());
+        changed(changed, "kernelCapabilities", kernelCapabilities, parent.getKernelCapabilities());
+        changed(changed, "logDriver", logDriver, parent.getLogDriver());
+        changed(changed, "entrypoint", entrypoint, parent.getEntrypoint());
+        changed(changed, "executionRole", executionRole, parent.getExecutionRole());
+        changed(changed, "taskrole", taskrole, parent.getTaskrole());
+        changed(changed, "sharedMemorySize", sharedMemorySize, parent.getSharedMemorySize());
+        changed(changed, "enableExecuteCommand", enableExecuteCommand, parent.isEnableExecuteCommand());
+        if (!isEmpty(tags) && (parent.getTags() == null || !parent.getTags().containsAll(tags))) {
+            changed.add("tags");
+        }
+        changed(changed, "capacityProviderStrategies", capacityProviderStrategies);
+        changed(changed, "logDriverOptions", logDriverOptions);
+        changed(changed, "environments", environments);
+        changed(changed, "extraHosts", extraHosts);
+        changed(changed, "mountPoints", mountPoints);
+        changed(changed, "efsMountPoints", efsMountPoints);
+        changed(changed, "portMappings", portMappings);
+        changed(changed, "ulimits", ulimits);
+        changed(changed, "placementStrategies", placementStrategies);
+        return changed;
+    }
+
+    private static void changed(Set<String> changed, String name, Object value, Object parentValue) {
+        boolean unset = value == null
+                || (value instanceof String && ((String) value).isEmpty())
+                || (value instanceof Integer && (Integer) value == 0)
+                || Boolean.FALSE.equals(value);
+        if (!unset && !value.equals(parentValue)) {
+            changed.add(name);
+        }
+    }
+
+    private static void changed(Set<String> changed, String name, List<?> value) {
+        if (!isEmpty(value)) {
+            changed.add(name);
+        }
+    }
+
     /**
      * This merge does not take an into consideration the child intentionally setting empty values for parameters like "entrypoint" - in fact
      * it's not uncommon to override the entrypoint of a container and set it to blank so you can use your own entrypoint as part of the command.
@@ -927,6 +1120,7 @@ public class ECSTaskTemplate extends AbstractDescribableImpl<ECSTaskTemplate> im
                                                         enableExecuteCommand);
         merged.setLogDriver(logDriver);
         merged.setEntrypoint(entrypoint);
+        merged.setAgentClaim(this.agentClaim || parent.isAgentClaim());
 
         return merged;
     }
@@ -1238,11 +1432,19 @@ public class ECSTaskTemplate extends AbstractDescribableImpl<ECSTaskTemplate> im
                 return "EFSMountPointEntry";
             }
 
+            private static TransportSettings transportSettings(String cloudName) {
+                Cloud cloud = StringUtils.isEmpty(cloudName) ? null : Jenkins.get().clouds.getByName(cloudName);
+                return cloud instanceof ECSCloud ? ((ECSCloud) cloud).getTransportSettings() : TransportSettings.DEFAULT;
+            }
+
             public ListBoxModel doFillFileSystemIdItems(
                     @RelativePath("../..") @QueryParameter String credentialsId,
-                    @RelativePath("../..") @QueryParameter String regionName
+                    @RelativePath("../..") @QueryParameter String assumedRoleArn,
+                    @RelativePath("../..") @QueryParameter String regionName,
+                    @RelativePath("../..") @QueryParameter("name") String cloudName
             ) {
-                EFSService efsService = new EFSService(credentialsId, regionName);
+                EFSService efsService = new EFSService(credentialsId, assumedRoleArn, regionName, transportSettings(cloudName));
+                efsService.setCloudName(Util.fixEmpty(cloudName));
                 try {
                     List<FileSystemDescription> allFileSystems = efsService.getAllFileSystems();
                     allFileSystems.sort(Comparator.comparing(FileSystemDescription::getName, Comparator.nullsFirst(Comparator.naturalOrder())));
@@ -1262,10 +1464,13 @@ public class ECSTaskTemplate extends AbstractDescribableImpl<ECSTaskTemplate> im
 
             public ListBoxModel doFillAccessPointIdItems(
                     @RelativePath("../..") @QueryParameter String credentialsId,
+                    @RelativePath("../..") @QueryParameter String assumedRoleArn,
                     @RelativePath("../..") @QueryParameter String regionName,
+                    @RelativePath("../..") @QueryParameter("name") String cloudName,
                     @QueryParameter String fileSystemId
             ) {
-                EFSService efsService = new EFSService(credentialsId, regionName);
+                EFSService efsService = new EFSService(credentialsId, assumedRoleArn, regionName, transportSettings(cloudName));
+                efsService.setCloudName(Util.fixEmpty(cloudName));
                 try {
                     List<AccessPointDescription> accessPoints = efsService.getAccessPointsForFileSystem(fileSystemId);
                     accessPoints.sort(Comparator.comparing(AccessPointDescription::getName, Comparator.nullsFirst(Comparator.naturalOrder())));
@@ -1526,6 +1731,15 @@ public class ECSTaskTemplate extends AbstractDescribableImpl<ECSTaskTemplate> im
             return FormValidation.error("Up to 127 letters (uppercase and lowercase), numbers, hyphens, and underscores are allowed");
         }
 
+        public FormValidation doCheckStandbySchedule(@QueryParameter String value) {
+            try {
+                StandbyPool.parseSchedule(value);
+                return FormValidation.ok();
+            } catch (IllegalArgumentException e) {
+                return FormValidation.error(e.getMessage());
+            }
+        }
+
         public FormValidation doCheckSubnetsLaunchType(@QueryParameter("subnets") String subnets, @QueryParameter("launchType") String launchType) throws IOException, ServletException {
             if (launchType.contentEquals(LaunchType.FARGATE.toString())) {
                 return FormValidation.error("Subnets need to be set, when using FARGATE");
@@ -0,0 +1,296 @@
+package com.cloudbees.jenkins.plugins.amazonecs;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.regex.Pattern;
+
+import javax.annotation.CheckForNull;
+import javax.annotation.Nonnull;
+
+import org.apache.commons.lang.StringUtils;
+
+import com.amazonaws.services.ecs.model.Compatibility;
+import com.amazonaws.services.ecs.model.ContainerCondition;
+import com.amazonaws.services.ecs.model.ContainerDefinition;
+import com.amazonaws.services.ecs.model.ContainerDependency;
+import com.amazonaws.services.ecs.model.MountPoint;
+import com.amazonaws.services.ecs.model.OSFamily;
+import com.amazonaws.services.ecs.model.RegisterTaskDefinitionRequest;
+import com.amazonaws.services.ecs.model.RepositoryCredentials;
+import com.amazonaws.services.ecs.model.RuntimePlatform;
+import com.amazonaws.services.ecs.model.Volume;
+
+import hudson.Extension;
+import hudson.Util;
+import hudson.model.AsyncPeriodicWork;
+import hudson.model.TaskListener;
+import hudson.slaves.Cloud;
+import jenkins.model.Jenkins;
+import jenkins.util.SystemProperties;
+
+/**
+ * Keeps the images of the EC2 templates of the clouds with {@link ECSCloud#isImagePrePull()} pulled on the container
+ * instances of their cluster, so that agents do not spend their PENDING time pulling them.
+ *
+ * Each such cloud gets a DAEMON service per platform (operating system family and CPU architecture) and execution
+ * role of its templates. ECS runs it on every container instance of that platform, with a task definition listing
+ * the images of the templates. The services are updated when the images change, restarted every
+ * {@link #REFRESH_MILLIS} so that newer versions of the tags are pulled, and deleted when pre-pulling is disabled
+ * or no template needs them any more. Templates on Fargate or with a task definition override are left out.
+ * Pull times of agents are recorded by {@link ECSCloud#recordPullTime}, so the effect shows in the
+ * {@code cloud.<cloud>.ecs.imagePull.pullMillis.<template>} histograms.
+ */
+@Extension
+public class ImagePrePuller extends AsyncPeriodicWork {
+    private static final Logger LOGGER = Logger.getLogger(ImagePrePuller.class.getName());
+
+    static final long REFRESH_MILLIS = SystemProperties.getLong(ImagePrePuller.class.getName() + ".refreshMillis", TimeUnit.HOURS.toMillis(6));
+    /**
+     * Keeps the tasks of Linux services alive and provides the statically linked binary the image containers exit
+     * with, since the images themselves need not have any; any busybox image will do.
+     */
+    static final String KEEP_ALIVE_IMAGE = SystemProperties.getString(ImagePrePuller.class.getName() + ".keepAliveImage", "public.ecr.aws/docker/library/busybox:stable");
+
+    static final String SHARED_VOLUME = "jenkins-prepull";
+    private static final String SHARED_PATH = "/jenkins-prepull";
+
+    /** Cloud name -&gt; when its images were last pulled again. */
+    private final Map<String, Long> lastRefresh = new HashMap<>();
+    /** Cloud name -&gt; the services of the cloud that exist in its cluster, as far as we know. */
+    private final Map<String, Set<String>> services = new HashMap<>();
+
+    public ImagePrePuller() {
+        super("Amazon ECS image pre-pull");
+    }
+
+    @Override
+    public long getRecurrencePeriod() {
+        return TimeUnit.MINUTES.toMillis(5);
+    }
+
+    @Override
+    protected void execute(TaskListener listener) {
+        for (Cloud cloud : Jenkins.get().clouds) {
+            if (cloud instanceof ECSCloud) {
+                try {
+                    maintain((ECSCloud) cloud);
+                } catch (RuntimeException e) {
+                    LOGGER.log(Level.WARNING, "Failed to maintain the image pre-pull services of cloud " + cloud.name, e);
+                }
+            }
+        }
+    }
+
+    synchronized void maintain(@Nonnull ECSCloud cloud) {
+        if (cloud.isCircuitOpen()) {
+            return;
+        }
+        ECSService ecsService = cloud.getEcsService();
+        String prefix = getServiceName(cloud);
+        Map<Platform, Map<String, String>> images = cloud.isImagePrePull() ? getImages(cloud) : new HashMap<>();
+        Set<String> existing = services.get(cloud.name);
+        if (existing == null) {
+            // e.g. after a restart, or services of another platform left over from before
+            Pattern ownServices = getServiceNamePattern(prefix);
+            existing = new LinkedHashSet<>();
+            for (String name : ecsService.listServiceNames(cloud.getCluster())) {
+                if (ownServices.matcher(name).matches()) {
+                    existing.add(name);
+                }
+            }
+        }
+
+        long now = System.currentTimeMillis();
+        Long last = images.isEmpty() ? lastRefresh.remove(cloud.name) : lastRefresh.putIfAbsent(cloud.name, now);
+        boolean refresh = !images.isEmpty() && last != null && now - last >= REFRESH_MILLIS;
+        if (refresh) {
+            lastRefresh.put(cloud.name, now);
+        }
+
+        Set<String> wanted = new LinkedHashSet<>();
+        for (Map.Entry<Platform, Map<String, String>> entry : images.entrySet()) {
+            String serviceName = entry.getKey().getServiceName(prefix);
+            wanted.add(serviceName);
+            ecsService.ensureImagePullService(cloud.getCluster(), serviceName, getTaskDefinition(serviceName, entry.getKey(), entry.getValue()),
+                    entry.getKey().getPlacementExpression(), refresh);
+        }
+        for (String serviceName : existing) {
+            if (!wanted.contains(serviceName)) {
+                ecsService.deleteImagePullService(cloud.getCluster(), serviceName);
+            }
+        }
+        services.put(cloud.name, wanted);
+    }
+
+    @Nonnull
+    static String getServiceName(@Nonnull ECSCloud cloud) {
+        return StringUtils.left("jenkins-image-prepull-" + cloud.name.replaceAll("[^A-Za-z0-9_-]", "-"), 200);
+    }
+
+    /**
+     * Matches the names {@link Platform#getServiceName} gives to the services of a cloud, and the name of the single
+     * service that earlier versions ran for all platforms.
+     */
+    @Nonnull
+    static Pattern getServiceNamePattern(@Nonnull String prefix) {
+        return Pattern.compile(Pattern.quote(prefix) + "(-(linux|windows-server-[a-z0-9-]+)-(x86-64|arm64)(-[0-9a-f]{8})?)?");
+    }
+
+    /**
+     * @return the images of the templates of the cloud that run on EC2 and are registered by Jenkins, by platform,
+     * with the repository credentials to pull them with, if any
+     */
+    @Nonnull
+    static Map<Platform, Map<String, String>> getImages(@Nonnull ECSCloud cloud) {
+        Map<Platform, Map<String, String>> images = new LinkedHashMap<>();
+        for (ECSTaskTemplate template : cloud.getTemplates()) {
+            String parentLabel = template.getInheritFrom();
+            ECSTaskTemplate merged = template.merge(cloud.getTemplate(parentLabel));
+            if (merged.getTaskDefinitionOverride() == null && !merged.isFargate() && StringUtils.isNotBlank(merged.getImage())) {
+                Map<String, String> platformImages = images.computeIfAbsent(new Platform(merged), k -> new LinkedHashMap<>());
+                String credentials = Util.fixEmpty(merged.getRepositoryCredentials());
+                if (platformImages.get(merged.getImage()) == null) {
+                    platformImages.put(merged.getImage(), credentials);
+                }
+            }
+        }
+        return images;
+    }
+
+    /**
+     * Each image is a non-essential container that exits right away; an essential container keeps the task running.
+     *
+     * Images need not contain any particular binary: on Linux an init container copies the statically linked busybox
+     * of {@link #KEEP_ALIVE_IMAGE} to a volume the image containers exit with. Every Windows image has {@code cmd}, so
+     * there the first image keeps the task alive, which also matches the version of the host.
+     *
+     * @param images image -&gt; repository credentials, if any
+     */
+    @Nonnull
+    static RegisterTaskDefinitionRequest getTaskDefinition(@Nonnull String family, @Nonnull Platform platform, @Nonnull Map<String, String> images) {
+        List<ContainerDefinition> containers = new ArrayList<>();
+        RegisterTaskDefinitionRequest request = new RegisterTaskDefinitionRequest()
+                .withFamily(family)
+                .withRequiresCompatibilities(Compatibility.EC2)
+                .withRuntimePlatform(new RuntimePlatform()
+                        .withOperatingSystemFamily(platform.operatingSystemFamily)
+                        .withCpuArchitecture(platform.cpuArchitecture));
+        if (platform.executionRole != null) {
+            request.withExecutionRoleArn(platform.executionRole);
+        }
+
+        List<String> exit;
+        List<ContainerDependency> dependsOn = new ArrayList<>();
+        List<MountPoint> mountPoints = new ArrayList<>();
+        if (platform.isWindows()) {
+            Map.Entry<String, String> first = images.entrySet().iterator().next();
+            containers.add(withCredentials(new ContainerDefinition()
+                    .withName("keep-alive")
+                    .withImage(first.getKey())
+                    .withEssential(true)
+                    .withEntryPoint("cmd", "/c", "ping -t 127.0.0.1 > nul")
+                    .withMemoryReservation(8), first.getValue()));
+            exit = List.of("cmd", "/c", "exit 0");
+        } else {
+            request.withVolumes(new Volume().withName(SHARED_VOLUME));
+            containers.add(new ContainerDefinition()
+                    .withName("keep-alive")
+                    .withImage(KEEP_ALIVE_IMAGE)
+                    .withEssential(true)
+                    .withCommand("sleep", "2147483647")
+                    .withMemoryReservation(8));
+            containers.add(new ContainerDefinition()
+                    .withName("init")
+                    .withImage(KEEP_ALIVE_IMAGE)
+                    .withEssential(false)
+                    .withCommand("cp", "/bin/busybox", SHARED_PATH + "/busybox")
+                    .withMountPoints(new MountPoint().withSourceVolume(SHARED_VOLUME).withContainerPath(SHARED_PATH))
+                    .withMemoryReservation(8));
+            exit = List.of(SHARED_PATH + "/busybox", "true");
+            dependsOn.add(new ContainerDependency().withContainerName("init").withCondition(ContainerCondition.SUCCESS));
+            mountPoints.add(new MountPoint().withSourceVolume(SHARED_VOLUME).withContainerPath(SHARED_PATH).withReadOnly(true));
+        }
+        int i = 0;
+        for (Map.Entry<String, String> image : images.entrySet()) {
+            containers.add(withCredentials(new ContainerDefinition()
+                    .withName("image-" + i++)
+                    .withImage(image.getKey())
+                    .withEssential(false)
+                    .withEntryPoint(exit)
+                    .withDependsOn(dependsOn)
+                    .withMountPoints(mountPoints)
+                    .withMemoryReservation(8), image.getValue()));
+        }
+        return request.withContainerDefinitions(containers);
+    }
+
+    private static ContainerDefinition withCredentials(ContainerDefinition container, @CheckForNull String repositoryCredentials) {
+        if (repositoryCredentials != null) {
+            container.withRepositoryCredentials(new RepositoryCredentials().withCredentialsParameter(repositoryCredentials));
+        }
+        return container;
+    }
+
+    /**
+     * The platform of the container instances an image runs on, and the execution role it is pulled with.
+     */
+    static final class Platform {
+        final String operatingSystemFamily;
+        final String cpuArchitecture;
+        @CheckForNull
+        final String executionRole;
+
+        Platform(@Nonnull ECSTaskTemplate template) {
+            this(template.getOperatingSystemFamily(), template.getCpuArchitecture(), template.getExecutionRole());
+        }
+
+        Platform(@Nonnull String operatingSystemFamily, @Nonnull String cpuArchitecture, @CheckForNull String executionRole) {
+            this.operatingSystemFamily = operatingSystemFamily;
+            this.cpuArchitecture = cpuArchitecture;
+            this.executionRole = Util.fixEmpty(executionRole);
+        }
+
+        boolean isWindows() {
+            return !OSFamily.LINUX.toString().equals(operatingSystemFamily);
+        }
+
+        /**
+         * @return restricts the service to the container instances of this platform
+         */
+        @Nonnull
+        String getPlacementExpression() {
+            return "attribute:ecs.os-family == " + operatingSystemFamily + " and attribute:ecs.cpu-architecture == " + cpuArchitecture.toLowerCase(Locale.ROOT);
+        }
+
+        @Nonnull
+        String getServiceName(@Nonnull String prefix) {
+            String name = prefix + '-' + (operatingSystemFamily + '-' + cpuArchitecture).toLowerCase(Locale.ROOT).replace('_', '-');
+            return executionRole == null ? name : name + '-' + Util.getDigestOf(executionRole).substring(0, 8);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (o == null || getClass() != o.getClass()) return false;
+            Platform platform = (Platform) o;
+            return operatingSystemFamily.equals(platform.operatingSystemFamily)
+                    && cpuArchitecture.equals(platform.cpuArchitecture)
+                    && Objects.equals(executionRole, platform.executionRole);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(operatingSystemFamily, cpuArchitecture, executionRole);
+        }
+    }
+}
@@ -0,0 +1,127 @@
+package com.cloudbees.jenkins.plugins.amazonecs;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+
+import javax.annotation.CheckForNull;
+import javax.annotation.Nonnull;
+
+import com.amazonaws.services.ecs.model.CapacityProviderStrategyItem;
+import com.amazonaws.services.ecs.model.ContainerDefinition;
+import com.amazonaws.services.ecs.model.KeyValuePair;
+import com.amazonaws.services.ecs.model.PlacementStrategy;
+
+/**
+ * The settings of a template compiled into the AWS model objects launching an agent needs, so that launches do not
+ * rebuild them and re-parse the template every time. A template compiles its plan on first use and drops it whenever
+ * one of its settings changes, see {@link ECSTaskTemplate#getLaunchPlan()}.
+ *
+ * Plans are shared by concurrent launches. The model objects they hold are copied into requests and never changed.
+ */
+final class LaunchPlan {
+    @CheckForNull
+    private final List<PlacementStrategy> placementStrategies;
+    @CheckForNull
+    private final List<CapacityProviderStrategyItem> capacityProviderStrategies;
+    @CheckForNull
+    private final List<KeyValuePair> environment;
+    @CheckForNull
+    private final List<String> subnets;
+    @CheckForNull
+    private final List<String> securityGroups;
+
+    /** Depends on the cloud launching the template, so it is compiled by {@link ECSService}. */
+    private volatile Registration registration;
+
+    LaunchPlan(@Nonnull ECSTaskTemplate template) {
+        this.placementStrategies = immutable(template.getPlacementStrategyEntries());
+        this.capacityProviderStrategies = immutable(template.getCapacityProviderStrategyEntries());
+        this.environment = immutable(template.getEnvironmentKeyValuePairs());
+        this.subnets = split(template.getSubnets());
+        this.securityGroups = split(template.getSecurityGroups());
+    }
+
+    @CheckForNull
+    List<PlacementStrategy> getPlacementStrategies() {
+        return placementStrategies;
+    }
+
+    @CheckForNull
+    List<CapacityProviderStrategyItem> getCapacityProviderStrategies() {
+        return capacityProviderStrategies;
+    }
+
+    @CheckForNull
+    List<KeyValuePair> getEnvironment() {
+        return environment;
+    }
+
+    @CheckForNull
+    List<String> getSubnets() {
+        return subnets;
+    }
+
+    @CheckForNull
+    List<String> getSecurityGroups() {
+        return securityGroups;
+    }
+
+    /**
+     * @return the registration compiled for the family, or null if it was compiled for another one or not yet
+     */
+    @CheckForNull
+    Registration getRegistration(@Nonnull String familyName) {
+        Registration current = registration;
+        return current != null && current.familyName.equals(familyName) ? current : null;
+    }
+
+    void setRegistration(@Nonnull Registration registration) {
+        this.registration = registration;
+    }
+
+    @CheckForNull
+    private static <T> List<T> immutable(@CheckForNull Collection<T> items) {
+        return items == null ? null : Collections.unmodifiableList(new ArrayList<>(items));
+    }
+
+    @CheckForNull
+    private static List<String> split(@CheckForNull String commaSeparated) {
+        return commaSeparated == null ? null : Collections.unmodifiableList(Arrays.asList(commaSeparated.split(",")));
+    }
+
+    /**
+     * The task definition a template registers in a family.
+     */
+    static final class Registration {
+        private final String familyName;
+        private final ContainerDefinition containerDefinition;
+        private final String fingerprint;
+
+        Registration(@Nonnull String familyName, @Nonnull ContainerDefinition containerDefinition, @Nonnull String fingerprint) {
+            this.familyName = familyName;
+            this.containerDefinition = containerDefinition;
+            this.fingerprint = fingerprint;
+        }
+
+        @Nonnull
+        String getFamilyName() {
+            return familyName;
+        }
+
+        @Nonnull
+        ContainerDefinition getContainerDefinition() {
+            return containerDefinition;
+        }
+
+        /**
+         * @see TaskDefinitionCache#fingerprint(com.amazonaws.services.ecs.model.RegisterTaskDefinitionRequest, String...)
+         */
+        @Nonnull
+        String getFingerprint() {
+            return fingerprint;
+        }
+    }
+}
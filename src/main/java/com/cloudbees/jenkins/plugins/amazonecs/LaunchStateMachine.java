@@ -0,0 +1,198 @@
+package com.cloudbees.jenkins.plugins.amazonecs;
+
+import java.io.IOException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.annotation.Nonnull;
+
+import com.amazonaws.services.ecs.model.Task;
+import com.amazonaws.services.ecs.model.TaskDefinition;
+
+/**
+ * Launches an agent without holding a thread while it waits for ECS and for the agent to connect.
+ *
+ * A launch goes through {@link State#REGISTERING}, {@link State#SUBMITTED}, {@link State#PENDING},
+ * {@link State#RUNNING} and {@link State#CONNECTED}, or ends in {@link State#FAILED}. Each step is started by the
+ * completion of the previous one: the calls to ECS are asynchronous, tasks are tracked by the {@link TaskStatePoller}
+ * of their cluster and the agent connecting is reported by {@link ECSComputerListener}. The steps themselves are short
+ * and run on the given executor, so the number of threads does not grow with the number of launches.
+ */
+final class LaunchStateMachine {
+    private static final Logger LOGGER = Logger.getLogger(LaunchStateMachine.class.getName());
+
+    enum State {
+        /** Looking up or registering the task definition. */
+        REGISTERING,
+        /** Waiting for RunTask. */
+        SUBMITTED,
+        /** Waiting for the task to run. */
+        PENDING,
+        /** Waiting for the agent to connect. */
+        RUNNING,
+        CONNECTED,
+        FAILED
+    }
+
+    private static final AtomicInteger ACTIVE = new AtomicInteger();
+
+    private final ECSLauncher launcher;
+    private final ECSCloud cloud;
+    private final ECSSlave agent;
+    private final ECSComputer computer;
+    private final long timeout;
+    private final int maxAttempts;
+    private final Executor executor;
+    private final CompletableFuture<Void> done = new CompletableFuture<>();
+    private volatile State state;
+
+    /**
+     * @param timeout when the agent must be connected, in milliseconds since the epoch
+     */
+    LaunchStateMachine(@Nonnull ECSLauncher launcher, @Nonnull ECSCloud cloud, @Nonnull ECSSlave agent, @Nonnull ECSComputer computer,
+                       long timeout, int maxAttempts, @Nonnull Executor executor) {
+        this.launcher = launcher;
+        this.cloud = cloud;
+        this.agent = agent;
+        this.computer = computer;
+        this.timeout = timeout;
+        this.maxAttempts = maxAttempts;
+        this.executor = executor;
+    }
+
+    State getState() {
+        return state;
+    }
+
+    boolean isDone() {
+        return done.isDone();
+    }
+
+    /**
+     * @return completes once the agent is connected, or fails after the agent was removed
+     */
+    @Nonnull
+    CompletableFuture<Void> start() {
+        ECSMetrics.setGauge("ecs.launch.active", ACTIVE.incrementAndGet());
+        attempt(1);
+        return done;
+    }
+
+    private void attempt(int attempt) {
+        transition(State.REGISTERING);
+        cloud.getEcsService().registerTemplateAsync(cloud.getDisplayName(), agent.getTemplate())
+                .thenComposeAsync(this::submit, executor)
+                .thenComposeAsync(this::awaitRunning, executor)
+                .thenComposeAsync(task -> awaitConnected(), executor)
+                .whenCompleteAsync((ignored, error) -> {
+                    if (error == null) {
+                        connected();
+                        return;
+                    }
+                    Throwable cause = ECSService.unwrap(error);
+                    if (cause instanceof ECSLauncher.RetryableLaunchFailure && attempt < maxAttempts) {
+                        LOGGER.log(Level.WARNING, "Attempt {0}: Failed to start task due to {1}", new Object[]{attempt, cause});
+                        attempt(attempt + 1);
+                    } else {
+                        failed(cause);
+                    }
+                }, executor);
+    }
+
+    private CompletableFuture<Task> submit(TaskDefinition taskDefinition) {
+        transition(State.SUBMITTED);
+        return launcher.runECSTaskAsync(taskDefinition, agent.getTemplate(), agent);
+    }
+
+    private CompletableFuture<Task> awaitRunning(Task startedTask) {
+        transition(State.PENDING);
+        String taskArn = startedTask.getTaskArn();
+        return cloud.getEcsService().watchTask(taskArn, startedTask.getClusterArn(), cloud.getTaskPollingIntervalInSeconds())
+                .orTimeout(remainingMillis(), TimeUnit.MILLISECONDS)
+                .handle((task, error) -> {
+                    if (error != null) {
+                        if (ECSService.unwrap(error) instanceof TimeoutException) {
+                            throw new IllegalStateException("Task took too long to start");
+                        }
+                        throw new CompletionException(ECSService.unwrap(error));
+                    }
+                    if (task == null) {
+                        throw new IllegalStateException("Task " + taskArn + " could not be found");
+                    }
+                    cloud.recordPullTime(agent.getTemplate(), task);
+                    if (!"RUNNING".equals(task.getLastStatus())) {
+                        LOGGER.log(Level.WARNING, "[{0}]: ECS Task stopped: {1}, reason: {2}", new Object[]{agent.getNodeName(), taskArn, task.getStoppedReason()});
+                        IllegalStateException stopped = new IllegalStateException("Task stopped before coming online. TaskARN: " + taskArn);
+                        if (task.getStoppedReason() != null && ECSLauncher.FARGATE_RETRYABLE_MESSAGES.stream().anyMatch(task.getStoppedReason()::contains)) {
+                            throw new CompletionException(new ECSLauncher.RetryableLaunchFailure(stopped));
+                        }
+                        throw stopped;
+                    }
+                    return task;
+                });
+    }
+
+    private CompletableFuture<Void> awaitConnected() {
+        transition(State.RUNNING);
+        long start = System.currentTimeMillis();
+        // the computer's future is shared with other waiters, do not let the timeout fail it
+        return computer.whenConnected().copy()
+                .orTimeout(remainingMillis(), TimeUnit.MILLISECONDS)
+                .handle((ignored, error) -> {
+                    if (error != null) {
+                        if (ECSService.unwrap(error) instanceof TimeoutException) {
+                            throw new IllegalStateException("Agent is not connected");
+                        }
+                        throw new CompletionException(ECSService.unwrap(error));
+                    }
+                    ECSMetrics.record("ecs.agent.connectMillis", System.currentTimeMillis() - start);
+                    return null;
+                });
+    }
+
+    private void connected() {
+        transition(State.CONNECTED);
+        computer.setAcceptingTasks(true);
+        launcher.launched();
+        StandbyPool.launched(agent, true);
+        try {
+            agent.save();
+        } catch (IOException e) {
+            LOGGER.log(Level.WARNING, "Could not save() agent: " + e.getMessage(), e);
+        }
+        finish();
+        done.complete(null);
+    }
+
+    private void failed(Throwable cause) {
+        transition(State.FAILED);
+        LOGGER.log(Level.WARNING, "[" + agent.getNodeName() + "]: Error in provisioning; agent=" + agent, cause);
+        StandbyPool.launched(agent, false);
+        try {
+            agent.terminate();
+        } catch (InterruptedException | IOException e) {
+            LOGGER.log(Level.WARNING, "Unable to remove Jenkins node", e);
+        }
+        finish();
+        done.completeExceptionally(cause);
+    }
+
+    private void finish() {
+        ECSMetrics.setGauge("ecs.launch.active", ACTIVE.decrementAndGet());
+    }
+
+    private void transition(State next) {
+        LOGGER.log(Level.FINE, "[{0}]: {1} -> {2}", new Object[]{agent.getNodeName(), state, next});
+        state = next;
+    }
+
+    private long remainingMillis() {
+        return Math.max(0, timeout - System.currentTimeMillis());
+    }
+}
@@ -0,0 +1,40 @@
+package com.cloudbees.jenkins.plugins.amazonecs;
+
+import java.util.List;
+
+import javax.annotation.CheckForNull;
+import javax.annotation.Nonnull;
+
+import com.amazonaws.services.ecs.model.Task;
+
+import hudson.Extension;
+
+/**
+ * Accepts task state change events from within the controller process, e.g. from tests, the script console
+ * or another plugin relaying events it received.
+ */
+@Extension
+public class LocalTaskStateEventSource extends TaskStateEventSource {
+
+    @Override
+    public void reconcile(@Nonnull List<ECSCloud> clouds) {
+        // nothing to connect to
+    }
+
+    /**
+     * Publishes an EventBridge ECS task state change event and counts as a heartbeat for its cluster.
+     *
+     * @return the task described by the event, or null if the event is not a task state change
+     */
+    @CheckForNull
+    public Task publish(@Nonnull String eventJson) {
+        Task task = TaskStateEvents.parseEvent(eventJson);
+        if (task != null) {
+            if (task.getClusterArn() != null) {
+                TaskStateEvents.heartbeat(task.getClusterArn());
+            }
+            TaskStateEvents.publish(task);
+        }
+        return task;
+    }
+}
@@ -0,0 +1,167 @@
+package com.cloudbees.jenkins.plugins.amazonecs;
+
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.stream.Collectors;
+
+import javax.annotation.Nonnull;
+
+import com.amazonaws.services.ecs.model.Failure;
+import com.amazonaws.services.ecs.model.KeyValuePair;
+import com.amazonaws.services.ecs.model.RunTaskResult;
+import com.amazonaws.services.ecs.model.Task;
+import com.amazonaws.services.ecs.model.TaskDefinition;
+
+import hudson.AbortException;
+import hudson.Util;
+import hudson.model.Computer;
+import jenkins.util.SystemProperties;
+import jenkins.util.Timer;
+
+/**
+ * Starts the agents a cloud launches at the same time with the same template in shared RunTask calls, with up to
+ * {@link ECSCloud#getRunTaskBatchSize()} tasks per call.
+ *
+ * Since the overrides of the tasks started by one call are the same, they cannot carry the name and secret of an
+ * agent. Instead, the agent container gets {@link #CLAIM_URL_VARIABLE} and {@link #CLAIM_TOKEN_VARIABLE}, and asks
+ * the {@link ECSAgentClaimAction} which agent its task was started for before it connects. Tasks are bound to agents
+ * in the order RunTask returns them.
+ */
+class RunTaskBatcher {
+    private static final Logger LOGGER = Logger.getLogger(RunTaskBatcher.class.getName());
+
+    /** RunTask starts at most 10 tasks per call. */
+    static final int MAX_TASKS_PER_REQUEST = 10;
+
+    /** How long to collect launches before starting them. */
+    static final long WINDOW_MILLIS = SystemProperties.getLong(RunTaskBatcher.class.getName() + ".windowMillis", 200L);
+
+    static final String CLAIM_URL_VARIABLE = "ECS_AGENT_CLAIM_URL";
+    static final String CLAIM_TOKEN_VARIABLE = "ECS_AGENT_CLAIM_TOKEN";
+
+    private static final SecureRandom RANDOM = new SecureRandom();
+
+    private final ECSCloud cloud;
+    private final long windowMillis;
+
+    /** Template -&gt; task definition ARN -&gt; launches waiting to be started. */
+    private Map<ECSTaskTemplate, Map<String, List<Launch>>> pending = new IdentityHashMap<>();
+    private boolean flushScheduled;
+
+    RunTaskBatcher(@Nonnull ECSCloud cloud) {
+        this(cloud, WINDOW_MILLIS);
+    }
+
+    RunTaskBatcher(@Nonnull ECSCloud cloud, long windowMillis) {
+        this.cloud = cloud;
+        this.windowMillis = windowMillis;
+    }
+
+    /**
+     * @param command the arguments the agent container would have been started with, returned to it by its claim
+     * @return the task started for the agent
+     */
+    @Nonnull
+    CompletableFuture<Task> run(@Nonnull ECSSlave agent, @Nonnull ECSTaskTemplate template, @Nonnull TaskDefinition taskDefinition, @Nonnull Collection<String> command) {
+        Launch launch = new Launch(agent, taskDefinition, command);
+        synchronized (this) {
+            pending.computeIfAbsent(template, k -> new LinkedHashMap<>())
+                    .computeIfAbsent(taskDefinition.getTaskDefinitionArn(), k -> new ArrayList<>())
+                    .add(launch);
+            if (!flushScheduled) {
+                flushScheduled = true;
+                Timer.get().schedule(() -> Computer.threadPoolForRemoting.submit(this::flush), windowMillis, TimeUnit.MILLISECONDS);
+            }
+        }
+        return launch.future;
+    }
+
+    void flush() {
+        Map<ECSTaskTemplate, Map<String, List<Launch>>> batch;
+        synchronized (this) {
+            batch = pending;
+            pending = new IdentityHashMap<>();
+            flushScheduled = false;
+        }
+
+        int batchSize = Math.min(MAX_TASKS_PER_REQUEST, Math.max(1, cloud.getRunTaskBatchSize()));
+        for (Map.Entry<ECSTaskTemplate, Map<String, List<Launch>>> template : batch.entrySet()) {
+            for (List<Launch> launches : template.getValue().values()) {
+                for (int i = 0; i < launches.size(); i += batchSize) {
+                    run(template.getKey(), launches.subList(i, Math.min(launches.size(), i + batchSize)));
+                }
+            }
+        }
+    }
+
+    private void run(ECSTaskTemplate template, List<Launch> launches) {
+        String token = newToken();
+        List<KeyValuePair> environment = new ArrayList<>();
+        environment.add(new KeyValuePair().withName(CLAIM_URL_VARIABLE).withValue(cloud.getJenkinsUrl() + ECSAgentClaimAction.URL_NAME + "/"));
+        environment.add(new KeyValuePair().withName(CLAIM_TOKEN_VARIABLE).withValue(token));
+        TaskDefinition taskDefinition = launches.get(0).taskDefinition;
+        List<ECSSlave> agents = launches.stream().map(launch -> launch.agent).collect(Collectors.toList());
+
+        ECSMetrics.increment("ecs.runTask.batches");
+        LOGGER.log(Level.FINE, "Starting {0} tasks with task definition {1}", new Object[]{launches.size(), taskDefinition.getTaskDefinitionArn()});
+        cloud.getEcsService().runEcsTasksAsync(agents, template, cloud.getCluster(), environment, taskDefinition).whenComplete((result, error) -> {
+            if (error != null) {
+                launches.forEach(launch -> launch.future.completeExceptionally(ECSService.unwrap(error)));
+            } else {
+                bind(token, launches, result);
+            }
+        });
+    }
+
+    private void bind(String token, List<Launch> launches, RunTaskResult result) {
+        long expiresAt = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(cloud.getSlaveTimeoutInSeconds());
+        int bound = 0;
+        for (Task task : result.getTasks()) {
+            if (bound == launches.size()) {
+                break;
+            }
+            Launch launch = launches.get(bound++);
+            ECSAgentClaimAction.get().register(task.getTaskArn(),
+                    new ECSAgentClaimAction.Claim(token, cloud.name, cloud.getCluster(), launch.agent.getNodeName(), launch.command, expiresAt));
+            launch.future.complete(task);
+        }
+        if (bound < launches.size()) {
+            String reasons = result.getFailures().stream()
+                    .map(Failure::getReason)
+                    .distinct()
+                    .collect(Collectors.joining(", "));
+            for (Launch launch : launches.subList(bound, launches.size())) {
+                LOGGER.log(Level.WARNING, "[{0}]: Failure to run task in a batch on ECS cluster {1}: {2}", new Object[]{launch.agent.getNodeName(), cloud.getCluster(), reasons});
+                launch.future.completeExceptionally(new AbortException("Failed to run agent container " + launch.agent.getNodeName()));
+            }
+        }
+    }
+
+    private static String newToken() {
+        byte[] bytes = new byte[32];
+        RANDOM.nextBytes(bytes);
+        return Util.toHexString(bytes);
+    }
+
+    private static final class Launch {
+        private final ECSSlave agent;
+        private final TaskDefinition taskDefinition;
+        private final List<String> command;
+        private final CompletableFuture<Task> future = new CompletableFuture<>();
+
+        Launch(ECSSlave agent, TaskDefinition taskDefinition, Collection<String> command) {
+            this.agent = agent;
+            this.taskDefinition = taskDefinition;
+            this.command = new ArrayList<>(command);
+        }
+    }
+}
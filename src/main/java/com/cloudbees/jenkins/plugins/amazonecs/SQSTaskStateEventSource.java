@@ -0,0 +1,163 @@
+package com.cloudbees.jenkins.plugins.amazonecs;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.annotation.Nonnull;
+
+import com.amazonaws.services.ecs.model.Task;
+import com.amazonaws.services.sqs.model.Message;
+import com.cloudbees.jenkins.plugins.amazonecs.aws.SQSService;
+import com.cloudbees.jenkins.plugins.amazonecs.aws.TransportSettings;
+
+import org.apache.commons.lang.StringUtils;
+
+import hudson.Extension;
+import hudson.model.Computer;
+
+/**
+ * Consumes ECS task state change events that an EventBridge rule forwards to an SQS queue.
+ *
+ * There is one consumer per queue and set of credentials, shared by the clouds configured with that queue. Events
+ * for a cluster count as its heartbeat, so its tasks go back to regular polling when events stop arriving.
+ */
+@Extension
+public class SQSTaskStateEventSource extends TaskStateEventSource {
+    private static final Logger LOGGER = Logger.getLogger(SQSTaskStateEventSource.class.getName());
+
+    /** How long to wait before polling the queue again after an error. */
+    static final long ERROR_BACKOFF_MILLIS = TimeUnit.SECONDS.toMillis(10);
+
+    private final Map<ConsumerKey, Consumer> consumers = new HashMap<>();
+
+    @Override
+    public synchronized void reconcile(@Nonnull List<ECSCloud> clouds) {
+        Map<ConsumerKey, Set<String>> wanted = new HashMap<>();
+        for (ECSCloud cloud : clouds) {
+            if (StringUtils.isNotBlank(cloud.getTaskStateQueueUrl())) {
+                wanted.computeIfAbsent(new ConsumerKey(cloud), k -> new HashSet<>()).add(cloud.getCluster());
+            }
+        }
+
+        for (Iterator<Map.Entry<ConsumerKey, Consumer>> it = consumers.entrySet().iterator(); it.hasNext(); ) {
+            Map.Entry<ConsumerKey, Consumer> entry = it.next();
+            if (!wanted.containsKey(entry.getKey()) || entry.getValue().stopped) {
+                entry.getValue().stop();
+                it.remove();
+            }
+        }
+        for (Map.Entry<ConsumerKey, Set<String>> entry : wanted.entrySet()) {
+            Consumer consumer = consumers.get(entry.getKey());
+            if (consumer == null) {
+                ConsumerKey key = entry.getKey();
+                LOGGER.log(Level.INFO, "Receiving ECS task state changes from {0}", key.queueUrl);
+                consumer = new Consumer(new SQSService(key.credentialsId, key.assumedRoleArn, key.regionName, key.queueUrl, key.transportSettings), key.queueUrl);
+                consumers.put(key, consumer);
+                Computer.threadPoolForRemoting.submit(consumer);
+            }
+            consumer.clusterArns = entry.getValue();
+        }
+    }
+
+    @Override
+    public synchronized void stop() {
+        consumers.values().forEach(Consumer::stop);
+        consumers.clear();
+    }
+
+    static final class Consumer implements Runnable {
+        private final SQSService sqsService;
+        private final String queueUrl;
+        volatile Set<String> clusterArns = new HashSet<>();
+        volatile boolean stopped;
+
+        Consumer(SQSService sqsService, String queueUrl) {
+            this.sqsService = sqsService;
+            this.queueUrl = queueUrl;
+        }
+
+        @Override
+        public void run() {
+            Thread thread = Thread.currentThread();
+            String name = thread.getName();
+            thread.setName("Amazon ECS task state events from " + queueUrl);
+            try {
+                while (!stopped) {
+                    poll();
+                }
+            } finally {
+                stopped = true;
+                sqsService.shutdown();
+                thread.setName(name);
+            }
+        }
+
+        void poll() {
+            try {
+                List<Message> messages = sqsService.receive();
+                for (Message message : messages) {
+                    Task task = TaskStateEvents.publishEvent(message.getBody());
+                    // an empty queue only means SQS is reachable, events prove that the rule delivers them
+                    if (task != null && task.getClusterArn() != null && clusterArns.contains(task.getClusterArn())) {
+                        TaskStateEvents.heartbeat(task.getClusterArn());
+                    }
+                }
+                sqsService.delete(messages);
+            } catch (RuntimeException e) {
+                LOGGER.log(Level.WARNING, "Failed to receive ECS task state changes from " + queueUrl, e);
+                ECSMetrics.increment("ecs.taskStateEvents.failures");
+                try {
+                    Thread.sleep(ERROR_BACKOFF_MILLIS);
+                } catch (InterruptedException ie) {
+                    Thread.currentThread().interrupt();
+                    stopped = true;
+                }
+            }
+        }
+
+        void stop() {
+            stopped = true;
+        }
+    }
+
+    private static final class ConsumerKey {
+        private final String queueUrl;
+        private final String credentialsId;
+        private final String assumedRoleArn;
+        private final String regionName;
+        private final TransportSettings transportSettings;
+
+        ConsumerKey(ECSCloud cloud) {
+            this.queueUrl = cloud.getTaskStateQueueUrl();
+            this.credentialsId = cloud.getCredentialsId();
+            this.assumedRoleArn = cloud.getAssumedRoleArn();
+            this.regionName = cloud.getRegionName();
+            this.transportSettings = cloud.getTransportSettings();
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (o == null || getClass() != o.getClass()) return false;
+            ConsumerKey that = (ConsumerKey) o;
+            return queueUrl.equals(that.queueUrl)
+                    && Objects.equals(credentialsId, that.credentialsId)
+                    && Objects.equals(assumedRoleArn, that.assumedRoleArn)
+                    && Objects.equals(regionName, that.regionName)
+                    && transportSettings.equals(that.transportSettings);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(queueUrl, credentialsId, assumedRoleArn, regionName, transportSettings);
+        }
+    }
+}
@@ -0,0 +1,273 @@
+package com.cloudbees.jenkins.plugins.amazonecs;
+
+import java.io.IOException;
+import java.time.LocalTime;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.annotation.CheckForNull;
+import javax.annotation.Nonnull;
+
+import org.apache.commons.lang.RandomStringUtils;
+import org.apache.commons.lang.StringUtils;
+import org.jenkinsci.plugins.durabletask.executors.OnceRetentionStrategy;
+
+import hudson.Extension;
+import hudson.ExtensionList;
+import hudson.model.AsyncPeriodicWork;
+import hudson.model.Computer;
+import hudson.model.Descriptor;
+import hudson.model.Node;
+import hudson.model.TaskListener;
+import hudson.slaves.Cloud;
+import jenkins.model.Jenkins;
+import jenkins.util.SystemProperties;
+
+/**
+ * Keeps idle, connected agents of the templates that ask for them, so that builds do not wait for a task to start.
+ *
+ * Standby agents are regular single-use agents with the label of their template: the queue hands them out like any
+ * other idle agent, and they are removed once their build is done. The pool then starts new ones to get back to the
+ * size of the template, {@link ECSTaskTemplate#getStandbyMaxAgents()} during its schedule and
+ * {@link ECSTaskTemplate#getStandbyMinAgents()} otherwise, within the {@link ECSCloud#getMaxAgents()} of the cloud.
+ * Idle standby agents expire after {@link ECSTaskTemplate#getStandbyIdleMinutes()}, and the ones above the size of
+ * their template are removed when its schedule ends.
+ *
+ * A standby agent that fails to launch is removed like any other agent. So that a template whose tasks keep stopping
+ * (e.g. a missing image) is not restarted every {@link #RECURRENCE_PERIOD_MILLIS}, the pool then waits before starting
+ * agents of that template again, twice as long after each consecutive failure, up to {@link #MAX_BACKOFF_MILLIS}.
+ */
+@Extension
+public class StandbyPool extends AsyncPeriodicWork {
+    private static final Logger LOGGER = Logger.getLogger(StandbyPool.class.getName());
+
+    static final long RECURRENCE_PERIOD_MILLIS = SystemProperties.getLong(StandbyPool.class.getName() + ".recurrencePeriodMillis", TimeUnit.SECONDS.toMillis(30));
+    static final long MIN_BACKOFF_MILLIS = TimeUnit.MINUTES.toMillis(1);
+    static final long MAX_BACKOFF_MILLIS = SystemProperties.getLong(StandbyPool.class.getName() + ".maxBackoffMillis", TimeUnit.MINUTES.toMillis(30));
+
+    /** Cloud and template name -&gt; recent launch failures of its standby agents. */
+    private final ConcurrentMap<String, Failures> failures = new ConcurrentHashMap<>();
+
+    public StandbyPool() {
+        super("Amazon ECS standby agents");
+    }
+
+    @Override
+    public long getRecurrencePeriod() {
+        return RECURRENCE_PERIOD_MILLIS;
+    }
+
+    @Override
+    protected void execute(TaskListener listener) {
+        Jenkins jenkins = Jenkins.get();
+        if (jenkins.isQuietingDown() || jenkins.isTerminating()) {
+            return;
+        }
+        for (Cloud cloud : jenkins.clouds) {
+            if (cloud instanceof ECSCloud) {
+                maintain((ECSCloud) cloud, LocalTime.now());
+            }
+        }
+    }
+
+    void maintain(@Nonnull ECSCloud cloud, @Nonnull LocalTime now) {
+        for (ECSTaskTemplate template : cloud.getTemplates()) {
+            int size;
+            try {
+                size = getSize(template, now);
+            } catch (IllegalArgumentException e) {
+                LOGGER.log(Level.WARNING, "Invalid standby schedule of template {0}: {1}", new Object[]{template.getTemplateName(), e.getMessage()});
+                size = template.getStandbyMinAgents();
+            }
+            List<ECSSlave> standby = getIdleStandbyAgents(cloud, template);
+            if (standby.size() < size) {
+                if (cloud.isCircuitOpen()) {
+                    LOGGER.log(Level.FINE, "Not starting standby agents of {0}, calls to ECS are failing", template.getTemplateName());
+                    continue;
+                }
+                if (isBackingOff(cloud.name, template.getTemplateName(), System.currentTimeMillis())) {
+                    LOGGER.log(Level.FINE, "Not starting standby agents of {0}, its last agents failed to launch", template.getTemplateName());
+                    continue;
+                }
+                start(cloud, template, size - standby.size());
+            } else if (standby.size() > size) {
+                remove(standby, standby.size() - size);
+            }
+            ECSMetrics.setGauge("ecs.standby." + cloud.name + "." + template.getTemplateName(), standby.size());
+        }
+    }
+
+    /**
+     * Records the outcome of the launch of an agent, if it is a standby agent.
+     */
+    static void launched(@Nonnull ECSSlave agent, boolean success) {
+        if (!agent.isStandby()) {
+            return;
+        }
+        StandbyPool pool = ExtensionList.lookup(StandbyPool.class).get(StandbyPool.class);
+        if (pool == null) {
+            return;
+        }
+        if (success) {
+            pool.launchSucceeded(agent.getCloud().name, agent.getTemplate().getTemplateName());
+        } else {
+            pool.launchFailed(agent.getCloud().name, agent.getTemplate().getTemplateName(), System.currentTimeMillis());
+        }
+    }
+
+    void launchSucceeded(@Nonnull String cloud, @Nonnull String template) {
+        failures.remove(cloud + '/' + template);
+    }
+
+    void launchFailed(@Nonnull String cloud, @Nonnull String template, long now) {
+        Failures recent = failures.compute(cloud + '/' + template, (k, f) -> new Failures(f == null ? 1 : f.count + 1, now));
+        ECSMetrics.increment("ecs.standby.launchFailures");
+        LOGGER.log(Level.WARNING, "Standby agent of template {0} failed to launch, not starting another one for {1}s",
+                new Object[]{template, TimeUnit.MILLISECONDS.toSeconds(recent.getBackoffMillis())});
+    }
+
+    boolean isBackingOff(@Nonnull String cloud, @Nonnull String template, long now) {
+        Failures recent = failures.get(cloud + '/' + template);
+        return recent != null && now - recent.last < recent.getBackoffMillis();
+    }
+
+    private static final class Failures {
+        private final int count;
+        private final long last;
+
+        Failures(int count, long last) {
+            this.count = count;
+            this.last = last;
+        }
+
+        long getBackoffMillis() {
+            return Math.min(MAX_BACKOFF_MILLIS, MIN_BACKOFF_MILLIS << Math.min(count - 1, 20));
+        }
+    }
+
+    /**
+     * @return how many idle agents of the template to keep at that time of day
+     */
+    static int getSize(@Nonnull ECSTaskTemplate template, @Nonnull LocalTime now) {
+        for (LocalTime[] window : parseSchedule(template.getStandbySchedule())) {
+            boolean inWindow = window[0].isBefore(window[1])
+                    ? !now.isBefore(window[0]) && now.isBefore(window[1])
+                    : !now.isBefore(window[0]) || now.isBefore(window[1]);
+            if (inWindow) {
+                return Math.max(template.getStandbyMinAgents(), template.getStandbyMaxAgents());
+            }
+        }
+        return template.getStandbyMinAgents();
+    }
+
+    /**
+     * @param schedule comma separated {@code HH:mm-HH:mm} windows
+     * @return the start and end of each window
+     * @throws IllegalArgumentException if a window cannot be parsed
+     */
+    @Nonnull
+    static List<LocalTime[]> parseSchedule(@CheckForNull String schedule) {
+        if (StringUtils.isBlank(schedule)) {
+            return Collections.emptyList();
+        }
+        List<LocalTime[]> windows = new ArrayList<>();
+        for (String window : schedule.split(",")) {
+            String[] bounds = window.trim().split("-");
+            if (bounds.length != 2) {
+                throw new IllegalArgumentException("Expected a window like 08:00-18:00, got: " + window.trim());
+            }
+            try {
+                windows.add(new LocalTime[]{LocalTime.parse(bounds[0].trim()), LocalTime.parse(bounds[1].trim())});
+            } catch (DateTimeParseException e) {
+                throw new IllegalArgumentException("Expected a window like 08:00-18:00, got: " + window.trim(), e);
+            }
+        }
+        return windows;
+    }
+
+    /**
+     * Standby agents of the template that were not handed out yet, including the ones still connecting.
+     */
+    private static List<ECSSlave> getIdleStandbyAgents(ECSCloud cloud, ECSTaskTemplate template) {
+        List<ECSSlave> agents = new ArrayList<>();
+        for (Node node : Jenkins.get().getNodes()) {
+            if (!(node instanceof ECSSlave)) {
+                continue;
+            }
+            ECSSlave agent = (ECSSlave) node;
+            if (!agent.isStandby() || !agent.getCloud().name.equals(cloud.name)
+                    || !template.getTemplateName().equals(agent.getTemplate().getTemplateName())) {
+                continue;
+            }
+            Computer computer = agent.toComputer();
+            if (computer == null || computer.isOffline() || computer.isIdle()) {
+                agents.add(agent);
+            }
+        }
+        return agents;
+    }
+
+    private static void start(ECSCloud cloud, ECSTaskTemplate template, int missing) {
+        int executors = 0;
+        for (Node node : Jenkins.get().getNodes()) {
+            if (node instanceof ECSSlave && ((ECSSlave) node).getCloud().name.equals(cloud.name)) {
+                executors += node.getNumExecutors();
+            }
+        }
+        int executorsPerAgent = Math.max(1, cloud.getNumExecutors());
+        int count = cloud.getProvisioningCapacity(missing * executorsPerAgent, executors, 0) / executorsPerAgent;
+        if (count < missing) {
+            LOGGER.log(Level.FINE, "Starting {0} of {1} missing standby agents of {2}, the cloud is at its maximum number of agents",
+                    new Object[]{count, missing, template.getTemplateName()});
+        }
+
+        String parentLabel = template.getInheritFrom();
+        ECSTaskTemplate merged = template.merge(cloud.getTemplate(parentLabel));
+        for (int i = 0; i < count; i++) {
+            String agentName = cloud.name + "-" + template.getTemplateName() + "-standby-" + RandomStringUtils.random(5, "bcdfghjklmnpqrstvwxz0123456789");
+            try {
+                ECSSlave agent = new ECSSlave(cloud, agentName, merged, new ECSLauncher(cloud, cloud.getTunnel(), null));
+                agent.setStandby(true);
+                if (template.getStandbyIdleMinutes() > 0) {
+                    agent.setRetentionStrategy(new OnceRetentionStrategy(template.getStandbyIdleMinutes()));
+                }
+                Jenkins.get().addNode(agent);
+                LOGGER.log(Level.INFO, "Started standby agent {0} of template {1}", new Object[]{agentName, template.getTemplateName()});
+                ECSMetrics.increment("ecs.standby.started");
+            } catch (Descriptor.FormException | IOException e) {
+                LOGGER.log(Level.WARNING, "Failed to start standby agent of template " + template.getTemplateName(), e);
+            }
+        }
+    }
+
+    /**
+     * Removes surplus agents that are connected and idle. Those still connecting are removed once they are.
+     */
+    private static void remove(List<ECSSlave> standby, int surplus) {
+        int removed = 0;
+        for (ECSSlave agent : standby) {
+            if (removed == surplus) {
+                break;
+            }
+            Computer computer = agent.toComputer();
+            if (computer == null || computer.isOffline() || !computer.isIdle()) {
+                continue;
+            }
+            try {
+                agent.terminate();
+                removed++;
+                LOGGER.log(Level.INFO, "Removed surplus standby agent {0}", agent.getNodeName());
+                ECSMetrics.increment("ecs.standby.removed");
+            } catch (InterruptedException | IOException e) {
+                LOGGER.log(Level.WARNING, "Unable to remove standby agent " + agent.getNodeName(), e);
+            }
+        }
+    }
+}
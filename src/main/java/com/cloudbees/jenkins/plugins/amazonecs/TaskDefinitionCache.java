@@ -0,0 +1,423 @@
+package com.cloudbees.jenkins.plugins.amazonecs;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
+
+import javax.annotation.CheckForNull;
+import javax.annotation.Nonnull;
+
+import com.amazonaws.services.ecs.model.ContainerDefinition;
+import com.amazonaws.services.ecs.model.DockerVolumeConfiguration;
+import com.amazonaws.services.ecs.model.EFSVolumeConfiguration;
+import com.amazonaws.services.ecs.model.KernelCapabilities;
+import com.amazonaws.services.ecs.model.LinuxParameters;
+import com.amazonaws.services.ecs.model.RegisterTaskDefinitionRequest;
+import com.amazonaws.services.ecs.model.Tag;
+import com.amazonaws.services.ecs.model.TaskDefinition;
+import com.amazonaws.services.ecs.model.Volume;
+
+import hudson.Util;
+import jenkins.util.SystemProperties;
+
+/**
+ * Remembers which task definition was resolved for the content of a template, so that launching agents from an
+ * unchanged template does not need to describe and compare the latest task definition of its family every time.
+ *
+ * Entries are keyed by task definition family and hold the fingerprint of the registration the template would make.
+ * A template whose content changed no longer matches its entry. Entries older than {@link #TTL_MILLIS} are still
+ * served, but the caller is expected to check them against ECS in the background.
+ *
+ * The caches shared per account and region are saved across restarts by {@link TaskDefinitionCacheStore}.
+ */
+public final class TaskDefinitionCache {
+
+    /** Tag holding the fingerprint of the registration a task definition was created by. */
+    static final String FINGERPRINT_TAG_KEY = "jenkins.fingerprint";
+
+    static final long TTL_MILLIS = SystemProperties.getLong(TaskDefinitionCache.class.getName() + ".ttlMillis", TimeUnit.MINUTES.toMillis(10));
+
+    /** Account/region -&gt; cache shared by the clouds using it. */
+    private static final ConcurrentMap<String, TaskDefinitionCache> CACHES = new ConcurrentHashMap<>();
+
+    private final long ttlMillis;
+    private final ConcurrentMap<String, Entry> entries = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, Stats> stats = new ConcurrentHashMap<>();
+    /** Family and fingerprint -&gt; lookup or registration in progress. */
+    private final ConcurrentMap<String, CompletableFuture<TaskDefinition>> inFlight = new ConcurrentHashMap<>();
+
+    TaskDefinitionCache(long ttlMillis) {
+        this.ttlMillis = ttlMillis;
+    }
+
+    /**
+     * The cache shared by all services calling ECS in the same account and region.
+     */
+    @Nonnull
+    static TaskDefinitionCache forScope(@Nonnull String scope) {
+        return CACHES.computeIfAbsent(scope, k -> new TaskDefinitionCache(TTL_MILLIS));
+    }
+
+    @Nonnull
+    static Map<String, TaskDefinitionCache> getCaches() {
+        return Collections.unmodifiableMap(CACHES);
+    }
+
+    /**
+     * @return the entry of the family if it was resolved for the same fingerprint, counting a hit or a miss
+     */
+    @CheckForNull
+    Entry get(@Nonnull String family, @Nonnull String fingerprint) {
+        Entry entry = entries.get(family);
+        Stats familyStats = getStats(family);
+        if (entry != null && entry.fingerprint.equals(fingerprint)) {
+            familyStats.hits.increment();
+            ECSMetrics.increment("ecs.taskDefinitionCache.hits");
+            return entry;
+        }
+        familyStats.misses.increment();
+        ECSMetrics.increment("ecs.taskDefinitionCache.misses");
+        return null;
+    }
+
+    void put(@Nonnull String family, @Nonnull String fingerprint, @Nonnull TaskDefinition taskDefinition) {
+        entries.put(family, new Entry(fingerprint, taskDefinition, System.currentTimeMillis(), ttlMillis));
+        TaskDefinitionCacheStore.changed();
+    }
+
+    /**
+     * Adds an entry saved before a restart, stale so that it is checked on first use. Entries resolved since are kept.
+     */
+    void restore(@Nonnull String family, @Nonnull String fingerprint, @Nonnull TaskDefinition taskDefinition) {
+        entries.putIfAbsent(family, new Entry(fingerprint, taskDefinition, 0, ttlMillis));
+    }
+
+    @Nonnull
+    Map<String, Entry> getEntries() {
+        return Collections.unmodifiableMap(entries);
+    }
+
+    /**
+     * Runs the lookup of a task definition unless the same one is already running, in which case the caller
+     * shares its result.
+     *
+     * @param loader looks up or registers the task definition, and puts it in the cache before completing
+     */
+    @Nonnull
+    CompletableFuture<TaskDefinition> singleFlight(@Nonnull String family, @Nonnull String fingerprint,
+                                                   @Nonnull Supplier<CompletableFuture<TaskDefinition>> loader) {
+        String key = family + '@' + fingerprint;
+        CompletableFuture<TaskDefinition> flight = new CompletableFuture<>();
+        CompletableFuture<TaskDefinition> running = inFlight.putIfAbsent(key, flight);
+        if (running != null) {
+            getStats(family).collapsed.increment();
+            ECSMetrics.increment("ecs.taskDefinitionCache.collapsed");
+            // callers must not be able to cancel the shared lookup
+            return running.copy();
+        }
+        try {
+            loader.get().whenComplete((taskDefinition, error) -> {
+                inFlight.remove(key, flight);
+                if (error != null) {
+                    flight.completeExceptionally(error);
+                } else {
+                    flight.complete(taskDefinition);
+                }
+            });
+        } catch (RuntimeException e) {
+            inFlight.remove(key, flight);
+            flight.completeExceptionally(e);
+        }
+        return flight.copy();
+    }
+
+    void invalidate(@Nonnull String family) {
+        if (entries.remove(family) != null) {
+            TaskDefinitionCacheStore.changed();
+        }
+    }
+
+    /**
+     * Removes the entry of the family only if it was not replaced in the meantime.
+     */
+    void invalidate(@Nonnull String family, @Nonnull Entry entry) {
+        if (entries.remove(family, entry)) {
+            TaskDefinitionCacheStore.changed();
+        }
+    }
+
+    /**
+     * Removes the entries resolved to a task definition, e.g. one that could not be run.
+     */
+    void invalidateArn(@CheckForNull String taskDefinitionArn) {
+        if (taskDefinitionArn != null && entries.values().removeIf(e -> taskDefinitionArn.equals(e.taskDefinition.getTaskDefinitionArn()))) {
+            TaskDefinitionCacheStore.changed();
+        }
+    }
+
+    @Nonnull
+    Stats getStats(@Nonnull String family) {
+        return stats.computeIfAbsent(family, k -> new Stats());
+    }
+
+    int size() {
+        return entries.size();
+    }
+
+    /**
+     * The fingerprint of a registration: two requests with the same fingerprint register the same task definition.
+     *
+     * It is a digest of the fields of the request that the plugin sets, written in a fixed order. Tags, volumes,
+     * environment variables, mount points and other lists whose order does not matter are sorted, and the
+     * {@link #FINGERPRINT_TAG_KEY fingerprint tag} itself is ignored. A field the plugin starts to set must be added
+     * here, or templates that only differ by it would share a task definition.
+     *
+     * @param ignoredTagKeys tags that do not make a difference either
+     */
+    @Nonnull
+    static String fingerprint(@Nonnull RegisterTaskDefinitionRequest request, String... ignoredTagKeys) {
+        List<String> ignored = Arrays.asList(ignoredTagKeys);
+        List<Tag> tags = request.getTags() == null ? null : request.getTags().stream()
+                .filter(tag -> !FINGERPRINT_TAG_KEY.equals(tag.getKey()) && !ignored.contains(tag.getKey()))
+                .collect(Collectors.toList());
+        Canonical canonical = new Canonical()
+                .field("family", request.getFamily())
+                .field("taskRoleArn", request.getTaskRoleArn())
+                .field("executionRoleArn", request.getExecutionRoleArn())
+                .field("networkMode", request.getNetworkMode())
+                .field("requiresCompatibilities", unordered(request.getRequiresCompatibilities(), Canonical::quote))
+                .field("cpu", request.getCpu())
+                .field("memory", request.getMemory())
+                .field("ephemeralStorage", request.getEphemeralStorage() == null ? null : request.getEphemeralStorage().getSizeInGiB())
+                .field("runtimePlatform", request.getRuntimePlatform() == null ? null : new Canonical()
+                        .field("operatingSystemFamily", request.getRuntimePlatform().getOperatingSystemFamily())
+                        .field("cpuArchitecture", request.getRuntimePlatform().getCpuArchitecture()))
+                .field("volumes", unordered(request.getVolumes(), TaskDefinitionCache::canonical))
+                .field("containerDefinitions", ordered(request.getContainerDefinitions(), TaskDefinitionCache::canonical))
+                .field("tags", unordered(tags, tag -> new Canonical().field("key", tag.getKey()).field("value", tag.getValue())));
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            return Util.toHexString(digest.digest(canonical.toString().getBytes(StandardCharsets.UTF_8)));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static Canonical canonical(ContainerDefinition def) {
+        LinuxParameters linux = def.getLinuxParameters();
+        KernelCapabilities capabilities = linux == null ? null : linux.getCapabilities();
+        return new Canonical()
+                .field("name", def.getName())
+                .field("image", def.getImage())
+                .field("cpu", def.getCpu())
+                .field("memory", def.getMemory())
+                .field("memoryReservation", def.getMemoryReservation())
+                .field("essential", def.getEssential())
+                .field("privileged", def.getPrivileged())
+                .field("user", def.getUser())
+                .field("workingDirectory", def.getWorkingDirectory())
+                .field("entryPoint", ordered(def.getEntryPoint(), Canonical::quote))
+                .field("command", ordered(def.getCommand(), Canonical::quote))
+                .field("environment", unordered(def.getEnvironment(), env -> new Canonical().field("name", env.getName()).field("value", env.getValue())))
+                .field("secrets", unordered(def.getSecrets(), secret -> new Canonical().field("name", secret.getName()).field("valueFrom", secret.getValueFrom())))
+                .field("extraHosts", unordered(def.getExtraHosts(), host -> new Canonical().field("hostname", host.getHostname()).field("ipAddress", host.getIpAddress())))
+                .field("mountPoints", unordered(def.getMountPoints(), mount -> new Canonical()
+                        .field("sourceVolume", mount.getSourceVolume())
+                        .field("containerPath", mount.getContainerPath())
+                        .field("readOnly", mount.getReadOnly())))
+                .field("portMappings", unordered(def.getPortMappings(), port -> new Canonical()
+                        .field("containerPort", port.getContainerPort())
+                        .field("hostPort", port.getHostPort())
+                        .field("protocol", port.getProtocol())))
+                .field("ulimits", unordered(def.getUlimits(), ulimit -> new Canonical()
+                        .field("name", ulimit.getName())
+                        .field("softLimit", ulimit.getSoftLimit())
+                        .field("hardLimit", ulimit.getHardLimit())))
+                .field("dnsSearchDomains", ordered(def.getDnsSearchDomains(), Canonical::quote))
+                .field("linuxParameters", linux == null ? null : new Canonical()
+                        .field("capabilities", capabilities == null ? null : new Canonical()
+                                .field("add", unordered(capabilities.getAdd(), Canonical::quote))
+                                .field("drop", unordered(capabilities.getDrop(), Canonical::quote)))
+                        .field("sharedMemorySize", linux.getSharedMemorySize())
+                        .field("initProcessEnabled", linux.getInitProcessEnabled()))
+                .field("repositoryCredentials", def.getRepositoryCredentials() == null ? null : def.getRepositoryCredentials().getCredentialsParameter())
+                .field("logConfiguration", def.getLogConfiguration() == null ? null : new Canonical()
+                        .field("logDriver", def.getLogConfiguration().getLogDriver())
+                        .field("options", Canonical.map(def.getLogConfiguration().getOptions())))
+                .field("dockerLabels", Canonical.map(def.getDockerLabels()))
+                .field("dependsOn", unordered(def.getDependsOn(), dependency -> new Canonical()
+                        .field("containerName", dependency.getContainerName())
+                        .field("condition", dependency.getCondition())));
+    }
+
+    private static Canonical canonical(Volume volume) {
+        EFSVolumeConfiguration efs = volume.getEfsVolumeConfiguration();
+        DockerVolumeConfiguration docker = volume.getDockerVolumeConfiguration();
+        return new Canonical()
+                .field("name", volume.getName())
+                .field("host", volume.getHost() == null ? null : new Canonical().field("sourcePath", volume.getHost().getSourcePath()))
+                .field("efsVolumeConfiguration", efs == null ? null : new Canonical()
+                        .field("fileSystemId", efs.getFileSystemId())
+                        .field("rootDirectory", efs.getRootDirectory())
+                        .field("transitEncryption", efs.getTransitEncryption())
+                        .field("transitEncryptionPort", efs.getTransitEncryptionPort())
+                        .field("authorizationConfig", efs.getAuthorizationConfig() == null ? null : new Canonical()
+                                .field("accessPointId", efs.getAuthorizationConfig().getAccessPointId())
+                                .field("iam", efs.getAuthorizationConfig().getIam())))
+                .field("dockerVolumeConfiguration", docker == null ? null : new Canonical()
+                        .field("scope", docker.getScope())
+                        .field("autoprovision", docker.getAutoprovision())
+                        .field("driver", docker.getDriver())
+                        .field("driverOpts", Canonical.map(docker.getDriverOpts()))
+                        .field("labels", Canonical.map(docker.getLabels())));
+    }
+
+    @CheckForNull
+    private static <T> List<String> ordered(@CheckForNull List<T> list, Function<T, ?> canonical) {
+        return list == null ? null : list.stream().map(canonical).map(String::valueOf).collect(Collectors.toList());
+    }
+
+    @CheckForNull
+    private static <T> List<String> unordered(@CheckForNull List<T> list, Function<T, ?> canonical) {
+        return list == null ? null : list.stream().map(canonical).map(String::valueOf).sorted().collect(Collectors.toList());
+    }
+
+    /**
+     * Writes fields in the order they are added, so that the same content always gives the same text.
+     * Unset fields are left out, and an empty list or map is the same as none.
+     */
+    private static final class Canonical {
+        private final StringBuilder text = new StringBuilder("{");
+
+        /**
+         * @param value a string, number, boolean, nested {@link Canonical}, or a list of values already made canonical
+         */
+        Canonical field(@Nonnull String name, @CheckForNull Object value) {
+            if (value == null || (value instanceof Collection && ((Collection<?>) value).isEmpty())) {
+                return this;
+            }
+            if (text.length() > 1) {
+                text.append(',');
+            }
+            text.append(name).append('=');
+            if (value instanceof Collection) {
+                text.append('[').append(((Collection<?>) value).stream().map(String::valueOf).collect(Collectors.joining(","))).append(']');
+            } else if (value instanceof String) {
+                text.append(quote(value));
+            } else {
+                text.append(value);
+            }
+            return this;
+        }
+
+        static String quote(Object value) {
+            return '"' + String.valueOf(value).replace("\\", "\\\\").replace("\"", "\\\"") + '"';
+        }
+
+        @CheckForNull
+        static Canonical map(@CheckForNull Map<String, String> map) {
+            if (map == null || map.isEmpty()) {
+                return null;
+            }
+            Canonical canonical = new Canonical();
+            new TreeMap<>(map).forEach(canonical::field);
+            return canonical;
+        }
+
+        @Override
+        public String toString() {
+            return text + "}";
+        }
+    }
+
+    static final class Entry {
+        private final String fingerprint;
+        private final TaskDefinition taskDefinition;
+        private final long loadedAt;
+        private final long ttlMillis;
+        private final AtomicBoolean refreshing = new AtomicBoolean();
+
+        Entry(String fingerprint, TaskDefinition taskDefinition, long loadedAt, long ttlMillis) {
+            this.fingerprint = fingerprint;
+            this.taskDefinition = taskDefinition;
+            this.loadedAt = loadedAt;
+            this.ttlMillis = ttlMillis;
+        }
+
+        @Nonnull
+        String getFingerprint() {
+            return fingerprint;
+        }
+
+        @Nonnull
+        TaskDefinition getTaskDefinition() {
+            return taskDefinition;
+        }
+
+        boolean isStale() {
+            return System.currentTimeMillis() - loadedAt >= ttlMillis;
+        }
+
+        /**
+         * @return true if the caller should refresh the entry, i.e. it is stale and nobody else is refreshing it
+         */
+        boolean startRefresh() {
+            return isStale() && refreshing.compareAndSet(false, true);
+        }
+
+        /**
+         * Lets the next caller retry a refresh that could not complete.
+         */
+        void refreshFailed() {
+            refreshing.set(false);
+        }
+    }
+
+    /**
+     * Hits, misses and collapsed lookups of the launches of one template.
+     */
+    public static final class Stats {
+        private final LongAdder hits = new LongAdder();
+        private final LongAdder misses = new LongAdder();
+        private final LongAdder collapsed = new LongAdder();
+
+        public long getHits() {
+            return hits.sum();
+        }
+
+        public long getMisses() {
+            return misses.sum();
+        }
+
+        /**
+         * @return how many misses waited for a lookup of the same task definition that was already running
+         */
+        public long getCollapsed() {
+            return collapsed.sum();
+        }
+
+        /**
+         * @return the share of lookups served from the cache, in percent
+         */
+        public long getHitRate() {
+            long hitCount = getHits();
+            long total = hitCount + getMisses();
+            return total == 0 ? 0 : hitCount * 100 / total;
+        }
+    }
+}
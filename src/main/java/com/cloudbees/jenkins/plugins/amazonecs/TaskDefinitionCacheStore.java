@@ -0,0 +1,149 @@
+package com.cloudbees.jenkins.plugins.amazonecs;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.stream.Collectors;
+
+import com.amazonaws.services.ecs.model.ContainerDefinition;
+import com.amazonaws.services.ecs.model.TaskDefinition;
+
+import hudson.XmlFile;
+import hudson.init.InitMilestone;
+import hudson.init.Initializer;
+import hudson.init.Terminator;
+import jenkins.model.Jenkins;
+import jenkins.util.SystemProperties;
+import jenkins.util.Timer;
+
+/**
+ * Saves the task definitions resolved by the {@link TaskDefinitionCache}s in {@code JENKINS_HOME}, so that the first
+ * launches after a restart do not have to look them up again.
+ *
+ * Only what launching an agent needs from a task definition is saved. Restored entries are stale: they are served
+ * right away and checked against ECS in the background on first use, like entries that outlived their TTL. Changes
+ * are saved {@link #SAVE_DELAY_MILLIS} after the first one, and when Jenkins stops.
+ */
+public final class TaskDefinitionCacheStore {
+    private static final Logger LOGGER = Logger.getLogger(TaskDefinitionCacheStore.class.getName());
+
+    static final boolean ENABLED = SystemProperties.getBoolean(TaskDefinitionCacheStore.class.getName() + ".enabled", true);
+    static final long SAVE_DELAY_MILLIS = TimeUnit.SECONDS.toMillis(10);
+
+    private static final AtomicBoolean SAVE_SCHEDULED = new AtomicBoolean();
+
+    private TaskDefinitionCacheStore() {
+    }
+
+    /**
+     * Restores the caches before the task definitions of the templates are registered at startup.
+     */
+    @Initializer(after = InitMilestone.PLUGINS_STARTED, before = InitMilestone.JOB_CONFIG_ADAPTED)
+    public static void load() {
+        XmlFile file = getFile();
+        if (!ENABLED || file == null || !file.exists()) {
+            return;
+        }
+        try {
+            Snapshot snapshot = (Snapshot) file.read();
+            int restored = 0;
+            for (Record record : snapshot.entries) {
+                TaskDefinitionCache.forScope(record.scope).restore(record.family, record.fingerprint, record.toTaskDefinition());
+                restored++;
+            }
+            LOGGER.log(Level.FINE, "Restored {0} cached task definitions", restored);
+        } catch (IOException | RuntimeException e) {
+            LOGGER.log(Level.WARNING, "Failed to load " + file + ", task definitions will be looked up again", e);
+        }
+    }
+
+    @Terminator
+    public static void saveAtShutdown() {
+        save();
+    }
+
+    /**
+     * Saves the caches shortly, collecting the changes made in the meantime.
+     */
+    static void changed() {
+        if (ENABLED && Jenkins.getInstanceOrNull() != null && SAVE_SCHEDULED.compareAndSet(false, true)) {
+            Timer.get().schedule(TaskDefinitionCacheStore::save, SAVE_DELAY_MILLIS, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    static void save() {
+        SAVE_SCHEDULED.set(false);
+        XmlFile file = getFile();
+        if (!ENABLED || file == null) {
+            return;
+        }
+        Snapshot snapshot = new Snapshot();
+        for (Map.Entry<String, TaskDefinitionCache> cache : TaskDefinitionCache.getCaches().entrySet()) {
+            for (Map.Entry<String, TaskDefinitionCache.Entry> entry : cache.getValue().getEntries().entrySet()) {
+                snapshot.entries.add(new Record(cache.getKey(), entry.getKey(), entry.getValue()));
+            }
+        }
+        try {
+            file.write(snapshot);
+        } catch (IOException e) {
+            LOGGER.log(Level.WARNING, "Failed to save the task definition cache to " + file, e);
+        }
+    }
+
+    private static XmlFile getFile() {
+        Jenkins jenkins = Jenkins.getInstanceOrNull();
+        if (jenkins == null) {
+            return null;
+        }
+        return new XmlFile(Jenkins.XSTREAM2, new File(jenkins.getRootDir(), TaskDefinitionCacheStore.class.getName() + ".xml"));
+    }
+
+    private static final class Snapshot {
+        private final List<Record> entries = new ArrayList<>();
+    }
+
+    /**
+     * A cache entry, with the parts of the task definition {@link ECSService#runEcsTask} uses.
+     */
+    private static final class Record {
+        private final String scope;
+        private final String family;
+        private final String fingerprint;
+        private final String taskDefinitionArn;
+        private final String networkMode;
+        private final List<String> requiresCompatibilities;
+        private final List<String> containerNames;
+
+        Record(String scope, String family, TaskDefinitionCache.Entry entry) {
+            TaskDefinition taskDefinition = entry.getTaskDefinition();
+            this.scope = scope;
+            this.family = family;
+            this.fingerprint = entry.getFingerprint();
+            this.taskDefinitionArn = taskDefinition.getTaskDefinitionArn();
+            this.networkMode = taskDefinition.getNetworkMode();
+            this.requiresCompatibilities = taskDefinition.getRequiresCompatibilities() == null ? null
+                    : new ArrayList<>(taskDefinition.getRequiresCompatibilities());
+            this.containerNames = taskDefinition.getContainerDefinitions() == null ? null
+                    : taskDefinition.getContainerDefinitions().stream().map(ContainerDefinition::getName).collect(Collectors.toList());
+        }
+
+        TaskDefinition toTaskDefinition() {
+            TaskDefinition taskDefinition = new TaskDefinition()
+                    .withTaskDefinitionArn(taskDefinitionArn)
+                    .withNetworkMode(networkMode)
+                    .withRequiresCompatibilities(requiresCompatibilities);
+            if (containerNames != null) {
+                taskDefinition.withContainerDefinitions(containerNames.stream()
+                        .map(name -> new ContainerDefinition().withName(name))
+                        .collect(Collectors.toList()));
+            }
+            return taskDefinition;
+        }
+    }
+}
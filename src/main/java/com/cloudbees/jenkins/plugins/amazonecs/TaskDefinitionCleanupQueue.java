@@ -0,0 +1,263 @@
+package com.cloudbees.jenkins.plugins.amazonecs;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.annotation.Nonnull;
+
+import com.amazonaws.AmazonClientException;
+import com.amazonaws.services.ecs.model.ClientException;
+import com.amazonaws.services.ecs.model.InvalidParameterException;
+
+import hudson.BulkChange;
+import hudson.Extension;
+import hudson.ExtensionList;
+import hudson.XmlFile;
+import hudson.model.AsyncPeriodicWork;
+import hudson.model.Saveable;
+import hudson.model.TaskListener;
+import hudson.slaves.Cloud;
+import hudson.util.AtmostOneTaskExecutor;
+import jenkins.model.Jenkins;
+import jenkins.util.SystemProperties;
+
+/**
+ * Task definitions of dynamic templates waiting to be deregistered.
+ *
+ * Pipelines enqueue the task definition of their {@code ecsTaskTemplate} when the block ends instead of deregistering
+ * it themselves, so that the build does not wait for ECS. The queue is saved in {@code JENKINS_HOME}, in the
+ * background when builds change it, and drained in batches of {@link #BATCH_SIZE} by the {@link Drainer}. Failed deregistrations are retried with a growing delay until
+ * they succeed, ECS reports that the task definition is gone, or its cloud was removed.
+ *
+ * Dynamic templates with the same content share their task definition when
+ * {@link ECSCloud#isReuseDynamicTaskDefinitions()} is enabled. The queue counts the templates using each task
+ * definition and only deregisters it once the last one released it and no other template picked it up during
+ * {@link #REUSE_GRACE_MILLIS}.
+ */
+@Extension
+public class TaskDefinitionCleanupQueue implements Saveable {
+    private static final Logger LOGGER = Logger.getLogger(TaskDefinitionCleanupQueue.class.getName());
+
+    /** Deregistrations per drain; they are also subject to the rate limit of DeregisterTaskDefinition. */
+    static final int BATCH_SIZE = SystemProperties.getInteger(TaskDefinitionCleanupQueue.class.getName() + ".batchSize", 50);
+    static final long INITIAL_RETRY_DELAY_MILLIS = TimeUnit.SECONDS.toMillis(30);
+    static final long MAX_RETRY_DELAY_MILLIS = TimeUnit.HOURS.toMillis(1);
+    /** How long an unused content-addressed task definition is kept for the next build with the same template. */
+    static final long REUSE_GRACE_MILLIS = SystemProperties.getLong(TaskDefinitionCleanupQueue.class.getName() + ".reuseGraceMillis", TimeUnit.HOURS.toMillis(1));
+
+    private final List<Entry> entries = new ArrayList<>();
+    /** Task definition ARN -&gt; dynamic templates using it, rebuilt by resumed builds after a restart. */
+    private final transient Map<String, Integer> references = new HashMap<>();
+    /** Saves the queue off the threads of builds, once for any number of changes made while it is running. */
+    private final transient AtmostOneTaskExecutor<Void> saver = new AtmostOneTaskExecutor<>(() -> {
+        saveQuietly();
+        return null;
+    });
+
+    public TaskDefinitionCleanupQueue() {
+        XmlFile file = getConfigFile();
+        if (file.exists()) {
+            try {
+                file.unmarshal(this);
+            } catch (IOException e) {
+                LOGGER.log(Level.WARNING, "Failed to load " + file, e);
+            }
+        }
+    }
+
+    @Nonnull
+    public static TaskDefinitionCleanupQueue get() {
+        return ExtensionList.lookupSingleton(TaskDefinitionCleanupQueue.class);
+    }
+
+    /**
+     * Queues a task definition to be deregistered with the credentials of a cloud.
+     */
+    public void add(@Nonnull String cloudName, @Nonnull String taskDefinitionArn) {
+        add(cloudName, taskDefinitionArn, 0);
+    }
+
+    private void add(String cloudName, String taskDefinitionArn, long delayMillis) {
+        synchronized (this) {
+            entries.removeIf(entry -> entry.taskDefinitionArn.equals(taskDefinitionArn));
+            Entry entry = new Entry(cloudName, taskDefinitionArn);
+            entry.notBefore = System.currentTimeMillis() + delayMillis;
+            entries.add(entry);
+        }
+        ECSMetrics.increment("ecs.taskDefinitionCleanup.queued");
+        scheduleSave();
+    }
+
+    /**
+     * Records that a dynamic template uses a task definition, cancelling its deregistration if it was queued.
+     */
+    public void retain(@Nonnull String taskDefinitionArn) {
+        boolean cancelled;
+        synchronized (this) {
+            references.merge(taskDefinitionArn, 1, Integer::sum);
+            cancelled = entries.removeIf(entry -> entry.taskDefinitionArn.equals(taskDefinitionArn));
+        }
+        if (cancelled) {
+            LOGGER.log(Level.FINE, "Task definition {0} is used again, not deregistering it", taskDefinitionArn);
+            ECSMetrics.increment("ecs.taskDefinitionCleanup.reused");
+            scheduleSave();
+        }
+    }
+
+    /**
+     * Records that a dynamic template no longer uses a task definition and queues it once no template does.
+     *
+     * @param delayMillis how long to wait before deregistering the task definition
+     */
+    public void release(@Nonnull String cloudName, @Nonnull String taskDefinitionArn, long delayMillis) {
+        synchronized (this) {
+            if (references.computeIfPresent(taskDefinitionArn, (arn, count) -> count > 1 ? count - 1 : null) != null) {
+                LOGGER.log(Level.FINE, "Task definition {0} is still used by other templates", taskDefinitionArn);
+                return;
+            }
+        }
+        add(cloudName, taskDefinitionArn, delayMillis);
+    }
+
+    synchronized int size() {
+        return entries.size();
+    }
+
+    synchronized int getReferences(String taskDefinitionArn) {
+        return references.getOrDefault(taskDefinitionArn, 0);
+    }
+
+    /**
+     * @return the task definitions dynamic templates use
+     */
+    @Nonnull
+    synchronized Set<String> getReferencedTaskDefinitions() {
+        return new HashSet<>(references.keySet());
+    }
+
+    /**
+     * Deregisters the task definitions that are due, up to {@link #BATCH_SIZE} of them.
+     */
+    void drain() {
+        long now = System.currentTimeMillis();
+        List<Entry> due = new ArrayList<>();
+        synchronized (this) {
+            for (Entry entry : entries) {
+                if (entry.notBefore <= now) {
+                    due.add(entry);
+                    if (due.size() == BATCH_SIZE) {
+                        break;
+                    }
+                }
+            }
+        }
+        if (due.isEmpty()) {
+            return;
+        }
+
+        List<Entry> done = new ArrayList<>();
+        for (Entry entry : due) {
+            synchronized (this) {
+                // picked up again by a template since
+                if (!entries.contains(entry) || references.containsKey(entry.taskDefinitionArn)) {
+                    continue;
+                }
+            }
+            Cloud cloud = Jenkins.get().getCloud(entry.cloudName);
+            if (!(cloud instanceof ECSCloud)) {
+                LOGGER.log(Level.WARNING, "Cloud {0} no longer exists, cannot deregister task definition {1}", new Object[]{entry.cloudName, entry.taskDefinitionArn});
+                done.add(entry);
+                continue;
+            }
+            try {
+                ((ECSCloud) cloud).getEcsService().deregisterTaskDefinition(entry.taskDefinitionArn);
+                LOGGER.log(Level.FINE, "Deregistered task definition {0}", entry.taskDefinitionArn);
+                ECSMetrics.increment("ecs.taskDefinitionCleanup.deregistered");
+                done.add(entry);
+            } catch (InvalidParameterException e) {
+                LOGGER.log(Level.FINE, "Task definition " + entry.taskDefinitionArn + " is already gone", e);
+                done.add(entry);
+            } catch (ClientException e) {
+                LOGGER.log(Level.WARNING, "Error de-registering task definition: " + entry.taskDefinitionArn, e);
+                done.add(entry);
+            } catch (AmazonClientException e) {
+                synchronized (this) {
+                    entry.attempts++;
+                    entry.notBefore = System.currentTimeMillis() + Math.min(MAX_RETRY_DELAY_MILLIS, INITIAL_RETRY_DELAY_MILLIS << Math.min(entry.attempts - 1, 20));
+                }
+                ECSMetrics.increment("ecs.taskDefinitionCleanup.retries");
+                LOGGER.log(Level.INFO, "Failed to deregister task definition " + entry.taskDefinitionArn + " (attempt " + entry.attempts + "), will retry", e);
+            }
+        }
+        synchronized (this) {
+            entries.removeAll(done);
+        }
+        saveQuietly();
+    }
+
+    @Override
+    public synchronized void save() throws IOException {
+        if (BulkChange.contains(this)) {
+            return;
+        }
+        getConfigFile().write(this);
+    }
+
+    /**
+     * Saves the queue in the background.
+     */
+    Future<Void> scheduleSave() {
+        return saver.submit();
+    }
+
+    private void saveQuietly() {
+        try {
+            save();
+        } catch (IOException e) {
+            LOGGER.log(Level.WARNING, "Failed to save the queue of task definitions to deregister", e);
+        }
+    }
+
+    private XmlFile getConfigFile() {
+        return new XmlFile(Jenkins.XSTREAM2, new File(Jenkins.get().getRootDir(), getClass().getName() + ".xml"));
+    }
+
+    private static final class Entry {
+        private final String cloudName;
+        private final String taskDefinitionArn;
+        private int attempts;
+        private long notBefore;
+
+        Entry(String cloudName, String taskDefinitionArn) {
+            this.cloudName = cloudName;
+            this.taskDefinitionArn = taskDefinitionArn;
+        }
+    }
+
+    @Extension
+    public static class Drainer extends AsyncPeriodicWork {
+        public Drainer() {
+            super("Amazon ECS task definition cleanup");
+        }
+
+        @Override
+        public long getRecurrencePeriod() {
+            return TimeUnit.MINUTES.toMillis(1);
+        }
+
+        @Override
+        protected void execute(TaskListener listener) {
+            get().drain();
+        }
+    }
+}
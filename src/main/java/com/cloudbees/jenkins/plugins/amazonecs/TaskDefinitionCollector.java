@@ -0,0 +1,289 @@
+package com.cloudbees.jenkins.plugins.amazonecs;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.annotation.CheckForNull;
+import javax.annotation.Nonnull;
+
+import com.amazonaws.AmazonClientException;
+import com.amazonaws.services.ecs.model.Tag;
+import com.amazonaws.services.ecs.model.TaskDefinitionStatus;
+import com.cloudbees.jenkins.plugins.amazonecs.pipeline.TaskTemplateMap;
+
+import hudson.Extension;
+import hudson.model.AsyncPeriodicWork;
+import hudson.model.Node;
+import hudson.model.TaskListener;
+import hudson.slaves.Cloud;
+import jenkins.model.Jenkins;
+import jenkins.util.SystemProperties;
+
+/**
+ * Deregisters and deletes old revisions of the task definitions registered for the templates of the clouds that
+ * enable it, see {@link ECSCloud#getTaskDefinitionRevisionsToKeep()}.
+ *
+ * Only families of the cloud that are tagged with {@code jenkins.templatename} are considered, and only if the
+ * family is the one the cloud registers for that template: other clouds may have names starting with the name of
+ * this one. The newest active revisions and all revisions used by agents, dynamic templates or launches about to
+ * happen are kept, older active revisions are deregistered and inactive ones
+ * deleted. Each run makes at most {@link #MAX_CHANGES_PER_RUN} changes per cloud and continues with the next family
+ * on the following run. In dry-run mode nothing is changed and the run only reports what it would do.
+ */
+@Extension
+public class TaskDefinitionCollector extends AsyncPeriodicWork {
+    private static final Logger LOGGER = Logger.getLogger(TaskDefinitionCollector.class.getName());
+
+    static final long RECURRENCE_PERIOD_MILLIS = SystemProperties.getLong(TaskDefinitionCollector.class.getName() + ".recurrencePeriodMillis", TimeUnit.HOURS.toMillis(1));
+    /** Deregistered or deleted revisions per cloud and run, so that the collector does not eat the quota of launches. */
+    static final int MAX_CHANGES_PER_RUN = SystemProperties.getInteger(TaskDefinitionCollector.class.getName() + ".maxChangesPerRun", 100);
+
+    private static final String TEMPLATE_NAME_TAG_KEY = "jenkins.templatename";
+
+    /** Cloud name -&gt; family the next run starts with, after a run ran out of budget. */
+    private static final ConcurrentMap<String, String> CURSORS = new ConcurrentHashMap<>();
+    /** Cloud name -&gt; report of its last run. */
+    private static final ConcurrentMap<String, Report> REPORTS = new ConcurrentHashMap<>();
+
+    public TaskDefinitionCollector() {
+        super("Amazon ECS task definition collector");
+    }
+
+    @Override
+    public long getRecurrencePeriod() {
+        return RECURRENCE_PERIOD_MILLIS;
+    }
+
+    @Override
+    protected void execute(TaskListener listener) {
+        Set<String> inUse = taskDefinitionsInUse();
+        for (Cloud cloud : Jenkins.get().clouds) {
+            if (cloud instanceof ECSCloud && ((ECSCloud) cloud).getTaskDefinitionRevisionsToKeep() > 0) {
+                ECSCloud ecsCloud = (ECSCloud) cloud;
+                if (ecsCloud.isCircuitOpen()) {
+                    continue;
+                }
+                Report report = collect(ecsCloud.getEcsService(), ecsCloud.name, ecsCloud.getTaskDefinitionRevisionsToKeep(),
+                        ecsCloud.isTaskDefinitionCollectorDryRun(), inUse, MAX_CHANGES_PER_RUN);
+                REPORTS.put(ecsCloud.name, report);
+                listener.getLogger().println(ecsCloud.name + ": " + report);
+            }
+        }
+    }
+
+    /**
+     * The report of the last run for a cloud, if any.
+     */
+    @CheckForNull
+    static Report getReport(@Nonnull String cloudName) {
+        return REPORTS.get(cloudName);
+    }
+
+    /**
+     * Collects the revisions of one cloud, starting with the family the previous run stopped at.
+     */
+    static Report collect(ECSService ecsService, String cloudName, int revisionsToKeep, boolean dryRun, Set<String> inUse, int maxChanges) {
+        Report report = new Report(dryRun);
+        String prefix = cloudName.replaceAll("\\s+", "") + '-';
+        try {
+            List<String> families = ecsService.listTaskDefinitionFamilies(prefix);
+            String cursor = CURSORS.remove(cloudName);
+            int start = 0;
+            if (cursor != null) {
+                int position = Collections.binarySearch(families, cursor);
+                start = position >= 0 ? position : -position - 1;
+                if (start >= families.size()) {
+                    start = 0;
+                }
+            }
+            for (int i = start; i < families.size(); i++) {
+                if (report.getChanges() >= maxChanges) {
+                    // the previous family may not be done yet
+                    CURSORS.put(cloudName, families.get(i - 1));
+                    report.incomplete = true;
+                    break;
+                }
+                collectFamily(ecsService, prefix, families.get(i), revisionsToKeep, inUse, maxChanges, report);
+            }
+        } catch (AmazonClientException e) {
+            LOGGER.log(Level.WARNING, "Could not collect the task definitions of cloud " + cloudName, e);
+            report.error = e.getMessage();
+        }
+        LOGGER.log(Level.INFO, "Task definitions of cloud {0}: {1}", new Object[]{cloudName, report});
+        return report;
+    }
+
+    private static void collectFamily(ECSService ecsService, String prefix, String family, int revisionsToKeep, Set<String> inUse, int maxChanges, Report report) {
+        List<String> active = ecsService.listTaskDefinitionRevisions(family, TaskDefinitionStatus.ACTIVE);
+        List<String> inactive = ecsService.listTaskDefinitionRevisions(family, TaskDefinitionStatus.INACTIVE);
+        if (active.isEmpty() && inactive.isEmpty()) {
+            return;
+        }
+        List<Tag> tags = ecsService.getTaskDefinitionRevisionTags(active.isEmpty() ? inactive.get(0) : active.get(0));
+        String templateName = tags == null ? null : tags.stream()
+                .filter(tag -> TEMPLATE_NAME_TAG_KEY.equals(tag.getKey()))
+                .map(Tag::getValue)
+                .findFirst()
+                .orElse(null);
+        if (templateName == null) {
+            LOGGER.log(Level.FINE, "Skipping family {0}, it was not registered by Jenkins", family);
+            return;
+        }
+        if (!family.equals(prefix + templateName)) {
+            LOGGER.log(Level.FINE, "Skipping family {0}, it belongs to another cloud", family);
+            return;
+        }
+        report.families++;
+
+        List<String> toDeregister = new ArrayList<>();
+        for (int i = revisionsToKeep; i < active.size(); i++) {
+            if (!inUse.contains(active.get(i))) {
+                toDeregister.add(active.get(i));
+            }
+        }
+        List<String> toDelete = new ArrayList<>();
+        for (String arn : inactive) {
+            if (!inUse.contains(arn)) {
+                toDelete.add(arn);
+            }
+        }
+        report.kept += active.size() - toDeregister.size();
+
+        for (String arn : toDeregister) {
+            if (report.getChanges() >= maxChanges) {
+                return;
+            }
+            if (report.dryRun) {
+                LOGGER.log(Level.FINE, "Would deregister {0}", arn);
+            } else {
+                ecsService.deregisterTaskDefinition(arn);
+            }
+            report.deregistered++;
+            // deregistered revisions can be deleted right away
+            toDelete.add(arn);
+        }
+
+        int budget = Math.min(toDelete.size(), maxChanges - report.getChanges());
+        if (budget <= 0) {
+            return;
+        }
+        List<String> batch = toDelete.subList(0, budget);
+        if (report.dryRun) {
+            LOGGER.log(Level.FINE, "Would delete {0}", batch);
+            report.deleted += batch.size();
+        } else {
+            List<String> failed = ecsService.deleteTaskDefinitions(batch);
+            report.deleted += batch.size() - failed.size();
+            report.failed += failed.size();
+        }
+    }
+
+    /**
+     * @return the task definitions of the agents currently known to Jenkins, of the dynamic templates of running
+     * builds, and the ones the next launches of templates will use
+     */
+    static Set<String> taskDefinitionsInUse() {
+        Set<String> inUse = new HashSet<>();
+        for (Node node : Jenkins.get().getNodes()) {
+            if (node instanceof ECSSlave && ((ECSSlave) node).getTaskDefinitonArn() != null) {
+                inUse.add(((ECSSlave) node).getTaskDefinitonArn());
+            }
+        }
+        inUse.addAll(TaskDefinitionCleanupQueue.get().getReferencedTaskDefinitions());
+        for (Cloud cloud : Jenkins.get().clouds) {
+            if (cloud instanceof ECSCloud) {
+                for (ECSTaskTemplate template : TaskTemplateMap.get().getTemplates((ECSCloud) cloud)) {
+                    if (template.getDynamicTaskDefinition() != null) {
+                        inUse.add(template.getDynamicTaskDefinition());
+                    }
+                }
+            }
+        }
+        // standby and other launches that do not have their node yet take their task definition from the cache
+        for (TaskDefinitionCache cache : TaskDefinitionCache.getCaches().values()) {
+            for (TaskDefinitionCache.Entry entry : cache.getEntries().values()) {
+                inUse.add(entry.getTaskDefinition().getTaskDefinitionArn());
+            }
+        }
+        return inUse;
+    }
+
+    /**
+     * What a run of the collector did, or would have done in dry-run mode, for one cloud.
+     */
+    public static final class Report {
+        private final boolean dryRun;
+        private final Date date = new Date();
+        private int families;
+        private int kept;
+        private int deregistered;
+        private int deleted;
+        private int failed;
+        private boolean incomplete;
+        private String error;
+
+        Report(boolean dryRun) {
+            this.dryRun = dryRun;
+        }
+
+        public boolean isDryRun() {
+            return dryRun;
+        }
+
+        public Date getDate() {
+            return new Date(date.getTime());
+        }
+
+        public int getFamilies() {
+            return families;
+        }
+
+        public int getKept() {
+            return kept;
+        }
+
+        public int getDeregistered() {
+            return deregistered;
+        }
+
+        public int getDeleted() {
+            return deleted;
+        }
+
+        public int getFailed() {
+            return failed;
+        }
+
+        /**
+         * @return true if the run stopped after {@link #MAX_CHANGES_PER_RUN} changes and the next one continues
+         */
+        public boolean isIncomplete() {
+            return incomplete;
+        }
+
+        @CheckForNull
+        public String getError() {
+            return error;
+        }
+
+        int getChanges() {
+            return deregistered + deleted + failed;
+        }
+
+        @Override
+        public String toString() {
+            return (dryRun ? "dry run, " : "") + families + " families, " + kept + " active revisions kept, "
+                    + deregistered + " deregistered, " + deleted + " deleted, " + failed + " failed"
+                    + (incomplete ? ", to be continued" : "") + (error != null ? ", error: " + error : "");
+        }
+    }
+}
@@ -0,0 +1,69 @@
+package com.cloudbees.jenkins.plugins.amazonecs;
+
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import hudson.Extension;
+import hudson.XmlFile;
+import hudson.init.InitMilestone;
+import hudson.init.Initializer;
+import hudson.model.Computer;
+import hudson.model.Saveable;
+import hudson.model.listeners.SaveableListener;
+import hudson.slaves.Cloud;
+import jenkins.model.Jenkins;
+import jenkins.util.SystemProperties;
+
+/**
+ * Registers the task definitions of all templates once Jenkins started and whenever its configuration is saved,
+ * so that the first agent launched from a template does not wait for it.
+ *
+ * @see ECSCloud#preRegisterTemplates()
+ */
+public final class TaskDefinitionPreRegistration {
+    private static final Logger LOGGER = Logger.getLogger(TaskDefinitionPreRegistration.class.getName());
+
+    static final boolean ENABLED = SystemProperties.getBoolean(TaskDefinitionPreRegistration.class.getName() + ".enabled", true);
+
+    private TaskDefinitionPreRegistration() {
+    }
+
+    @Initializer(after = InitMilestone.JOB_CONFIG_ADAPTED)
+    public static void preRegisterAtStartup() {
+        preRegisterAll();
+    }
+
+    static void preRegisterAll() {
+        Jenkins jenkins = Jenkins.getInstanceOrNull();
+        if (!ENABLED || jenkins == null) {
+            return;
+        }
+        for (Cloud cloud : jenkins.clouds) {
+            if (cloud instanceof ECSCloud) {
+                ECSCloud ecsCloud = (ECSCloud) cloud;
+                Computer.threadPoolForRemoting.submit(() -> {
+                    try {
+                        if (!ecsCloud.isCircuitOpen()) {
+                            ecsCloud.preRegisterTemplates();
+                        }
+                    } catch (RuntimeException e) {
+                        LOGGER.log(Level.WARNING, "Could not register the task definitions of cloud " + ecsCloud.name, e);
+                    }
+                });
+            }
+        }
+    }
+
+    /**
+     * Clouds are replaced when the Jenkins configuration is saved.
+     */
+    @Extension
+    public static class ConfigurationListener extends SaveableListener {
+        @Override
+        public void onChange(Saveable o, XmlFile file) {
+            if (o instanceof Jenkins) {
+                preRegisterAll();
+            }
+        }
+    }
+}
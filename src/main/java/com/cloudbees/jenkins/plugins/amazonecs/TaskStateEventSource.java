@@ -0,0 +1,36 @@
+package com.cloudbees.jenkins.plugins.amazonecs;
+
+import java.util.List;
+
+import javax.annotation.Nonnull;
+
+import hudson.ExtensionList;
+import hudson.ExtensionPoint;
+
+/**
+ * Feeds ECS task state changes into the plugin, so that launches waiting for a task to be RUNNING or STOPPED
+ * complete as soon as ECS reports the change instead of on the next poll.
+ *
+ * Implementations hand events to {@link TaskStateEvents#publishEvent(String)} or {@link TaskStateEvents#publish(com.amazonaws.services.ecs.model.Task)}
+ * and signal that they are connected with {@link TaskStateEvents#heartbeat(String)}. While a cluster gets heartbeats,
+ * its tasks are only polled occasionally as a safety net; once the heartbeats stop, normal polling resumes.
+ */
+public abstract class TaskStateEventSource implements ExtensionPoint {
+
+    /**
+     * Brings this source in line with the configured clouds, e.g. starts or stops consumers.
+     * Called periodically and whenever the Jenkins configuration is saved.
+     */
+    public abstract void reconcile(@Nonnull List<ECSCloud> clouds);
+
+    /**
+     * Stops all consumers of this source.
+     */
+    public void stop() {
+    }
+
+    @Nonnull
+    public static ExtensionList<TaskStateEventSource> all() {
+        return ExtensionList.lookup(TaskStateEventSource.class);
+    }
+}
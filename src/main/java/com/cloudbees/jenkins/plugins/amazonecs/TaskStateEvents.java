@@ -0,0 +1,194 @@
+package com.cloudbees.jenkins.plugins.amazonecs;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.WeakHashMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.annotation.CheckForNull;
+import javax.annotation.Nonnull;
+
+import com.amazonaws.services.ecs.model.Task;
+
+import hudson.Extension;
+import hudson.XmlFile;
+import hudson.init.Terminator;
+import hudson.model.PeriodicWork;
+import hudson.model.Saveable;
+import hudson.model.listeners.SaveableListener;
+import hudson.slaves.Cloud;
+import jenkins.model.Jenkins;
+import jenkins.util.SystemProperties;
+import net.sf.json.JSONException;
+import net.sf.json.JSONObject;
+
+/**
+ * Routes task state changes received from {@link TaskStateEventSource}s to the {@link TaskStatePoller}s
+ * tracking those tasks, and keeps track of which clusters currently receive events.
+ */
+public final class TaskStateEvents {
+    private static final Logger LOGGER = Logger.getLogger(TaskStateEvents.class.getName());
+
+    /** A cluster is considered to receive events if a source reported a heartbeat for it within this time. */
+    static final long QUIET_MILLIS = SystemProperties.getLong(TaskStateEvents.class.getName() + ".quietMillis", TimeUnit.SECONDS.toMillis(60));
+
+    static final String TASK_STATE_CHANGE = "ECS Task State Change";
+
+    /** Cluster ARN -&gt; pollers tracking tasks of that cluster. Pollers go away with the service owning them. */
+    private static final ConcurrentMap<String, Set<TaskStatePoller>> POLLERS = new ConcurrentHashMap<>();
+    /** Cluster ARN -&gt; time of the last heartbeat. */
+    private static final ConcurrentMap<String, Long> HEARTBEATS = new ConcurrentHashMap<>();
+
+    private TaskStateEvents() {
+    }
+
+    static void register(@Nonnull String clusterArn, @Nonnull TaskStatePoller poller) {
+        POLLERS.computeIfAbsent(clusterArn, k -> Collections.synchronizedSet(Collections.newSetFromMap(new WeakHashMap<>())))
+                .add(poller);
+    }
+
+    /**
+     * Reports that a source is connected and delivers the events of the given cluster.
+     */
+    public static void heartbeat(@Nonnull String clusterArn) {
+        HEARTBEATS.put(clusterArn, System.currentTimeMillis());
+    }
+
+    /**
+     * @return true if a source recently reported a heartbeat for the cluster
+     */
+    public static boolean isLive(@CheckForNull String clusterArn) {
+        Long lastHeartbeat = clusterArn == null ? null : HEARTBEATS.get(clusterArn);
+        return lastHeartbeat != null && System.currentTimeMillis() - lastHeartbeat < QUIET_MILLIS;
+    }
+
+    /**
+     * Hands a task state change to the pollers tracking the task.
+     */
+    public static void publish(@Nonnull Task task) {
+        ECSMetrics.increment("ecs.taskStateEvents.received");
+        if (task.getTaskArn() == null || task.getClusterArn() == null) {
+            return;
+        }
+        Set<TaskStatePoller> pollers = POLLERS.get(task.getClusterArn());
+        if (pollers == null) {
+            return;
+        }
+        List<TaskStatePoller> snapshot;
+        synchronized (pollers) {
+            snapshot = new ArrayList<>(pollers);
+        }
+        for (TaskStatePoller poller : snapshot) {
+            if (poller.update(task)) {
+                ECSMetrics.increment("ecs.taskStateEvents.matched");
+            }
+        }
+    }
+
+    /**
+     * Parses an EventBridge event and hands it to the pollers if it is an ECS task state change.
+     *
+     * @return the task described by the event, or null if the event is not a task state change
+     */
+    @CheckForNull
+    public static Task publishEvent(@Nonnull String eventJson) {
+        Task task = parseEvent(eventJson);
+        if (task != null) {
+            publish(task);
+        }
+        return task;
+    }
+
+    @CheckForNull
+    static Task parseEvent(@Nonnull String eventJson) {
+        try {
+            JSONObject event = JSONObject.fromObject(eventJson);
+            if (!TASK_STATE_CHANGE.equals(event.optString("detail-type"))) {
+                return null;
+            }
+            JSONObject detail = event.optJSONObject("detail");
+            if (detail == null || detail.isNullObject()) {
+                return null;
+            }
+            return new Task()
+                    .withTaskArn(optString(detail, "taskArn"))
+                    .withClusterArn(optString(detail, "clusterArn"))
+                    .withTaskDefinitionArn(optString(detail, "taskDefinitionArn"))
+                    .withLastStatus(optString(detail, "lastStatus"))
+                    .withDesiredStatus(optString(detail, "desiredStatus"))
+                    .withStopCode(optString(detail, "stopCode"))
+                    .withStoppedReason(optString(detail, "stoppedReason"));
+        } catch (JSONException e) {
+            LOGGER.log(Level.FINE, "Ignoring malformed event: " + eventJson, e);
+            return null;
+        }
+    }
+
+    @CheckForNull
+    private static String optString(JSONObject json, String key) {
+        Object value = json.opt(key);
+        return value instanceof String ? (String) value : null;
+    }
+
+    static void reconcileSources() {
+        Jenkins jenkins = Jenkins.getInstanceOrNull();
+        if (jenkins == null) {
+            return;
+        }
+        List<ECSCloud> clouds = new ArrayList<>();
+        for (Cloud cloud : jenkins.clouds) {
+            if (cloud instanceof ECSCloud) {
+                clouds.add((ECSCloud) cloud);
+            }
+        }
+        for (TaskStateEventSource source : TaskStateEventSource.all()) {
+            try {
+                source.reconcile(clouds);
+            } catch (RuntimeException e) {
+                LOGGER.log(Level.WARNING, "Failed to update task state event source " + source.getClass().getName(), e);
+            }
+        }
+    }
+
+    @Terminator
+    public static void stopSources() {
+        for (TaskStateEventSource source : TaskStateEventSource.all()) {
+            source.stop();
+        }
+    }
+
+    /**
+     * Keeps the event sources in line with the cloud configuration, restarting consumers that died.
+     */
+    @Extension
+    public static class Reconciler extends PeriodicWork {
+        @Override
+        public long getRecurrencePeriod() {
+            return TimeUnit.MINUTES.toMillis(1);
+        }
+
+        @Override
+        protected void doRun() {
+            reconcileSources();
+        }
+    }
+
+    /**
+     * Applies cloud configuration changes to the event sources right away.
+     */
+    @Extension
+    public static class ConfigurationListener extends SaveableListener {
+        @Override
+        public void onChange(Saveable o, XmlFile file) {
+            if (o instanceof Jenkins) {
+                reconcileSources();
+            }
+        }
+    }
+}
@@ -0,0 +1,191 @@
+package com.cloudbees.jenkins.plugins.amazonecs;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.annotation.CheckForNull;
+import javax.annotation.Nonnull;
+
+import com.amazonaws.AmazonServiceException;
+import com.amazonaws.retry.RetryUtils;
+import com.amazonaws.services.ecs.model.Task;
+
+import jenkins.util.SystemProperties;
+import jenkins.util.Timer;
+
+/**
+ * Tracks the tasks of one cluster that are waiting to become RUNNING and polls their state in batches,
+ * instead of running one waiter per launching agent.
+ *
+ * Each watched task gets a future which is completed with the task once it is RUNNING or STOPPED, or with
+ * null if ECS keeps reporting it as missing. The polling interval starts at the cloud's task polling interval,
+ * backs off while nothing changes or when DescribeTasks is throttled, and resets as soon as a task moves.
+ * While the cluster receives {@link TaskStateEvents}, tasks are completed by the events and only polled occasionally.
+ */
+class TaskStatePoller {
+    private static final Logger LOGGER = Logger.getLogger(TaskStatePoller.class.getName());
+
+    /** Upper bound for the adaptive polling interval. */
+    static final long MAX_INTERVAL_MILLIS = SystemProperties.getLong(TaskStatePoller.class.getName() + ".maxIntervalMillis", 5000L);
+    /** Polling interval used as a safety net while the cluster receives task state events. */
+    static final long EVENT_SAFETY_INTERVAL_MILLIS = SystemProperties.getLong(TaskStatePoller.class.getName() + ".eventSafetyIntervalMillis", 15000L);
+    /** Number of consecutive polls a task may be reported missing before giving up on it. */
+    static final int MAX_MISSING_POLLS = 3;
+
+    private final DescribeTasksBatcher describeTasksBatcher;
+    private final String clusterArn;
+
+    private final ConcurrentMap<String, Watch> watches = new ConcurrentHashMap<>();
+    private final AtomicBoolean polling = new AtomicBoolean();
+    private volatile long baseIntervalMillis = TimeUnit.SECONDS.toMillis(1);
+    private volatile long intervalMillis = baseIntervalMillis;
+
+    TaskStatePoller(@Nonnull DescribeTasksBatcher describeTasksBatcher, String clusterArn) {
+        this.describeTasksBatcher = describeTasksBatcher;
+        this.clusterArn = clusterArn;
+    }
+
+    /**
+     * Starts tracking a task.
+     *
+     * @param taskArn                  the task to track
+     * @param pollingIntervalInSeconds the shortest interval the caller wants the task to be polled at
+     * @return a future completed with the task once it is RUNNING or STOPPED, or null if it cannot be found.
+     *         Cancelling the future stops tracking the task.
+     */
+    @Nonnull
+    CompletableFuture<Task> watch(@Nonnull String taskArn, int pollingIntervalInSeconds) {
+        long requested = TimeUnit.SECONDS.toMillis(Math.max(1, pollingIntervalInSeconds));
+        if (requested < baseIntervalMillis || watches.isEmpty()) {
+            baseIntervalMillis = requested;
+            intervalMillis = requested;
+        }
+        Watch watch = watches.computeIfAbsent(taskArn, k -> new Watch());
+        schedulePoll(intervalMillis);
+        return watch.future;
+    }
+
+    /**
+     * Completes the future of a tracked task from an outside source of task state, e.g. an event.
+     *
+     * @return true if the task was tracked by this poller and is now settled
+     */
+    boolean update(@Nonnull Task task) {
+        Watch watch = watches.get(task.getTaskArn());
+        if (watch != null && isSettled(task) && watches.remove(task.getTaskArn(), watch)) {
+            watch.future.complete(task);
+            return true;
+        }
+        return false;
+    }
+
+    int getPendingCount() {
+        return watches.size();
+    }
+
+    long getIntervalMillis() {
+        return intervalMillis;
+    }
+
+    private void schedulePoll(long delayMillis) {
+        if (TaskStateEvents.isLive(clusterArn)) {
+            delayMillis = Math.max(delayMillis, EVENT_SAFETY_INTERVAL_MILLIS);
+        }
+        if (polling.compareAndSet(false, true)) {
+            Timer.get().schedule(this::poll, delayMillis, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    private void poll() {
+        watches.entrySet().removeIf(e -> e.getValue().future.isDone());
+        if (watches.isEmpty()) {
+            polling.set(false);
+            // a watch may have been added after the check above
+            if (!watches.isEmpty()) {
+                schedulePoll(intervalMillis);
+            }
+            return;
+        }
+
+        ECSMetrics.increment("ecs.taskStatePoller.polls");
+        List<CompletableFuture<Void>> lookups = new ArrayList<>();
+        AtomicBoolean changed = new AtomicBoolean();
+        AtomicBoolean throttled = new AtomicBoolean();
+        for (Map.Entry<String, Watch> entry : watches.entrySet()) {
+            String taskArn = entry.getKey();
+            Watch watch = entry.getValue();
+            lookups.add(describeTasksBatcher.describe(taskArn, clusterArn).handle((task, error) -> {
+                if (error != null) {
+                    if (isThrottling(error)) {
+                        throttled.set(true);
+                    } else {
+                        LOGGER.log(Level.FINE, "Failed to describe task " + taskArn, error);
+                    }
+                } else if (onPolled(taskArn, watch, task)) {
+                    changed.set(true);
+                }
+                return null;
+            }));
+        }
+
+        CompletableFuture.allOf(lookups.toArray(new CompletableFuture[0])).whenComplete((ignored, error) -> {
+            if (throttled.get()) {
+                intervalMillis = Math.min(Math.max(MAX_INTERVAL_MILLIS, baseIntervalMillis), intervalMillis * 2);
+            } else if (changed.get()) {
+                intervalMillis = baseIntervalMillis;
+            } else {
+                intervalMillis = Math.min(Math.max(MAX_INTERVAL_MILLIS, baseIntervalMillis), intervalMillis * 3 / 2);
+            }
+            LOGGER.log(Level.FINER, "Polled {0} task(s) in {1}, next poll in {2}ms", new Object[]{lookups.size(), clusterArn, intervalMillis});
+            polling.set(false);
+            schedulePoll(intervalMillis);
+        });
+    }
+
+    /**
+     * @return true if the state of the task changed since the last poll
+     */
+    private boolean onPolled(String taskArn, Watch watch, @CheckForNull Task task) {
+        if (task == null) {
+            if (++watch.missingPolls >= MAX_MISSING_POLLS) {
+                watches.remove(taskArn);
+                watch.future.complete(null);
+                return true;
+            }
+            return false;
+        }
+        watch.missingPolls = 0;
+        if (isSettled(task)) {
+            watches.remove(taskArn);
+            watch.future.complete(task);
+            return true;
+        }
+        boolean changed = !task.getLastStatus().equals(watch.lastStatus);
+        watch.lastStatus = task.getLastStatus();
+        return changed;
+    }
+
+    static boolean isSettled(Task task) {
+        return "RUNNING".equals(task.getLastStatus()) || "STOPPED".equals(task.getLastStatus());
+    }
+
+    private static boolean isThrottling(Throwable error) {
+        Throwable cause = error instanceof CompletionException && error.getCause() != null ? error.getCause() : error;
+        return cause instanceof AmazonServiceException && RetryUtils.isThrottlingException((AmazonServiceException) cause);
+    }
+
+    private static final class Watch {
+        private final CompletableFuture<Task> future = new CompletableFuture<>();
+        private volatile String lastStatus;
+        private volatile int missingPolls;
+    }
+}
@@ -0,0 +1,214 @@
+package com.cloudbees.jenkins.plugins.amazonecs.aws;
+
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.annotation.Nonnull;
+
+import com.cloudbees.jenkins.plugins.amazonecs.ECSMetrics;
+import com.cloudbees.plugins.credentials.SystemCredentialsProvider;
+
+import hudson.Extension;
+import hudson.ProxyConfiguration;
+import hudson.XmlFile;
+import hudson.model.AsyncPeriodicWork;
+import hudson.model.Saveable;
+import hudson.model.TaskListener;
+import hudson.model.listeners.SaveableListener;
+import jenkins.util.Timer;
+
+/**
+ * Hands out long-lived AWS SDK clients. SDK clients are thread-safe and own an HTTP connection pool,
+ * so building one per API call throws away pooled connections, TLS sessions and credentials lookups.
+ *
+ * Clients are keyed by everything that went into building them. When the credentials store or the
+ * Jenkins proxy configuration is saved all clients are dropped; clients that nobody asked for in a while
+ * (e.g. after a cloud switched to other credentials) are expired. Dropped clients are shut down after a
+ * grace period so that requests still in flight can complete.
+ */
+public final class AWSClientRegistry {
+    private static final Logger LOGGER = Logger.getLogger(AWSClientRegistry.class.getName());
+
+    private static final AWSClientRegistry INSTANCE = new AWSClientRegistry();
+
+    static final long SHUTDOWN_GRACE_SECONDS = 60;
+    static final long IDLE_EXPIRY_MILLIS = TimeUnit.MINUTES.toMillis(30);
+
+    private final ConcurrentMap<ClientKey, Entry<?>> clients = new ConcurrentHashMap<>();
+
+    AWSClientRegistry() {
+    }
+
+    public static AWSClientRegistry get() {
+        return INSTANCE;
+    }
+
+    /**
+     * Returns the shared client for the given key, building it with the factory on first use.
+     *
+     * @param key      identifies the settings the client is built with
+     * @param factory  builds a new client
+     * @param shutdown releases the resources of a client once it is dropped from the registry
+     */
+    @SuppressWarnings("unchecked")
+    @Nonnull
+    public <T> T getClient(@Nonnull ClientKey key, @Nonnull Supplier<T> factory, @Nonnull Consumer<T> shutdown) {
+        Entry<T> entry = (Entry<T>) clients.get(key);
+        if (entry == null) {
+            entry = (Entry<T>) clients.computeIfAbsent(key, k -> {
+                ECSMetrics.increment("aws.client." + k.service + ".misses");
+                LOGGER.log(Level.FINE, "Building new AWS client for {0}", k);
+                return new Entry<>(factory.get(), shutdown);
+            });
+        } else {
+            ECSMetrics.increment("aws.client." + key.service + ".hits");
+        }
+        entry.lastUsed = System.currentTimeMillis();
+        return entry.client;
+    }
+
+    /**
+     * Drops the client for the given key, if any. It is shut down after a grace period.
+     */
+    public void invalidate(@Nonnull ClientKey key) {
+        Entry<?> entry = clients.remove(key);
+        if (entry != null) {
+            LOGGER.log(Level.FINE, "Invalidating AWS client for {0}", key);
+            entry.shutdownLater();
+        }
+    }
+
+    /**
+     * Drops all clients, e.g. because credentials or proxy settings changed.
+     */
+    public void invalidateAll() {
+        for (ClientKey key : clients.keySet()) {
+            invalidate(key);
+        }
+    }
+
+    void expireIdle(long now) {
+        for (Map.Entry<ClientKey, Entry<?>> entry : clients.entrySet()) {
+            if (now - entry.getValue().lastUsed > IDLE_EXPIRY_MILLIS && clients.remove(entry.getKey(), entry.getValue())) {
+                LOGGER.log(Level.FINE, "Expiring idle AWS client for {0}", entry.getKey());
+                entry.getValue().shutdownLater();
+            }
+        }
+    }
+
+    int size() {
+        return clients.size();
+    }
+
+    private static final class Entry<T> {
+        private final T client;
+        private final Consumer<T> shutdown;
+        private volatile long lastUsed = System.currentTimeMillis();
+
+        Entry(T client, Consumer<T> shutdown) {
+            this.client = client;
+            this.shutdown = shutdown;
+        }
+
+        void shutdownLater() {
+            Timer.get().schedule(() -> {
+                try {
+                    shutdown.accept(client);
+                } catch (RuntimeException e) {
+                    LOGGER.log(Level.WARNING, "Failed to shut down AWS client", e);
+                }
+            }, SHUTDOWN_GRACE_SECONDS, TimeUnit.SECONDS);
+        }
+    }
+
+    /**
+     * Everything that determines how a client is built. Secrets never end up in the key as is,
+     * only as part of a digest.
+     */
+    public static final class ClientKey {
+        private final String service;
+        private final String credentialsId;
+        private final String assumedRoleArn;
+        private final String regionName;
+        private final String proxy;
+        private final TransportSettings transport;
+
+        public ClientKey(@Nonnull String service, String credentialsId, String assumedRoleArn, String regionName, String proxy) {
+            this(service, credentialsId, assumedRoleArn, regionName, proxy, null);
+        }
+
+        public ClientKey(@Nonnull String service, String credentialsId, String assumedRoleArn, String regionName, String proxy, TransportSettings transport) {
+            this.service = service;
+            this.credentialsId = credentialsId;
+            this.assumedRoleArn = assumedRoleArn;
+            this.regionName = regionName;
+            this.proxy = proxy;
+            this.transport = transport;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (o == null || getClass() != o.getClass()) return false;
+            ClientKey that = (ClientKey) o;
+            return service.equals(that.service)
+                    && Objects.equals(credentialsId, that.credentialsId)
+                    && Objects.equals(assumedRoleArn, that.assumedRoleArn)
+                    && Objects.equals(regionName, that.regionName)
+                    && Objects.equals(proxy, that.proxy)
+                    && Objects.equals(transport, that.transport);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(service, credentialsId, assumedRoleArn, regionName, proxy, transport);
+        }
+
+        @Override
+        public String toString() {
+            return service + "[credentialsId=" + credentialsId + ", assumedRoleArn=" + assumedRoleArn + ", regionName=" + regionName + ", " + transport + "]";
+        }
+    }
+
+    /**
+     * Drops cached clients when the settings they were built from are saved.
+     */
+    @Extension
+    public static class ConfigurationListener extends SaveableListener {
+        @Override
+        public void onChange(Saveable o, XmlFile file) {
+            if (o instanceof SystemCredentialsProvider || o instanceof ProxyConfiguration) {
+                LOGGER.log(Level.FINE, "{0} changed, dropping cached AWS clients", o.getClass().getSimpleName());
+                get().invalidateAll();
+                AssumedRoleCredentialsProvider.invalidateAll();
+            }
+        }
+    }
+
+    /**
+     * Shuts down clients that have not been used for a while.
+     */
+    @Extension
+    public static class IdleClientReaper extends AsyncPeriodicWork {
+        public IdleClientReaper() {
+            super("Amazon ECS idle client reaper");
+        }
+
+        @Override
+        public long getRecurrencePeriod() {
+            return TimeUnit.MINUTES.toMillis(5);
+        }
+
+        @Override
+        protected void execute(TaskListener listener) {
+            get().expireIdle(System.currentTimeMillis());
+        }
+    }
+}
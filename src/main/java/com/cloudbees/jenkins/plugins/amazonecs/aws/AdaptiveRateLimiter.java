@@ -0,0 +1,80 @@
+package com.cloudbees.jenkins.plugins.amazonecs.aws;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Token bucket whose refill rate adapts to throttling: it is halved whenever AWS throttles a request
+ * and grows back additively with every successful one, up to the documented quota.
+ */
+public final class AdaptiveRateLimiter {
+    /** Share of the maximum rate regained per successful request. */
+    static final double RECOVERY_STEP = 0.02;
+
+    private final double maxRate;
+    private final double minRate;
+    private final double burst;
+
+    private double rate;
+    private double tokens;
+    private long lastRefillNanos;
+
+    /**
+     * @param maxRate sustained requests per second allowed by the quota
+     * @param burst   size of the bucket, i.e. requests allowed at once after a quiet period
+     */
+    public AdaptiveRateLimiter(double maxRate, double burst) {
+        this.maxRate = maxRate;
+        this.minRate = Math.min(maxRate, 0.1);
+        this.burst = burst;
+        this.rate = maxRate;
+        this.tokens = burst;
+        this.lastRefillNanos = System.nanoTime();
+    }
+
+    /**
+     * Takes a token, waiting for one to become available if needed.
+     *
+     * @return how long the caller waited, in milliseconds
+     */
+    public long acquire() throws InterruptedException {
+        long waitNanos = reserve();
+        if (waitNanos > 0) {
+            TimeUnit.NANOSECONDS.sleep(waitNanos);
+        }
+        return TimeUnit.NANOSECONDS.toMillis(waitNanos);
+    }
+
+    /**
+     * Takes a token, possibly going into debt, and returns how long the caller has to wait until the token is valid.
+     * Callers queue up behind each other this way.
+     */
+    synchronized long reserve() {
+        refill();
+        tokens -= 1;
+        if (tokens >= 0) {
+            return 0;
+        }
+        return (long) (-tokens / rate * TimeUnit.SECONDS.toNanos(1));
+    }
+
+    public synchronized void onThrottled() {
+        refill();
+        rate = Math.max(minRate, rate / 2);
+        // drain the bucket, the quota is evidently used up
+        tokens = Math.min(tokens, 0);
+    }
+
+    public synchronized void onSuccess() {
+        rate = Math.min(maxRate, rate + maxRate * RECOVERY_STEP);
+    }
+
+    public synchronized double getRate() {
+        return rate;
+    }
+
+    private void refill() {
+        long now = System.nanoTime();
+        tokens = Math.min(burst, tokens + (now - lastRefillNanos) * rate / TimeUnit.SECONDS.toNanos(1));
+        lastRefillNanos = now;
+    }
+}
@@ -0,0 +1,205 @@
+package com.cloudbees.jenkins.plugins.amazonecs.aws;
+
+import java.util.Date;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.annotation.Nonnull;
+
+import com.amazonaws.ClientConfiguration;
+import com.amazonaws.auth.AWSCredentials;
+import com.amazonaws.auth.AWSCredentialsProvider;
+import com.amazonaws.auth.BasicSessionCredentials;
+import com.amazonaws.services.securitytoken.AWSSecurityTokenService;
+import com.amazonaws.services.securitytoken.AWSSecurityTokenServiceClientBuilder;
+import com.amazonaws.services.securitytoken.model.AssumeRoleRequest;
+import com.amazonaws.services.securitytoken.model.Credentials;
+import com.cloudbees.jenkins.plugins.amazonecs.ECSMetrics;
+
+import jenkins.util.Timer;
+
+/**
+ * Credentials for an assumed role that are obtained once and then refreshed in the background
+ * before they expire, so that STS is not called on the critical path of a launch.
+ *
+ * There is one provider per role, region and client settings (proxy, transport), shared by all services of the
+ * clouds using that role. Like the clients of {@link AWSClientRegistry}, providers are dropped when the credentials
+ * store or the Jenkins proxy configuration is saved, and their STS client is shut down after a grace period.
+ */
+public final class AssumedRoleCredentialsProvider implements AWSCredentialsProvider {
+    private static final Logger LOGGER = Logger.getLogger(AssumedRoleCredentialsProvider.class.getName());
+
+    static final String ROLE_SESSION_NAME = "jenkins-role-session";
+    static final int SESSION_DURATION_SECONDS = 3600;
+    /** Refresh this long before the session expires. */
+    static final long REFRESH_BEFORE_EXPIRY_MILLIS = TimeUnit.MINUTES.toMillis(5);
+    /** Refresh synchronously if the session is about to expire and the background refresh did not happen. */
+    static final long EXPIRY_SKEW_MILLIS = TimeUnit.MINUTES.toMillis(1);
+    /** Retry a failed background refresh after this long, while the current session is still valid. */
+    static final long RETRY_DELAY_MILLIS = TimeUnit.SECONDS.toMillis(30);
+    /** Stop refreshing in the background once nobody asked for the credentials for this long. */
+    static final long IDLE_MILLIS = TimeUnit.MINUTES.toMillis(30);
+
+    private static final ConcurrentMap<AWSClientRegistry.ClientKey, AssumedRoleCredentialsProvider> PROVIDERS = new ConcurrentHashMap<>();
+
+    private final String roleArn;
+    private final AWSSecurityTokenService stsClient;
+
+    private volatile BasicSessionCredentials credentials;
+    private volatile long expiration;
+    private volatile long lastUsed;
+    private ScheduledFuture<?> scheduledRefresh;
+    private boolean closed;
+
+    private volatile long refreshCount;
+    private volatile long lastRefreshMillis;
+
+    AssumedRoleCredentialsProvider(String roleArn, AWSSecurityTokenService stsClient) {
+        this.roleArn = roleArn;
+        this.stsClient = stsClient;
+    }
+
+    /**
+     * Returns the shared provider for the given role, building its STS client with the given configuration on first use.
+     *
+     * @param key identifies the role, region and settings the STS client is built with
+     */
+    @Nonnull
+    public static AssumedRoleCredentialsProvider forRole(@Nonnull AWSClientRegistry.ClientKey key, @Nonnull String roleArn, String regionName,
+                                                         @Nonnull ClientConfiguration clientConfiguration) {
+        return forKey(key, roleArn, () -> AWSSecurityTokenServiceClientBuilder.standard()
+                .withClientConfiguration(clientConfiguration)
+                .withRegion(regionName)
+                .build());
+    }
+
+    @Nonnull
+    static AssumedRoleCredentialsProvider forKey(@Nonnull AWSClientRegistry.ClientKey key, @Nonnull String roleArn, @Nonnull Supplier<AWSSecurityTokenService> stsClient) {
+        return PROVIDERS.computeIfAbsent(key, k -> new AssumedRoleCredentialsProvider(roleArn, stsClient.get()));
+    }
+
+    /**
+     * Drops all providers, e.g. because credentials or proxy settings changed. Their STS clients are shut down after a grace period.
+     */
+    public static void invalidateAll() {
+        for (AWSClientRegistry.ClientKey key : PROVIDERS.keySet()) {
+            AssumedRoleCredentialsProvider provider = PROVIDERS.remove(key);
+            if (provider != null) {
+                LOGGER.log(Level.FINE, "Dropping credentials provider for {0}", key);
+                provider.close();
+            }
+        }
+    }
+
+    private synchronized void close() {
+        closed = true;
+        if (scheduledRefresh != null) {
+            scheduledRefresh.cancel(false);
+        }
+        Timer.get().schedule(() -> {
+            try {
+                stsClient.shutdown();
+            } catch (RuntimeException e) {
+                LOGGER.log(Level.WARNING, "Failed to shut down STS client", e);
+            }
+        }, AWSClientRegistry.SHUTDOWN_GRACE_SECONDS, TimeUnit.SECONDS);
+    }
+
+    @Override
+    public AWSCredentials getCredentials() {
+        lastUsed = System.currentTimeMillis();
+        BasicSessionCredentials current = credentials;
+        if (current == null || isExpiring()) {
+            synchronized (this) {
+                current = credentials;
+                if (current == null || isExpiring()) {
+                    refresh();
+                    current = credentials;
+                }
+            }
+        }
+        return current;
+    }
+
+    private boolean isExpiring() {
+        return System.currentTimeMillis() >= expiration - EXPIRY_SKEW_MILLIS;
+    }
+
+    @Override
+    public synchronized void refresh() {
+        long start = System.currentTimeMillis();
+        Credentials session = stsClient.assumeRole(new AssumeRoleRequest()
+                .withRoleArn(roleArn)
+                .withRoleSessionName(ROLE_SESSION_NAME)
+                .withDurationSeconds(SESSION_DURATION_SECONDS)).getCredentials();
+        long elapsed = System.currentTimeMillis() - start;
+
+        credentials = new BasicSessionCredentials(session.getAccessKeyId(), session.getSecretAccessKey(), session.getSessionToken());
+        Date sessionExpiration = session.getExpiration();
+        expiration = sessionExpiration != null ? sessionExpiration.getTime() : start + TimeUnit.SECONDS.toMillis(SESSION_DURATION_SECONDS);
+
+        refreshCount++;
+        lastRefreshMillis = elapsed;
+        ECSMetrics.increment("aws.sts.assumeRole.refreshes");
+        ECSMetrics.add("aws.sts.assumeRole.refreshMillis", elapsed);
+        LOGGER.log(Level.FINE, "Assumed role {0} in {1}ms, session expires at {2}", new Object[]{roleArn, elapsed, sessionExpiration});
+
+        scheduleRefresh();
+    }
+
+    private void scheduleRefresh() {
+        scheduleRefresh(getRefreshDelay(expiration, System.currentTimeMillis()));
+    }
+
+    private synchronized void scheduleRefresh(long delayMillis) {
+        if (scheduledRefresh != null) {
+            scheduledRefresh.cancel(false);
+        }
+        if (closed) {
+            return;
+        }
+        scheduledRefresh = Timer.get().schedule(this::refreshInBackground, delayMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * @return how long until the next background refresh, or -1 if none is scheduled
+     */
+    synchronized long getScheduledRefreshDelay() {
+        return scheduledRefresh == null || scheduledRefresh.isDone() ? -1 : scheduledRefresh.getDelay(TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * @return how long to wait before refreshing a session expiring at the given time
+     */
+    static long getRefreshDelay(long expiration, long now) {
+        return Math.max(TimeUnit.MINUTES.toMillis(1), expiration - REFRESH_BEFORE_EXPIRY_MILLIS - now);
+    }
+
+    void refreshInBackground() {
+        if (System.currentTimeMillis() - lastUsed > IDLE_MILLIS) {
+            LOGGER.log(Level.FINE, "Credentials for role {0} have not been used recently, no longer refreshing them", roleArn);
+            return;
+        }
+        try {
+            refresh();
+        } catch (RuntimeException e) {
+            // the current session may still be valid for a while; getCredentials() refreshes synchronously once it is not
+            LOGGER.log(Level.WARNING, "Failed to refresh credentials for role " + roleArn + ", retrying in " + RETRY_DELAY_MILLIS + "ms", e);
+            ECSMetrics.increment("aws.sts.assumeRole.failures");
+            scheduleRefresh(RETRY_DELAY_MILLIS);
+        }
+    }
+
+    public long getRefreshCount() {
+        return refreshCount;
+    }
+
+    public long getLastRefreshMillis() {
+        return lastRefreshMillis;
+    }
+}
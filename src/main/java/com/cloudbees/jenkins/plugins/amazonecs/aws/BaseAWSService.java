@@ -1,6 +1,8 @@
 package com.cloudbees.jenkins.plugins.amazonecs.aws;
 
+import com.amazonaws.AmazonWebServiceRequest;
 import com.amazonaws.ClientConfiguration;
+import com.amazonaws.auth.AWSCredentialsProvider;
 import com.amazonaws.regions.Region;
 import com.amazonaws.regions.RegionUtils;
 import com.amazonaws.regions.Regions;
@@ -9,13 +11,52 @@ import com.cloudbees.jenkins.plugins.awscredentials.AWSCredentialsHelper;
 import com.cloudbees.jenkins.plugins.awscredentials.AmazonWebServicesCredentials;
 import com.google.common.base.Joiner;
 import hudson.ProxyConfiguration;
+import hudson.Util;
 import jenkins.model.Jenkins;
 import org.apache.commons.lang.StringUtils;
 
 import javax.annotation.CheckForNull;
+import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 
 public abstract class BaseAWSService {
+    private static final Logger LOGGER = Logger.getLogger(BaseAWSService.class.getName());
+
+    private final TransportSettings transportSettings;
+    private volatile String cloudName;
+
+    protected BaseAWSService() {
+        this(TransportSettings.DEFAULT);
+    }
+
+    protected BaseAWSService(@Nonnull TransportSettings transportSettings) {
+        this.transportSettings = transportSettings;
+    }
+
+    @Nonnull
+    public TransportSettings getTransportSettings() {
+        return transportSettings;
+    }
+
+    /**
+     * Sets the cloud the requests of this service are attributed to in {@link RetryTelemetry}.
+     */
+    public void setCloudName(@Nullable String cloudName) {
+        this.cloudName = cloudName;
+    }
+
+    /**
+     * Tags a request with the cloud of this service.
+     */
+    protected <Q extends AmazonWebServiceRequest> Q tagged(Q request) {
+        String cloud = cloudName;
+        if (cloud != null) {
+            request.addHandlerContext(RetryTelemetry.CLOUD, cloud);
+        }
+        return request;
+    }
 
     Region getRegion(String regionName) {
         if (StringUtils.isNotEmpty(regionName)) {
@@ -30,6 +71,51 @@ public abstract class BaseAWSService {
         return AWSCredentialsHelper.getCredentials(credentialsId, Jenkins.get());
     }
 
+    /**
+     * Resolves the credentials a client should use: the configured AWS credentials if any, otherwise the
+     * shared, auto-refreshing session of the assumed role if any. Returns null to use the default provider chain.
+     */
+    @CheckForNull
+    protected AWSCredentialsProvider getCredentialsProvider(@Nullable String credentialsId, @Nullable String assumedRoleArn, @Nullable String regionName) {
+        AmazonWebServicesCredentials credentials = getCredentials(credentialsId);
+        if (credentials != null) {
+            if (LOGGER.isLoggable(Level.FINE)) {
+                String awsAccessKeyId = credentials.getCredentials().getAWSAccessKeyId();
+                String obfuscatedAccessKeyId = StringUtils.left(awsAccessKeyId, 4) + StringUtils.repeat("*", awsAccessKeyId.length() - (2 * 4)) + StringUtils.right(awsAccessKeyId, 4);
+                LOGGER.log(Level.FINE, "Connect to AWS with IAM Access Key {0}", new Object[]{obfuscatedAccessKeyId});
+            }
+            return credentials;
+        }
+        if (StringUtils.isNotBlank(assumedRoleArn)) {
+            return AssumedRoleCredentialsProvider.forRole(clientKey("sts", null, assumedRoleArn, regionName), assumedRoleArn, regionName,
+                    createClientConfiguration());
+        }
+        return null;
+    }
+
+    /**
+     * Builds the {@link AWSClientRegistry} key for a client configured by this service.
+     */
+    protected AWSClientRegistry.ClientKey clientKey(String service, @Nullable String credentialsId, @Nullable String assumedRoleArn, @Nullable String regionName) {
+        return new AWSClientRegistry.ClientKey(service, credentialsId, assumedRoleArn, regionName, proxyFingerprint(), transportSettings);
+    }
+
+    /**
+     * Identifies the account and region a client calls, for limits that AWS applies at that level.
+     * Without credentials or role the default provider chain decides, which is the same for all such clients.
+     */
+    protected static String rateLimitScope(@Nullable String credentialsId, @Nullable String assumedRoleArn, @Nullable String regionName) {
+        return StringUtils.defaultString(credentialsId) + ':' + StringUtils.defaultString(assumedRoleArn) + '@' + StringUtils.defaultString(regionName);
+    }
+
+    private static String proxyFingerprint() {
+        ProxyConfiguration proxy = Jenkins.get().proxy;
+        if (proxy == null) {
+            return null;
+        }
+        return Util.getDigestOf(proxy.name + ':' + proxy.port + ':' + proxy.getUserName() + ':' + proxy.getPassword() + ':' + proxy.getNoProxyHost());
+    }
+
     protected ClientConfiguration createClientConfiguration() {
         ProxyConfiguration proxy = Jenkins.get().proxy;
         ClientConfiguration clientConfiguration = new ClientConfiguration();
@@ -45,6 +131,8 @@ public abstract class BaseAWSService {
             }
         }
 
+        transportSettings.applyTo(clientConfiguration);
+
         clientConfiguration.setRetryPolicy(ecsRetryPolicy());
 
         // Default is 3. 10 helps us actually utilize the SDK's backoff strategy
@@ -56,7 +144,7 @@ public abstract class BaseAWSService {
 
     private RetryPolicy ecsRetryPolicy() {
         return new RetryPolicy(new RetryCondition(),
-                       null,
+                       new RetryTelemetry.RecordingBackoffStrategy(),
                        10,
                        true);
     }
@@ -0,0 +1,162 @@
+package com.cloudbees.jenkins.plugins.amazonecs.aws;
+
+import java.util.Date;
+import java.util.concurrent.CompletionException;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import com.amazonaws.AmazonClientException;
+import com.amazonaws.AmazonServiceException;
+import com.amazonaws.retry.RetryUtils;
+import com.cloudbees.jenkins.plugins.amazonecs.ECSMetrics;
+
+/**
+ * Stops calling AWS for a while once too many of the recent calls failed, so that an outage of the control plane
+ * fails launches fast instead of piling up threads that retry for minutes.
+ *
+ * The breaker opens when at least {@link #FAILURE_RATE_MIN_CALLS} of the last {@link #WINDOW_SIZE} calls completed
+ * and the configured share of them failed. While open, calls are rejected with {@link CircuitBreakerOpenException}.
+ * After the open period, {@link #PROBE_CALLS} probe calls are let through: the breaker closes once they all succeed
+ * and opens again as soon as one fails. Only errors that indicate a degraded service count as failures, i.e. server
+ * errors, throttling and connection problems, not rejected requests.
+ */
+public final class CircuitBreaker {
+    private static final Logger LOGGER = Logger.getLogger(CircuitBreaker.class.getName());
+
+    static final int WINDOW_SIZE = 20;
+    static final int FAILURE_RATE_MIN_CALLS = 10;
+    static final int PROBE_CALLS = 3;
+
+    /** A breaker that never opens. */
+    public static final CircuitBreaker DISABLED = new CircuitBreaker("disabled", 0, 0);
+
+    public enum State { CLOSED, OPEN, HALF_OPEN }
+
+    private final String name;
+    private final int failureRatePercent;
+    private final long openMillis;
+
+    /** Outcomes of the last calls, true for failures. */
+    private final boolean[] window = new boolean[WINDOW_SIZE];
+    private int windowCalls;
+    private int windowFailures;
+    private int windowPosition;
+
+    private State state = State.CLOSED;
+    private long openedAt;
+    private int probesStarted;
+    private int probesSucceeded;
+
+    /**
+     * @param name               used in logs, metrics and errors, e.g. the name of the cloud
+     * @param failureRatePercent share of failed calls that opens the breaker, 0 disables it
+     * @param openMillis         how long calls are rejected before probing the service again
+     */
+    public CircuitBreaker(String name, int failureRatePercent, long openMillis) {
+        this.name = name;
+        this.failureRatePercent = failureRatePercent;
+        this.openMillis = openMillis;
+    }
+
+    /**
+     * Asks for permission to make a call. Every permitted call must be followed by {@link #onSuccess()} or
+     * {@link #onFailure(Throwable)}.
+     *
+     * @throws CircuitBreakerOpenException if the breaker is open, or half-open and all probes are taken
+     */
+    public synchronized void acquire() throws CircuitBreakerOpenException {
+        if (state == State.OPEN && System.currentTimeMillis() - openedAt >= openMillis) {
+            LOGGER.log(Level.INFO, "Circuit breaker of {0} is half-open, probing the service", name);
+            state = State.HALF_OPEN;
+            probesStarted = 0;
+            probesSucceeded = 0;
+        }
+        if (state == State.OPEN || (state == State.HALF_OPEN && probesStarted >= PROBE_CALLS)) {
+            ECSMetrics.increment("circuitBreaker." + name + ".rejected");
+            throw new CircuitBreakerOpenException("Circuit breaker of " + name + " is open after too many failed AWS calls, not calling AWS until "
+                    + (state == State.OPEN ? "after " + new Date(openedAt + openMillis) : "the service recovers"));
+        }
+        if (state == State.HALF_OPEN) {
+            probesStarted++;
+        }
+    }
+
+    public synchronized void onSuccess() {
+        if (state == State.HALF_OPEN) {
+            if (++probesSucceeded >= PROBE_CALLS) {
+                LOGGER.log(Level.INFO, "Circuit breaker of {0} is closed again", name);
+                state = State.CLOSED;
+                windowCalls = 0;
+                windowFailures = 0;
+                windowPosition = 0;
+            }
+            return;
+        }
+        record(false);
+    }
+
+    /**
+     * Records a failed call. Errors that do not indicate a degraded service count as successful calls.
+     */
+    public synchronized void onFailure(Throwable error) {
+        if (!isServiceFailure(error)) {
+            onSuccess();
+            return;
+        }
+        if (state == State.HALF_OPEN) {
+            open("a probe call failed: " + error);
+            return;
+        }
+        record(true);
+        if (state == State.CLOSED && failureRatePercent > 0 && windowCalls >= FAILURE_RATE_MIN_CALLS
+                && windowFailures * 100 >= failureRatePercent * windowCalls) {
+            open(windowFailures + " of the last " + windowCalls + " calls failed, last error: " + error);
+        }
+    }
+
+    /**
+     * @return true while calls are rejected without probing, i.e. no new work should be started
+     */
+    public synchronized boolean isOpen() {
+        return state == State.OPEN && System.currentTimeMillis() - openedAt < openMillis;
+    }
+
+    public synchronized State getState() {
+        return state;
+    }
+
+    private void record(boolean failure) {
+        if (windowCalls == WINDOW_SIZE) {
+            if (window[windowPosition]) {
+                windowFailures--;
+            }
+        } else {
+            windowCalls++;
+        }
+        window[windowPosition] = failure;
+        if (failure) {
+            windowFailures++;
+        }
+        windowPosition = (windowPosition + 1) % WINDOW_SIZE;
+    }
+
+    private void open(String reason) {
+        LOGGER.log(Level.WARNING, "Circuit breaker of {0} is open for {1}ms: {2}", new Object[]{name, openMillis, reason});
+        ECSMetrics.increment("circuitBreaker." + name + ".opened");
+        state = State.OPEN;
+        openedAt = System.currentTimeMillis();
+    }
+
+    static boolean isServiceFailure(Throwable error) {
+        Throwable cause = error instanceof CompletionException && error.getCause() != null ? error.getCause() : error;
+        if (cause instanceof CircuitBreakerOpenException) {
+            return false;
+        }
+        if (cause instanceof AmazonServiceException) {
+            AmazonServiceException e = (AmazonServiceException) cause;
+            return e.getErrorType() == AmazonServiceException.ErrorType.Service || RetryUtils.isThrottlingException(e);
+        }
+        // connection failures and timeouts
+        return cause instanceof AmazonClientException;
+    }
+}
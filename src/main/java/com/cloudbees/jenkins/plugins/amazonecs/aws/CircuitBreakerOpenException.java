@@ -0,0 +1,19 @@
+package com.cloudbees.jenkins.plugins.amazonecs.aws;
+
+import com.amazonaws.AmazonClientException;
+
+/**
+ * Thrown instead of calling AWS while the {@link CircuitBreaker} of a cloud is open.
+ */
+public class CircuitBreakerOpenException extends AmazonClientException {
+    private static final long serialVersionUID = 1L;
+
+    public CircuitBreakerOpenException(String message) {
+        super(message);
+    }
+
+    @Override
+    public boolean isRetryable() {
+        return false;
+    }
+}
@@ -0,0 +1,49 @@
+package com.cloudbees.jenkins.plugins.amazonecs.aws;
+
+import javax.annotation.Nonnull;
+
+import com.amazonaws.AmazonWebServiceRequest;
+import com.amazonaws.Request;
+import com.amazonaws.Response;
+import com.amazonaws.metrics.RequestMetricCollector;
+import com.amazonaws.util.AWSRequestMetrics;
+import com.amazonaws.util.TimingInfo;
+import com.cloudbees.jenkins.plugins.amazonecs.ECSMetrics;
+
+/**
+ * Reports the state of a client's HTTP connection pool, which the SDK only captures while a request metric
+ * collector is installed. Like {@link RetryTelemetry}, gauges are kept per cloud for requests tagged with
+ * {@link RetryTelemetry#CLOUD}: {@code cloud.<cloud>.aws.http.<service>.leased}, {@code .pending} and {@code .available}.
+ * Requests not made for a particular cloud, such as polling a shared SQS queue, are reported as
+ * {@code aws.http.<service>.*}. Comparing the maximum of leased connections with the pool size configured for the
+ * cloud shows whether the pool is large enough.
+ */
+public class ConnectionPoolMetricCollector extends RequestMetricCollector {
+    private final String service;
+
+    public ConnectionPoolMetricCollector(@Nonnull String service) {
+        this.service = service;
+    }
+
+    @Override
+    public void collectMetrics(Request<?> request, Response<?> response) {
+        AWSRequestMetrics metrics = request.getAWSRequestMetrics();
+        if (metrics == null) {
+            return;
+        }
+        TimingInfo timingInfo = metrics.getTimingInfo();
+        AmazonWebServiceRequest originalRequest = request.getOriginalRequest();
+        String cloud = originalRequest == null ? null : originalRequest.getHandlerContext(RetryTelemetry.CLOUD);
+        String prefix = (cloud == null ? "" : "cloud." + cloud + ".") + "aws.http." + service + ".";
+        record(timingInfo, AWSRequestMetrics.Field.HttpClientPoolLeasedCount, prefix + "leased");
+        record(timingInfo, AWSRequestMetrics.Field.HttpClientPoolPendingCount, prefix + "pending");
+        record(timingInfo, AWSRequestMetrics.Field.HttpClientPoolAvailableCount, prefix + "available");
+    }
+
+    private static void record(TimingInfo timingInfo, AWSRequestMetrics.Field field, String name) {
+        Number value = timingInfo.getCounter(field.name());
+        if (value != null) {
+            ECSMetrics.setGauge(name, value.longValue());
+        }
+    }
+}
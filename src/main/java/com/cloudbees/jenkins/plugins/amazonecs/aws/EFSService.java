@@ -33,6 +33,7 @@ import java.util.logging.Logger;
 
 import javax.annotation.Nonnull;
 
+import com.amazonaws.auth.AWSCredentialsProvider;
 import com.amazonaws.services.elasticfilesystem.AmazonElasticFileSystem;
 import com.amazonaws.services.elasticfilesystem.AmazonElasticFileSystemClientBuilder;
 import com.amazonaws.services.elasticfilesystem.model.AccessPointDescription;
@@ -41,7 +42,6 @@ import com.amazonaws.services.elasticfilesystem.model.DescribeAccessPointsResult
 import com.amazonaws.services.elasticfilesystem.model.DescribeFileSystemsRequest;
 import com.amazonaws.services.elasticfilesystem.model.DescribeFileSystemsResult;
 import com.amazonaws.services.elasticfilesystem.model.FileSystemDescription;
-import com.cloudbees.jenkins.plugins.awscredentials.AmazonWebServicesCredentials;
 
 import org.apache.commons.lang.StringUtils;
 
@@ -57,27 +57,38 @@ public class EFSService extends BaseAWSService {
     private final Supplier<AmazonElasticFileSystem> clientSupplier;
 
     public EFSService(String credentialsId, String regionName) {
-        this.clientSupplier = () -> {
-            AmazonElasticFileSystemClientBuilder builder = AmazonElasticFileSystemClientBuilder
-                    .standard()
-                    .withClientConfiguration(createClientConfiguration())
-                    .withRegion(regionName);
-
-            AmazonWebServicesCredentials credentials = getCredentials(credentialsId);
-            if (credentials != null) {
-                if (LOGGER.isLoggable(Level.FINE)) {
-                    String awsAccessKeyId = credentials.getCredentials().getAWSAccessKeyId();
-                    String obfuscatedAccessKeyId = StringUtils.left(awsAccessKeyId, 4) + StringUtils.repeat("*", awsAccessKeyId.length() - (2 * 4)) + StringUtils.right(awsAccessKeyId, 4);
-                    LOGGER.log(Level.FINE, "Connect to Amazon EFS with IAM Access Key {1}", new Object[]{obfuscatedAccessKeyId});
-                }
-                builder
-                        .withCredentials(credentials);
-            }
-            LOGGER.log(Level.FINE, "Selected Region: {0}", regionName);
-
-            return builder.build();
-        };
+        this(credentialsId, null, regionName);
     }
+
+    public EFSService(String credentialsId, String assumedRoleArn, String regionName) {
+        this(credentialsId, assumedRoleArn, regionName, TransportSettings.DEFAULT);
+    }
+
+    public EFSService(String credentialsId, String assumedRoleArn, String regionName, @Nonnull TransportSettings transportSettings) {
+        super(transportSettings);
+        this.clientSupplier = () -> AWSClientRegistry.get().getClient(
+                clientKey("efs", credentialsId, assumedRoleArn, regionName),
+                () -> createClient(credentialsId, assumedRoleArn, regionName),
+                AmazonElasticFileSystem::shutdown);
+    }
+
+    private AmazonElasticFileSystem createClient(String credentialsId, String assumedRoleArn, String regionName) {
+        AmazonElasticFileSystemClientBuilder builder = AmazonElasticFileSystemClientBuilder
+                .standard()
+                .withClientConfiguration(createClientConfiguration())
+                .withMetricsCollector(new ConnectionPoolMetricCollector("efs"))
+                .withRequestHandlers(new RetryTelemetry.RequestHandler())
+                .withRegion(regionName);
+
+        AWSCredentialsProvider credentialsProvider = getCredentialsProvider(credentialsId, assumedRoleArn, regionName);
+        if (credentialsProvider != null) {
+            builder.withCredentials(credentialsProvider);
+        }
+        LOGGER.log(Level.FINE, "Selected Region: {0}", regionName);
+
+        return builder.build();
+    }
+
     public EFSService(Supplier<AmazonElasticFileSystem> clientSupplier){
         this.clientSupplier = clientSupplier;
     }
@@ -92,7 +103,7 @@ public class EFSService extends BaseAWSService {
 
         String lastMarker = null;
         do {
-            DescribeFileSystemsResult result = client.describeFileSystems(new DescribeFileSystemsRequest().withMarker(lastMarker));
+            DescribeFileSystemsResult result = client.describeFileSystems(tagged(new DescribeFileSystemsRequest().withMarker(lastMarker)));
             allFileSystems.addAll(result.getFileSystems());
             lastMarker = result.getNextMarker();
         } while (lastMarker != null);
@@ -111,8 +122,8 @@ public class EFSService extends BaseAWSService {
         String nextToken = null;
         do {
             DescribeAccessPointsResult describeAccessPointsResult =
-                    client.describeAccessPoints(new DescribeAccessPointsRequest().withFileSystemId(fileSystemId)
-                                                                                 .withNextToken(nextToken));
+                    client.describeAccessPoints(tagged(new DescribeAccessPointsRequest().withFileSystemId(fileSystemId)
+                                                                                        .withNextToken(nextToken)));
 
             accessPointsList.addAll(describeAccessPointsResult.getAccessPoints());
             nextToken = describeAccessPointsResult.getNextToken();
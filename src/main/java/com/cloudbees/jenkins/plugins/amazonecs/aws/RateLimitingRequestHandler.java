@@ -0,0 +1,97 @@
+package com.cloudbees.jenkins.plugins.amazonecs.aws;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import javax.annotation.Nonnull;
+
+import com.amazonaws.AbortedException;
+import com.amazonaws.AmazonServiceException;
+import com.amazonaws.handlers.HandlerAfterAttemptContext;
+import com.amazonaws.handlers.HandlerBeforeAttemptContext;
+import com.amazonaws.handlers.HandlerContextKey;
+import com.amazonaws.handlers.RequestHandler2;
+import com.amazonaws.retry.RetryUtils;
+import com.cloudbees.jenkins.plugins.amazonecs.ECSMetrics;
+
+/**
+ * Passes every attempt of an ECS API call through an {@link AdaptiveRateLimiter} for its action, so that bursts
+ * queue inside Jenkins instead of being throttled by AWS. Limiters are shared by all clients calling the same
+ * account and region, as that is the scope of the ECS quotas.
+ */
+public class RateLimitingRequestHandler extends RequestHandler2 {
+
+    /** Action -&gt; {sustained rate, burst}, following the documented ECS API request throttling quotas. */
+    private static final Map<String, double[]> QUOTAS = new HashMap<>();
+    private static final double[] DEFAULT_QUOTA = {20, 50};
+
+    static {
+        QUOTAS.put("RunTask", new double[]{40, 100});
+        QUOTAS.put("StartTask", new double[]{40, 100});
+        QUOTAS.put("StopTask", new double[]{40, 100});
+        QUOTAS.put("DescribeTasks", new double[]{20, 100});
+        QUOTAS.put("ListTasks", new double[]{20, 100});
+        QUOTAS.put("DescribeTaskDefinition", new double[]{20, 50});
+        QUOTAS.put("ListTaskDefinitions", new double[]{20, 50});
+        QUOTAS.put("ListTagsForResource", new double[]{20, 50});
+        QUOTAS.put("RegisterTaskDefinition", new double[]{1, 50});
+        QUOTAS.put("DeregisterTaskDefinition", new double[]{1, 50});
+        QUOTAS.put("DeleteTaskDefinitions", new double[]{1, 50});
+    }
+
+    private static final ConcurrentMap<String, AdaptiveRateLimiter> LIMITERS = new ConcurrentHashMap<>();
+
+    private final String scope;
+
+    /**
+     * @param scope identifies the account and region the client calls
+     */
+    public RateLimitingRequestHandler(@Nonnull String scope) {
+        this.scope = scope;
+    }
+
+    @Override
+    public void beforeAttempt(HandlerBeforeAttemptContext context) {
+        String action = action(context.getRequest().getHandlerContext(HandlerContextKey.OPERATION_NAME), context.getRequest().getOriginalRequest());
+        try {
+            long waited = limiter(scope, action).acquire();
+            if (waited > 0) {
+                ECSMetrics.increment("aws.rateLimiter." + action + ".delayed");
+                ECSMetrics.add("aws.rateLimiter." + action + ".delayMillis", waited);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new AbortedException(e);
+        }
+    }
+
+    @Override
+    public void afterAttempt(HandlerAfterAttemptContext context) {
+        String action = action(context.getRequest().getHandlerContext(HandlerContextKey.OPERATION_NAME), context.getRequest().getOriginalRequest());
+        Exception exception = context.getException();
+        if (exception instanceof AmazonServiceException && RetryUtils.isThrottlingException((AmazonServiceException) exception)) {
+            ECSMetrics.increment("aws.rateLimiter." + action + ".throttled");
+            limiter(scope, action).onThrottled();
+        } else if (exception == null) {
+            limiter(scope, action).onSuccess();
+        }
+    }
+
+    @Nonnull
+    static AdaptiveRateLimiter limiter(@Nonnull String scope, @Nonnull String action) {
+        return LIMITERS.computeIfAbsent(scope + '/' + action, k -> {
+            double[] quota = QUOTAS.getOrDefault(action, DEFAULT_QUOTA);
+            return new AdaptiveRateLimiter(quota[0], quota[1]);
+        });
+    }
+
+    private static String action(String operationName, Object originalRequest) {
+        if (operationName != null) {
+            return operationName;
+        }
+        String name = originalRequest.getClass().getSimpleName();
+        return name.endsWith("Request") ? name.substring(0, name.length() - "Request".length()) : name;
+    }
+}
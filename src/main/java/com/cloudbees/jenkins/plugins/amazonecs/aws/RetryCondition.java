@@ -14,6 +14,7 @@ public class RetryCondition extends com.amazonaws.retry.PredefinedRetryPolicies.
     public boolean shouldRetry(AmazonWebServiceRequest originalRequest, AmazonClientException exception, int retriesAttempted){
         if (super.shouldRetry(originalRequest, exception, retriesAttempted)){
             LOGGER.log(Level.INFO, "retrying request {0} because of {1}, retried {2} time(s)", new Object[]{originalRequest, exception, retriesAttempted});
+            RetryTelemetry.onRetry(originalRequest, exception);
             return true;
         }
         return false;
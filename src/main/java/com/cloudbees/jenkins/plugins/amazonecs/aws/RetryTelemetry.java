@@ -0,0 +1,209 @@
+package com.cloudbees.jenkins.plugins.amazonecs.aws;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import javax.annotation.CheckForNull;
+import javax.annotation.Nonnull;
+
+import com.amazonaws.AmazonClientException;
+import com.amazonaws.AmazonServiceException;
+import com.amazonaws.AmazonWebServiceRequest;
+import com.amazonaws.Request;
+import com.amazonaws.Response;
+import com.amazonaws.handlers.HandlerContextKey;
+import com.amazonaws.handlers.RequestHandler2;
+import com.amazonaws.retry.PredefinedRetryPolicies;
+import com.amazonaws.retry.RetryPolicy;
+import com.amazonaws.retry.RetryUtils;
+import com.amazonaws.util.AWSRequestMetrics;
+import com.amazonaws.util.TimingInfo;
+import com.cloudbees.jenkins.plugins.amazonecs.ECSMetrics;
+
+/**
+ * Records retries, throttling, backoff time and failed calls per AWS operation and per cloud.
+ *
+ * Metrics are named {@code aws.<service>.<Operation>.<metric>}, and {@code cloud.<cloud>.aws.<service>.<Operation>.<metric>}
+ * for requests tagged with {@link #CLOUD}. Counters are {@code retries}, {@code throttles} and {@code failures},
+ * histograms are {@code backoffMillis} per retry and {@code attempts} per call.
+ */
+public final class RetryTelemetry {
+
+    /** Name of the cloud a request is made for. */
+    public static final HandlerContextKey<String> CLOUD = new HandlerContextKey<>("jenkins.cloud");
+
+    static final String RETRIES = "retries";
+    static final String THROTTLES = "throttles";
+    static final String FAILURES = "failures";
+    static final String BACKOFF_MILLIS = "backoffMillis";
+    static final String ATTEMPTS = "attempts";
+
+    private RetryTelemetry() {
+    }
+
+    static void onRetry(AmazonWebServiceRequest originalRequest, AmazonClientException exception) {
+        increment(originalRequest, RETRIES);
+        if (exception instanceof AmazonServiceException && RetryUtils.isThrottlingException((AmazonServiceException) exception)) {
+            increment(originalRequest, THROTTLES);
+        }
+    }
+
+    private static void increment(AmazonWebServiceRequest originalRequest, String metric) {
+        for (String name : names(originalRequest, metric)) {
+            ECSMetrics.increment(name);
+        }
+    }
+
+    private static void record(AmazonWebServiceRequest originalRequest, String metric, long value) {
+        for (String name : names(originalRequest, metric)) {
+            ECSMetrics.record(name, value);
+        }
+    }
+
+    private static List<String> names(AmazonWebServiceRequest originalRequest, String metric) {
+        List<String> names = new ArrayList<>(2);
+        String operation = operation(originalRequest);
+        names.add("aws." + operation + "." + metric);
+        String cloud = originalRequest.getHandlerContext(CLOUD);
+        if (cloud != null) {
+            names.add(cloudPrefix(cloud) + operation + "." + metric);
+        }
+        return names;
+    }
+
+    private static String cloudPrefix(String cloud) {
+        return "cloud." + cloud + ".aws.";
+    }
+
+    /**
+     * @return e.g. {@code ecs.RunTask} for a {@code com.amazonaws.services.ecs.model.RunTaskRequest}
+     */
+    static String operation(AmazonWebServiceRequest originalRequest) {
+        String name = originalRequest.getClass().getSimpleName();
+        if (name.endsWith("Request")) {
+            name = name.substring(0, name.length() - "Request".length());
+        }
+        String pkg = originalRequest.getClass().getPackage().getName();
+        int start = pkg.indexOf("services.");
+        if (start >= 0) {
+            String service = pkg.substring(start + "services.".length());
+            int end = service.indexOf('.');
+            return (end >= 0 ? service.substring(0, end) : service) + "." + name;
+        }
+        return name;
+    }
+
+    /**
+     * The telemetry of all operations called for a cloud, sorted by operation.
+     */
+    @Nonnull
+    public static List<OperationSummary> summarize(@Nonnull String cloud) {
+        String prefix = cloudPrefix(cloud);
+        Map<String, OperationSummary> summaries = new TreeMap<>();
+        for (Map.Entry<String, Long> counter : ECSMetrics.getCounters().entrySet()) {
+            if (counter.getKey().startsWith(prefix)) {
+                String rest = counter.getKey().substring(prefix.length());
+                int dot = rest.lastIndexOf('.');
+                String operation = rest.substring(0, dot);
+                OperationSummary summary = summaries.computeIfAbsent(operation, k -> new OperationSummary(k, prefix + k + "."));
+                summary.add(rest.substring(dot + 1), counter.getValue());
+            }
+        }
+        for (String histogram : ECSMetrics.getHistograms().keySet()) {
+            if (histogram.startsWith(prefix)) {
+                String rest = histogram.substring(prefix.length());
+                String operation = rest.substring(0, rest.lastIndexOf('.'));
+                summaries.computeIfAbsent(operation, k -> new OperationSummary(k, prefix + k + "."));
+            }
+        }
+        return new ArrayList<>(summaries.values());
+    }
+
+    public static final class OperationSummary {
+        private final String operation;
+        private final String prefix;
+        private long retries;
+        private long throttles;
+        private long failures;
+
+        OperationSummary(String operation, String prefix) {
+            this.operation = operation;
+            this.prefix = prefix;
+        }
+
+        void add(String metric, long value) {
+            switch (metric) {
+                case RETRIES: retries = value; break;
+                case THROTTLES: throttles = value; break;
+                case FAILURES: failures = value; break;
+                default: break;
+            }
+        }
+
+        public String getOperation() {
+            return operation;
+        }
+
+        public long getRetries() {
+            return retries;
+        }
+
+        public long getThrottles() {
+            return throttles;
+        }
+
+        public long getFailures() {
+            return failures;
+        }
+
+        @CheckForNull
+        public ECSMetrics.Histogram getBackoffMillis() {
+            return ECSMetrics.getHistogram(prefix + BACKOFF_MILLIS);
+        }
+
+        @CheckForNull
+        public ECSMetrics.Histogram getAttempts() {
+            return ECSMetrics.getHistogram(prefix + ATTEMPTS);
+        }
+    }
+
+    /**
+     * The SDK's default backoff, recording the time spent waiting before each retry.
+     */
+    static final class RecordingBackoffStrategy implements RetryPolicy.BackoffStrategy {
+        @Override
+        public long delayBeforeNextRetry(AmazonWebServiceRequest originalRequest, AmazonClientException exception, int retriesAttempted) {
+            long delay = PredefinedRetryPolicies.DEFAULT_BACKOFF_STRATEGY.delayBeforeNextRetry(originalRequest, exception, retriesAttempted);
+            record(originalRequest, BACKOFF_MILLIS, delay);
+            return delay;
+        }
+    }
+
+    /**
+     * Records how many attempts each call took and which calls failed after all retries.
+     */
+    public static class RequestHandler extends RequestHandler2 {
+        @Override
+        public void afterResponse(Request<?> request, Response<?> response) {
+            recordAttempts(request);
+        }
+
+        @Override
+        public void afterError(Request<?> request, Response<?> response, Exception e) {
+            recordAttempts(request);
+            increment(request.getOriginalRequest(), FAILURES);
+        }
+
+        private static void recordAttempts(Request<?> request) {
+            // only captured while request metrics are enabled, i.e. a metric collector is installed on the client
+            AWSRequestMetrics metrics = request.getAWSRequestMetrics();
+            TimingInfo timingInfo = metrics == null ? null : metrics.getTimingInfo();
+            Number attempts = timingInfo == null ? null : timingInfo.getCounter(AWSRequestMetrics.Field.RequestCount.name());
+            if (attempts != null) {
+                record(request.getOriginalRequest(), ATTEMPTS, attempts.longValue());
+            }
+        }
+    }
+}
@@ -0,0 +1,98 @@
+package com.cloudbees.jenkins.plugins.amazonecs.aws;
+
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.annotation.Nonnull;
+
+import com.amazonaws.auth.AWSCredentialsProvider;
+import com.amazonaws.client.builder.AwsClientBuilder;
+import com.amazonaws.services.sqs.AmazonSQS;
+import com.amazonaws.services.sqs.AmazonSQSClientBuilder;
+import com.amazonaws.services.sqs.model.DeleteMessageBatchRequestEntry;
+import com.amazonaws.services.sqs.model.Message;
+import com.amazonaws.services.sqs.model.ReceiveMessageRequest;
+
+/**
+ * Encapsulates interactions with Amazon SQS.
+ *
+ * Queues that are not hosted by AWS, e.g. LocalStack or ElasticMQ, are reached through the endpoint of their URL.
+ * Unlike the ECS and EFS clients, the client is owned by the service and released with {@link #shutdown()}.
+ */
+public class SQSService extends BaseAWSService {
+    private static final Logger LOGGER = Logger.getLogger(SQSService.class.getName());
+
+    /** Maximum long polling time allowed by SQS. */
+    static final int WAIT_TIME_SECONDS = 20;
+    /** Maximum number of messages SQS returns or deletes per call. */
+    static final int MAX_MESSAGES = 10;
+
+    private final String queueUrl;
+    private final AmazonSQS client;
+
+    public SQSService(String credentialsId, String assumedRoleArn, String regionName, @Nonnull String queueUrl) {
+        this(credentialsId, assumedRoleArn, regionName, queueUrl, TransportSettings.DEFAULT);
+    }
+
+    public SQSService(String credentialsId, String assumedRoleArn, String regionName, @Nonnull String queueUrl, @Nonnull TransportSettings transportSettings) {
+        super(transportSettings);
+        this.queueUrl = queueUrl;
+        this.client = createClient(credentialsId, assumedRoleArn, regionName, queueUrl);
+    }
+
+    public SQSService(@Nonnull AmazonSQS client, @Nonnull String queueUrl) {
+        this.queueUrl = queueUrl;
+        this.client = client;
+    }
+
+    private AmazonSQS createClient(String credentialsId, String assumedRoleArn, String regionName, String queueUrl) {
+        AmazonSQSClientBuilder builder = AmazonSQSClientBuilder
+                .standard()
+                .withClientConfiguration(createClientConfiguration())
+                .withMetricsCollector(new ConnectionPoolMetricCollector("sqs"));
+
+        URI uri = URI.create(queueUrl);
+        if (uri.getHost() != null && !uri.getHost().contains(".amazonaws.com")) {
+            String endpoint = uri.getScheme() + "://" + uri.getAuthority();
+            LOGGER.log(Level.FINE, "Using custom SQS endpoint {0}", endpoint);
+            builder.withEndpointConfiguration(new AwsClientBuilder.EndpointConfiguration(endpoint, getRegion(regionName).getName()));
+        } else {
+            builder.withRegion(getRegion(regionName).getName());
+        }
+
+        AWSCredentialsProvider credentialsProvider = getCredentialsProvider(credentialsId, assumedRoleArn, regionName);
+        if (credentialsProvider != null) {
+            builder.withCredentials(credentialsProvider);
+        }
+
+        return builder.build();
+    }
+
+    /**
+     * Long polls the queue for messages.
+     */
+    @Nonnull
+    public List<Message> receive() {
+        return client.receiveMessage(new ReceiveMessageRequest(queueUrl)
+                .withWaitTimeSeconds(WAIT_TIME_SECONDS)
+                .withMaxNumberOfMessages(MAX_MESSAGES)).getMessages();
+    }
+
+    public void delete(@Nonnull List<Message> messages) {
+        if (messages.isEmpty()) {
+            return;
+        }
+        List<DeleteMessageBatchRequestEntry> entries = new ArrayList<>();
+        for (Message message : messages) {
+            entries.add(new DeleteMessageBatchRequestEntry(message.getMessageId(), message.getReceiptHandle()));
+        }
+        client.deleteMessageBatch(queueUrl, entries);
+    }
+
+    public void shutdown() {
+        client.shutdown();
+    }
+}
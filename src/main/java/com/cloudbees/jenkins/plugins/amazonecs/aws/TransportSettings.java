@@ -0,0 +1,96 @@
+package com.cloudbees.jenkins.plugins.amazonecs.aws;
+
+import java.util.Objects;
+
+import javax.annotation.Nonnull;
+
+import com.amazonaws.ClientConfiguration;
+
+/**
+ * HTTP transport settings for the AWS clients of a cloud. Values of 0 or less keep the SDK default.
+ */
+public final class TransportSettings {
+    public static final int DEFAULT_MAX_CONNECTIONS = 200;
+    public static final int DEFAULT_CONNECTION_TTL_MILLIS = 60_000;
+    public static final int DEFAULT_CONNECTION_MAX_IDLE_MILLIS = 60_000;
+    public static final int DEFAULT_SOCKET_TIMEOUT_MILLIS = 50_000;
+    public static final int DEFAULT_REQUEST_TIMEOUT_MILLIS = 0;
+
+    public static final TransportSettings DEFAULT = new TransportSettings(DEFAULT_MAX_CONNECTIONS, DEFAULT_CONNECTION_TTL_MILLIS,
+            DEFAULT_CONNECTION_MAX_IDLE_MILLIS, DEFAULT_SOCKET_TIMEOUT_MILLIS, DEFAULT_REQUEST_TIMEOUT_MILLIS, true);
+
+    private final int maxConnections;
+    private final int connectionTtlMillis;
+    private final int connectionMaxIdleMillis;
+    private final int socketTimeoutMillis;
+    private final int requestTimeoutMillis;
+    private final boolean tcpKeepAlive;
+
+    /**
+     * @param maxConnections          size of the connection pool
+     * @param connectionTtlMillis     how long a pooled connection may be reused, so that DNS changes are picked up
+     * @param connectionMaxIdleMillis how long a connection may sit idle in the pool before it is closed
+     * @param socketTimeoutMillis     how long to wait for data on an open connection
+     * @param requestTimeoutMillis    how long a single HTTP request may take
+     * @param tcpKeepAlive            whether to send TCP keep-alive probes on pooled connections
+     */
+    public TransportSettings(int maxConnections, int connectionTtlMillis, int connectionMaxIdleMillis, int socketTimeoutMillis,
+                             int requestTimeoutMillis, boolean tcpKeepAlive) {
+        this.maxConnections = maxConnections;
+        this.connectionTtlMillis = connectionTtlMillis;
+        this.connectionMaxIdleMillis = connectionMaxIdleMillis;
+        this.socketTimeoutMillis = socketTimeoutMillis;
+        this.requestTimeoutMillis = requestTimeoutMillis;
+        this.tcpKeepAlive = tcpKeepAlive;
+    }
+
+    public int getMaxConnections() {
+        return maxConnections;
+    }
+
+    void applyTo(@Nonnull ClientConfiguration clientConfiguration) {
+        if (maxConnections > 0) {
+            clientConfiguration.setMaxConnections(maxConnections);
+        }
+        if (connectionTtlMillis > 0) {
+            clientConfiguration.setConnectionTTL(connectionTtlMillis);
+        }
+        if (connectionMaxIdleMillis > 0) {
+            clientConfiguration.setConnectionMaxIdleMillis(connectionMaxIdleMillis);
+            // the reaper closes connections that were idle for too long
+            clientConfiguration.setUseReaper(true);
+        }
+        if (socketTimeoutMillis > 0) {
+            clientConfiguration.setSocketTimeout(socketTimeoutMillis);
+        }
+        if (requestTimeoutMillis > 0) {
+            clientConfiguration.setRequestTimeout(requestTimeoutMillis);
+        }
+        clientConfiguration.setUseTcpKeepAlive(tcpKeepAlive);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+        TransportSettings that = (TransportSettings) o;
+        return maxConnections == that.maxConnections
+                && connectionTtlMillis == that.connectionTtlMillis
+                && connectionMaxIdleMillis == that.connectionMaxIdleMillis
+                && socketTimeoutMillis == that.socketTimeoutMillis
+                && requestTimeoutMillis == that.requestTimeoutMillis
+                && tcpKeepAlive == that.tcpKeepAlive;
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(maxConnections, connectionTtlMillis, connectionMaxIdleMillis, socketTimeoutMillis, requestTimeoutMillis, tcpKeepAlive);
+    }
+
+    @Override
+    public String toString() {
+        return "maxConnections=" + maxConnections + ", connectionTtlMillis=" + connectionTtlMillis
+                + ", connectionMaxIdleMillis=" + connectionMaxIdleMillis + ", socketTimeoutMillis=" + socketTimeoutMillis
+                + ", requestTimeoutMillis=" + requestTimeoutMillis + ", tcpKeepAlive=" + tcpKeepAlive;
+    }
+}
@@ -5,6 +5,7 @@ import com.cloudbees.jenkins.plugins.amazonecs.ECSTaskTemplate;
 import com.cloudbees.jenkins.plugins.amazonecs.SerializableSupplier;
 import edu.umd.cs.findbugs.annotations.SuppressFBWarnings;
 import hudson.AbortException;
+import hudson.model.Computer;
 import hudson.slaves.Cloud;
 import jenkins.model.Jenkins;
 import org.apache.commons.lang.RandomStringUtils;
@@ -13,6 +14,8 @@ import org.jenkinsci.plugins.workflow.steps.BodyExecutionCallback;
 import org.jenkinsci.plugins.workflow.steps.StepContext;
 
 import javax.annotation.Nonnull;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -52,58 +55,90 @@ public class ECSTaskTemplateStepExecution extends AbstractStepExecutionImpl {
         checkAllowedOverrides(ecsCloud, step);
         checkResourceLimits(ecsCloud, step);
 
-        newTemplate = new ECSTaskTemplate(name,
-                                          step.getLabel(),
-                                          step.getAgentContainerName(),
-                                          step.getTaskDefinitionOverride(),
-                                          null,
-                                          step.getImage(),
-                                          step.getRepositoryCredentials(),
-                                          step.getLaunchType(),
-                                          step.getOperatingSystemFamily(),
-                                          step.getCpuArchitecture(),
-                                          step.getDefaultCapacityProvider(),
-                                          step.getCapacityProviderStrategies(),
-                                          step.getNetworkMode(),
-                                          step.getRemoteFSRoot(),
-                                          step.getUniqueRemoteFSRoot(),
-                                          step.getPlatformVersion(),
-                                          step.getMemory(),
-                                          step.getMemoryReservation(),
-                                          step.getCpu(),
-                                          step.getEphemeralStorageSizeInGiB(),
-                                          step.getSubnets(),
-                                          step.getSecurityGroups(),
-                                          step.getAssignPublicIp(),
-                                          step.getPrivileged(),
-                                          step.getContainerUser(),
-                                          step.getKernelCapabilities(),
-                                          step.getLogDriverOptions(),
-                                          step.getTags(),
-                                          step.getEnvironments(),
-                                          step.getExtraHosts(),
-                                          step.getMountPoints(),
-                                          step.getEfsMountPoints(),
-                                          step.getPortMappings(),
-                                          step.getUlimits(),
-                                          step.getExecutionRole(),
-                                          step.getPlacementStrategies(),
-                                          step.getTaskrole(),
-                                          step.getInheritFrom(),
-                                          step.getSharedMemorySize(),
-                                          step.getEnableExecuteCommand());
-        newTemplate.setLogDriver(step.getLogDriver());
-
         ECSTaskTemplate parentTemplate = ecsCloud.findParentTemplate(parentLabel);
         if(parentLabel != null && parentTemplate == null){
             LOGGER.log(Level.WARNING, "InheritFrom specified as '{0}' but its template was not found. Continuing without a parent.", new Object[]{parentLabel});
         }
-        newTemplate  = newTemplate.merge(parentTemplate);
+        CompletableFuture<String> runTaskOverrideBase = step.getTaskDefinitionOverride() == null
+                ? ecsCloud.getRunTaskOverrideBase(parentTemplate, createTemplate(name, null, null))
+                : CompletableFuture.completedFuture(null);
+        // registering the template blocks, so not on the thread of the AWS client completing the future
+        runTaskOverrideBase.whenCompleteAsync((base, error) -> {
+            if (error != null) {
+                getContext().onFailure(error instanceof CompletionException && error.getCause() != null ? error.getCause() : error);
+                return;
+            }
+            try {
+                startBody(ecsCloud, parentTemplate, name, base);
+            } catch (RuntimeException e) {
+                getContext().onFailure(e);
+            }
+        }, Computer.threadPoolForRemoting);
+        return false;
+    }
+
+    private void startBody(ECSCloud ecsCloud, ECSTaskTemplate parentTemplate, String name, String runTaskOverrideBase) {
+        ECSTaskTemplate template;
+        if (runTaskOverrideBase != null) {
+            // nothing to register, the agent runs the task definition of the parent with the changes as overrides
+            template = createTemplate(name, parentTemplate, runTaskOverrideBase);
+            template.setRunTaskOverrides(true);
+        } else {
+            if (ecsCloud.isReuseDynamicTaskDefinitions()) {
+                // builds with the same template share its task definition
+                name = ecsCloud.getContentAddressedTemplateName(createTemplate(name, parentTemplate, step.getTaskDefinitionOverride()));
+            }
+            template = createTemplate(name, parentTemplate, step.getTaskDefinitionOverride());
+        }
 
-        LOGGER.log(Level.INFO, "Registering task template with name {0}", new Object[] { newTemplate.getTemplateName() });
-        newTemplate = ecsCloud.addDynamicTemplate(newTemplate);
+        LOGGER.log(Level.INFO, "Registering task template with name {0}", new Object[] { template.getTemplateName() });
+        newTemplate = ecsCloud.addDynamicTemplate(template);
         getContext().newBodyInvoker().withContext(step).withCallback(new ECSTaskTemplateCallback(newTemplate)).start();
-        return false;
+    }
+
+    private ECSTaskTemplate createTemplate(String name, ECSTaskTemplate parentTemplate, String taskDefinitionOverride) {
+        ECSTaskTemplate template = new ECSTaskTemplate(name,
+                                               step.getLabel(),
+                                               step.getAgentContainerName(),
+                                               taskDefinitionOverride,
+                                               null,
+                                               step.getImage(),
+                                               step.getRepositoryCredentials(),
+                                               step.getLaunchType(),
+                                               step.getOperatingSystemFamily(),
+                                               step.getCpuArchitecture(),
+                                               step.getDefaultCapacityProvider(),
+                                               step.getCapacityProviderStrategies(),
+                                               step.getNetworkMode(),
+                                               step.getRemoteFSRoot(),
+                                               step.getUniqueRemoteFSRoot(),
+                                               step.getPlatformVersion(),
+                                               step.getMemory(),
+                                               step.getMemoryReservation(),
+                                               step.getCpu(),
+                                               step.getEphemeralStorageSizeInGiB(),
+                                               step.getSubnets(),
+                                               step.getSecurityGroups(),
+                                               step.getAssignPublicIp(),
+                                               step.getPrivileged(),
+                                               step.getContainerUser(),
+                                               step.getKernelCapabilities(),
+                                               step.getLogDriverOptions(),
+                                               step.getTags(),
+                                               step.getEnvironments(),
+                                               step.getExtraHosts(),
+                                               step.getMountPoints(),
+                                               step.getEfsMountPoints(),
+                                               step.getPortMappings(),
+                                               step.getUlimits(),
+                                               step.getExecutionRole(),
+                                               step.getPlacementStrategies(),
+                                               step.getTaskrole(),
+                                               step.getInheritFrom(),
+                                               step.getSharedMemorySize(),
+                                               step.getEnableExecuteCommand());
+        template.setLogDriver(step.getLogDriver());
+        return template.merge(parentTemplate);
     }
 
     private Cloud validateCloud(Cloud cloud) throws AbortException {
@@ -189,6 +224,12 @@ public class ECSTaskTemplateStepExecution extends AbstractStepExecutionImpl {
     @Override
     public void onResume() {
         super.onResume();
+        if (newTemplate == null) {
+            // the step is not persisted, so the template cannot be resolved again
+            getContext().onFailure(new AbortException(
+                    "Jenkins restarted before the agent template was registered, the step cannot be resumed"));
+            return;
+        }
         Cloud c = Jenkins.get().getCloud(cloudName);
         if (c == null) {
             throw new RuntimeException(String.format("Cloud does not exist: %s", cloudName));
@@ -0,0 +1,83 @@
+package com.cloudbees.jenkins.plugins.amazonecs;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.stream.Collectors;
+
+import com.amazonaws.services.ecs.AmazonECS;
+import com.amazonaws.services.ecs.model.DescribeTasksRequest;
+import com.amazonaws.services.ecs.model.DescribeTasksResult;
+import com.amazonaws.services.ecs.model.ServerException;
+import com.amazonaws.services.ecs.model.Task;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class DescribeTasksBatcherTest {
+
+    private static final long NEVER = 3_600_000L;
+
+    @Test
+    public void concurrent_lookups_are_sent_in_batches_of_100() {
+        AmazonECS client = mock(AmazonECS.class);
+        when(client.describeTasks(any(DescribeTasksRequest.class))).thenAnswer(invocation -> {
+            DescribeTasksRequest request = invocation.getArgument(0);
+            return new DescribeTasksResult().withTasks(request.getTasks().stream()
+                    .map(arn -> new Task().withTaskArn(arn).withClusterArn(request.getCluster()))
+                    .collect(Collectors.toList()));
+        });
+        DescribeTasksBatcher batcher = new DescribeTasksBatcher(() -> client, NEVER);
+
+        List<CompletableFuture<Task>> futures = new ArrayList<>();
+        for (int i = 0; i < 150; i++) {
+            futures.add(batcher.describe("arn:aws:ecs:task/" + i, "cluster"));
+        }
+        batcher.flush();
+
+        verify(client, times(2)).describeTasks(any(DescribeTasksRequest.class));
+        for (int i = 0; i < 150; i++) {
+            assertEquals("arn:aws:ecs:task/" + i, futures.get(i).join().getTaskArn());
+        }
+    }
+
+    @Test
+    public void unknown_task_completes_with_null() {
+        AmazonECS client = mock(AmazonECS.class);
+        when(client.describeTasks(any(DescribeTasksRequest.class))).thenReturn(new DescribeTasksResult());
+        DescribeTasksBatcher batcher = new DescribeTasksBatcher(() -> client, NEVER);
+
+        CompletableFuture<Task> future = batcher.describe("arn:aws:ecs:task/missing", "cluster");
+        batcher.flush();
+
+        assertNull(future.join());
+    }
+
+    @Test
+    public void lookups_are_grouped_by_cluster_and_failures_are_propagated() {
+        AmazonECS client = mock(AmazonECS.class);
+        when(client.describeTasks(any(DescribeTasksRequest.class))).thenAnswer(invocation -> {
+            DescribeTasksRequest request = invocation.getArgument(0);
+            if ("broken".equals(request.getCluster())) {
+                throw new ServerException("boom");
+            }
+            return new DescribeTasksResult().withTasks(new Task().withTaskArn(request.getTasks().get(0)));
+        });
+        DescribeTasksBatcher batcher = new DescribeTasksBatcher(() -> client, NEVER);
+
+        CompletableFuture<Task> ok = batcher.describe("arn:aws:ecs:task/1", "cluster");
+        CompletableFuture<Task> failed = batcher.describe("arn:aws:ecs:task/2", "broken");
+        batcher.flush();
+
+        verify(client, times(2)).describeTasks(any(DescribeTasksRequest.class));
+        assertEquals("arn:aws:ecs:task/1", ok.join().getTaskArn());
+        assertTrue(failed.isCompletedExceptionally());
+    }
+}
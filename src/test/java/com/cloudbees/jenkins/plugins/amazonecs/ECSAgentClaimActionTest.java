@@ -0,0 +1,89 @@
+package com.cloudbees.jenkins.plugins.amazonecs;
+
+import java.net.URL;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import com.amazonaws.services.ecs.model.Attachment;
+import com.amazonaws.services.ecs.model.KeyValuePair;
+import com.amazonaws.services.ecs.model.Task;
+import org.htmlunit.HttpMethod;
+import org.htmlunit.Page;
+import org.htmlunit.WebRequest;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.jvnet.hudson.test.JenkinsRule;
+
+import static org.junit.Assert.assertEquals;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class ECSAgentClaimActionTest {
+
+    @Rule
+    public JenkinsRule j = new JenkinsRule();
+
+    private final List<String> arguments = Arrays.asList("-url", "http://jenkins/", "secret-1", "agent-1");
+    private JenkinsRule.WebClient webClient;
+
+    @Before
+    public void setUp() {
+        ECSService ecsService = mock(ECSService.class);
+        j.jenkins.clouds.add(new ECSCloud("mycloud", "mycluster", ecsService));
+        // the web client connects from the loopback address, whichever protocol it picks
+        Task task = new Task().withTaskArn("arn:task:1").withAttachments(new Attachment()
+                .withType("ElasticNetworkInterface")
+                .withDetails(
+                        new KeyValuePair().withName("privateIPv4Address").withValue("127.0.0.1"),
+                        new KeyValuePair().withName("privateIPv4Address").withValue("0:0:0:0:0:0:0:1")));
+        when(ecsService.describeTask("arn:task:1", "mycluster")).thenReturn(task);
+        webClient = j.createWebClient();
+        webClient.setThrowExceptionOnFailingStatusCode(false);
+    }
+
+    @Test
+    public void task_gets_the_arguments_of_its_agent_once() throws Exception {
+        register(TimeUnit.MINUTES.toMillis(5));
+
+        Page claimed = post("arn:task:1", "token");
+        assertEquals(200, claimed.getWebResponse().getStatusCode());
+        assertEquals(String.join("\n", arguments) + "\n", claimed.getWebResponse().getContentAsString());
+
+        assertEquals("replayed claim", 403, post("arn:task:1", "token").getWebResponse().getStatusCode());
+    }
+
+    @Test
+    public void claim_with_another_token_is_refused() throws Exception {
+        register(TimeUnit.MINUTES.toMillis(5));
+
+        assertEquals(403, post("arn:task:1", "other-token").getWebResponse().getStatusCode());
+        assertEquals(403, post("arn:task:1", null).getWebResponse().getStatusCode());
+        assertEquals("the agent can still be claimed with its token", 200, post("arn:task:1", "token").getWebResponse().getStatusCode());
+    }
+
+    @Test
+    public void expired_claim_is_refused() throws Exception {
+        register(-1);
+
+        assertEquals(403, post("arn:task:1", "token").getWebResponse().getStatusCode());
+    }
+
+    @Test
+    public void claim_of_unknown_task_is_refused() throws Exception {
+        register(TimeUnit.MINUTES.toMillis(5));
+
+        assertEquals(403, post("arn:task:2", "token").getWebResponse().getStatusCode());
+    }
+
+    private void register(long expiresInMillis) {
+        ECSAgentClaimAction.get().register("arn:task:1", new ECSAgentClaimAction.Claim("token", "mycloud", "mycluster", "agent-1", arguments,
+                System.currentTimeMillis() + expiresInMillis));
+    }
+
+    private Page post(String taskArn, String token) throws Exception {
+        String query = "taskArn=" + taskArn + (token == null ? "" : "&token=" + token);
+        return webClient.getPage(new WebRequest(new URL(j.getURL(), ECSAgentClaimAction.URL_NAME + "/?" + query), HttpMethod.POST));
+    }
+}
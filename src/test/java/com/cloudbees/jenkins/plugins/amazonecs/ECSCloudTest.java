@@ -1,9 +1,11 @@
 package com.cloudbees.jenkins.plugins.amazonecs;
 
 
+import com.amazonaws.services.ecs.model.Task;
 import com.amazonaws.services.ecs.model.TaskDefinition;
 import hudson.model.labels.LabelAtom;
 import hudson.slaves.NodeProvisioner.PlannedNode;
+import jenkins.model.Jenkins;
 import static junit.framework.TestCase.assertEquals;
 import static junit.framework.TestCase.assertTrue;
 import org.junit.Assert;
@@ -15,11 +17,14 @@ import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.when;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.Date;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
 
 
 public class ECSCloudTest {
@@ -99,6 +104,72 @@ public class ECSCloudTest {
         assertEquals(expected,actual);
     }
 
+    @Test
+    public void preRegisterTemplatesRecordsFailures() throws Exception {
+        ECSService ecsService = mock(ECSService.class);
+        ECSCloud cloud = new ECSCloud("mycloud", "mycluster", ecsService);
+        ECSTaskTemplate good = getTaskTemplate("good", "label1");
+        ECSTaskTemplate bad = getTaskTemplate("bad", "label2");
+        cloud.setTemplates(Arrays.asList(good, bad));
+
+        when(ecsService.registerTemplateAsync(cloud.getDisplayName(), good)).thenReturn(CompletableFuture.completedFuture(new TaskDefinition()));
+        when(ecsService.registerTemplateAsync(cloud.getDisplayName(), bad)).thenReturn(CompletableFuture.failedFuture(new RuntimeException("no such role")));
+
+        cloud.preRegisterTemplates().get();
+
+        assertEquals(Collections.singletonMap("bad", "no such role"), cloud.getPreRegistrationErrors());
+    }
+
+    @Test
+    public void runTaskOverrideBaseIsTheTaskDefinitionOfTheParent() throws Exception {
+        ECSService ecsService = mock(ECSService.class);
+        ECSCloud cloud = new ECSCloud("mycloud", "mycluster", ecsService);
+        ECSTaskTemplate parent = getTaskTemplate("parent", "parent-label");
+        cloud.setTemplates(Collections.singletonList(parent));
+        when(ecsService.registerTemplateAsync(cloud.getDisplayName(), parent)).thenReturn(CompletableFuture.completedFuture(new TaskDefinition().withTaskDefinitionArn("arn:parent")));
+
+        List<ECSTaskTemplate.EnvironmentEntry> environment = Collections.singletonList(new ECSTaskTemplate.EnvironmentEntry("FOO", "bar"));
+        ECSTaskTemplate overridable = getDynamicTemplate(null, 1024, environment);
+        Assert.assertNull(cloud.getRunTaskOverrideBase(parent, overridable).get());
+
+        cloud.setRunDynamicTemplatesWithOverrides(true);
+        assertEquals("arn:parent", cloud.getRunTaskOverrideBase(parent, overridable).get());
+        assertEquals("the image of the parent is no change", "arn:parent", cloud.getRunTaskOverrideBase(parent, getDynamicTemplate("image", 0, null)).get());
+        Assert.assertNull(cloud.getRunTaskOverrideBase(parent, getDynamicTemplate("other-image", 1024, null)).get());
+        Assert.assertNull(cloud.getRunTaskOverrideBase(getTaskTemplate("dynamic", "dynamic-label"), overridable).get());
+    }
+
+    @Test
+    public void circuit_breaker_is_only_enabled_for_new_clouds() {
+        assertEquals(ECSCloud.DescriptorImpl.DEFAULT_CIRCUIT_BREAKER_FAILURE_RATE_PERCENT,
+                new ECSCloud("new-cloud", "", "", "mycluster").getCircuitBreakerFailureRatePercent());
+
+        ECSCloud existing = (ECSCloud) Jenkins.XSTREAM2.fromXML(
+                "<com.cloudbees.jenkins.plugins.amazonecs.ECSCloud><name>existing-cloud</name><cluster>mycluster</cluster></com.cloudbees.jenkins.plugins.amazonecs.ECSCloud>");
+        assertEquals(0, existing.getCircuitBreakerFailureRatePercent());
+    }
+
+    @Test
+    public void pull_time_is_recorded_per_configured_template() {
+        ECSCloud cloud = new ECSCloud("pull-cloud", "mycluster", mock(ECSService.class));
+        ECSTaskTemplate parent = getTaskTemplate("parent", "parent-label");
+        cloud.setTemplates(Collections.singletonList(parent));
+        ECSTaskTemplate child = getDynamicTemplate("image", 0, null);
+        child.setInheritFrom("parent-label");
+
+        cloud.recordPullTime(parent, pulled(1000));
+        cloud.recordPullTime(child, pulled(3000));
+        cloud.recordPullTime(getDynamicTemplate("image", 0, null), pulled(2000));
+        cloud.recordPullTime(child, new Task());
+
+        assertEquals(2, ECSMetrics.getHistogram("cloud.pull-cloud.ecs.imagePull.pullMillis.parent").getCount());
+        assertEquals(1, ECSMetrics.getHistogram("cloud.pull-cloud.ecs.imagePull.pullMillis.dynamic").getCount());
+    }
+
+    private static Task pulled(long millis) {
+        return new Task().withPullStartedAt(new Date(0)).withPullStoppedAt(new Date(millis));
+    }
+
     @Test
     public void provisionByLabelInheritFromUsingListOfLabels() throws Exception {
         ECSCloud            cloud    = new ECSCloud("mycloud", "", "", "mycluster");
@@ -310,4 +381,48 @@ public class ECSCloudTest {
                 0,
                 false);
     }
+
+    private ECSTaskTemplate getDynamicTemplate(String image, int cpu, List<ECSTaskTemplate.EnvironmentEntry> environments) {
+        return new ECSTaskTemplate(
+                "dynamic",
+                "dynamic-label",
+                null,
+                null,
+                null,
+                image,
+                null,
+                null,
+                null,
+                null,
+                false,
+                null,
+                null,
+                null,
+                false,
+                null,
+                0,
+                0,
+                cpu,
+                null,
+                null,
+                null,
+                false,
+                false,
+                null,
+                null,
+                null,
+                null,
+                environments,
+                null,
+                null,
+                null,
+                null,
+                null,
+                null,
+                null,
+                null,
+                "parent-label",
+                0,
+                false);
+    }
 }
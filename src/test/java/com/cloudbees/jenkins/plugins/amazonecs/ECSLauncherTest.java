@@ -1,7 +1,9 @@
 package com.cloudbees.jenkins.plugins.amazonecs;
 
 
+import com.amazonaws.services.ecs.model.RunTaskResult;
 import com.amazonaws.services.ecs.model.Task;
+import com.amazonaws.services.ecs.model.TaskDefinition;
 import com.amazonaws.waiters.WaiterUnrecoverableException;
 import hudson.model.TaskListener;
 import org.junit.Rule;
@@ -11,7 +13,10 @@ import org.mockito.Mockito;
 
 import java.io.ByteArrayOutputStream;
 import java.io.PrintStream;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
 
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertThrows;
 import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.Mockito.*;
@@ -66,4 +71,59 @@ public class ECSLauncherTest {
 
         verify(launcher, times(2)).launchECSTask(any(ECSComputer.class), any(TaskListener.class), anyLong());
     }
+
+    @Test
+    public void waiting_for_the_agent_ends_when_it_connects() throws Exception {
+        ECSService ecsService = mock(ECSService.class);
+        ECSCloud cloud = mock(ECSCloud.class);
+        ECSSlave agent = mock(ECSSlave.class);
+        ECSComputer computer = mock(ECSComputer.class);
+        TaskListener listener = mock(TaskListener.class);
+        CompletableFuture<Void> connected = new CompletableFuture<>();
+        Mockito.when(cloud.getEcsService()).thenReturn(ecsService);
+        Mockito.when(agent.getComputer()).thenReturn(computer);
+        Mockito.when(computer.whenConnected()).thenReturn(connected);
+        Mockito.when(listener.getLogger()).thenReturn(new PrintStream(new ByteArrayOutputStream()));
+        ECSLauncher launcher = new ECSLauncher(cloud, "tunnel", "");
+        long count = ECSMetrics.getHistogram("ecs.agent.connectMillis") == null ? 0 : ECSMetrics.getHistogram("ecs.agent.connectMillis").getCount();
+
+        CompletableFuture.runAsync(() -> connected.complete(null), CompletableFuture.delayedExecutor(100, TimeUnit.MILLISECONDS));
+        launcher.waitForAgent(agent, listener, System.currentTimeMillis() + TimeUnit.MINUTES.toMillis(1));
+        assertEquals(count + 1, ECSMetrics.getHistogram("ecs.agent.connectMillis").getCount());
+
+        ECSComputer offline = mock(ECSComputer.class);
+        Mockito.when(agent.getComputer()).thenReturn(offline);
+        Mockito.when(offline.whenConnected()).thenReturn(new CompletableFuture<>());
+        assertThrows(IllegalStateException.class, () -> launcher.waitForAgent(agent, listener, System.currentTimeMillis() + 100));
+    }
+
+    @Test
+    public void agents_are_only_batched_when_their_image_claims_them() {
+        ECSService ecsService = mock(ECSService.class);
+        ECSCloud cloud = mock(ECSCloud.class);
+        ECSSlave agent = mock(ECSSlave.class);
+        ECSComputer computer = mock(ECSComputer.class);
+        ECSTaskTemplate template = mock(ECSTaskTemplate.class);
+        RunTaskBatcher batcher = mock(RunTaskBatcher.class);
+        TaskDefinition taskDefinition = new TaskDefinition().withTaskDefinitionArn("arn:td:1").withNetworkMode("awsvpc");
+        Mockito.when(cloud.getEcsService()).thenReturn(ecsService);
+        Mockito.when(cloud.getCluster()).thenReturn("mycluster");
+        Mockito.when(cloud.getJenkinsUrl()).thenReturn("http://jenkins/");
+        Mockito.when(cloud.getRunTaskBatchSize()).thenReturn(5);
+        Mockito.when(cloud.getRunTaskBatcher()).thenReturn(batcher);
+        Mockito.when(agent.getNodeName()).thenReturn("agent-1");
+        Mockito.when(agent.getComputer()).thenReturn(computer);
+        Mockito.when(computer.getName()).thenReturn("agent-1");
+        Mockito.when(computer.getJnlpMac()).thenReturn("secret");
+        Mockito.when(ecsService.runEcsTaskAsync(any(), any(), any(), any(), any())).thenReturn(CompletableFuture.completedFuture(
+                new RunTaskResult().withTasks(new Task().withTaskArn("arn:task:1"))));
+        Mockito.when(batcher.run(any(), any(), any(), any())).thenReturn(CompletableFuture.completedFuture(new Task().withTaskArn("arn:task:2")));
+        ECSLauncher launcher = new ECSLauncher(cloud, null, "");
+
+        assertEquals("arn:task:1", launcher.runECSTaskAsync(taskDefinition, template, agent).join().getTaskArn());
+        verify(batcher, never()).run(any(), any(), any(), any());
+
+        Mockito.when(template.isAgentClaim()).thenReturn(true);
+        assertEquals("arn:task:2", launcher.runECSTaskAsync(taskDefinition, template, agent).join().getTaskArn());
+    }
 }
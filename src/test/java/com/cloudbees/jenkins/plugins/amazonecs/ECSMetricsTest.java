@@ -0,0 +1,28 @@
+package com.cloudbees.jenkins.plugins.amazonecs;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+public class ECSMetricsTest {
+
+    @Test
+    public void histogram_percentiles_cover_minutes() {
+        for (int i = 1; i <= 10; i++) {
+            ECSMetrics.record("test.histogram.minutes", i * 60_000L);
+        }
+        ECSMetrics.Histogram histogram = ECSMetrics.getHistogram("test.histogram.minutes");
+
+        assertEquals(300_000, histogram.getP50());
+        assertEquals(600_000, histogram.getP95());
+    }
+
+    @Test
+    public void histogram_values_above_an_hour_count_as_their_maximum() {
+        ECSMetrics.record("test.histogram.hours", 2 * 3_600_000L);
+        ECSMetrics.Histogram histogram = ECSMetrics.getHistogram("test.histogram.hours");
+
+        assertEquals(7_200_000, histogram.getP95());
+        assertEquals(7_200_000, histogram.getMax());
+    }
+}
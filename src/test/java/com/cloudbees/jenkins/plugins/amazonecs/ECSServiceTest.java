@@ -1,8 +1,36 @@
 package com.cloudbees.jenkins.plugins.amazonecs;
 
 import static org.junit.Assert.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.atomic.AtomicReference;
+
+import com.amazonaws.AmazonClientException;
+import com.amazonaws.AmazonServiceException;
+import com.amazonaws.handlers.AsyncHandler;
+import com.amazonaws.services.ecs.AmazonECS;
+import com.amazonaws.services.ecs.AmazonECSAsync;
+import com.amazonaws.services.ecs.model.ClientException;
+import com.amazonaws.services.ecs.model.DescribeTaskDefinitionRequest;
+import com.amazonaws.services.ecs.model.DescribeTaskDefinitionResult;
+import com.amazonaws.services.ecs.model.RegisterTaskDefinitionRequest;
+import com.amazonaws.services.ecs.model.RegisterTaskDefinitionResult;
+import com.amazonaws.services.ecs.model.Tag;
+import com.amazonaws.services.ecs.model.TaskDefinition;
+import com.cloudbees.jenkins.plugins.amazonecs.aws.CircuitBreaker;
+import com.cloudbees.jenkins.plugins.amazonecs.aws.CircuitBreakerOpenException;
 import org.junit.Ignore;
+import org.junit.Rule;
 import org.junit.Test;
+import org.jvnet.hudson.test.JenkinsRule;
+import org.mockito.ArgumentCaptor;
 
 
 /**
@@ -10,6 +38,8 @@ import org.junit.Test;
  */
 public class ECSServiceTest {
 
+    @Rule
+    public JenkinsRule j = new JenkinsRule();
 
     @Test
     @Ignore
@@ -20,7 +50,7 @@ public class ECSServiceTest {
     @Test
     @Ignore
     public void registerTemplate() {
-        
+
     }
 
     @Test
@@ -29,4 +59,230 @@ public class ECSServiceTest {
 //        ECSService service = new ECSService("us-east-1");
 
     }
-}
\ No newline at end of file
+
+    @Test
+    public void content_hash_does_not_depend_on_the_label() {
+        ECSService service = new ECSService(() -> mock(AmazonECS.class));
+
+        String hash = service.getTemplateContentHash(template("label-1", "jenkins/inbound-agent"));
+        assertEquals(hash, service.getTemplateContentHash(template("project-2-abcde", "jenkins/inbound-agent")));
+        assertNotEquals(hash, service.getTemplateContentHash(template("label-1", "jenkins/inbound-agent:jdk21")));
+    }
+
+    @Test
+    public void content_hash_does_not_depend_on_the_name() {
+        ECSService service = new ECSService(() -> mock(AmazonECS.class));
+
+        // declarative agents are named after their label, which is random for each build
+        String hash = service.getTemplateContentHash(template("label-abcde", "label-abcde", "jenkins/inbound-agent"));
+        assertEquals(hash, service.getTemplateContentHash(template("label-fghij", "label-fghij", "jenkins/inbound-agent")));
+        assertNotEquals(hash, service.getTemplateContentHash(template("label-fghij", "label-fghij", "jenkins/inbound-agent:jdk21")));
+    }
+
+    @Test
+    public void task_definition_with_the_same_fingerprint_is_reused() {
+        RegisterTaskDefinitionRequest registered = registerNew(template("label-1", "jenkins/inbound-agent"));
+        AmazonECS client = mock(AmazonECS.class);
+        when(client.describeTaskDefinition(any())).thenReturn(new DescribeTaskDefinitionResult()
+                .withTaskDefinition(new TaskDefinition().withTaskDefinitionArn("arn:task-definition/cloud-maven:1"))
+                .withTags(fingerprintTag(registered)));
+
+        TaskDefinition taskDefinition = new ECSService(() -> client).registerTemplate("cloud", template("label-2", "jenkins/inbound-agent"));
+
+        assertEquals("arn:task-definition/cloud-maven:1", taskDefinition.getTaskDefinitionArn());
+        verify(client, never()).registerTaskDefinition(any());
+    }
+
+    @Test
+    public void task_definition_with_another_fingerprint_is_not_reused() {
+        RegisterTaskDefinitionRequest registered = registerNew(template("label-1", "jenkins/inbound-agent"));
+        AmazonECS client = mock(AmazonECS.class);
+        when(client.describeTaskDefinition(any())).thenReturn(new DescribeTaskDefinitionResult()
+                .withTaskDefinition(new TaskDefinition().withTaskDefinitionArn("arn:task-definition/cloud-maven:1"))
+                .withTags(fingerprintTag(registered)));
+        when(client.registerTaskDefinition(any())).thenReturn(new RegisterTaskDefinitionResult()
+                .withTaskDefinition(new TaskDefinition().withTaskDefinitionArn("arn:task-definition/cloud-maven:2")));
+
+        TaskDefinition taskDefinition = new ECSService(() -> client).registerTemplate("cloud", template("label-1", "jenkins/inbound-agent:jdk21"));
+
+        assertEquals("arn:task-definition/cloud-maven:2", taskDefinition.getTaskDefinitionArn());
+        verify(client).registerTaskDefinition(any());
+    }
+
+    @Test
+    public void task_definition_without_fingerprint_is_compared_field_by_field() {
+        RegisterTaskDefinitionRequest registered = registerNew(template("label-1", "jenkins/inbound-agent"));
+        AmazonECS client = mock(AmazonECS.class);
+        // registered before task definitions were tagged with their fingerprint
+        when(client.describeTaskDefinition(any())).thenReturn(new DescribeTaskDefinitionResult()
+                .withTaskDefinition(new TaskDefinition()
+                        .withTaskDefinitionArn("arn:task-definition/cloud-maven:1")
+                        .withContainerDefinitions(registered.getContainerDefinitions())
+                        .withVolumes(registered.getVolumes())
+                        .withNetworkMode(registered.getNetworkMode()))
+                .withTags(new Tag().withKey("jenkins.templatename").withValue("maven")));
+        when(client.registerTaskDefinition(any())).thenReturn(new RegisterTaskDefinitionResult()
+                .withTaskDefinition(new TaskDefinition().withTaskDefinitionArn("arn:task-definition/cloud-maven:2")));
+
+        assertEquals("arn:task-definition/cloud-maven:1",
+                new ECSService(() -> client).registerTemplate("cloud", template("label-1", "jenkins/inbound-agent")).getTaskDefinitionArn());
+        assertEquals("arn:task-definition/cloud-maven:2",
+                new ECSService(() -> client).registerTemplate("cloud", template("label-1", "jenkins/inbound-agent:jdk21")).getTaskDefinitionArn());
+    }
+
+    /**
+     * @return the request the template registers in a family without task definitions
+     */
+    private static RegisterTaskDefinitionRequest registerNew(ECSTaskTemplate template) {
+        AmazonECS client = mock(AmazonECS.class);
+        when(client.describeTaskDefinition(any())).thenThrow(new ClientException("Unable to describe task definition."));
+        when(client.registerTaskDefinition(any())).thenReturn(new RegisterTaskDefinitionResult()
+                .withTaskDefinition(new TaskDefinition().withTaskDefinitionArn("arn:task-definition/cloud-maven:1")));
+
+        new ECSService(() -> client).registerTemplate("cloud", template);
+
+        ArgumentCaptor<RegisterTaskDefinitionRequest> request = ArgumentCaptor.forClass(RegisterTaskDefinitionRequest.class);
+        verify(client).registerTaskDefinition(request.capture());
+        return request.getValue();
+    }
+
+    private static Tag fingerprintTag(RegisterTaskDefinitionRequest request) {
+        return request.getTags().stream()
+                .filter(tag -> TaskDefinitionCache.FINGERPRINT_TAG_KEY.equals(tag.getKey()))
+                .findFirst()
+                .orElseThrow(AssertionError::new);
+    }
+
+    private static ECSTaskTemplate template(String label, String image) {
+        return template("maven", label, image);
+    }
+
+    private static ECSTaskTemplate template(String name, String label, String image) {
+        return new ECSTaskTemplate(name, label, null, null, null, image, null, "EC2", null, null, false, null,
+                "bridge", null, false, null, 1024, 0, 512, null, null, null, false, false, null, null, null, null,
+                null, null, null, null, null, null, null, null, null, null, 0, false);
+    }
+
+    @Test
+    public void async_client_is_called_without_blocking_a_thread() {
+        AmazonECSAsync client = mock(AmazonECSAsync.class);
+        TaskDefinition taskDefinition = new TaskDefinition().withTaskDefinitionArn("arn:task-definition/family:1");
+        when(client.describeTaskDefinitionAsync(any(DescribeTaskDefinitionRequest.class), any())).thenAnswer(invocation -> {
+            AsyncHandler<DescribeTaskDefinitionRequest, DescribeTaskDefinitionResult> handler = invocation.getArgument(1);
+            handler.onSuccess(invocation.getArgument(0), new DescribeTaskDefinitionResult().withTaskDefinition(taskDefinition));
+            return null;
+        });
+        ECSService service = new ECSService(() -> client);
+
+        assertSame(taskDefinition, service.findTaskDefinition("family"));
+        verify(client, never()).describeTaskDefinition(any());
+    }
+
+    @Test
+    public void blocking_client_is_called_on_another_thread() {
+        AmazonECS client = mock(AmazonECS.class);
+        AtomicReference<Thread> caller = new AtomicReference<>();
+        when(client.describeTaskDefinition(any())).thenAnswer(invocation -> {
+            caller.set(Thread.currentThread());
+            return new DescribeTaskDefinitionResult().withTaskDefinition(new TaskDefinition().withTaskDefinitionArn("arn:task-definition/family:1"));
+        });
+        ECSService service = new ECSService(() -> client);
+
+        assertEquals("arn:task-definition/family:1", service.findTaskDefinitionAsync("family").join().getTaskDefinitionArn());
+        assertNotSame(Thread.currentThread(), caller.get());
+    }
+
+    @Test
+    public void errors_are_propagated_as_the_client_reported_them() {
+        AmazonServiceException error = serverError();
+        AmazonECSAsync client = mock(AmazonECSAsync.class);
+        when(client.describeTaskDefinitionAsync(any(DescribeTaskDefinitionRequest.class), any())).thenAnswer(invocation -> {
+            AsyncHandler<DescribeTaskDefinitionRequest, DescribeTaskDefinitionResult> handler = invocation.getArgument(1);
+            handler.onError(error);
+            return null;
+        });
+        ECSService service = new ECSService(() -> client);
+
+        CompletableFuture<TaskDefinition> future = service.findTaskDefinitionAsync("family");
+        CompletionException wrapped = assertThrows(CompletionException.class, future::join);
+        assertSame(error, ECSService.unwrap(wrapped));
+        assertSame("blocking variants throw the error itself", error, assertThrows(AmazonServiceException.class, () -> service.findTaskDefinition("family")));
+    }
+
+    @Test
+    public void errors_thrown_when_submitting_a_call_fail_its_future() {
+        AmazonClientException error = new AmazonClientException("Client is shut down");
+        AmazonECSAsync client = mock(AmazonECSAsync.class);
+        when(client.describeTaskDefinitionAsync(any(DescribeTaskDefinitionRequest.class), any())).thenThrow(error);
+        ECSService service = new ECSService(() -> client);
+
+        CompletableFuture<TaskDefinition> future = service.findTaskDefinitionAsync("family");
+        assertTrue(future.isCompletedExceptionally());
+        assertSame(error, ECSService.unwrap(assertThrows(CompletionException.class, future::join)));
+    }
+
+    @Test
+    public void missing_task_definition_is_not_an_error() {
+        AmazonECS client = mock(AmazonECS.class);
+        when(client.describeTaskDefinition(any())).thenThrow(new ClientException("Unable to describe task definition."));
+        CircuitBreaker breaker = new CircuitBreaker("test", 50, 60_000);
+        ECSService service = new ECSService(() -> client);
+        service.setCircuitBreaker(breaker);
+
+        for (int i = 0; i < 20; i++) {
+            assertNull(service.findTaskDefinition("family"));
+        }
+        assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+    }
+
+    @Test
+    public void open_circuit_breaker_rejects_calls_without_calling_aws() {
+        AmazonECS client = mock(AmazonECS.class);
+        when(client.describeTaskDefinition(any())).thenThrow(serverError());
+        CircuitBreaker breaker = new CircuitBreaker("test", 50, 60_000);
+        ECSService service = new ECSService(() -> client);
+        service.setCircuitBreaker(breaker);
+
+        int calls = failUntilOpen(service, breaker);
+
+        assertThrows(CircuitBreakerOpenException.class, () -> service.findTaskDefinition("family"));
+        assertTrue(service.findTaskDefinitionAsync("family").isCompletedExceptionally());
+        verify(client, times(calls)).describeTaskDefinition(any());
+    }
+
+    @Test
+    public void circuit_breaker_sees_the_outcome_of_every_call() {
+        AmazonECS client = mock(AmazonECS.class);
+        when(client.describeTaskDefinition(any())).thenThrow(serverError());
+        // probes the service again right away
+        CircuitBreaker breaker = new CircuitBreaker("test", 50, 0);
+        ECSService service = new ECSService(() -> client);
+        service.setCircuitBreaker(breaker);
+
+        failUntilOpen(service, breaker);
+        assertThrows(AmazonServiceException.class, () -> service.findTaskDefinition("family"));
+        assertEquals("a failed probe opens the breaker again", CircuitBreaker.State.OPEN, breaker.getState());
+
+        when(client.describeTaskDefinition(any())).thenReturn(new DescribeTaskDefinitionResult().withTaskDefinition(new TaskDefinition()));
+        for (int i = 0; i < 3; i++) {
+            assertNotNull(service.findTaskDefinitionAsync("family").join());
+        }
+        assertEquals("successful probes close the breaker", CircuitBreaker.State.CLOSED, breaker.getState());
+    }
+
+    private static int failUntilOpen(ECSService service, CircuitBreaker breaker) {
+        int calls = 0;
+        while (breaker.getState() != CircuitBreaker.State.OPEN) {
+            assertTrue("the breaker should open", calls++ < 100);
+            assertThrows(AmazonServiceException.class, () -> service.findTaskDefinition("family"));
+        }
+        return calls;
+    }
+
+    private static AmazonServiceException serverError() {
+        AmazonServiceException error = new AmazonServiceException("We encountered an internal error");
+        error.setErrorType(AmazonServiceException.ErrorType.Service);
+        error.setStatusCode(500);
+        return error;
+    }
+}
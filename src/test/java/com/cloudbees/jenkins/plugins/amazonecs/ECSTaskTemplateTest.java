@@ -1,11 +1,15 @@
 package com.cloudbees.jenkins.plugins.amazonecs;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
 import org.junit.Test;
 import static org.junit.Assert.assertTrue;
 import org.apache.commons.lang.builder.EqualsBuilder;
 
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 
 public class ECSTaskTemplateTest {
 
@@ -99,4 +103,18 @@ public class ECSTaskTemplateTest {
         expected.setEntrypoint("/bin/false");
         assertTrue(EqualsBuilder.reflectionEquals(expected, child.merge(parent)));
     }
+
+    @Test
+    public void launchPlanIsCompiledOnceUntilASettingChanges() {
+        ECSTaskTemplate template = getParent();
+        template.setSubnets("subnet-a,subnet-b");
+
+        LaunchPlan plan = template.getLaunchPlan();
+        assertSame(plan, template.getLaunchPlan());
+        assertEquals(Arrays.asList("subnet-a", "subnet-b"), plan.getSubnets());
+
+        template.setSubnets("subnet-c");
+        assertNotSame(plan, template.getLaunchPlan());
+        assertEquals(Collections.singletonList("subnet-c"), template.getLaunchPlan().getSubnets());
+    }
 }
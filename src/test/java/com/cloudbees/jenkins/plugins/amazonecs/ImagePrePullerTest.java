@@ -0,0 +1,162 @@
+package com.cloudbees.jenkins.plugins.amazonecs;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+import com.amazonaws.services.ecs.model.ContainerDefinition;
+import com.amazonaws.services.ecs.model.RegisterTaskDefinitionRequest;
+import org.junit.Rule;
+import org.junit.Test;
+import org.jvnet.hudson.test.JenkinsRule;
+import org.mockito.ArgumentCaptor;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyBoolean;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class ImagePrePullerTest {
+
+    @Rule
+    public JenkinsRule j = new JenkinsRule();
+
+    @Test
+    public void images_of_ec2_templates_are_pre_pulled_until_disabled() {
+        ECSService ecsService = mock(ECSService.class);
+        ECSCloud cloud = new ECSCloud("my cloud", "mycluster", ecsService);
+        cloud.setTemplates(Arrays.asList(
+                template("jenkins/inbound-agent", false),
+                template("jenkins/inbound-agent", false),
+                template("maven", true)));
+        cloud.setImagePrePull(true);
+        ImagePrePuller puller = new ImagePrePuller();
+
+        puller.maintain(cloud);
+        ArgumentCaptor<RegisterTaskDefinitionRequest> taskDefinition = ArgumentCaptor.forClass(RegisterTaskDefinitionRequest.class);
+        verify(ecsService).ensureImagePullService(eq("mycluster"), eq("jenkins-image-prepull-my-cloud-linux-x86-64"), taskDefinition.capture(),
+                eq("attribute:ecs.os-family == LINUX and attribute:ecs.cpu-architecture == x86_64"), eq(false));
+        assertEquals(Collections.singletonList("jenkins/inbound-agent"), pulledImages(taskDefinition.getValue()));
+        verify(ecsService, never()).deleteImagePullService(anyString(), anyString());
+
+        cloud.setImagePrePull(false);
+        puller.maintain(cloud);
+        puller.maintain(cloud);
+        verify(ecsService, times(1)).deleteImagePullService("mycluster", "jenkins-image-prepull-my-cloud-linux-x86-64");
+        verify(ecsService, times(1)).ensureImagePullService(anyString(), anyString(), any(), anyString(), anyBoolean());
+    }
+
+    @Test
+    public void each_platform_gets_its_own_service() {
+        ECSService ecsService = mock(ECSService.class);
+        ECSCloud cloud = new ECSCloud("mycloud", "mycluster", ecsService);
+        ECSTaskTemplate windows = template("jenkins/inbound-agent:windowsservercore-ltsc2019", false);
+        when(windows.getOperatingSystemFamily()).thenReturn("WINDOWS_SERVER_2019_CORE");
+        ECSTaskTemplate arm = template("jenkins/inbound-agent", false);
+        when(arm.getCpuArchitecture()).thenReturn("ARM64");
+        cloud.setTemplates(Arrays.asList(template("jenkins/inbound-agent", false), windows, arm));
+        cloud.setImagePrePull(true);
+
+        new ImagePrePuller().maintain(cloud);
+
+        verify(ecsService).ensureImagePullService(eq("mycluster"), eq("jenkins-image-prepull-mycloud-linux-x86-64"), any(),
+                eq("attribute:ecs.os-family == LINUX and attribute:ecs.cpu-architecture == x86_64"), eq(false));
+        verify(ecsService).ensureImagePullService(eq("mycluster"), eq("jenkins-image-prepull-mycloud-linux-arm64"), any(),
+                eq("attribute:ecs.os-family == LINUX and attribute:ecs.cpu-architecture == arm64"), eq(false));
+        verify(ecsService).ensureImagePullService(eq("mycluster"), eq("jenkins-image-prepull-mycloud-windows-server-2019-core-x86-64"), any(),
+                eq("attribute:ecs.os-family == WINDOWS_SERVER_2019_CORE and attribute:ecs.cpu-architecture == x86_64"), eq(false));
+    }
+
+    @Test
+    public void services_that_are_no_longer_needed_are_deleted() {
+        ECSService ecsService = mock(ECSService.class);
+        when(ecsService.listServiceNames("mycluster")).thenReturn(Arrays.asList(
+                "jenkins-image-prepull-mycloud",
+                "jenkins-image-prepull-mycloud-linux-x86-64",
+                "jenkins-image-prepull-mycloud-linux-arm64",
+                "jenkins-image-prepull-mycloud-2-linux-arm64",
+                "web"));
+        ECSCloud cloud = new ECSCloud("mycloud", "mycluster", ecsService);
+        cloud.setTemplates(Collections.singletonList(template("jenkins/inbound-agent", false)));
+        cloud.setImagePrePull(true);
+
+        new ImagePrePuller().maintain(cloud);
+
+        verify(ecsService).deleteImagePullService("mycluster", "jenkins-image-prepull-mycloud");
+        verify(ecsService).deleteImagePullService("mycluster", "jenkins-image-prepull-mycloud-linux-arm64");
+        verify(ecsService, times(2)).deleteImagePullService(anyString(), anyString());
+    }
+
+    @Test
+    public void images_are_pulled_with_their_credentials_and_execution_role() {
+        ImagePrePuller.Platform platform = new ImagePrePuller.Platform("LINUX", "X86_64", "arn:aws:iam::123456789012:role/execution");
+        Map<String, String> images = new LinkedHashMap<>();
+        images.put("registry.example.com/agent", "arn:aws:secretsmanager:eu-west-1:123456789012:secret:registry");
+        images.put("jenkins/inbound-agent", null);
+
+        RegisterTaskDefinitionRequest request = ImagePrePuller.getTaskDefinition("family", platform, images);
+
+        assertEquals("arn:aws:iam::123456789012:role/execution", request.getExecutionRoleArn());
+        assertEquals("LINUX", request.getRuntimePlatform().getOperatingSystemFamily());
+        List<ContainerDefinition> pulled = request.getContainerDefinitions().stream()
+                .filter(c -> c.getName().startsWith("image-"))
+                .collect(Collectors.toList());
+        assertEquals("arn:aws:secretsmanager:eu-west-1:123456789012:secret:registry", pulled.get(0).getRepositoryCredentials().getCredentialsParameter());
+        assertNull(pulled.get(1).getRepositoryCredentials());
+        for (ContainerDefinition container : pulled) {
+            assertFalse(container.getEssential());
+            assertEquals("the images need not have any binary of their own",
+                    Arrays.asList("/jenkins-prepull/busybox", "true"), container.getEntryPoint());
+            assertEquals("init", container.getDependsOn().get(0).getContainerName());
+        }
+        assertTrue(platform.getServiceName("prefix").matches("prefix-linux-x86-64-[0-9a-f]{8}"));
+        assertTrue(ImagePrePuller.getServiceNamePattern("prefix").matcher(platform.getServiceName("prefix")).matches());
+    }
+
+    @Test
+    public void windows_images_keep_their_own_task_alive() {
+        RegisterTaskDefinitionRequest request = ImagePrePuller.getTaskDefinition("family",
+                new ImagePrePuller.Platform("WINDOWS_SERVER_2022_CORE", "X86_64", null),
+                Collections.singletonMap("jenkins/inbound-agent:windowsservercore-ltsc2022", null));
+
+        ContainerDefinition keepAlive = request.getContainerDefinitions().get(0);
+        assertTrue(keepAlive.getEssential());
+        assertEquals("jenkins/inbound-agent:windowsservercore-ltsc2022", keepAlive.getImage());
+        assertTrue(request.getVolumes().isEmpty());
+        assertEquals(Collections.singletonList("jenkins/inbound-agent:windowsservercore-ltsc2022"), pulledImages(request));
+    }
+
+    @Test
+    public void service_name_is_valid_for_any_cloud_name() {
+        assertEquals("jenkins-image-prepull-ecs-cloud-1", ImagePrePuller.getServiceName(new ECSCloud("ecs cloud/1", "mycluster", mock(ECSService.class))));
+    }
+
+    private static List<String> pulledImages(RegisterTaskDefinitionRequest request) {
+        return request.getContainerDefinitions().stream()
+                .filter(c -> !c.getEssential() && c.getName().startsWith("image-"))
+                .map(ContainerDefinition::getImage)
+                .collect(Collectors.toList());
+    }
+
+    private static ECSTaskTemplate template(String image, boolean fargate) {
+        ECSTaskTemplate template = mock(ECSTaskTemplate.class);
+        when(template.merge(any())).thenReturn(template);
+        when(template.getImage()).thenReturn(image);
+        when(template.isFargate()).thenReturn(fargate);
+        when(template.getOperatingSystemFamily()).thenReturn("LINUX");
+        when(template.getCpuArchitecture()).thenReturn("X86_64");
+        return template;
+    }
+}
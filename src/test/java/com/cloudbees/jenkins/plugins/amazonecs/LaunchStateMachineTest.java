@@ -0,0 +1,90 @@
+package com.cloudbees.jenkins.plugins.amazonecs;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import com.amazonaws.services.ecs.model.RunTaskResult;
+import com.amazonaws.services.ecs.model.Task;
+import com.amazonaws.services.ecs.model.TaskDefinition;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.jvnet.hudson.test.JenkinsRule;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class LaunchStateMachineTest {
+
+    @Rule
+    public JenkinsRule j = new JenkinsRule();
+
+    private ECSService ecsService;
+    private ECSCloud cloud;
+    private ECSSlave agent;
+    private ECSComputer computer;
+    private final CompletableFuture<Void> connected = new CompletableFuture<>();
+
+    @Before
+    public void setUp() {
+        ecsService = mock(ECSService.class);
+        cloud = mock(ECSCloud.class);
+        agent = mock(ECSSlave.class);
+        computer = mock(ECSComputer.class);
+        when(cloud.getEcsService()).thenReturn(ecsService);
+        when(cloud.getCluster()).thenReturn("mycluster");
+        when(cloud.getJenkinsUrl()).thenReturn("http://jenkins/");
+        when(agent.getNodeName()).thenReturn("agent-1");
+        when(agent.getComputer()).thenReturn(computer);
+        when(computer.getName()).thenReturn("agent-1");
+        when(computer.getJnlpMac()).thenReturn("secret");
+        when(computer.whenConnected()).thenReturn(connected);
+        when(ecsService.registerTemplateAsync(any(), any())).thenReturn(CompletableFuture.completedFuture(new TaskDefinition().withTaskDefinitionArn("arn:td:1")));
+        when(ecsService.runEcsTaskAsync(any(), any(), any(), any(), any())).thenReturn(CompletableFuture.completedFuture(
+                new RunTaskResult().withTasks(new Task().withTaskArn("arn:task:1").withClusterArn("mycluster"))));
+    }
+
+    @Test
+    public void launch_completes_when_the_agent_connects() throws Exception {
+        when(ecsService.watchTask(anyString(), anyString(), anyInt())).thenReturn(CompletableFuture.completedFuture(
+                new Task().withTaskArn("arn:task:1").withLastStatus("RUNNING")));
+
+        LaunchStateMachine launch = newLaunch();
+        CompletableFuture<Void> done = launch.start();
+        assertEquals(LaunchStateMachine.State.RUNNING, launch.getState());
+        assertFalse(done.isDone());
+
+        connected.complete(null);
+        done.get(10, TimeUnit.SECONDS);
+        assertEquals(LaunchStateMachine.State.CONNECTED, launch.getState());
+        verify(agent).setTaskArn("arn:task:1");
+        verify(computer).setAcceptingTasks(true);
+        verify(agent, never()).terminate();
+    }
+
+    @Test
+    public void stopped_task_fails_the_launch_and_removes_the_agent() throws Exception {
+        when(ecsService.watchTask(anyString(), anyString(), anyInt())).thenReturn(CompletableFuture.completedFuture(
+                new Task().withTaskArn("arn:task:1").withLastStatus("STOPPED").withStoppedReason("Essential container in task exited")));
+
+        LaunchStateMachine launch = newLaunch();
+        CompletableFuture<Void> done = launch.start();
+
+        assertTrue(done.isCompletedExceptionally());
+        assertEquals(LaunchStateMachine.State.FAILED, launch.getState());
+        verify(agent).terminate();
+    }
+
+    private LaunchStateMachine newLaunch() {
+        ECSLauncher launcher = new ECSLauncher(cloud, null, "");
+        return new LaunchStateMachine(launcher, cloud, agent, computer, System.currentTimeMillis() + TimeUnit.MINUTES.toMillis(1), 2, Runnable::run);
+    }
+}
@@ -0,0 +1,89 @@
+package com.cloudbees.jenkins.plugins.amazonecs;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import com.amazonaws.services.ecs.model.Attachment;
+import com.amazonaws.services.ecs.model.Failure;
+import com.amazonaws.services.ecs.model.KeyValuePair;
+import com.amazonaws.services.ecs.model.RunTaskResult;
+import com.amazonaws.services.ecs.model.Task;
+import com.amazonaws.services.ecs.model.TaskDefinition;
+import org.junit.Rule;
+import org.junit.Test;
+import org.jvnet.hudson.test.JenkinsRule;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class RunTaskBatcherTest {
+
+    @Rule
+    public JenkinsRule j = new JenkinsRule();
+
+    @Test
+    public void concurrent_launches_share_run_task_calls_and_claim_their_agent() {
+        ECSService ecsService = mock(ECSService.class);
+        ECSCloud cloud = new ECSCloud("mycloud", "mycluster", ecsService);
+        cloud.setRunTaskBatchSize(2);
+        j.jenkins.clouds.add(cloud);
+        ECSTaskTemplate template = mock(ECSTaskTemplate.class);
+        TaskDefinition taskDefinition = new TaskDefinition().withTaskDefinitionArn("arn:td:1").withNetworkMode("awsvpc");
+        when(ecsService.runEcsTasksAsync(anyList(), eq(template), eq("mycluster"), anyList(), eq(taskDefinition))).thenReturn(
+                CompletableFuture.completedFuture(new RunTaskResult().withTasks(task("arn:task:1", "10.0.0.1"), task("arn:task:2", "10.0.0.2"))),
+                CompletableFuture.completedFuture(new RunTaskResult().withFailures(new Failure().withReason("RESOURCE:ENI"))));
+
+        RunTaskBatcher batcher = new RunTaskBatcher(cloud, TimeUnit.HOURS.toMillis(1));
+        CompletableFuture<Task> first = batcher.run(agent("agent-1"), template, taskDefinition, Arrays.asList("-url", "http://jenkins/", "secret-1", "agent-1"));
+        CompletableFuture<Task> second = batcher.run(agent("agent-2"), template, taskDefinition, Arrays.asList("-url", "http://jenkins/", "secret-2", "agent-2"));
+        CompletableFuture<Task> third = batcher.run(agent("agent-3"), template, taskDefinition, Arrays.asList("-url", "http://jenkins/", "secret-3", "agent-3"));
+        batcher.flush();
+
+        verify(ecsService, times(2)).runEcsTasksAsync(anyList(), any(), any(), anyList(), any());
+        assertEquals("arn:task:1", first.join().getTaskArn());
+        assertEquals("arn:task:2", second.join().getTaskArn());
+        assertTrue(third.isCompletedExceptionally());
+
+        ECSAgentClaimAction claims = ECSAgentClaimAction.get();
+        when(ecsService.describeTask("arn:task:2", "mycluster")).thenReturn(task("arn:task:2", "10.0.0.2"));
+        assertNull("another task cannot claim the agent", claims.claim("arn:task:2", "token", "10.0.0.2"));
+    }
+
+    @Test
+    public void a_task_claims_its_agent_once_from_its_own_address() {
+        ECSService ecsService = mock(ECSService.class);
+        j.jenkins.clouds.add(new ECSCloud("mycloud", "mycluster", ecsService));
+        when(ecsService.describeTask("arn:task:1", "mycluster")).thenReturn(task("arn:task:1", "10.0.0.1"));
+        ECSAgentClaimAction claims = ECSAgentClaimAction.get();
+        List<String> arguments = Arrays.asList("-url", "http://jenkins/", "secret-1", "agent-1");
+        claims.register("arn:task:1", new ECSAgentClaimAction.Claim("token", "mycloud", "mycluster", "agent-1", arguments,
+                System.currentTimeMillis() + TimeUnit.MINUTES.toMillis(5)));
+
+        assertNull(claims.claim("arn:task:1", "other-token", "10.0.0.1"));
+        assertNull(claims.claim("arn:task:1", "token", "10.0.0.9"));
+        assertEquals(arguments, claims.claim("arn:task:1", "token", "10.0.0.1"));
+        assertNull(claims.claim("arn:task:1", "token", "10.0.0.1"));
+    }
+
+    private static ECSSlave agent(String name) {
+        ECSSlave agent = mock(ECSSlave.class);
+        when(agent.getNodeName()).thenReturn(name);
+        return agent;
+    }
+
+    private static Task task(String taskArn, String address) {
+        return new Task().withTaskArn(taskArn).withAttachments(new Attachment()
+                .withType("ElasticNetworkInterface")
+                .withDetails(new KeyValuePair().withName("privateIPv4Address").withValue(address)));
+    }
+}
@@ -0,0 +1,71 @@
+package com.cloudbees.jenkins.plugins.amazonecs;
+
+import java.time.LocalTime;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertThrows;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class StandbyPoolTest {
+
+    @Test
+    public void pool_is_larger_during_its_schedule() {
+        ECSTaskTemplate template = template(1, 5, "08:00-18:00, 22:00-02:00");
+
+        assertEquals(1, StandbyPool.getSize(template, LocalTime.of(7, 59)));
+        assertEquals(5, StandbyPool.getSize(template, LocalTime.of(8, 0)));
+        assertEquals(5, StandbyPool.getSize(template, LocalTime.of(17, 59)));
+        assertEquals(1, StandbyPool.getSize(template, LocalTime.of(18, 0)));
+        assertEquals(5, StandbyPool.getSize(template, LocalTime.of(23, 30)));
+        assertEquals(5, StandbyPool.getSize(template, LocalTime.of(1, 0)));
+        assertEquals(1, StandbyPool.getSize(template, LocalTime.of(2, 0)));
+    }
+
+    @Test
+    public void pool_without_schedule_keeps_its_minimum() {
+        assertEquals(2, StandbyPool.getSize(template(2, 5, null), LocalTime.NOON));
+        assertEquals(0, StandbyPool.getSize(template(0, 0, null), LocalTime.NOON));
+    }
+
+    @Test
+    public void invalid_schedules_are_rejected() {
+        assertThrows(IllegalArgumentException.class, () -> StandbyPool.parseSchedule("8am-6pm"));
+        assertThrows(IllegalArgumentException.class, () -> StandbyPool.parseSchedule("08:00"));
+        assertEquals(2, StandbyPool.parseSchedule("08:00-12:00,13:00-18:00").size());
+    }
+
+    @Test
+    public void templates_whose_agents_fail_to_launch_back_off() {
+        StandbyPool pool = new StandbyPool();
+        long now = 1_000_000_000L;
+
+        pool.launchFailed("cloud", "maven", now);
+        assertTrue(pool.isBackingOff("cloud", "maven", now + StandbyPool.MIN_BACKOFF_MILLIS - 1));
+        assertFalse(pool.isBackingOff("cloud", "maven", now + StandbyPool.MIN_BACKOFF_MILLIS));
+        assertFalse("other templates are not affected", pool.isBackingOff("cloud", "gradle", now));
+
+        pool.launchFailed("cloud", "maven", now);
+        assertTrue(pool.isBackingOff("cloud", "maven", now + 2 * StandbyPool.MIN_BACKOFF_MILLIS - 1));
+        for (int i = 0; i < 30; i++) {
+            pool.launchFailed("cloud", "maven", now);
+        }
+        assertFalse(pool.isBackingOff("cloud", "maven", now + StandbyPool.MAX_BACKOFF_MILLIS));
+
+        pool.launchFailed("cloud", "maven", now);
+        pool.launchSucceeded("cloud", "maven");
+        assertFalse(pool.isBackingOff("cloud", "maven", now));
+    }
+
+    private static ECSTaskTemplate template(int min, int max, String schedule) {
+        ECSTaskTemplate template = mock(ECSTaskTemplate.class);
+        when(template.getStandbyMinAgents()).thenReturn(min);
+        when(template.getStandbyMaxAgents()).thenReturn(max);
+        when(template.getStandbySchedule()).thenReturn(schedule);
+        return template;
+    }
+}
@@ -0,0 +1,41 @@
+package com.cloudbees.jenkins.plugins.amazonecs;
+
+import com.amazonaws.services.ecs.model.ContainerDefinition;
+import com.amazonaws.services.ecs.model.TaskDefinition;
+import org.junit.Rule;
+import org.junit.Test;
+import org.jvnet.hudson.test.JenkinsRule;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+public class TaskDefinitionCacheStoreTest {
+
+    @Rule
+    public JenkinsRule j = new JenkinsRule();
+
+    @Test
+    public void cached_task_definitions_survive_a_restart() {
+        TaskDefinitionCache cache = TaskDefinitionCache.forScope("store-test:@us-east-1");
+        cache.put("cloud-template", "fingerprint", new TaskDefinition()
+                .withTaskDefinitionArn("arn:td:1")
+                .withNetworkMode("awsvpc")
+                .withRequiresCompatibilities("FARGATE")
+                .withContainerDefinitions(new ContainerDefinition().withName("agent").withImage("jenkins/inbound-agent")));
+        TaskDefinitionCacheStore.save();
+
+        // what a restart forgets
+        cache.invalidate("cloud-template");
+        TaskDefinitionCacheStore.load();
+
+        TaskDefinitionCache.Entry restored = cache.get("cloud-template", "fingerprint");
+        assertNotNull(restored);
+        assertTrue("restored entries are checked on first use", restored.isStale());
+        TaskDefinition taskDefinition = restored.getTaskDefinition();
+        assertEquals("arn:td:1", taskDefinition.getTaskDefinitionArn());
+        assertEquals("awsvpc", taskDefinition.getNetworkMode());
+        assertEquals("FARGATE", taskDefinition.getRequiresCompatibilities().get(0));
+        assertEquals("agent", taskDefinition.getContainerDefinitions().get(0).getName());
+    }
+}
@@ -0,0 +1,145 @@
+package com.cloudbees.jenkins.plugins.amazonecs;
+
+import com.amazonaws.services.ecs.model.ContainerDefinition;
+import com.amazonaws.services.ecs.model.HostVolumeProperties;
+import com.amazonaws.services.ecs.model.KeyValuePair;
+import com.amazonaws.services.ecs.model.MountPoint;
+import com.amazonaws.services.ecs.model.RegisterTaskDefinitionRequest;
+import com.amazonaws.services.ecs.model.Tag;
+import com.amazonaws.services.ecs.model.TaskDefinition;
+import com.amazonaws.services.ecs.model.Volume;
+import java.util.ArrayList;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class TaskDefinitionCacheTest {
+
+    @Test
+    public void fingerprint_depends_on_content_only() {
+        assertEquals(TaskDefinitionCache.fingerprint(request("jenkins/inbound-agent")), TaskDefinitionCache.fingerprint(request("jenkins/inbound-agent")));
+        assertNotEquals(TaskDefinitionCache.fingerprint(request("jenkins/inbound-agent")), TaskDefinitionCache.fingerprint(request("jenkins/inbound-agent:jdk21")));
+    }
+
+    @Test
+    public void fingerprint_does_not_depend_on_the_order_of_unordered_lists() {
+        RegisterTaskDefinitionRequest request = request("jenkins/inbound-agent")
+                .withVolumes(new Volume().withName("a").withHost(new HostVolumeProperties().withSourcePath("/a")), new Volume().withName("b"))
+                .withTags(new Tag().withKey("team").withValue("ci"), new Tag().withKey("cost-center").withValue("42"));
+        request.getContainerDefinitions().get(0)
+                .withEnvironment(new KeyValuePair().withName("A").withValue("1"), new KeyValuePair().withName("B").withValue("2"))
+                .withMountPoints(new MountPoint().withSourceVolume("a").withContainerPath("/a"), new MountPoint().withSourceVolume("b").withContainerPath("/b"));
+        RegisterTaskDefinitionRequest reordered = request("jenkins/inbound-agent")
+                .withVolumes(new Volume().withName("b"), new Volume().withName("a").withHost(new HostVolumeProperties().withSourcePath("/a")))
+                .withTags(new Tag().withKey("cost-center").withValue("42"), new Tag().withKey("team").withValue("ci"),
+                        new Tag().withKey(TaskDefinitionCache.FINGERPRINT_TAG_KEY).withValue("previous"));
+        reordered.getContainerDefinitions().get(0)
+                .withEnvironment(new KeyValuePair().withName("B").withValue("2"), new KeyValuePair().withName("A").withValue("1"))
+                .withMountPoints(new MountPoint().withSourceVolume("b").withContainerPath("/b"), new MountPoint().withSourceVolume("a").withContainerPath("/a"));
+
+        assertEquals(TaskDefinitionCache.fingerprint(request), TaskDefinitionCache.fingerprint(reordered));
+    }
+
+    @Test
+    public void fingerprint_depends_on_the_order_of_ordered_lists_and_on_values() {
+        String fingerprint = TaskDefinitionCache.fingerprint(withEntryPoint("java", "-jar"));
+
+        assertNotEquals(fingerprint, TaskDefinitionCache.fingerprint(withEntryPoint("-jar", "java")));
+        assertNotEquals("values are quoted", fingerprint, TaskDefinitionCache.fingerprint(withEntryPoint("java\",\"-jar")));
+        RegisterTaskDefinitionRequest otherVolumePath = request("jenkins/inbound-agent")
+                .withVolumes(new Volume().withName("a").withHost(new HostVolumeProperties().withSourcePath("/b")));
+        assertNotEquals(TaskDefinitionCache.fingerprint(request("jenkins/inbound-agent")
+                .withVolumes(new Volume().withName("a").withHost(new HostVolumeProperties().withSourcePath("/a")))), TaskDefinitionCache.fingerprint(otherVolumePath));
+        assertEquals("an empty list is the same as none", TaskDefinitionCache.fingerprint(request("jenkins/inbound-agent")),
+                TaskDefinitionCache.fingerprint(request("jenkins/inbound-agent").withVolumes(new ArrayList<>())));
+    }
+
+    @Test
+    public void changed_template_misses_and_hits_are_counted() {
+        TaskDefinitionCache cache = new TaskDefinitionCache(60_000);
+        String fingerprint = TaskDefinitionCache.fingerprint(request("jenkins/inbound-agent"));
+
+        assertNull(cache.get("cloud-template", fingerprint));
+        cache.put("cloud-template", fingerprint, new TaskDefinition().withTaskDefinitionArn("arn:1"));
+        assertEquals("arn:1", cache.get("cloud-template", fingerprint).getTaskDefinition().getTaskDefinitionArn());
+        assertNull(cache.get("cloud-template", TaskDefinitionCache.fingerprint(request("jenkins/inbound-agent:jdk21"))));
+
+        TaskDefinitionCache.Stats stats = cache.getStats("cloud-template");
+        assertEquals(1, stats.getHits());
+        assertEquals(2, stats.getMisses());
+        assertEquals(33, stats.getHitRate());
+    }
+
+    @Test
+    public void entries_are_invalidated_by_arn() {
+        TaskDefinitionCache cache = new TaskDefinitionCache(60_000);
+        cache.put("a", "f1", new TaskDefinition().withTaskDefinitionArn("arn:1"));
+        cache.put("b", "f2", new TaskDefinition().withTaskDefinitionArn("arn:2"));
+
+        cache.invalidateArn("arn:1");
+
+        assertNull(cache.get("a", "f1"));
+        assertNotNull(cache.get("b", "f2"));
+    }
+
+    @Test
+    public void stale_entries_are_served_and_refreshed_once() {
+        TaskDefinitionCache cache = new TaskDefinitionCache(0);
+        cache.put("a", "f1", new TaskDefinition().withTaskDefinitionArn("arn:1"));
+
+        TaskDefinitionCache.Entry entry = cache.get("a", "f1");
+        assertNotNull(entry);
+        assertTrue(entry.startRefresh());
+        assertFalse(entry.startRefresh());
+        entry.refreshFailed();
+        assertTrue(entry.startRefresh());
+    }
+
+    @Test
+    public void concurrent_lookups_share_one_flight() {
+        TaskDefinitionCache cache = new TaskDefinitionCache(60_000);
+        AtomicInteger loads = new AtomicInteger();
+        CompletableFuture<TaskDefinition> lookup = new CompletableFuture<>();
+
+        CompletableFuture<TaskDefinition> first = cache.singleFlight("a", "f1", () -> {
+            loads.incrementAndGet();
+            return lookup;
+        });
+        CompletableFuture<TaskDefinition> second = cache.singleFlight("a", "f1", () -> {
+            loads.incrementAndGet();
+            return lookup;
+        });
+        second.cancel(false);
+        lookup.complete(new TaskDefinition().withTaskDefinitionArn("arn:1"));
+
+        assertEquals(1, loads.get());
+        assertEquals("arn:1", first.join().getTaskDefinitionArn());
+        assertEquals(1, cache.getStats("a").getCollapsed());
+
+        cache.singleFlight("a", "f1", () -> {
+            loads.incrementAndGet();
+            return CompletableFuture.completedFuture(new TaskDefinition());
+        });
+        assertEquals("the flight ends with its lookup", 2, loads.get());
+    }
+
+    private static RegisterTaskDefinitionRequest withEntryPoint(String... entryPoint) {
+        RegisterTaskDefinitionRequest request = request("jenkins/inbound-agent");
+        request.getContainerDefinitions().get(0).withEntryPoint(entryPoint);
+        return request;
+    }
+
+    private static RegisterTaskDefinitionRequest request(String image) {
+        return new RegisterTaskDefinitionRequest()
+                .withFamily("cloud-template")
+                .withContainerDefinitions(new ContainerDefinition().withName("cloud-template").withImage(image).withCpu(1024));
+    }
+}
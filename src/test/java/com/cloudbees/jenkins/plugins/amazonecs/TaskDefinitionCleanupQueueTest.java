@@ -0,0 +1,104 @@
+package com.cloudbees.jenkins.plugins.amazonecs;
+
+import java.util.concurrent.TimeUnit;
+
+import com.amazonaws.services.ecs.model.InvalidParameterException;
+import com.amazonaws.services.ecs.model.ServerException;
+import org.junit.Rule;
+import org.junit.Test;
+import org.jvnet.hudson.test.JenkinsRule;
+
+import static org.junit.Assert.assertEquals;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class TaskDefinitionCleanupQueueTest {
+
+    @Rule
+    public JenkinsRule j = new JenkinsRule();
+
+    @Test
+    public void deregisters_queued_task_definitions() {
+        ECSService ecsService = mock(ECSService.class);
+        j.jenkins.clouds.add(new ECSCloud("mycloud", "mycluster", ecsService));
+        TaskDefinitionCleanupQueue queue = TaskDefinitionCleanupQueue.get();
+
+        queue.add("mycloud", "arn:td:1");
+        queue.add("mycloud", "arn:td:2");
+        queue.drain();
+
+        verify(ecsService).deregisterTaskDefinition("arn:td:1");
+        verify(ecsService).deregisterTaskDefinition("arn:td:2");
+        assertEquals(0, queue.size());
+    }
+
+    @Test
+    public void failed_deregistrations_are_kept_across_restarts() {
+        ECSService ecsService = mock(ECSService.class);
+        doThrow(new ServerException("unavailable")).when(ecsService).deregisterTaskDefinition("arn:td:1");
+        doThrow(new InvalidParameterException("gone")).when(ecsService).deregisterTaskDefinition("arn:td:2");
+        j.jenkins.clouds.add(new ECSCloud("mycloud", "mycluster", ecsService));
+        TaskDefinitionCleanupQueue queue = TaskDefinitionCleanupQueue.get();
+
+        queue.add("mycloud", "arn:td:1");
+        queue.add("mycloud", "arn:td:2");
+        queue.add("removedcloud", "arn:td:3");
+        queue.drain();
+        assertEquals(1, queue.size());
+
+        // not due again before the retry delay
+        queue.drain();
+        verify(ecsService, times(1)).deregisterTaskDefinition("arn:td:1");
+
+        assertEquals(1, new TaskDefinitionCleanupQueue().size());
+    }
+
+    @Test
+    public void shared_task_definitions_are_queued_after_the_last_release() {
+        ECSService ecsService = mock(ECSService.class);
+        j.jenkins.clouds.add(new ECSCloud("mycloud", "mycluster", ecsService));
+        TaskDefinitionCleanupQueue queue = TaskDefinitionCleanupQueue.get();
+
+        queue.retain("arn:td:shared");
+        queue.retain("arn:td:shared");
+        queue.release("mycloud", "arn:td:shared", 0);
+        assertEquals(0, queue.size());
+        assertEquals(1, queue.getReferences("arn:td:shared"));
+
+        queue.release("mycloud", "arn:td:shared", TimeUnit.HOURS.toMillis(1));
+        assertEquals(1, queue.size());
+        queue.drain();
+        verify(ecsService, never()).deregisterTaskDefinition("arn:td:shared");
+
+        // the next build picks it up again during the grace period
+        queue.retain("arn:td:shared");
+        assertEquals(0, queue.size());
+    }
+
+    @Test
+    public void removing_a_dynamic_template_queues_its_task_definition() {
+        ECSService ecsService = mock(ECSService.class);
+        ECSCloud cloud = new ECSCloud("mycloud", "mycluster", ecsService);
+        ECSTaskTemplate template = mock(ECSTaskTemplate.class);
+        when(ecsService.getDynamicTaskDefinitionToRelease(template)).thenReturn("arn:td:dynamic");
+
+        cloud.removeDynamicTemplate(template);
+
+        assertEquals(1, TaskDefinitionCleanupQueue.get().size());
+    }
+
+    @Test
+    public void released_task_definitions_are_saved_in_the_background() throws Exception {
+        TaskDefinitionCleanupQueue queue = TaskDefinitionCleanupQueue.get();
+
+        queue.retain("arn:td:1");
+        queue.release("mycloud", "arn:td:1", TimeUnit.HOURS.toMillis(1));
+        queue.scheduleSave().get(10, TimeUnit.SECONDS);
+
+        assertEquals(1, new TaskDefinitionCleanupQueue().size());
+    }
+}
@@ -0,0 +1,134 @@
+package com.cloudbees.jenkins.plugins.amazonecs;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Set;
+
+import com.amazonaws.services.ecs.model.Tag;
+import com.amazonaws.services.ecs.model.TaskDefinitionStatus;
+import com.cloudbees.jenkins.plugins.amazonecs.pipeline.TaskTemplateMap;
+import org.junit.Rule;
+import org.junit.Test;
+import org.jvnet.hudson.test.JenkinsRule;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class TaskDefinitionCollectorTest {
+
+    @Rule
+    public JenkinsRule j = new JenkinsRule();
+
+    @Test
+    public void keeps_newest_and_used_revisions() {
+        ECSService ecsService = family("gc-keep");
+
+        TaskDefinitionCollector.Report report = TaskDefinitionCollector.collect(ecsService, "gc-keep", 2, false,
+                Collections.singleton(arn("gc-keep", 2)), 100);
+
+        verify(ecsService).deregisterTaskDefinition(arn("gc-keep", 3));
+        verify(ecsService, never()).deregisterTaskDefinition(arn("gc-keep", 2));
+        verify(ecsService).deleteTaskDefinitions(Arrays.asList(arn("gc-keep", 1), arn("gc-keep", 3)));
+        assertEquals(3, report.getKept());
+        assertEquals(1, report.getDeregistered());
+        assertEquals(2, report.getDeleted());
+        assertFalse(report.isIncomplete());
+    }
+
+    @Test
+    public void dry_run_changes_nothing() {
+        ECSService ecsService = family("gc-dry");
+
+        TaskDefinitionCollector.Report report = TaskDefinitionCollector.collect(ecsService, "gc-dry", 2, true,
+                Collections.emptySet(), 100);
+
+        verify(ecsService, never()).deregisterTaskDefinition(anyString());
+        verify(ecsService, never()).deleteTaskDefinitions(anyList());
+        assertEquals(2, report.getDeregistered());
+        assertEquals(3, report.getDeleted());
+    }
+
+    @Test
+    public void families_not_registered_by_jenkins_are_skipped() {
+        ECSService ecsService = family("gc-foreign");
+        when(ecsService.getTaskDefinitionRevisionTags(arn("gc-foreign", 5))).thenReturn(Collections.emptyList());
+
+        TaskDefinitionCollector.Report report = TaskDefinitionCollector.collect(ecsService, "gc-foreign", 1, false,
+                Collections.emptySet(), 100);
+
+        verify(ecsService, never()).deregisterTaskDefinition(anyString());
+        assertEquals(0, report.getFamilies());
+    }
+
+    @Test
+    public void run_out_of_budget_continues_next_time() {
+        ECSService ecsService = family("gc-budget");
+
+        TaskDefinitionCollector.Report first = TaskDefinitionCollector.collect(ecsService, "gc-budget", 1, true,
+                Collections.emptySet(), 2);
+        assertEquals(2, first.getDeregistered());
+        assertEquals(0, first.getDeleted());
+
+        when(ecsService.listTaskDefinitionFamilies(anyString())).thenReturn(Arrays.asList("gc-budget-template", "gc-budget-template2"));
+        TaskDefinitionCollector.Report second = TaskDefinitionCollector.collect(ecsService, "gc-budget", 1, true,
+                Collections.emptySet(), 1);
+        assertTrue(second.isIncomplete());
+    }
+
+    @Test
+    public void families_of_other_clouds_with_the_same_prefix_are_skipped() {
+        ECSService ecsService = family("gc-other");
+        String family = "gc-other-prod-template";
+        when(ecsService.listTaskDefinitionFamilies("gc-other-")).thenReturn(Collections.singletonList(family));
+        when(ecsService.listTaskDefinitionRevisions(family, TaskDefinitionStatus.ACTIVE)).thenReturn(Arrays.asList(family + ":2", family + ":1"));
+        when(ecsService.listTaskDefinitionRevisions(family, TaskDefinitionStatus.INACTIVE)).thenReturn(Collections.emptyList());
+        // registered by cloud gc-other-prod for its template named template
+        when(ecsService.getTaskDefinitionRevisionTags(family + ":2")).thenReturn(Collections.singletonList(new Tag().withKey("jenkins.templatename").withValue("template")));
+
+        TaskDefinitionCollector.Report report = TaskDefinitionCollector.collect(ecsService, "gc-other", 1, false,
+                Collections.emptySet(), 100);
+
+        verify(ecsService, never()).deregisterTaskDefinition(anyString());
+        assertEquals(0, report.getFamilies());
+    }
+
+    @Test
+    public void task_definitions_of_dynamic_templates_are_in_use() {
+        TaskDefinitionCleanupQueue.get().retain("arn:shared");
+        ECSCloud cloud = new ECSCloud("gc-dynamic", "mycluster", mock(ECSService.class));
+        j.jenkins.clouds.add(cloud);
+        ECSTaskTemplate template = mock(ECSTaskTemplate.class);
+        when(template.getTemplateName()).thenReturn("dynamic");
+        when(template.getDynamicTaskDefinition()).thenReturn("arn:dynamic");
+        TaskTemplateMap.get().addTemplate(cloud, template);
+
+        Set<String> inUse = TaskDefinitionCollector.taskDefinitionsInUse();
+        assertTrue(inUse.contains("arn:shared"));
+        assertTrue(inUse.contains("arn:dynamic"));
+    }
+
+    /**
+     * The family of template "template" of the cloud, with active revisions 5 to 2 and inactive revision 1.
+     */
+    private static ECSService family(String cloudName) {
+        ECSService ecsService = mock(ECSService.class);
+        String family = cloudName + "-template";
+        when(ecsService.listTaskDefinitionFamilies(cloudName + '-')).thenReturn(Collections.singletonList(family));
+        when(ecsService.listTaskDefinitionRevisions(family, TaskDefinitionStatus.ACTIVE)).thenReturn(Arrays.asList(arn(cloudName, 5), arn(cloudName, 4), arn(cloudName, 3), arn(cloudName, 2)));
+        when(ecsService.listTaskDefinitionRevisions(family, TaskDefinitionStatus.INACTIVE)).thenReturn(Collections.singletonList(arn(cloudName, 1)));
+        when(ecsService.getTaskDefinitionRevisionTags(arn(cloudName, 5))).thenReturn(Collections.singletonList(new Tag().withKey("jenkins.templatename").withValue("template")));
+        when(ecsService.deleteTaskDefinitions(anyList())).thenReturn(Collections.emptyList());
+        return ecsService;
+    }
+
+    private static String arn(String cloudName, int revision) {
+        return "arn:aws:ecs:eu-west-1:123456789012:task-definition/" + cloudName + "-template:" + revision;
+    }
+}
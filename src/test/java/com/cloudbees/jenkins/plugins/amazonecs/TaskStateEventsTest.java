@@ -0,0 +1,80 @@
+package com.cloudbees.jenkins.plugins.amazonecs;
+
+import java.util.Collections;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import com.amazonaws.services.ecs.AmazonECS;
+import com.amazonaws.services.ecs.model.DescribeTasksRequest;
+import com.amazonaws.services.ecs.model.DescribeTasksResult;
+import com.amazonaws.services.ecs.model.Task;
+import com.amazonaws.services.sqs.AmazonSQS;
+import com.amazonaws.services.sqs.model.Message;
+import com.amazonaws.services.sqs.model.ReceiveMessageRequest;
+import com.amazonaws.services.sqs.model.ReceiveMessageResult;
+import com.cloudbees.jenkins.plugins.amazonecs.aws.SQSService;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class TaskStateEventsTest {
+
+    private static String event(String clusterArn, String taskArn, String lastStatus) {
+        return "{\"version\":\"0\",\"detail-type\":\"ECS Task State Change\",\"source\":\"aws.ecs\",\"detail\":{"
+                + "\"clusterArn\":\"" + clusterArn + "\",\"taskArn\":\"" + taskArn + "\",\"lastStatus\":\"" + lastStatus + "\","
+                + "\"desiredStatus\":\"RUNNING\",\"stoppedReason\":null}}";
+    }
+
+    @Test
+    public void task_state_change_is_parsed() {
+        Task task = TaskStateEvents.parseEvent(event("arn:aws:ecs:cluster/a", "arn:aws:ecs:task/a/1", "RUNNING"));
+
+        assertEquals("arn:aws:ecs:cluster/a", task.getClusterArn());
+        assertEquals("arn:aws:ecs:task/a/1", task.getTaskArn());
+        assertEquals("RUNNING", task.getLastStatus());
+        assertNull(task.getStoppedReason());
+        assertNull(TaskStateEvents.parseEvent("{\"detail-type\":\"ECS Container Instance State Change\",\"detail\":{}}"));
+        assertNull(TaskStateEvents.parseEvent("not json"));
+    }
+
+    @Test
+    public void event_completes_watched_task() throws Exception {
+        AmazonECS client = mock(AmazonECS.class);
+        when(client.describeTasks(any(DescribeTasksRequest.class))).thenAnswer(invocation -> {
+            DescribeTasksRequest request = invocation.getArgument(0);
+            return new DescribeTasksResult().withTasks(new Task().withTaskArn(request.getTasks().get(0)).withLastStatus("PENDING"));
+        });
+        TaskStatePoller poller = new TaskStatePoller(new DescribeTasksBatcher(() -> client, 0), "arn:aws:ecs:cluster/b");
+        TaskStateEvents.register("arn:aws:ecs:cluster/b", poller);
+        CompletableFuture<Task> future = poller.watch("arn:aws:ecs:task/b/1", 1);
+
+        assertFalse(TaskStateEvents.isLive("arn:aws:ecs:cluster/b"));
+        new LocalTaskStateEventSource().publish(event("arn:aws:ecs:cluster/b", "arn:aws:ecs:task/b/1", "RUNNING"));
+
+        assertTrue(TaskStateEvents.isLive("arn:aws:ecs:cluster/b"));
+        assertEquals("RUNNING", future.get(1, TimeUnit.SECONDS).getLastStatus());
+        assertEquals(0, poller.getPendingCount());
+    }
+
+    @Test
+    public void only_received_events_count_as_heartbeat() {
+        AmazonSQS client = mock(AmazonSQS.class);
+        when(client.receiveMessage(any(ReceiveMessageRequest.class))).thenReturn(
+                new ReceiveMessageResult(),
+                new ReceiveMessageResult().withMessages(new Message().withReceiptHandle("1").withBody(event("arn:aws:ecs:cluster/c", "arn:aws:ecs:task/c/1", "RUNNING"))));
+        SQSTaskStateEventSource.Consumer consumer = new SQSTaskStateEventSource.Consumer(new SQSService(client, "https://sqs/queue"), "https://sqs/queue");
+        consumer.clusterArns = Collections.singleton("arn:aws:ecs:cluster/c");
+
+        consumer.poll();
+        assertFalse("an empty queue does not prove that events are delivered", TaskStateEvents.isLive("arn:aws:ecs:cluster/c"));
+
+        consumer.poll();
+        assertTrue(TaskStateEvents.isLive("arn:aws:ecs:cluster/c"));
+    }
+}
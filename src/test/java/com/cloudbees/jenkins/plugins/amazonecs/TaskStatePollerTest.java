@@ -0,0 +1,53 @@
+package com.cloudbees.jenkins.plugins.amazonecs;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+import com.amazonaws.services.ecs.AmazonECS;
+import com.amazonaws.services.ecs.model.DescribeTasksRequest;
+import com.amazonaws.services.ecs.model.DescribeTasksResult;
+import com.amazonaws.services.ecs.model.Task;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class TaskStatePollerTest {
+
+    @Test
+    public void running_and_stopped_tasks_complete_their_futures() throws Exception {
+        AmazonECS client = mock(AmazonECS.class);
+        when(client.describeTasks(any(DescribeTasksRequest.class))).thenAnswer(invocation -> {
+            DescribeTasksRequest request = invocation.getArgument(0);
+            return new DescribeTasksResult().withTasks(request.getTasks().stream()
+                    .map(arn -> new Task().withTaskArn(arn).withLastStatus(arn.endsWith("stopped") ? "STOPPED" : "RUNNING"))
+                    .collect(Collectors.toList()));
+        });
+        TaskStatePoller poller = new TaskStatePoller(new DescribeTasksBatcher(() -> client, 0), "cluster");
+
+        CompletableFuture<Task> running = poller.watch("arn:aws:ecs:task/running", 1);
+        CompletableFuture<Task> stopped = poller.watch("arn:aws:ecs:task/stopped", 1);
+
+        assertEquals("RUNNING", running.get(10, TimeUnit.SECONDS).getLastStatus());
+        assertEquals("STOPPED", stopped.get(10, TimeUnit.SECONDS).getLastStatus());
+        assertEquals(0, poller.getPendingCount());
+    }
+
+    @Test
+    public void task_reported_missing_completes_with_null() throws Exception {
+        AmazonECS client = mock(AmazonECS.class);
+        when(client.describeTasks(any(DescribeTasksRequest.class))).thenReturn(new DescribeTasksResult());
+        TaskStatePoller poller = new TaskStatePoller(new DescribeTasksBatcher(() -> client, 0), "cluster");
+
+        CompletableFuture<Task> future = poller.watch("arn:aws:ecs:task/missing", 1);
+
+        assertNull(future.get(30, TimeUnit.SECONDS));
+        verify(client, times(TaskStatePoller.MAX_MISSING_POLLS)).describeTasks(any(DescribeTasksRequest.class));
+    }
+}
@@ -0,0 +1,62 @@
+package com.cloudbees.jenkins.plugins.amazonecs.aws;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+public class AWSClientRegistryTest {
+
+    @Test
+    public void same_key_returns_shared_client() {
+        AWSClientRegistry registry = new AWSClientRegistry();
+        AtomicInteger built = new AtomicInteger();
+        AWSClientRegistry.ClientKey key = new AWSClientRegistry.ClientKey("ecs", "creds", null, "eu-west-1", null);
+
+        Object first = registry.getClient(key, () -> "client-" + built.incrementAndGet(), c -> {});
+        Object second = registry.getClient(new AWSClientRegistry.ClientKey("ecs", "creds", null, "eu-west-1", null), () -> "client-" + built.incrementAndGet(), c -> {});
+
+        assertSame(first, second);
+        assertEquals(1, built.get());
+    }
+
+    @Test
+    public void different_settings_get_different_clients() {
+        AWSClientRegistry registry = new AWSClientRegistry();
+        Object ecs = registry.getClient(new AWSClientRegistry.ClientKey("ecs", "creds", null, "eu-west-1", null), Object::new, c -> {});
+        Object otherRegion = registry.getClient(new AWSClientRegistry.ClientKey("ecs", "creds", null, "us-east-1", null), Object::new, c -> {});
+        Object otherProxy = registry.getClient(new AWSClientRegistry.ClientKey("ecs", "creds", null, "eu-west-1", "proxy"), Object::new, c -> {});
+        Object otherTransport = registry.getClient(new AWSClientRegistry.ClientKey("ecs", "creds", null, "eu-west-1", null,
+                new TransportSettings(500, 60_000, 60_000, 50_000, 0, true)), Object::new, c -> {});
+
+        assertNotSame(ecs, otherRegion);
+        assertNotSame(ecs, otherProxy);
+        assertNotSame(ecs, otherTransport);
+        assertEquals(4, registry.size());
+    }
+
+    @Test
+    public void invalidated_client_is_rebuilt() {
+        AWSClientRegistry registry = new AWSClientRegistry();
+        AWSClientRegistry.ClientKey key = new AWSClientRegistry.ClientKey("ecs", "creds", "role", "eu-west-1", null);
+
+        Object first = registry.getClient(key, Object::new, c -> {});
+        registry.invalidate(key);
+        Object second = registry.getClient(key, Object::new, c -> {});
+
+        assertNotSame(first, second);
+    }
+
+    @Test
+    public void idle_clients_expire() {
+        AWSClientRegistry registry = new AWSClientRegistry();
+        registry.getClient(new AWSClientRegistry.ClientKey("efs", null, null, "eu-west-1", null), Object::new, c -> {});
+
+        registry.expireIdle(System.currentTimeMillis() + AWSClientRegistry.IDLE_EXPIRY_MILLIS + 1);
+
+        assertEquals(0, registry.size());
+    }
+}
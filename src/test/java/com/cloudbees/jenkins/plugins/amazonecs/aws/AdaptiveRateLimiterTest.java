@@ -0,0 +1,41 @@
+package com.cloudbees.jenkins.plugins.amazonecs.aws;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class AdaptiveRateLimiterTest {
+
+    @Test
+    public void burst_is_served_without_waiting() {
+        AdaptiveRateLimiter limiter = new AdaptiveRateLimiter(10, 5);
+
+        for (int i = 0; i < 5; i++) {
+            assertEquals(0, limiter.reserve());
+        }
+        long wait = limiter.reserve();
+        assertTrue("expected to wait about 100ms but was " + wait, wait > 50_000_000L && wait <= 100_000_000L);
+    }
+
+    @Test
+    public void throttling_halves_rate_and_success_recovers_it() {
+        AdaptiveRateLimiter limiter = new AdaptiveRateLimiter(10, 5);
+
+        limiter.onThrottled();
+        limiter.onThrottled();
+        assertEquals(2.5, limiter.getRate(), 0.001);
+
+        for (int i = 0; i < 100; i++) {
+            limiter.onSuccess();
+        }
+        assertEquals(10, limiter.getRate(), 0.001);
+    }
+
+    @Test
+    public void limiters_are_shared_per_scope_and_action() {
+        assertTrue(RateLimitingRequestHandler.limiter("a@eu-west-1", "RunTask") == RateLimitingRequestHandler.limiter("a@eu-west-1", "RunTask"));
+        assertTrue(RateLimitingRequestHandler.limiter("a@eu-west-1", "RunTask") != RateLimitingRequestHandler.limiter("a@eu-west-1", "StopTask"));
+        assertTrue(RateLimitingRequestHandler.limiter("a@eu-west-1", "RunTask") != RateLimitingRequestHandler.limiter("b@eu-west-1", "RunTask"));
+    }
+}
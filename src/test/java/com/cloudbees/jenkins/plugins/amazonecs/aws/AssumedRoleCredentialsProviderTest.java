@@ -0,0 +1,138 @@
+package com.cloudbees.jenkins.plugins.amazonecs.aws;
+
+import java.util.Date;
+import java.util.concurrent.TimeUnit;
+
+import com.amazonaws.auth.AWSCredentials;
+import com.amazonaws.services.securitytoken.AWSSecurityTokenService;
+import com.amazonaws.services.securitytoken.model.AssumeRoleRequest;
+import com.amazonaws.services.securitytoken.model.AssumeRoleResult;
+import com.amazonaws.services.securitytoken.model.AWSSecurityTokenServiceException;
+import com.amazonaws.services.securitytoken.model.Credentials;
+import org.junit.After;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class AssumedRoleCredentialsProviderTest {
+
+    private static final String ROLE = "arn:aws:iam::123456789012:role/jenkins";
+
+    @After
+    public void tearDown() {
+        AssumedRoleCredentialsProvider.invalidateAll();
+    }
+
+    @Test
+    public void fresh_session_is_reused_without_calling_sts() {
+        AWSSecurityTokenService sts = sts(TimeUnit.HOURS.toMillis(1));
+        AssumedRoleCredentialsProvider provider = new AssumedRoleCredentialsProvider(ROLE, sts);
+
+        AWSCredentials first = provider.getCredentials();
+        AWSCredentials second = provider.getCredentials();
+
+        assertSame(first, second);
+        assertEquals(1, provider.getRefreshCount());
+        verify(sts, times(1)).assumeRole(any(AssumeRoleRequest.class));
+    }
+
+    @Test
+    public void expiring_session_is_refreshed_synchronously() {
+        AWSSecurityTokenService sts = sts(AssumedRoleCredentialsProvider.EXPIRY_SKEW_MILLIS / 2);
+        AssumedRoleCredentialsProvider provider = new AssumedRoleCredentialsProvider(ROLE, sts);
+
+        provider.getCredentials();
+        provider.getCredentials();
+
+        assertEquals(2, provider.getRefreshCount());
+    }
+
+    @Test
+    public void session_is_refreshed_before_it_expires() {
+        long now = System.currentTimeMillis();
+        long expiration = now + TimeUnit.HOURS.toMillis(1);
+
+        assertEquals(expiration - AssumedRoleCredentialsProvider.REFRESH_BEFORE_EXPIRY_MILLIS - now,
+                AssumedRoleCredentialsProvider.getRefreshDelay(expiration, now));
+        assertEquals("short sessions are not refreshed in a busy loop", TimeUnit.MINUTES.toMillis(1),
+                AssumedRoleCredentialsProvider.getRefreshDelay(now + TimeUnit.MINUTES.toMillis(2), now));
+
+        AWSSecurityTokenService sts = sts(TimeUnit.HOURS.toMillis(1));
+        AssumedRoleCredentialsProvider provider = new AssumedRoleCredentialsProvider(ROLE, sts);
+        AWSCredentials first = provider.getCredentials();
+        provider.refreshInBackground();
+
+        assertEquals(2, provider.getRefreshCount());
+        assertNotSame(first, provider.getCredentials());
+    }
+
+    @Test
+    public void failed_background_refresh_keeps_the_current_session() {
+        AWSSecurityTokenService sts = sts(TimeUnit.HOURS.toMillis(1));
+        AssumedRoleCredentialsProvider provider = new AssumedRoleCredentialsProvider(ROLE, sts);
+        AWSCredentials first = provider.getCredentials();
+
+        when(sts.assumeRole(any(AssumeRoleRequest.class))).thenThrow(new AWSSecurityTokenServiceException("Throttling"));
+        provider.refreshInBackground();
+
+        assertSame(first, provider.getCredentials());
+    }
+
+    @Test
+    public void failed_background_refresh_is_retried_shortly() {
+        AWSSecurityTokenService sts = sts(TimeUnit.HOURS.toMillis(1));
+        AssumedRoleCredentialsProvider provider = new AssumedRoleCredentialsProvider(ROLE, sts);
+        provider.getCredentials();
+        assertTrue(provider.getScheduledRefreshDelay() > AssumedRoleCredentialsProvider.RETRY_DELAY_MILLIS);
+
+        when(sts.assumeRole(any(AssumeRoleRequest.class))).thenThrow(new AWSSecurityTokenServiceException("Throttling"));
+        provider.refreshInBackground();
+
+        long delay = provider.getScheduledRefreshDelay();
+        assertTrue("retry scheduled in " + delay + "ms", delay >= 0 && delay <= AssumedRoleCredentialsProvider.RETRY_DELAY_MILLIS);
+    }
+
+    @Test
+    public void provider_is_shared_by_clients_with_the_same_settings() {
+        AWSClientRegistry.ClientKey key = new AWSClientRegistry.ClientKey("sts", null, ROLE, "eu-west-1", null, TransportSettings.DEFAULT);
+        AWSSecurityTokenService sts = mock(AWSSecurityTokenService.class);
+
+        AssumedRoleCredentialsProvider provider = AssumedRoleCredentialsProvider.forKey(key, ROLE, () -> sts);
+
+        assertSame(provider, AssumedRoleCredentialsProvider.forKey(
+                new AWSClientRegistry.ClientKey("sts", null, ROLE, "eu-west-1", null, TransportSettings.DEFAULT), ROLE, () -> sts));
+        assertNotSame("other proxy", provider, AssumedRoleCredentialsProvider.forKey(
+                new AWSClientRegistry.ClientKey("sts", null, ROLE, "eu-west-1", "proxy", TransportSettings.DEFAULT), ROLE, () -> sts));
+        assertNotSame("other transport settings", provider, AssumedRoleCredentialsProvider.forKey(
+                new AWSClientRegistry.ClientKey("sts", null, ROLE, "eu-west-1", null, new TransportSettings(500, 60_000, 60_000, 50_000, 0, true)),
+                ROLE, () -> sts));
+    }
+
+    @Test
+    public void provider_is_rebuilt_once_invalidated() {
+        AWSClientRegistry.ClientKey key = new AWSClientRegistry.ClientKey("sts", null, ROLE, "eu-west-1", null, TransportSettings.DEFAULT);
+
+        AssumedRoleCredentialsProvider first = AssumedRoleCredentialsProvider.forKey(key, ROLE, () -> mock(AWSSecurityTokenService.class));
+        AssumedRoleCredentialsProvider.invalidateAll();
+
+        assertNotSame(first, AssumedRoleCredentialsProvider.forKey(key, ROLE, () -> mock(AWSSecurityTokenService.class)));
+    }
+
+    private static AWSSecurityTokenService sts(long sessionMillis) {
+        AWSSecurityTokenService sts = mock(AWSSecurityTokenService.class);
+        when(sts.assumeRole(any(AssumeRoleRequest.class))).thenAnswer(invocation -> new AssumeRoleResult().withCredentials(new Credentials()
+                .withAccessKeyId("AKIA")
+                .withSecretAccessKey("secret")
+                .withSessionToken("token")
+                .withExpiration(new Date(System.currentTimeMillis() + sessionMillis))));
+        return sts;
+    }
+}
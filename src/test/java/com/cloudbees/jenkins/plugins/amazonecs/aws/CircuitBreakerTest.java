@@ -0,0 +1,90 @@
+package com.cloudbees.jenkins.plugins.amazonecs.aws;
+
+import com.amazonaws.AmazonServiceException;
+import com.amazonaws.SdkClientException;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class CircuitBreakerTest {
+
+    @Test
+    public void opens_after_failure_rate_and_fails_fast() {
+        CircuitBreaker breaker = new CircuitBreaker("test", 50, 60_000);
+
+        for (int i = 0; i < CircuitBreaker.FAILURE_RATE_MIN_CALLS / 2; i++) {
+            breaker.acquire();
+            breaker.onSuccess();
+            breaker.acquire();
+            breaker.onFailure(serverError());
+        }
+
+        assertTrue(breaker.isOpen());
+        try {
+            breaker.acquire();
+            fail("expected the call to be rejected");
+        } catch (CircuitBreakerOpenException e) {
+            assertFalse(e.isRetryable());
+        }
+    }
+
+    @Test
+    public void client_errors_do_not_open() {
+        CircuitBreaker breaker = new CircuitBreaker("test", 50, 60_000);
+        AmazonServiceException invalid = new AmazonServiceException("Invalid parameter");
+        invalid.setErrorType(AmazonServiceException.ErrorType.Client);
+
+        for (int i = 0; i < CircuitBreaker.WINDOW_SIZE; i++) {
+            breaker.acquire();
+            breaker.onFailure(invalid);
+        }
+
+        assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+    }
+
+    @Test
+    public void half_open_probes_close_or_reopen() {
+        CircuitBreaker breaker = new CircuitBreaker("test", 50, 0);
+        for (int i = 0; i < CircuitBreaker.FAILURE_RATE_MIN_CALLS; i++) {
+            breaker.acquire();
+            breaker.onFailure(new SdkClientException("Connection refused"));
+        }
+        assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+
+        breaker.acquire();
+        assertEquals(CircuitBreaker.State.HALF_OPEN, breaker.getState());
+        breaker.onFailure(serverError());
+        assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+
+        for (int i = 0; i < CircuitBreaker.PROBE_CALLS; i++) {
+            breaker.acquire();
+        }
+        try {
+            breaker.acquire();
+            fail("only the probes should be let through");
+        } catch (CircuitBreakerOpenException expected) {
+        }
+        for (int i = 0; i < CircuitBreaker.PROBE_CALLS; i++) {
+            breaker.onSuccess();
+        }
+        assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+    }
+
+    @Test
+    public void disabled_never_opens() {
+        for (int i = 0; i < CircuitBreaker.WINDOW_SIZE; i++) {
+            CircuitBreaker.DISABLED.acquire();
+            CircuitBreaker.DISABLED.onFailure(serverError());
+        }
+        assertFalse(CircuitBreaker.DISABLED.isOpen());
+    }
+
+    private static AmazonServiceException serverError() {
+        AmazonServiceException e = new AmazonServiceException("Internal failure");
+        e.setErrorType(AmazonServiceException.ErrorType.Service);
+        return e;
+    }
+}
@@ -0,0 +1,39 @@
+package com.cloudbees.jenkins.plugins.amazonecs.aws;
+
+import com.amazonaws.DefaultRequest;
+import com.amazonaws.services.ecs.model.RunTaskRequest;
+import com.amazonaws.util.AWSRequestMetrics;
+import com.amazonaws.util.AWSRequestMetricsFullSupport;
+import com.cloudbees.jenkins.plugins.amazonecs.ECSMetrics;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+public class ConnectionPoolMetricCollectorTest {
+
+    @Test
+    public void pool_gauges_are_kept_per_cloud() {
+        ConnectionPoolMetricCollector collector = new ConnectionPoolMetricCollector("ecs");
+
+        collector.collectMetrics(request("cloud-a", 40), null);
+        collector.collectMetrics(request("cloud-b", 3), null);
+        collector.collectMetrics(request(null, 7), null);
+
+        assertEquals(40, ECSMetrics.getGauge("cloud.cloud-a.aws.http.ecs.leased"));
+        assertEquals(40, ECSMetrics.getGauge("cloud.cloud-a.aws.http.ecs.leased.max"));
+        assertEquals(3, ECSMetrics.getGauge("cloud.cloud-b.aws.http.ecs.leased"));
+        assertEquals(7, ECSMetrics.getGauge("aws.http.ecs.leased"));
+    }
+
+    private static DefaultRequest<RunTaskRequest> request(String cloud, int leased) {
+        RunTaskRequest original = new RunTaskRequest();
+        if (cloud != null) {
+            original.addHandlerContext(RetryTelemetry.CLOUD, cloud);
+        }
+        DefaultRequest<RunTaskRequest> request = new DefaultRequest<>(original, "ecs");
+        AWSRequestMetrics metrics = new AWSRequestMetricsFullSupport();
+        metrics.setCounter(AWSRequestMetrics.Field.HttpClientPoolLeasedCount, leased);
+        request.setAWSRequestMetrics(metrics);
+        return request;
+    }
+}
@@ -0,0 +1,47 @@
+package com.cloudbees.jenkins.plugins.amazonecs.aws;
+
+import java.util.List;
+
+import com.amazonaws.AmazonServiceException;
+import com.amazonaws.services.ecs.model.RunTaskRequest;
+import com.cloudbees.jenkins.plugins.amazonecs.ECSMetrics;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+public class RetryTelemetryTest {
+
+    @Test
+    public void retries_and_throttles_are_counted_per_operation_and_cloud() {
+        RunTaskRequest request = new RunTaskRequest();
+        request.addHandlerContext(RetryTelemetry.CLOUD, "telemetry-cloud");
+        AmazonServiceException throttled = new AmazonServiceException("Rate exceeded");
+        throttled.setErrorCode("ThrottlingException");
+        long before = ECSMetrics.getCount("aws.ecs.RunTask.throttles");
+
+        RetryTelemetry.onRetry(request, throttled);
+        RetryTelemetry.onRetry(request, new AmazonServiceException("Internal error"));
+        new RetryTelemetry.RecordingBackoffStrategy().delayBeforeNextRetry(request, throttled, 1);
+
+        assertEquals(before + 1, ECSMetrics.getCount("aws.ecs.RunTask.throttles"));
+        List<RetryTelemetry.OperationSummary> summary = RetryTelemetry.summarize("telemetry-cloud");
+        assertEquals(1, summary.size());
+        assertEquals("ecs.RunTask", summary.get(0).getOperation());
+        assertEquals(2, summary.get(0).getRetries());
+        assertEquals(1, summary.get(0).getThrottles());
+        assertEquals(1, summary.get(0).getBackoffMillis().getCount());
+    }
+
+    @Test
+    public void histogram_percentiles_use_bucket_bounds() {
+        for (int i = 1; i <= 100; i++) {
+            ECSMetrics.record("test.histogram", i);
+        }
+        ECSMetrics.Histogram histogram = ECSMetrics.getHistogram("test.histogram");
+
+        assertEquals(100, histogram.getCount());
+        assertEquals(50, histogram.getP50());
+        assertEquals(100, histogram.getP95());
+        assertEquals(100, histogram.getMax());
+    }
+}
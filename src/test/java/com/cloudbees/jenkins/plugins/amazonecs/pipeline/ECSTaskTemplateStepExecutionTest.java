@@ -3,6 +3,7 @@ package com.cloudbees.jenkins.plugins.amazonecs.pipeline;
 import com.cloudbees.jenkins.plugins.amazonecs.ECSCloud;
 import com.cloudbees.jenkins.plugins.amazonecs.ECSTaskTemplate;
 import com.cloudbees.jenkins.plugins.amazonecs.SerializableSupplier;
+import hudson.AbortException;
 import jenkins.model.Jenkins;
 import org.jenkinsci.plugins.workflow.steps.BodyExecutionCallback;
 import org.jenkinsci.plugins.workflow.steps.BodyInvoker;
@@ -13,6 +14,8 @@ import org.junit.Test;
 import org.jvnet.hudson.test.JenkinsRule;
 import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.timeout;
 import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
@@ -148,10 +151,26 @@ public class ECSTaskTemplateStepExecutionTest {
         when(invoker.withContext(step)).thenReturn(invoker);
         executionStep.start();
 
-        verify(cloud,times(1)).addDynamicTemplate(expected);
+        // the template is registered on another thread once its task definition is resolved
+        verify(cloud, timeout(10000).times(1)).addDynamicTemplate(expected);
 
 
 
+    }
+
+    @Test
+    public void resuming_before_the_template_is_registered_fails_the_step() {
+        StepContext context = mock(StepContext.class);
+        ECSCloud cloud = mock(ECSCloud.class);
+        Jenkins.CloudList clouds = new Jenkins.CloudList();
+        clouds.add(cloud);
+        ECSTaskTemplateStepExecution execution = new ECSTaskTemplateStepExecution(new ECSTaskTemplateStep("label", "name"), context,
+                (SerializableSupplier<Jenkins.CloudList>) () -> clouds);
+
+        execution.onResume();
+
+        verify(context).onFailure(any(AbortException.class));
+        verify(cloud, never()).addDynamicTemplate(any());
     }
     private ECSTaskTemplate getTaskTemplate() {
         return getTaskTemplate(UUID.randomUUID().toString(),UUID.randomUUID().toString());